@@ -42,10 +42,13 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Collectors;
 
 import static android.telecom.ParcelableCallAnalytics.AnalyticsEvent;
@@ -613,49 +616,121 @@ public class Analytics {
 
     public static final long MILLIS_IN_1_SECOND = ParcelableCallAnalytics.MILLIS_IN_1_SECOND;
 
+    /**
+     * A fixed-capacity buffer which keeps the most recently added values, overwriting the oldest.
+     * <p>
+     * Adding a value never blocks: each writer claims the next sequence number and stores the
+     * value in its slot along with that number.  A reader takes the values whose slots still hold
+     * the sequence numbers it expects, so a value overwritten or still being stored while it reads
+     * is skipped rather than waited for.  Readers must not run concurrently with each other.
+     */
+    @VisibleForTesting
+    public static final class RingBuffer<T> {
+        private static final class Slot<T> {
+            final long seq;
+            final T value;
+
+            Slot(long seq, T value) {
+                this.seq = seq;
+                this.value = value;
+            }
+        }
+
+        private final AtomicReferenceArray<Slot<T>> mSlots;
+        private final AtomicLong mNextSeq = new AtomicLong();
+        /** Values added before this sequence number have been cleared. */
+        private volatile long mStartSeq;
+
+        public RingBuffer(int capacity) {
+            mSlots = new AtomicReferenceArray<>(capacity);
+        }
+
+        public void add(T value) {
+            long seq = mNextSeq.getAndIncrement();
+            mSlots.set((int) (seq % mSlots.length()), new Slot<>(seq, value));
+        }
+
+        /**
+         * @return The values in the buffer, oldest first.
+         */
+        public List<T> snapshot() {
+            return read(false /* clear */);
+        }
+
+        /**
+         * Takes the values in the buffer, oldest first, and clears them.  Values added while
+         * draining are kept for the next read, as are the values after one which is still being
+         * added.
+         */
+        public List<T> drain() {
+            return read(true /* clear */);
+        }
+
+        public void clear() {
+            mStartSeq = mNextSeq.get();
+        }
+
+        private List<T> read(boolean clear) {
+            long endSeq = mNextSeq.get();
+            long startSeq = Math.max(mStartSeq, endSeq - mSlots.length());
+            List<T> values = new ArrayList<>((int) (endSeq - startSeq));
+            long seq = startSeq;
+            for (; seq < endSeq; seq++) {
+                Slot<T> slot = mSlots.get((int) (seq % mSlots.length()));
+                if (slot == null || slot.seq < seq) {
+                    // The sequence number has been taken, but its value has not been stored yet.
+                    // A drain stops here, so that the value is read by the next one.
+                    if (clear) {
+                        break;
+                    }
+                } else if (slot.seq == seq) {
+                    values.add(slot.value);
+                }
+                // Otherwise the value has already been overwritten by a newer one.
+            }
+            if (clear) {
+                mStartSeq = seq;
+            }
+            return values;
+        }
+    }
+
     public static final int MAX_NUM_CALLS_TO_STORE = 100;
+    public static final int MAX_NUM_SESSION_TIMINGS_TO_STORE = 1000;
     public static final int MAX_NUM_DUMP_TIMES_TO_STORE = 100;
 
-    private static final Object sLock = new Object(); // Coarse lock for all of analytics
+    // Serializes the readers of analytics.  Recording a call or a session timing does not take it,
+    // so it never waits for a dump.
+    private static final Object sLock = new Object();
     private static final LinkedBlockingDeque<Long> sDumpTimes =
             new LinkedBlockingDeque<>(MAX_NUM_DUMP_TIMES_TO_STORE);
-    private static final Map<String, CallInfoImpl> sCallIdToInfo = new HashMap<>();
-    private static final LinkedList<String> sActiveCallIds = new LinkedList<>();
-    private static final List<SessionTiming> sSessionTimings = new LinkedList<>();
+    private static final RingBuffer<CallInfoImpl> sCalls =
+            new RingBuffer<>(MAX_NUM_CALLS_TO_STORE);
+    private static final RingBuffer<SessionTiming> sSessionTimings =
+            new RingBuffer<>(MAX_NUM_SESSION_TIMINGS_TO_STORE);
 
     public static void addSessionTiming(String sessionName, long time) {
-        if (sLogSessionToSessionId.containsKey(sessionName)) {
-            synchronized (sLock) {
-                sSessionTimings.add(new SessionTiming(sLogSessionToSessionId.get(sessionName),
-                        time));
-            }
+        Integer sessionId = sLogSessionToSessionId.get(sessionName);
+        if (sessionId != null) {
+            sSessionTimings.add(new SessionTiming(sessionId, time));
         }
     }
 
     public static CallInfo initiateCallAnalytics(String callId, int direction) {
         Log.i(TAG, "Starting analytics for call " + callId);
         CallInfoImpl callInfo = new CallInfoImpl(callId, direction);
-        synchronized (sLock) {
-            while (sActiveCallIds.size() >= MAX_NUM_CALLS_TO_STORE) {
-                String callToRemove = sActiveCallIds.remove();
-                sCallIdToInfo.remove(callToRemove);
-            }
-            sCallIdToInfo.put(callId, callInfo);
-            sActiveCallIds.add(callId);
-        }
+        sCalls.add(callInfo);
         return callInfo;
     }
 
     public static TelecomAnalytics dumpToParcelableAnalytics() {
-        List<ParcelableCallAnalytics> calls = new LinkedList<>();
-        List<SessionTiming> sessionTimings = new LinkedList<>();
+        List<ParcelableCallAnalytics> calls;
+        List<SessionTiming> sessionTimings;
         synchronized (sLock) {
-            calls.addAll(sCallIdToInfo.values().stream()
+            calls = getCalls(sCalls.drain()).values().stream()
                     .map(CallInfoImpl::toParcelableAnalytics)
-                    .collect(Collectors.toList()));
-            sessionTimings.addAll(sSessionTimings);
-            sCallIdToInfo.clear();
-            sSessionTimings.clear();
+                    .collect(Collectors.toList());
+            sessionTimings = sSessionTimings.drain();
         }
         return new TelecomAnalytics(sessionTimings, calls);
     }
@@ -665,19 +740,22 @@ public class Analytics {
 
         synchronized (sLock) {
             noteDumpTime();
-            result.callLogs = sCallIdToInfo.values().stream()
+            boolean clear = args.length > 1 && CLEAR_ANALYTICS_ARG.equals(args[1]);
+            result.callLogs = getCalls(clear ? sCalls.drain() : sCalls.snapshot()).values()
+                    .stream()
                     .map(CallInfoImpl::toProto)
                     .toArray(TelecomLogClass.CallLog[]::new);
-            result.sessionTimings = sSessionTimings.stream()
+            result.sessionTimings = (clear ? sSessionTimings.drain() : sSessionTimings.snapshot())
+                    .stream()
                     .map(timing -> new TelecomLogClass.LogSessionTiming()
                             .setSessionEntryPoint(timing.getKey())
                             .setTimeMillis(timing.getTime()))
                     .toArray(TelecomLogClass.LogSessionTiming[]::new);
             result.setHardwareRevision(SystemProperties.get("ro.boot.revision", ""));
             result.setCarrierId(getCarrierId(context));
-            if (args.length > 1 && CLEAR_ANALYTICS_ARG.equals(args[1])) {
-                sCallIdToInfo.clear();
-                sSessionTimings.clear();
+            result.lockContention = LockContentionProfiler.toProto();
+            if (clear) {
+                LockContentionProfiler.reset();
             }
         }
         String encodedProto = Base64.encodeToString(
@@ -711,7 +789,8 @@ public class Analytics {
     public static void dump(IndentingPrintWriter writer) {
         synchronized (sLock) {
             int prefixLength = CallsManager.TELECOM_CALL_ID_PREFIX.length();
-            List<String> callIds = new ArrayList<>(sCallIdToInfo.keySet());
+            Map<String, CallInfoImpl> calls = getCalls(sCalls.snapshot());
+            List<String> callIds = new ArrayList<>(calls.keySet());
             // Sort the analytics in increasing order of call IDs
             try {
                 Collections.sort(callIds, (id1, id2) -> {
@@ -735,10 +814,11 @@ public class Analytics {
 
             for (String callId : callIds) {
                 writer.printf("Call %s: ", callId);
-                writer.println(sCallIdToInfo.get(callId).toString());
+                writer.println(calls.get(callId).toString());
             }
 
-            Map<Integer, Double> averageTimings = SessionTiming.averageTimings(sSessionTimings);
+            Map<Integer, Double> averageTimings =
+                    SessionTiming.averageTimings(sSessionTimings.snapshot());
             averageTimings.entrySet().stream()
                     .filter(e -> sSessionIdToLogSession.containsKey(e.getKey()))
                     .forEach(e -> writer.printf("%s: %.2f\n",
@@ -755,7 +835,7 @@ public class Analytics {
 
     public static void reset() {
         synchronized (sLock) {
-            sCallIdToInfo.clear();
+            sCalls.clear();
         }
     }
 
@@ -776,14 +856,27 @@ public class Analytics {
     @VisibleForTesting
     public static Map<String, CallInfoImpl> cloneData() {
         synchronized (sLock) {
-            Map<String, CallInfoImpl> result = new HashMap<>(sCallIdToInfo.size());
-            for (Map.Entry<String, CallInfoImpl> entry : sCallIdToInfo.entrySet()) {
+            Map<String, CallInfoImpl> calls = getCalls(sCalls.snapshot());
+            Map<String, CallInfoImpl> result = new HashMap<>(calls.size());
+            for (Map.Entry<String, CallInfoImpl> entry : calls.entrySet()) {
                 result.put(entry.getKey(), new CallInfoImpl(entry.getValue()));
             }
             return result;
         }
     }
 
+    /**
+     * Maps each call ID to its analytics.  A call ID which was started more than once keeps only
+     * its latest analytics.
+     */
+    private static Map<String, CallInfoImpl> getCalls(List<CallInfoImpl> callInfos) {
+        Map<String, CallInfoImpl> calls = new LinkedHashMap<>(callInfos.size());
+        for (CallInfoImpl callInfo : callInfos) {
+            calls.put(callInfo.callId, callInfo);
+        }
+        return calls;
+    }
+
     private static TelecomLogClass.Event[] convertLogEventsToProtoEvents(
             List<EventManager.Event> logEvents) {
         long timeOfLastEvent = -1;
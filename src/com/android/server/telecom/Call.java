@@ -131,6 +131,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
      */
     @VisibleForTesting
     public interface Listener {
+        void onStateChanged(Call call, int oldState, int newState);
         void onSuccessfulOutgoingCall(Call call, int callState);
         void onFailedOutgoingCall(Call call, DisconnectCause disconnectCause);
         void onSuccessfulIncomingCall(Call call);
@@ -180,6 +181,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
     }
 
     public abstract static class ListenerBase implements Listener {
+        @Override
+        public void onStateChanged(Call call, int oldState, int newState) {}
         @Override
         public void onSuccessfulOutgoingCall(Call call, int callState) {}
         @Override
@@ -1182,6 +1185,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
 
             updateVideoHistoryViaState(mState, newState);
 
+            int oldState = mState;
             mState = newState;
             maybeLoadCannedSmsResponses();
 
@@ -1262,6 +1266,10 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                     getDisconnectCause().getCode() : DisconnectCause.UNKNOWN;
             TelecomStatsLog.write(TelecomStatsLog.CALL_STATE_CHANGED, newState,
                     statsdDisconnectCause, isSelfManaged(), isExternalCall());
+
+            for (Listener l : mListeners) {
+                l.onStateChanged(this, oldState, newState);
+            }
         }
         return true;
     }
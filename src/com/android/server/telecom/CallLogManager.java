@@ -20,18 +20,28 @@ import static android.provider.CallLog.Calls.BLOCK_REASON_NOT_BLOCKED;
 import static android.telephony.CarrierConfigManager.KEY_SUPPORT_IMS_CONFERENCE_EVENT_PACKAGE_BOOL;
 
 import android.annotation.Nullable;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.ContentProvider;
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
 import android.location.Country;
 import android.location.CountryDetector;
 import android.location.Location;
 import android.net.Uri;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.os.UserHandle;
+import android.os.UserManager;
 import android.os.PersistableBundle;
 import android.provider.CallLog;
 import android.provider.CallLog.Calls;
+import android.telecom.CallerInfo;
 import android.telecom.Connection;
 import android.telecom.DisconnectCause;
 import android.telecom.Log;
@@ -44,9 +54,13 @@ import android.telephony.PhoneNumberUtils;
 import android.telephony.SubscriptionManager;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.server.telecom.callfiltering.CallFilteringResult;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.stream.Stream;
@@ -67,19 +81,25 @@ public final class CallLogManager extends CallsManagerListenerBase {
      * Parameter object to hold the arguments to add a call in the call log DB.
      */
     private static class AddCallArgs {
-        public AddCallArgs(Context context, CallLog.AddCallParams params,
+        public AddCallArgs(Context context, PersistableBundle entry,
+                @Nullable CallerInfo callerInfo,
                 @Nullable LogCallCompletedListener logCallCompletedListener) {
             this.context = context;
-            this.params = params;
+            this.entry = entry;
+            this.callerInfo = callerInfo;
             this.logCallCompletedListener = logCallCompletedListener;
 
         }
         // Since the members are accessed directly, we don't use the
         // mXxxx notation.
         public final Context context;
-        public final CallLog.AddCallParams params;
+        /** The call details, in a form which can be stored in the write-ahead queue. */
+        public final PersistableBundle entry;
+        @Nullable
+        public final CallerInfo callerInfo;
         @Nullable
         public final LogCallCompletedListener logCallCompletedListener;
+        public long enqueuedAtMillis;
     }
 
     private static final String TAG = CallLogManager.class.getSimpleName();
@@ -100,17 +120,91 @@ public final class CallLogManager extends CallsManagerListenerBase {
     private static final String CALL_TYPE = "callType";
     private static final String CALL_DURATION = "duration";
 
+    // Keys of the call details in AddCallArgs#entry.
+    private static final String KEY_START = "start";
+    private static final String KEY_DURATION = "duration";
+    private static final String KEY_NUMBER = "number";
+    private static final String KEY_VIA_NUMBER = "via_number";
+    private static final String KEY_ACCOUNT_COMPONENT = "account_component";
+    private static final String KEY_ACCOUNT_ID = "account_id";
+    private static final String KEY_ACCOUNT_USER = "account_user";
+    private static final String KEY_DATA_USAGE = "data_usage";
+    private static final String KEY_FEATURES = "features";
+    private static final String KEY_CALL_BLOCK_REASON = "call_block_reason";
+    private static final String KEY_CALL_SCREENING_COMPONENT_NAME = "call_screening_component";
+    private static final String KEY_CALL_SCREENING_APP_NAME = "call_screening_app_name";
+    private static final String KEY_USER_TO_BE_INSERTED_TO = "user_to_be_inserted_to";
+    private static final String KEY_ADD_FOR_ALL_USERS = "add_for_all_users";
+    private static final String KEY_PRIORITY = "priority";
+    private static final String KEY_SUBJECT = "subject";
+    private static final String KEY_PICTURE_URI = "picture_uri";
+    private static final String KEY_LATITUDE = "latitude";
+    private static final String KEY_LONGITUDE = "longitude";
+    private static final String KEY_POST_DIAL_DIGITS = "post_dial_digits";
+    private static final String KEY_PRESENTATION = "presentation";
+    private static final String KEY_CALL_TYPE = "call_type";
+    private static final String KEY_IS_READ = "is_read";
+    private static final String KEY_MISSED_REASON = "missed_reason";
+    // The parts of the CallerInfo which the call log keeps, for entries in the write-ahead queue.
+    private static final String KEY_CALLER_NAME = "caller_name";
+    private static final String KEY_CALLER_NUMBER_TYPE = "caller_number_type";
+    private static final String KEY_CALLER_NUMBER_LABEL = "caller_number_label";
+    private static final String KEY_CALLER_LOOKUP_KEY = "caller_lookup_key";
+    private static final String KEY_CALLER_NORMALIZED_NUMBER = "caller_normalized_number";
+    // Bookkeeping for entries in the write-ahead queue.
+    private static final String KEY_REPLAY_ATTEMPTS = "replay_attempts";
+    /** Set when writing the entry threw, in which case its row may have been inserted anyway. */
+    private static final String KEY_MAY_BE_WRITTEN = "may_be_written";
+
+    /** How long to wait for more calls to log before writing a batch. */
+    private static final long BATCH_WINDOW_MILLIS = 20;
+    /** A batch is written straight away once it reaches this size. */
+    private static final int MAX_BATCH_SIZE = 16;
+    private static final String QUEUE_FILE_NAME = "call_log_queue";
+    /** Replays which fail are retried with backoff, from this delay... */
+    private static final long MIN_REPLAY_BACKOFF_MILLIS = 30 * 1000;
+    /** ...up to this delay. */
+    private static final long MAX_REPLAY_BACKOFF_MILLIS = 30 * 60 * 1000;
+    /** An entry which still cannot be written after this many replays is dropped. */
+    private static final int MAX_REPLAY_ATTEMPTS = 5;
+
     private Object mLock;
     private String mCurrentCountryIso;
+    private final CallLogWriter mCallLogWriter;
 
     public CallLogManager(Context context, PhoneAccountRegistrar phoneAccountRegistrar,
             MissedCallNotifier missedCallNotifier) {
+        this(context, phoneAccountRegistrar, missedCallNotifier,
+                new File(context.getFilesDir(), QUEUE_FILE_NAME));
+    }
+
+    @VisibleForTesting
+    public CallLogManager(Context context, PhoneAccountRegistrar phoneAccountRegistrar,
+            MissedCallNotifier missedCallNotifier, File queueFile) {
         mContext = context;
         mCarrierConfigManager = (CarrierConfigManager) mContext
                 .getSystemService(Context.CARRIER_CONFIG_SERVICE);
         mPhoneAccountRegistrar = phoneAccountRegistrar;
         mMissedCallNotifier = missedCallNotifier;
         mLock = new Object();
+        mCallLogWriter = new CallLogWriter(queueFile);
+
+        // Calls which could not be logged before credential encrypted storage was unlocked are
+        // replayed once it is.
+        mContext.registerReceiverAsUser(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Log.startSession("CLM.oR");
+                try {
+                    mCallLogWriter.scheduleReplay(0);
+                } finally {
+                    Log.endSession();
+                }
+            }
+        }, UserHandle.ALL, new IntentFilter(Intent.ACTION_USER_UNLOCKED), null, null);
+        if (queueFile.exists()) {
+            mCallLogWriter.scheduleReplay(0);
+        }
     }
 
     @Override
@@ -246,8 +340,9 @@ public final class CallLogManager extends CallsManagerListenerBase {
             logCall(call, type, new LogCallCompletedListener() {
                 @Override
                 public void onLogCompleted(@Nullable Uri uri) {
-                    mMissedCallNotifier.showMissedCallNotification(
-                            new MissedCallNotifier.CallInfo(call));
+                    MissedCallNotifier.CallInfo callInfo = new MissedCallNotifier.CallInfo(call);
+                    callInfo.setCallLogId(getCallLogId(uri));
+                    mMissedCallNotifier.showMissedCallNotification(callInfo);
                 }
             }, result);
         } else {
@@ -255,6 +350,21 @@ public final class CallLogManager extends CallsManagerListenerBase {
         }
     }
 
+    /**
+     * @return The row id in a call log URI, or {@link MissedCallNotifier.CallInfo#NO_CALL_LOG_ID}
+     *     if the call was not written.
+     */
+    private static long getCallLogId(@Nullable Uri uri) {
+        if (uri == null) {
+            return MissedCallNotifier.CallInfo.NO_CALL_LOG_ID;
+        }
+        try {
+            return ContentUris.parseId(uri);
+        } catch (NumberFormatException | UnsupportedOperationException e) {
+            return MissedCallNotifier.CallInfo.NO_CALL_LOG_ID;
+        }
+    }
+
     /**
      * Logs a call to the call log based on the {@link Call} object passed in.
      *
@@ -271,15 +381,14 @@ public final class CallLogManager extends CallsManagerListenerBase {
     void logCall(Call call, int callLogType,
         @Nullable LogCallCompletedListener logCallCompletedListener, CallFilteringResult result) {
 
-        CallLog.AddCallParams.AddCallParametersBuilder paramBuilder =
-                new CallLog.AddCallParams.AddCallParametersBuilder();
+        PersistableBundle entry = new PersistableBundle();
 
-        paramBuilder.setStart(call.isChildCall() ? call.getConnectTimeMillis()
+        entry.putLong(KEY_START, call.isChildCall() ? call.getConnectTimeMillis()
             : call.getCreationTimeMillis());
-        paramBuilder.setDuration((int) (call.getAgeMillis() / 1000));
+        entry.putInt(KEY_DURATION, (int) (call.getAgeMillis() / 1000));
 
         String logNumber = getLogNumber(call);
-        paramBuilder.setNumber(logNumber);
+        entry.putString(KEY_NUMBER, logNumber);
 
         Log.d(TAG, "logNumber set to: %s", Log.pii(logNumber));
 
@@ -287,7 +396,7 @@ public final class CallLogManager extends CallsManagerListenerBase {
                 getCountryIso());
         formattedViaNumber = (formattedViaNumber != null) ?
                 formattedViaNumber : call.getViaNumber();
-        paramBuilder.setViaNumber(formattedViaNumber);
+        entry.putString(KEY_VIA_NUMBER, formattedViaNumber);
 
         final PhoneAccountHandle emergencyAccountHandle =
                 TelephonyUtil.getDefaultEmergencyPhoneAccount().getAccountHandle();
@@ -295,12 +404,12 @@ public final class CallLogManager extends CallsManagerListenerBase {
         if (emergencyAccountHandle.equals(accountHandle)) {
             accountHandle = null;
         }
-        paramBuilder.setAccountHandle(accountHandle);
+        putAccountHandle(entry, accountHandle);
 
-        paramBuilder.setDataUsage(call.getCallDataUsage() == Call.DATA_USAGE_NOT_SET
+        entry.putLong(KEY_DATA_USAGE, call.getCallDataUsage() == Call.DATA_USAGE_NOT_SET
                 ? Long.MIN_VALUE : call.getCallDataUsage());
 
-        paramBuilder.setFeatures(getCallFeatures(call.getVideoStateHistory(),
+        entry.putInt(KEY_FEATURES, getCallFeatures(call.getVideoStateHistory(),
                 call.getDisconnectCause().getCode() == DisconnectCause.CALL_PULLED,
                 call.wasHighDefAudio(), call.wasWifi(),
                 (call.getConnectionProperties() & Connection.PROPERTY_ASSISTED_DIALING) ==
@@ -315,11 +424,13 @@ public final class CallLogManager extends CallsManagerListenerBase {
                     .build();
         }
         if (callLogType == Calls.BLOCKED_TYPE || callLogType == Calls.MISSED_TYPE) {
-            paramBuilder.setCallBlockReason(result.mCallBlockReason);
-            paramBuilder.setCallScreeningComponentName(result.mCallScreeningComponentName);
-            paramBuilder.setCallScreeningAppName(result.mCallScreeningAppName);
+            entry.putInt(KEY_CALL_BLOCK_REASON, result.mCallBlockReason);
+            entry.putString(KEY_CALL_SCREENING_COMPONENT_NAME,
+                    result.mCallScreeningComponentName);
+            entry.putString(KEY_CALL_SCREENING_APP_NAME, result.mCallScreeningAppName == null
+                    ? null : result.mCallScreeningAppName.toString());
         } else {
-            paramBuilder.setCallBlockReason(BLOCK_REASON_NOT_BLOCKED);
+            entry.putInt(KEY_CALL_BLOCK_REASON, BLOCK_REASON_NOT_BLOCKED);
         }
 
         PhoneAccount phoneAccount = mPhoneAccountRegistrar.getPhoneAccountUnchecked(accountHandle);
@@ -328,30 +439,33 @@ public final class CallLogManager extends CallsManagerListenerBase {
                 phoneAccount.hasCapabilities(PhoneAccount.CAPABILITY_MULTI_USER)) {
             if (initiatingUser != null &&
                     UserUtil.isManagedProfile(mContext, initiatingUser)) {
-                paramBuilder.setUserToBeInsertedTo(initiatingUser);
-                paramBuilder.setAddForAllUsers(false);
+                entry.putInt(KEY_USER_TO_BE_INSERTED_TO, initiatingUser.getIdentifier());
+                entry.putBoolean(KEY_ADD_FOR_ALL_USERS, false);
             } else {
-                paramBuilder.setAddForAllUsers(true);
+                entry.putBoolean(KEY_ADD_FOR_ALL_USERS, true);
             }
         } else {
             if (accountHandle == null) {
-                paramBuilder.setAddForAllUsers(true);
+                entry.putBoolean(KEY_ADD_FOR_ALL_USERS, true);
             } else {
-                paramBuilder.setUserToBeInsertedTo(accountHandle.getUserHandle());
-                paramBuilder.setAddForAllUsers(accountHandle.getUserHandle() == null);
+                if (accountHandle.getUserHandle() != null) {
+                    entry.putInt(KEY_USER_TO_BE_INSERTED_TO,
+                            accountHandle.getUserHandle().getIdentifier());
+                }
+                entry.putBoolean(KEY_ADD_FOR_ALL_USERS, accountHandle.getUserHandle() == null);
             }
         }
         if (call.getIntentExtras() != null) {
             if (call.getIntentExtras().containsKey(TelecomManager.EXTRA_PRIORITY)) {
-                paramBuilder.setPriority(call.getIntentExtras()
+                entry.putInt(KEY_PRIORITY, call.getIntentExtras()
                         .getInt(TelecomManager.EXTRA_PRIORITY));
             }
             if (call.getIntentExtras().containsKey(TelecomManager.EXTRA_CALL_SUBJECT)) {
-                paramBuilder.setSubject(call.getIntentExtras()
+                entry.putString(KEY_SUBJECT, call.getIntentExtras()
                         .getString(TelecomManager.EXTRA_CALL_SUBJECT));
             }
             if (call.getIntentExtras().containsKey(TelecomManager.EXTRA_PICTURE_URI)) {
-                paramBuilder.setPictureUri(call.getIntentExtras()
+                putPictureUri(entry, call.getIntentExtras()
                         .getParcelable(TelecomManager.EXTRA_PICTURE_URI));
             }
             // The picture uri can end up either in extras or in intent extras due to how these
@@ -359,31 +473,30 @@ public final class CallLogManager extends CallsManagerListenerBase {
             // they're in intentExtras.
             if (call.getExtras() != null
                     && call.getExtras().containsKey(TelecomManager.EXTRA_PICTURE_URI)) {
-                paramBuilder.setPictureUri(call.getExtras()
+                putPictureUri(entry, call.getExtras()
                         .getParcelable(TelecomManager.EXTRA_PICTURE_URI));
             }
             if (call.getIntentExtras().containsKey(TelecomManager.EXTRA_LOCATION)) {
                 Location l = call.getIntentExtras().getParcelable(TelecomManager.EXTRA_LOCATION);
                 if (l != null) {
-                    paramBuilder.setLatitude(l.getLatitude());
-                    paramBuilder.setLongitude(l.getLongitude());
+                    entry.putDouble(KEY_LATITUDE, l.getLatitude());
+                    entry.putDouble(KEY_LONGITUDE, l.getLongitude());
                 }
             }
         }
 
-        paramBuilder.setCallerInfo(call.getCallerInfo());
-        paramBuilder.setPostDialDigits(call.getPostDialDigits());
-        paramBuilder.setPresentation(call.getHandlePresentation());
-        paramBuilder.setCallType(callLogType);
-        paramBuilder.setIsRead(call.isSelfManaged());
-        paramBuilder.setMissedReason(call.getMissedReason());
+        entry.putString(KEY_POST_DIAL_DIGITS, call.getPostDialDigits());
+        entry.putInt(KEY_PRESENTATION, call.getHandlePresentation());
+        entry.putInt(KEY_CALL_TYPE, callLogType);
+        entry.putBoolean(KEY_IS_READ, call.isSelfManaged());
+        entry.putLong(KEY_MISSED_REASON, call.getMissedReason());
 
         sendAddCallBroadcast(callLogType, call.getAgeMillis());
 
         boolean okayToLog =
                 okayToLogCall(accountHandle, logNumber, call.isEmergencyCall());
         if (okayToLog) {
-            AddCallArgs args = new AddCallArgs(mContext, paramBuilder.build(),
+            AddCallArgs args = new AddCallArgs(mContext, entry, call.getCallerInfo(),
                     logCallCompletedListener);
             logCallAsync(args);
         }
@@ -483,35 +596,95 @@ public final class CallLogManager extends CallsManagerListenerBase {
 
     /**
      * Adds the call defined by the parameters in the provided AddCallArgs to the CallLogProvider
-     * using an AsyncTask to avoid blocking the main thread.
+     * on a background thread to avoid blocking the main thread.  Calls logged close together are
+     * written together; the completion listeners are called on the main thread, in the order the
+     * calls were logged.
      *
      * @param args Prepopulated call details.
-     * @return A handle to the AsyncTask that will add the call to the call log asynchronously.
      */
-    public AsyncTask<AddCallArgs, Void, Uri[]> logCallAsync(AddCallArgs args) {
-        return new LogCallAsyncTask().execute(args);
+    public void logCallAsync(AddCallArgs args) {
+        mCallLogWriter.enqueue(args);
     }
 
     /**
-     * Helper AsyncTask to access the call logs database asynchronously since database operations
-     * can take a long time depending on the system's load. Since it extends AsyncTask, it uses
-     * its own thread pool.
+     * Writes calls to the call log on a dedicated thread.  Database operations can take a long
+     * time depending on the system's load, and call storms or conference merges log many calls
+     * at once, so calls are collected for {@link #BATCH_WINDOW_MILLIS} and written in one pass.
+     * <p>
+     * Calls which cannot be written, e.g. because credential encrypted storage is still locked,
+     * go to a {@link CallLogWriteAheadQueue} and are replayed in batches once the user is
+     * unlocked, backing off while the provider keeps failing.
      */
-    private class LogCallAsyncTask extends AsyncTask<AddCallArgs, Void, Uri[]> {
-
-        private LogCallCompletedListener[] mListeners;
-
-        @Override
-        protected Uri[] doInBackground(AddCallArgs... callList) {
-            int count = callList.length;
-            Uri[] result = new Uri[count];
-            mListeners = new LogCallCompletedListener[count];
-            for (int i = 0; i < count; i++) {
-                AddCallArgs c = callList[i];
-                mListeners[i] = c.logCallCompletedListener;
+    private class CallLogWriter {
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+        private final List<AddCallArgs> mPendingCalls = new ArrayList<>();
+        private final Runnable mWriteBatchRunnable = this::writeBatch;
+        private final Runnable mReplayRunnable = this::replay;
+        private final CallLogWriteAheadQueue mQueue;
+        private Handler mWriterHandler;
+        /** Only used on the writer thread. */
+        private long mReplayBackoffMillis = MIN_REPLAY_BACKOFF_MILLIS;
+
+        // Metrics, guarded by this.
+        private long mBatchCount;
+        private long mCallCount;
+        private long mFailedCallCount;
+        private int mMaxBatchSize;
+        private long mTotalBatchWriteMillis;
+        private long mMaxBatchWriteMillis;
+        private long mTotalLatencyMillis;
+        private long mMaxLatencyMillis;
+        private int mQueueSize;
+        private long mQueuedCallCount;
+        private long mReplayedCallCount;
+        private long mDroppedCallCount;
+
+        CallLogWriter(File queueFile) {
+            mQueue = new CallLogWriteAheadQueue(queueFile);
+        }
+
+        private synchronized Handler getWriterHandler() {
+            if (mWriterHandler == null) {
+                HandlerThread thread = new HandlerThread("CallLogWriter");
+                thread.start();
+                mWriterHandler = new Handler(thread.getLooper());
+            }
+            return mWriterHandler;
+        }
+
+        public synchronized void enqueue(AddCallArgs args) {
+            getWriterHandler();
+            args.enqueuedAtMillis = SystemClock.elapsedRealtime();
+            mPendingCalls.add(args);
+            if (mPendingCalls.size() >= MAX_BATCH_SIZE) {
+                mWriterHandler.removeCallbacks(mWriteBatchRunnable);
+                mWriterHandler.post(mWriteBatchRunnable);
+            } else if (mPendingCalls.size() == 1) {
+                mWriterHandler.postDelayed(mWriteBatchRunnable, BATCH_WINDOW_MILLIS);
+            }
+        }
+
+        private void writeBatch() {
+            AddCallArgs[] batch;
+            synchronized (this) {
+                batch = mPendingCalls.toArray(new AddCallArgs[0]);
+                mPendingCalls.clear();
+            }
+            if (batch.length == 0) {
+                return;
+            }
+
+            long startMillis = SystemClock.elapsedRealtime();
+            Uri[] result = new Uri[batch.length];
+            List<PersistableBundle> failedEntries = new ArrayList<>();
+            for (int i = 0; i < batch.length; i++) {
+                AddCallArgs c = batch[i];
                 try {
                     // May block.
-                    result[i] = Calls.addCall(c.context, c.params);
+                    result[i] = addCall(c.context, c.entry, c.callerInfo);
+                    if (result[i] == null && !isTargetUserUnlocked(c.entry)) {
+                        failedEntries.add(toQueueEntry(c));
+                    }
                 } catch (Exception e) {
                     // This is very rare but may happen in legitimate cases.
                     // E.g. If the phone is encrypted and thus write request fails, it may cause
@@ -522,29 +695,306 @@ public final class CallLogManager extends CallsManagerListenerBase {
                     // it instead.
                     Log.e(TAG, e, "Exception raised during adding CallLog entry.");
                     result[i] = null;
+                    PersistableBundle entry = toQueueEntry(c);
+                    entry.putBoolean(KEY_MAY_BE_WRITTEN, true);
+                    failedEntries.add(entry);
                 }
             }
-            return result;
-        }
-
-        @Override
-        protected void onPostExecute(Uri[] result) {
-            for (int i = 0; i < result.length; i++) {
-                Uri uri = result[i];
-                /*
-                 Performs a simple correctness check to make sure the call was written in the
-                 database.
-                 Typically there is only one result per call so it is easy to identify which one
-                 failed.
-                 */
-                if (uri == null) {
-                    Log.w(TAG, "Failed to write call to the log.");
+            recordBatch(batch, result, startMillis, SystemClock.elapsedRealtime());
+            if (!failedEntries.isEmpty()) {
+                Log.i(TAG, "Queueing %d calls to replay later", failedEntries.size());
+                if (mQueue.append(failedEntries)) {
+                    recordQueued(failedEntries.size());
                 }
-                if (mListeners[i] != null) {
-                    mListeners[i].onLogCompleted(uri);
+                if (!mWriterHandler.hasCallbacks(mReplayRunnable)) {
+                    mWriterHandler.postDelayed(mReplayRunnable, mReplayBackoffMillis);
                 }
+            } else if (mQueue.size() > 0 && !mWriterHandler.hasCallbacks(mReplayRunnable)) {
+                // The provider is writable again, so there is no need to wait for the backoff.
+                mWriterHandler.post(mReplayRunnable);
             }
+
+            mMainHandler.post(() -> {
+                for (int i = 0; i < result.length; i++) {
+                    Uri uri = result[i];
+                    /*
+                     Performs a simple correctness check to make sure the call was written in the
+                     database.
+                     Typically there is only one result per call so it is easy to identify which
+                     one failed.
+                     */
+                    if (uri == null) {
+                        Log.w(TAG, "Failed to write call to the log.");
+                    }
+                    if (batch[i].logCallCompletedListener != null) {
+                        batch[i].logCallCompletedListener.onLogCompleted(uri);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Replays the oldest batch of calls in the write-ahead queue, and schedules the next one.
+         */
+        public void scheduleReplay(long delayMillis) {
+            Handler handler = getWriterHandler();
+            handler.removeCallbacks(mReplayRunnable);
+            handler.postDelayed(mReplayRunnable, delayMillis);
         }
+
+        private void replay() {
+            List<PersistableBundle> entries = mQueue.readAll();
+            if (entries.isEmpty()) {
+                mReplayBackoffMillis = MIN_REPLAY_BACKOFF_MILLIS;
+                recordReplay(0, 0, 0);
+                return;
+            }
+
+            // Entries for users which are still locked are kept, in order, and replayed once
+            // those users are unlocked.
+            List<PersistableBundle> remaining = new ArrayList<>();
+            int count = 0;
+            int replayed = 0;
+            int dropped = 0;
+            int deferred = 0;
+            for (PersistableBundle entry : entries) {
+                if (!isTargetUserUnlocked(entry)) {
+                    remaining.add(entry);
+                    continue;
+                }
+                if (count == MAX_BATCH_SIZE) {
+                    remaining.add(entry);
+                    deferred++;
+                    continue;
+                }
+                count++;
+                Uri uri = null;
+                try {
+                    if (entry.getBoolean(KEY_MAY_BE_WRITTEN) && isAlreadyWritten(entry)) {
+                        // An earlier attempt inserted the row before it failed.
+                        replayed++;
+                        continue;
+                    }
+                    uri = addCall(mContext, entry, getCallerInfo(entry));
+                } catch (Exception e) {
+                    Log.w(TAG, "Exception raised during replay of CallLog entry: %s",
+                            e.getMessage());
+                    entry.putBoolean(KEY_MAY_BE_WRITTEN, true);
+                }
+                if (uri != null) {
+                    replayed++;
+                    continue;
+                }
+                int attempts = entry.getInt(KEY_REPLAY_ATTEMPTS) + 1;
+                if (attempts >= MAX_REPLAY_ATTEMPTS) {
+                    Log.w(TAG, "Dropping call after %d failed replays", attempts);
+                    dropped++;
+                    continue;
+                }
+                entry.putInt(KEY_REPLAY_ATTEMPTS, attempts);
+                remaining.add(entry);
+            }
+            if (count == 0) {
+                // Replayed when a user is unlocked.
+                Log.i(TAG, "Waiting for unlock to replay %d calls", entries.size());
+                return;
+            }
+            boolean failed = replayed < count;
+            mQueue.replaceAll(remaining);
+            recordReplay(replayed, dropped, remaining.size());
+            Log.i(TAG, "Replayed %d calls, dropped %d, %d left", replayed, dropped,
+                    remaining.size());
+
+            if (failed && remaining.size() > 0) {
+                mWriterHandler.postDelayed(mReplayRunnable, mReplayBackoffMillis);
+                mReplayBackoffMillis = Math.min(mReplayBackoffMillis * 2,
+                        MAX_REPLAY_BACKOFF_MILLIS);
+            } else if (deferred > 0) {
+                mReplayBackoffMillis = MIN_REPLAY_BACKOFF_MILLIS;
+                mWriterHandler.postDelayed(mReplayRunnable, BATCH_WINDOW_MILLIS);
+            } else {
+                // Anything left is for users which are still locked.
+                mReplayBackoffMillis = MIN_REPLAY_BACKOFF_MILLIS;
+            }
+        }
+
+        private boolean isTargetUserUnlocked(PersistableBundle entry) {
+            UserManager userManager =
+                    (UserManager) mContext.getSystemService(Context.USER_SERVICE);
+            return userManager == null || userManager.isUserUnlocked(getTargetUser(entry));
+        }
+
+        /**
+         * @return Whether the target user's call log already has a row for the call.  A call is
+         *         identified by its start time, duration and type.
+         */
+        private boolean isAlreadyWritten(PersistableBundle entry) {
+            Uri uri = ContentProvider.maybeAddUserId(Calls.CONTENT_URI,
+                    getTargetUser(entry).getIdentifier());
+            try (Cursor cursor = mContext.getContentResolver().query(uri,
+                    new String[] {Calls._ID},
+                    Calls.DATE + " = ? AND " + Calls.DURATION + " = ? AND " + Calls.TYPE + " = ?",
+                    new String[] {String.valueOf(entry.getLong(KEY_START)),
+                            String.valueOf(entry.getInt(KEY_DURATION)),
+                            String.valueOf(entry.getInt(KEY_CALL_TYPE))},
+                    null)) {
+                return cursor != null && cursor.getCount() > 0;
+            }
+        }
+
+        private UserHandle getTargetUser(PersistableBundle entry) {
+            return entry.containsKey(KEY_USER_TO_BE_INSERTED_TO)
+                    ? UserHandle.of(entry.getInt(KEY_USER_TO_BE_INSERTED_TO))
+                    : UserHandle.SYSTEM;
+        }
+
+        private synchronized void recordQueued(int count) {
+            mQueuedCallCount += count;
+            mQueueSize += count;
+        }
+
+        private synchronized void recordReplay(int replayed, int dropped, int queueSize) {
+            mReplayedCallCount += replayed;
+            mDroppedCallCount += dropped;
+            mQueueSize = queueSize;
+        }
+
+        private synchronized void recordBatch(AddCallArgs[] batch, Uri[] result,
+                long startMillis, long endMillis) {
+            long writeMillis = endMillis - startMillis;
+            mBatchCount++;
+            mMaxBatchSize = Math.max(mMaxBatchSize, batch.length);
+            mTotalBatchWriteMillis += writeMillis;
+            mMaxBatchWriteMillis = Math.max(mMaxBatchWriteMillis, writeMillis);
+            for (int i = 0; i < batch.length; i++) {
+                long latencyMillis = endMillis - batch[i].enqueuedAtMillis;
+                mCallCount++;
+                mTotalLatencyMillis += latencyMillis;
+                mMaxLatencyMillis = Math.max(mMaxLatencyMillis, latencyMillis);
+                if (result[i] == null) {
+                    mFailedCallCount++;
+                }
+            }
+        }
+
+        public synchronized void dump(IndentingPrintWriter pw) {
+            pw.println("batches: " + mBatchCount + ", calls: " + mCallCount + ", failed: "
+                    + mFailedCallCount + ", pending: " + mPendingCalls.size());
+            if (mBatchCount > 0) {
+                pw.println("batchSize: avg=" + (mCallCount / (float) mBatchCount) + ", max="
+                        + mMaxBatchSize);
+                pw.println("batchWriteMillis: avg=" + (mTotalBatchWriteMillis / mBatchCount)
+                        + ", max=" + mMaxBatchWriteMillis);
+                pw.println("latencyMillis: avg=" + (mTotalLatencyMillis / mCallCount) + ", max="
+                        + mMaxLatencyMillis);
+            }
+            pw.println("writeAheadQueue: size=" + mQueueSize + ", queued=" + mQueuedCallCount
+                    + ", replayed=" + mReplayedCallCount + ", dropped=" + mDroppedCallCount);
+        }
+    }
+
+    private static Uri addCall(Context context, PersistableBundle entry,
+            @Nullable CallerInfo callerInfo) {
+        return Calls.addCall(context, toAddCallParams(entry, callerInfo));
+    }
+
+    private static CallLog.AddCallParams toAddCallParams(PersistableBundle entry,
+            @Nullable CallerInfo callerInfo) {
+        CallLog.AddCallParams.AddCallParametersBuilder paramBuilder =
+                new CallLog.AddCallParams.AddCallParametersBuilder();
+        paramBuilder.setStart(entry.getLong(KEY_START));
+        paramBuilder.setDuration(entry.getInt(KEY_DURATION));
+        paramBuilder.setNumber(entry.getString(KEY_NUMBER));
+        paramBuilder.setViaNumber(entry.getString(KEY_VIA_NUMBER));
+        paramBuilder.setAccountHandle(getAccountHandle(entry));
+        paramBuilder.setDataUsage(entry.getLong(KEY_DATA_USAGE));
+        paramBuilder.setFeatures(entry.getInt(KEY_FEATURES));
+        paramBuilder.setCallBlockReason(entry.getInt(KEY_CALL_BLOCK_REASON));
+        if (entry.containsKey(KEY_CALL_SCREENING_COMPONENT_NAME)) {
+            paramBuilder.setCallScreeningComponentName(
+                    entry.getString(KEY_CALL_SCREENING_COMPONENT_NAME));
+            paramBuilder.setCallScreeningAppName(entry.getString(KEY_CALL_SCREENING_APP_NAME));
+        }
+        if (entry.containsKey(KEY_USER_TO_BE_INSERTED_TO)) {
+            paramBuilder.setUserToBeInsertedTo(
+                    UserHandle.of(entry.getInt(KEY_USER_TO_BE_INSERTED_TO)));
+        }
+        paramBuilder.setAddForAllUsers(entry.getBoolean(KEY_ADD_FOR_ALL_USERS));
+        if (entry.containsKey(KEY_PRIORITY)) {
+            paramBuilder.setPriority(entry.getInt(KEY_PRIORITY));
+        }
+        if (entry.containsKey(KEY_SUBJECT)) {
+            paramBuilder.setSubject(entry.getString(KEY_SUBJECT));
+        }
+        if (entry.containsKey(KEY_PICTURE_URI)) {
+            String pictureUri = entry.getString(KEY_PICTURE_URI);
+            paramBuilder.setPictureUri(pictureUri == null ? null : Uri.parse(pictureUri));
+        }
+        if (entry.containsKey(KEY_LATITUDE)) {
+            paramBuilder.setLatitude(entry.getDouble(KEY_LATITUDE));
+            paramBuilder.setLongitude(entry.getDouble(KEY_LONGITUDE));
+        }
+        paramBuilder.setCallerInfo(callerInfo);
+        paramBuilder.setPostDialDigits(entry.getString(KEY_POST_DIAL_DIGITS));
+        paramBuilder.setPresentation(entry.getInt(KEY_PRESENTATION));
+        paramBuilder.setCallType(entry.getInt(KEY_CALL_TYPE));
+        paramBuilder.setIsRead(entry.getBoolean(KEY_IS_READ));
+        paramBuilder.setMissedReason(entry.getLong(KEY_MISSED_REASON));
+        return paramBuilder.build();
+    }
+
+    private static void putAccountHandle(PersistableBundle entry,
+            @Nullable PhoneAccountHandle accountHandle) {
+        if (accountHandle == null) {
+            return;
+        }
+        entry.putString(KEY_ACCOUNT_COMPONENT,
+                accountHandle.getComponentName().flattenToString());
+        entry.putString(KEY_ACCOUNT_ID, accountHandle.getId());
+        entry.putInt(KEY_ACCOUNT_USER, accountHandle.getUserHandle().getIdentifier());
+    }
+
+    private static PhoneAccountHandle getAccountHandle(PersistableBundle entry) {
+        if (!entry.containsKey(KEY_ACCOUNT_COMPONENT)) {
+            return null;
+        }
+        return new PhoneAccountHandle(
+                ComponentName.unflattenFromString(entry.getString(KEY_ACCOUNT_COMPONENT)),
+                entry.getString(KEY_ACCOUNT_ID),
+                UserHandle.of(entry.getInt(KEY_ACCOUNT_USER)));
+    }
+
+    private static void putPictureUri(PersistableBundle entry, @Nullable Uri pictureUri) {
+        entry.putString(KEY_PICTURE_URI, pictureUri == null ? null : pictureUri.toString());
+    }
+
+    /**
+     * @return The call details to store in the write-ahead queue, including the parts of the
+     *         caller info which the call log keeps.
+     */
+    private static PersistableBundle toQueueEntry(AddCallArgs args) {
+        PersistableBundle entry = new PersistableBundle(args.entry);
+        if (args.callerInfo != null) {
+            entry.putString(KEY_CALLER_NAME, args.callerInfo.getName());
+            entry.putInt(KEY_CALLER_NUMBER_TYPE, args.callerInfo.numberType);
+            entry.putString(KEY_CALLER_NUMBER_LABEL, args.callerInfo.numberLabel);
+            entry.putString(KEY_CALLER_LOOKUP_KEY, args.callerInfo.lookupKey);
+            entry.putString(KEY_CALLER_NORMALIZED_NUMBER, args.callerInfo.normalizedNumber);
+        }
+        return entry;
+    }
+
+    private static CallerInfo getCallerInfo(PersistableBundle entry) {
+        if (!entry.containsKey(KEY_CALLER_NUMBER_TYPE)) {
+            return null;
+        }
+        CallerInfo callerInfo = new CallerInfo();
+        callerInfo.setName(entry.getString(KEY_CALLER_NAME));
+        callerInfo.numberType = entry.getInt(KEY_CALLER_NUMBER_TYPE);
+        callerInfo.numberLabel = entry.getString(KEY_CALLER_NUMBER_LABEL);
+        callerInfo.lookupKey = entry.getString(KEY_CALLER_LOOKUP_KEY);
+        callerInfo.normalizedNumber = entry.getString(KEY_CALLER_NORMALIZED_NUMBER);
+        return callerInfo;
     }
 
     private void sendAddCallBroadcast(int callType, long duration) {
@@ -596,4 +1046,8 @@ public final class CallLogManager extends CallsManagerListenerBase {
             return mCurrentCountryIso;
         }
     }
+
+    public void dump(IndentingPrintWriter pw) {
+        mCallLogWriter.dump(pw);
+    }
 }
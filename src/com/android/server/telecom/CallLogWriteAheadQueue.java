@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.os.PersistableBundle;
+import android.telecom.Log;
+import android.util.AtomicFile;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only file of call log entries which could not be written to the call log provider,
+ * e.g. because credential encrypted storage was still locked.  Entries are kept until they have
+ * been replayed, so that they survive a restart of the phone process.
+ * <p>
+ * Each entry is stored as its length followed by a {@link PersistableBundle}.  An entry which was
+ * only partly appended when the process died is dropped when the file is read.  This class does
+ * no locking; all access must happen on a single thread.
+ */
+public class CallLogWriteAheadQueue {
+    private static final int MAX_ENTRY_BYTES = 64 * 1024;
+
+    private final AtomicFile mFile;
+    /** The number of entries in the file, or -1 if it has not been read yet. */
+    private int mSize = -1;
+    /** Whether the file ends with a partly written entry, which must go before appending. */
+    private boolean mHasUnreadableTail;
+
+    public CallLogWriteAheadQueue(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Appends entries to the end of the queue.
+     * @return {@code true} if the entries were written to disk.
+     */
+    public boolean append(List<PersistableBundle> entries) {
+        // Reading first completes any rewrite which was interrupted, before appending to it.
+        int size = size();
+        if (mHasUnreadableTail) {
+            replaceAll(readAll());
+        }
+        try (DataOutputStream os = new DataOutputStream(
+                new FileOutputStream(mFile.getBaseFile(), true /* append */))) {
+            for (PersistableBundle entry : entries) {
+                writeEntry(os, entry);
+            }
+        } catch (IOException e) {
+            Log.e(this, e, "Appending to call log queue");
+            mSize = -1;
+            return false;
+        }
+        mSize = size + entries.size();
+        return true;
+    }
+
+    /**
+     * @return All entries in the queue, oldest first.
+     */
+    public List<PersistableBundle> readAll() {
+        List<PersistableBundle> entries = new ArrayList<>();
+        mHasUnreadableTail = false;
+        final InputStream is;
+        try {
+            is = mFile.openRead();
+        } catch (FileNotFoundException e) {
+            mSize = 0;
+            return entries;
+        }
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(is))) {
+            while (true) {
+                int length;
+                try {
+                    length = dis.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 0 || length > MAX_ENTRY_BYTES) {
+                    throw new IOException("Invalid entry length " + length);
+                }
+                byte[] bytes = new byte[length];
+                dis.readFully(bytes);
+                entries.add(PersistableBundle.readFromStream(new ByteArrayInputStream(bytes)));
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(this, "Dropping unreadable tail of call log queue: %s", e.getMessage());
+            mHasUnreadableTail = true;
+        }
+        mSize = entries.size();
+        return entries;
+    }
+
+    /**
+     * Replaces the contents of the queue, e.g. with the entries which are still left after a
+     * replay.
+     */
+    public void replaceAll(List<PersistableBundle> entries) {
+        if (entries.isEmpty()) {
+            mFile.delete();
+            mSize = 0;
+            mHasUnreadableTail = false;
+            return;
+        }
+        FileOutputStream fileOutput = null;
+        try {
+            fileOutput = mFile.startWrite();
+            DataOutputStream os = new DataOutputStream(fileOutput);
+            for (PersistableBundle entry : entries) {
+                writeEntry(os, entry);
+            }
+            os.flush();
+            mFile.finishWrite(fileOutput);
+            mSize = entries.size();
+            mHasUnreadableTail = false;
+        } catch (IOException e) {
+            Log.e(this, e, "Rewriting call log queue");
+            mFile.failWrite(fileOutput);
+            mSize = -1;
+        }
+    }
+
+    /**
+     * @return The number of entries in the queue.
+     */
+    public int size() {
+        if (mSize < 0) {
+            readAll();
+        }
+        return mSize;
+    }
+
+    private static void writeEntry(DataOutputStream os, PersistableBundle entry)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        entry.writeToStream(bytes);
+        os.writeInt(bytes.size());
+        bytes.writeTo(os);
+    }
+}
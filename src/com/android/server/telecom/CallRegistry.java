@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.telecom.Log;
+import android.telecom.PhoneAccountHandle;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Maintains counts of the calls tracked by {@link CallsManager}, bucketed by {@link CallState},
+ * by whether the call is managed or self-managed, and by target {@link PhoneAccountHandle}.
+ * <p>
+ * The counters are updated incrementally as calls are added, removed or change one of the
+ * attributes which affect the buckets, which lets the admission checks in {@link CallsManager}
+ * answer "how many calls are in these states" without walking the call list.  Only top-level,
+ * non-external calls are counted; this mirrors the long-standing behavior of
+ * {@link CallsManager#getNumCallsWithState(int, Call, PhoneAccountHandle, int...)}.
+ * <p>
+ * Updates are made by {@link CallsManager} while holding the {@link TelecomSystem.SyncRoot} lock;
+ * the counters themselves are guarded by a leaf {@link LockDomain} so that read-only queries such
+ * as {@link android.telecom.TelecomManager#isInCall()} can be answered without the Telecom lock.
+ */
+@VisibleForTesting
+public class CallRegistry {
+    /** Only self-managed calls are included in a count. */
+    public static final int CALL_FILTER_SELF_MANAGED = 1;
+
+    /** Only managed calls are included in a count. */
+    public static final int CALL_FILTER_MANAGED = 2;
+
+    /** Both managed and self-managed calls are included in a count. */
+    public static final int CALL_FILTER_ALL = 3;
+
+    private static final int INDEX_MANAGED = 0;
+    private static final int INDEX_SELF_MANAGED = 1;
+
+    /** One more than the largest {@link CallState} value. */
+    private static final int NUM_STATES = CallState.SIMULATED_RINGING + 1;
+
+    /**
+     * Snapshot of the attributes a call was last counted with, so that the same contribution can
+     * be subtracted again when the call changes or is removed.
+     */
+    private static final class Entry {
+        boolean isCounted;
+        boolean isSelfManaged;
+        int state;
+        PhoneAccountHandle phoneAccountHandle;
+    }
+
+    private final Map<Call, Entry> mEntries = new ArrayMap<>();
+
+    /** Counts indexed by [managed/self-managed][state]. */
+    private final int[][] mCounts = new int[2][NUM_STATES];
+
+    /** Counts per target phone account, indexed the same way as {@link #mCounts}. */
+    private final Map<PhoneAccountHandle, int[][]> mCountsByPhoneAccount = new ArrayMap<>();
+
+    private final LockDomain mLock = new LockDomain("CallRegistry",
+            LockDomain.RANK_CALL_REGISTRY);
+
+    private boolean mIsConsistencyCheckEnabled = false;
+
+    /**
+     * Starts tracking a call.  Has no effect if the call is already tracked.
+     * @param call The call to track.
+     */
+    public void addCall(Call call) {
+        synchronized (mLock.ordered()) {
+            if (mEntries.containsKey(call)) {
+                return;
+            }
+            Entry entry = new Entry();
+            mEntries.put(call, entry);
+            index(call, entry);
+        }
+    }
+
+    /**
+     * Stops tracking a call.  Has no effect if the call is not tracked.
+     * @param call The call to stop tracking.
+     */
+    public void removeCall(Call call) {
+        synchronized (mLock.ordered()) {
+            Entry entry = mEntries.remove(call);
+            if (entry != null) {
+                unindex(entry);
+            }
+        }
+    }
+
+    /**
+     * Re-reads the state, parent, external, self-managed and phone account attributes of a call
+     * and moves its contribution to the matching buckets.  Must be called whenever one of those
+     * attributes may have changed.  Has no effect if the call is not tracked.
+     * @param call The call which changed.
+     */
+    public void updateCall(Call call) {
+        synchronized (mLock.ordered()) {
+            Entry entry = mEntries.get(call);
+            if (entry == null) {
+                return;
+            }
+            unindex(entry);
+            index(call, entry);
+        }
+    }
+
+    /**
+     * Determines the number of tracked calls matching the specified criteria.
+     * @param callFilter One of {@link #CALL_FILTER_MANAGED}, {@link #CALL_FILTER_SELF_MANAGED}
+     *                   or {@link #CALL_FILTER_ALL}.
+     * @param excludeCall Where {@code non-null}, this call is excluded from the count.
+     * @param phoneAccountHandle Where {@code non-null}, only calls for this phone account are
+     *                           included in the count.
+     * @param states The {@link CallState}s to include in the count.
+     * @return Count of calls matching the criteria.
+     */
+    public int getNumCallsWithState(int callFilter, Call excludeCall,
+            PhoneAccountHandle phoneAccountHandle, int... states) {
+        synchronized (mLock.ordered()) {
+            int[][] counts = mCounts;
+            if (phoneAccountHandle != null) {
+                counts = mCountsByPhoneAccount.get(phoneAccountHandle);
+            }
+
+            int total = 0;
+            if (counts != null) {
+                for (int i = 0; i < states.length; i++) {
+                    int state = states[i];
+                    if (!isValidState(state) || isDuplicateState(states, i)) {
+                        continue;
+                    }
+                    if (callFilter != CALL_FILTER_SELF_MANAGED) {
+                        total += counts[INDEX_MANAGED][state];
+                    }
+                    if (callFilter != CALL_FILTER_MANAGED) {
+                        total += counts[INDEX_SELF_MANAGED][state];
+                    }
+                }
+            }
+
+            if (excludeCall != null && total > 0
+                    && matches(mEntries.get(excludeCall), callFilter, phoneAccountHandle, states)) {
+                total--;
+            }
+
+            if (mIsConsistencyCheckEnabled) {
+                int expected = countByScan(callFilter, excludeCall, phoneAccountHandle, states);
+                if (expected != total) {
+                    throw new IllegalStateException("CallRegistry out of sync: expected " + expected
+                            + " calls but counted " + total);
+                }
+            }
+            return total;
+        }
+    }
+
+    /**
+     * @return The number of calls currently tracked, regardless of whether they are counted.
+     */
+    public int size() {
+        synchronized (mLock.ordered()) {
+            return mEntries.size();
+        }
+    }
+
+    /**
+     * Enables or disables the consistency checker.  When enabled, every query is cross-checked
+     * against a full scan of the tracked calls and an {@link IllegalStateException} is thrown on
+     * mismatch.  Intended for use in tests only as it defeats the purpose of the counters.
+     * @param isEnabled {@code true} to enable the checker.
+     */
+    @VisibleForTesting
+    public void setConsistencyCheckEnabled(boolean isEnabled) {
+        synchronized (mLock.ordered()) {
+            mIsConsistencyCheckEnabled = isEnabled;
+        }
+    }
+
+    /**
+     * Verifies that every tracked call is counted in the buckets matching its current attributes.
+     * @throws IllegalStateException if a call changed without {@link #updateCall(Call)} being
+     *         invoked.
+     */
+    @VisibleForTesting
+    public void verifyConsistency() {
+        synchronized (mLock.ordered()) {
+            for (Map.Entry<Call, Entry> e : mEntries.entrySet()) {
+                Call call = e.getKey();
+                Entry entry = e.getValue();
+                if (entry.isCounted != isCountable(call)
+                        || (entry.isCounted && (entry.state != call.getState()
+                        || entry.isSelfManaged != call.isSelfManaged()
+                        || !Objects.equals(entry.phoneAccountHandle,
+                                call.getTargetPhoneAccount())))) {
+                    throw new IllegalStateException("CallRegistry entry for " + call.getId()
+                            + " is stale");
+                }
+            }
+        }
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        synchronized (mLock.ordered()) {
+            pw.println("trackedCalls: " + mEntries.size());
+            pw.println("phoneAccounts: " + mCountsByPhoneAccount.size());
+            pw.increaseIndent();
+            for (int state = 0; state < NUM_STATES; state++) {
+                int managed = mCounts[INDEX_MANAGED][state];
+                int selfManaged = mCounts[INDEX_SELF_MANAGED][state];
+                if (managed != 0 || selfManaged != 0) {
+                    pw.println(CallState.toString(state) + ": managed=" + managed + ", selfManaged="
+                            + selfManaged);
+                }
+            }
+            pw.decreaseIndent();
+        }
+    }
+
+    private void index(Call call, Entry entry) {
+        entry.isCounted = isCountable(call);
+        entry.isSelfManaged = call.isSelfManaged();
+        entry.state = call.getState();
+        entry.phoneAccountHandle = call.getTargetPhoneAccount();
+        if (!entry.isCounted) {
+            return;
+        }
+        if (!isValidState(entry.state)) {
+            Log.w(this, "index: unknown state %d for call %s", entry.state, call.getId());
+            entry.isCounted = false;
+            return;
+        }
+        int managedIndex = entry.isSelfManaged ? INDEX_SELF_MANAGED : INDEX_MANAGED;
+        mCounts[managedIndex][entry.state]++;
+        if (entry.phoneAccountHandle != null) {
+            int[][] counts = mCountsByPhoneAccount.get(entry.phoneAccountHandle);
+            if (counts == null) {
+                counts = new int[2][NUM_STATES];
+                mCountsByPhoneAccount.put(entry.phoneAccountHandle, counts);
+            }
+            counts[managedIndex][entry.state]++;
+        }
+    }
+
+    private void unindex(Entry entry) {
+        if (!entry.isCounted) {
+            return;
+        }
+        int managedIndex = entry.isSelfManaged ? INDEX_SELF_MANAGED : INDEX_MANAGED;
+        mCounts[managedIndex][entry.state]--;
+        if (entry.phoneAccountHandle != null) {
+            int[][] counts = mCountsByPhoneAccount.get(entry.phoneAccountHandle);
+            if (counts != null) {
+                counts[managedIndex][entry.state]--;
+                if (isEmpty(counts)) {
+                    mCountsByPhoneAccount.remove(entry.phoneAccountHandle);
+                }
+            }
+        }
+        entry.isCounted = false;
+    }
+
+    private int countByScan(int callFilter, Call excludeCall,
+            PhoneAccountHandle phoneAccountHandle, int... states) {
+        int count = 0;
+        for (Call call : mEntries.keySet()) {
+            if (call == excludeCall || !isCountable(call)
+                    || !containsState(states, call.getState())) {
+                continue;
+            }
+            if ((callFilter == CALL_FILTER_MANAGED && call.isSelfManaged())
+                    || (callFilter == CALL_FILTER_SELF_MANAGED && !call.isSelfManaged())) {
+                continue;
+            }
+            if (phoneAccountHandle != null
+                    && !phoneAccountHandle.equals(call.getTargetPhoneAccount())) {
+                continue;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private static boolean matches(Entry entry, int callFilter,
+            PhoneAccountHandle phoneAccountHandle, int... states) {
+        if (entry == null || !entry.isCounted || !containsState(states, entry.state)) {
+            return false;
+        }
+        if ((callFilter == CALL_FILTER_MANAGED && entry.isSelfManaged)
+                || (callFilter == CALL_FILTER_SELF_MANAGED && !entry.isSelfManaged)) {
+            return false;
+        }
+        return phoneAccountHandle == null
+                || phoneAccountHandle.equals(entry.phoneAccountHandle);
+    }
+
+    private static boolean isCountable(Call call) {
+        return call.getParentCall() == null && !call.isExternalCall();
+    }
+
+    private static boolean isValidState(int state) {
+        return state >= 0 && state < NUM_STATES;
+    }
+
+    private static boolean containsState(int[] states, int state) {
+        for (int s : states) {
+            if (s == state) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return {@code true} if {@code states[index]} already appears earlier in the array. */
+    private static boolean isDuplicateState(int[] states, int index) {
+        for (int i = 0; i < index; i++) {
+            if (states[i] == states[index]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isEmpty(int[][] counts) {
+        for (int[] row : counts) {
+            for (int count : row) {
+                if (count != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
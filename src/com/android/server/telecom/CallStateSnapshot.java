@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.telephony.TelephonyManager;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * Immutable summary of the call state, published by {@link CallsManager} each time the set of
+ * calls or their states change.  Used to answer the read-only {@link TelecomServiceImpl} queries
+ * (e.g. {@link android.telecom.TelecomManager#isInCall()}) without acquiring the
+ * {@link TelecomSystem.SyncRoot} lock.
+ * <p>
+ * The version increases by one each time a snapshot with different contents is published, which
+ * lets callers detect whether the state changed between two reads.
+ */
+public final class CallStateSnapshot {
+    /** Snapshot used before any call has been added. */
+    public static final CallStateSnapshot EMPTY = new CallStateSnapshot(0 /* version */,
+            false /* hasOngoingCalls */, false /* hasOngoingManagedCalls */,
+            false /* hasRingingCall */, TelephonyManager.CALL_STATE_IDLE);
+
+    private final long mVersion;
+    private final boolean mHasOngoingCalls;
+    private final boolean mHasOngoingManagedCalls;
+    private final boolean mHasRingingCall;
+    private final int mCallState;
+
+    @VisibleForTesting
+    public CallStateSnapshot(long version, boolean hasOngoingCalls,
+            boolean hasOngoingManagedCalls, boolean hasRingingCall, int callState) {
+        mVersion = version;
+        mHasOngoingCalls = hasOngoingCalls;
+        mHasOngoingManagedCalls = hasOngoingManagedCalls;
+        mHasRingingCall = hasRingingCall;
+        mCallState = callState;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return {@code true} if there are ongoing managed or self-managed calls.
+     * @see CallsManager#hasOngoingCalls()
+     */
+    public boolean hasOngoingCalls() {
+        return mHasOngoingCalls;
+    }
+
+    /**
+     * @return {@code true} if there are ongoing managed calls.
+     * @see CallsManager#hasOngoingManagedCalls()
+     */
+    public boolean hasOngoingManagedCalls() {
+        return mHasOngoingManagedCalls;
+    }
+
+    /**
+     * @return {@code true} if there is a ringing, simulated ringing or answered call.
+     * @see CallsManager#hasRingingOrSimulatedRingingCall()
+     */
+    public boolean hasRingingOrSimulatedRingingCall() {
+        return mHasRingingCall;
+    }
+
+    /**
+     * @return The {@link TelephonyManager} call state, as last broadcast by
+     *         {@link PhoneStateBroadcaster}.
+     */
+    public int getCallState() {
+        return mCallState;
+    }
+
+    /**
+     * @return {@code true} if this snapshot reports the same state as {@code other}, ignoring the
+     *         version.
+     */
+    public boolean hasSameState(CallStateSnapshot other) {
+        return other != null
+                && mHasOngoingCalls == other.mHasOngoingCalls
+                && mHasOngoingManagedCalls == other.mHasOngoingManagedCalls
+                && mHasRingingCall == other.mHasRingingCall
+                && mCallState == other.mCallState;
+    }
+
+    @Override
+    public String toString() {
+        return "[CallStateSnapshot v" + mVersion
+                + ", ongoing=" + mHasOngoingCalls
+                + ", ongoingManaged=" + mHasOngoingManagedCalls
+                + ", ringing=" + mHasRingingCall
+                + ", callState=" + mCallState + "]";
+    }
+}
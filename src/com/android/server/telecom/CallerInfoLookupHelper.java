@@ -18,9 +18,13 @@ package com.android.server.telecom;
 
 import android.annotation.Nullable;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.provider.ContactsContract;
 import android.telecom.Log;
 import android.telecom.Logging.Runnable;
 import android.telecom.Logging.Session;
@@ -28,10 +32,12 @@ import android.text.TextUtils;
 import android.util.Pair;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
 import android.telecom.CallerInfo;
 import android.telecom.CallerInfoAsyncQuery;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -52,19 +58,69 @@ public class CallerInfoLookupHelper {
         public CallerInfo callerInfo;
         public List<OnQueryCompleteListener> listeners;
         public boolean imageQueryPending = false;
+        /** The cache generation when the query started; see {@link #mCacheGeneration}. */
+        public int cacheGeneration;
+        /** Whether the caller info came from the cache, so only the photo is being looked up. */
+        public boolean isFromCache;
 
         public CallerInfoQueryInfo() {
             listeners = new LinkedList<>();
         }
     }
 
+    private static class CachedCallerInfo {
+        public final CallerInfo callerInfo;
+        public final long cachedAtMillis;
+
+        public CachedCallerInfo(CallerInfo callerInfo, long cachedAtMillis) {
+            this.callerInfo = callerInfo;
+            this.cachedAtMillis = cachedAtMillis;
+        }
+    }
+
+    @VisibleForTesting
+    public static final int CACHE_MAX_ENTRIES = 64;
+    private static final long CACHE_TTL_MILLIS = 5 * 60 * 1000;
+
     private final Map<Uri, CallerInfoQueryInfo> mQueryEntries = new HashMap<>();
+    /**
+     * Completed lookups, including those which found no contact, in least recently used order.
+     * Each entry is a copy without the contact photo, so that the cache neither shares objects
+     * with the calls nor keeps bitmaps which the photo cache could otherwise trim.  Cleared
+     * whenever the contacts change or the user switches.
+     */
+    private final LinkedHashMap<Uri, CachedCallerInfo> mCache =
+            new LinkedHashMap<Uri, CachedCallerInfo>(16, 0.75f, true /* accessOrder */) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Uri, CachedCallerInfo> eldest) {
+                    return size() > CACHE_MAX_ENTRIES;
+                }
+            };
+    /** Incremented whenever the contacts change, so that in-flight lookups are not cached. */
+    private int mCacheGeneration;
+    private long mCacheTtlMillis = CACHE_TTL_MILLIS;
+    private long mCacheHits;
+    private long mCacheMisses;
+    private long mCacheInvalidations;
 
     private final CallerInfoAsyncQueryFactory mCallerInfoAsyncQueryFactory;
     private final ContactsAsyncHelper mContactsAsyncHelper;
     private final Context mContext;
     private final TelecomSystem.SyncRoot mLock;
     private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ContentObserver mContactsObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            Log.startSession("CILH.oC");
+            try {
+                synchronized (mLock) {
+                    invalidateCache();
+                }
+            } finally {
+                Log.endSession();
+            }
+        }
+    };
 
     public CallerInfoLookupHelper(Context context,
             CallerInfoAsyncQueryFactory callerInfoAsyncQueryFactory,
@@ -74,6 +130,8 @@ public class CallerInfoLookupHelper {
         mContactsAsyncHelper = contactsAsyncHelper;
         mContext = context;
         mLock = lock;
+        context.getContentResolver().registerContentObserver(ContactsContract.AUTHORITY_URI,
+                true, mContactsObserver, UserHandle.USER_ALL);
     }
 
     /**
@@ -130,6 +188,23 @@ public class CallerInfoLookupHelper {
         }
 
         synchronized (mLock) {
+            CallerInfo cachedInfo = mQueryEntries.containsKey(handle) ? null
+                    : getCachedCallerInfo(handle);
+            if (cachedInfo != null) {
+                Log.i(this, "Using cached caller info for handle %s", Log.piiHandle(handle));
+                listener.onCallerInfoQueryComplete(handle, cachedInfo);
+                if (cachedInfo.getContactDisplayPhotoUri() != null) {
+                    // The photo is not cached with the caller info; get it from the photo cache.
+                    CallerInfoQueryInfo info = new CallerInfoQueryInfo();
+                    info.callerInfo = cachedInfo;
+                    info.imageQueryPending = true;
+                    info.isFromCache = true;
+                    info.listeners.add(listener);
+                    mQueryEntries.put(handle, info);
+                    startPhotoLookup(handle, cachedInfo.getContactDisplayPhotoUri());
+                }
+                return;
+            }
             if (mQueryEntries.containsKey(handle)) {
                 CallerInfoQueryInfo info = mQueryEntries.get(handle);
                 if (info.callerInfo != null) {
@@ -154,6 +229,7 @@ public class CallerInfoLookupHelper {
             } else {
                 CallerInfoQueryInfo info = new CallerInfoQueryInfo();
                 info.listeners.add(listener);
+                info.cacheGeneration = mCacheGeneration;
                 mQueryEntries.put(handle, info);
             }
         }
@@ -195,6 +271,7 @@ public class CallerInfoLookupHelper {
                             Log.i(CallerInfoLookupHelper.this, "There is no photo for this " +
                                     "contact, skipping photo query");
                             mQueryEntries.remove(handle);
+                            cacheCallerInfo(handle, ci, info.cacheGeneration);
                         } else {
                             info.callerInfo = ci;
                             info.imageQueryPending = true;
@@ -248,6 +325,9 @@ public class CallerInfoLookupHelper {
                             l.onContactPhotoQueryComplete(handle, info.callerInfo);
                         }
                         mQueryEntries.remove(handle);
+                        if (!info.isFromCache) {
+                            cacheCallerInfo(handle, info.callerInfo, info.cacheGeneration);
+                        }
                     } else {
                         Log.i(CallerInfoLookupHelper.this, "Photo query for handle %s has" +
                                 " completed, but there are no listeners left.",
@@ -260,6 +340,84 @@ public class CallerInfoLookupHelper {
         };
     }
 
+    private CallerInfo getCachedCallerInfo(Uri handle) {
+        CachedCallerInfo cached = mCache.get(handle);
+        if (cached != null
+                && SystemClock.elapsedRealtime() - cached.cachedAtMillis < mCacheTtlMillis) {
+            mCacheHits++;
+            return copyWithoutPhoto(cached.callerInfo);
+        }
+        if (cached != null) {
+            mCache.remove(handle);
+        }
+        mCacheMisses++;
+        return null;
+    }
+
+    private void cacheCallerInfo(Uri handle, CallerInfo callerInfo, int cacheGeneration) {
+        if (cacheGeneration == mCacheGeneration) {
+            mCache.put(handle, new CachedCallerInfo(copyWithoutPhoto(callerInfo),
+                    SystemClock.elapsedRealtime()));
+        }
+    }
+
+    /**
+     * Copies the parts of the caller info which Telecom uses, leaving out the photo.  The contact
+     * id is not copied, as {@link CallerInfo} has no way to set it; the contact's lookup key
+     * identifies it on its own.
+     */
+    private static CallerInfo copyWithoutPhoto(CallerInfo callerInfo) {
+        CallerInfo copy = new CallerInfo();
+        copy.setName(callerInfo.getName());
+        copy.setPhoneNumber(callerInfo.getPhoneNumber());
+        copy.normalizedNumber = callerInfo.normalizedNumber;
+        copy.contactExists = callerInfo.contactExists;
+        copy.numberType = callerInfo.numberType;
+        copy.numberLabel = callerInfo.numberLabel;
+        copy.lookupKey = callerInfo.lookupKey;
+        copy.userType = callerInfo.userType;
+        copy.contactRingtoneUri = callerInfo.contactRingtoneUri;
+        copy.shouldSendToVoicemail = callerInfo.shouldSendToVoicemail;
+        copy.preferredPhoneAccountComponent = callerInfo.preferredPhoneAccountComponent;
+        copy.preferredPhoneAccountId = callerInfo.preferredPhoneAccountId;
+        copy.SetContactDisplayPhotoUri(callerInfo.getContactDisplayPhotoUri());
+        return copy;
+    }
+
+    /**
+     * Drops the cached lookups, which were made for the contacts of the previous user.
+     */
+    public void onUserSwitched() {
+        synchronized (mLock) {
+            invalidateCache();
+        }
+    }
+
+    private void invalidateCache() {
+        mCacheGeneration++;
+        mCacheInvalidations++;
+        mCache.clear();
+        mContactsAsyncHelper.clearPhotoCache();
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("cache: entries=" + mCache.size() + ", hits=" + mCacheHits + ", misses="
+                    + mCacheMisses + ", invalidations=" + mCacheInvalidations);
+        }
+        mContactsAsyncHelper.dump(pw);
+    }
+
+    @VisibleForTesting
+    public void setCacheTtlMillis(long cacheTtlMillis) {
+        mCacheTtlMillis = cacheTtlMillis;
+    }
+
+    @VisibleForTesting
+    public ContentObserver getContactsObserver() {
+        return mContactsObserver;
+    }
+
     @VisibleForTesting
     public Map<Uri, CallerInfoQueryInfo> getCallerInfoEntries() {
         return mQueryEntries;
@@ -57,7 +57,6 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.PersistableBundle;
 import android.os.Process;
@@ -105,10 +104,15 @@ import com.android.server.telecom.bluetooth.BluetoothRouteManager;
 import com.android.server.telecom.bluetooth.BluetoothStateReceiver;
 import com.android.server.telecom.callfiltering.BlockCheckerAdapter;
 import com.android.server.telecom.callfiltering.BlockCheckerFilter;
+import com.android.server.telecom.callfiltering.BlockedNumberIndex;
+import com.android.server.telecom.callfiltering.CallFilter;
+import com.android.server.telecom.callfiltering.CallFilterGraphSpec;
 import com.android.server.telecom.callfiltering.CallFilterResultCallback;
+import com.android.server.telecom.callfiltering.CallFilteringExecutor;
 import com.android.server.telecom.callfiltering.CallFilteringResult;
 import com.android.server.telecom.callfiltering.CallFilteringResult.Builder;
 import com.android.server.telecom.callfiltering.CallScreeningServiceFilter;
+import com.android.server.telecom.callfiltering.CallScreeningServicePool;
 import com.android.server.telecom.callfiltering.DirectToVoicemailFilter;
 import com.android.server.telecom.callfiltering.IncomingCallFilterGraph;
 import com.android.server.telecom.callredirection.CallRedirectionProcessor;
@@ -129,7 +133,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -141,8 +144,6 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import org.codeaurora.ims.QtiCallConstants;
 import org.codeaurora.ims.utils.QtiCarrierConfigHelper;
@@ -199,21 +200,21 @@ public class CallsManager extends Call.ListenerBase
      * {@link #getNumCallsWithState(int, Call, PhoneAccountHandle, int...)} to indicate only
      * self-managed calls should be included.
      */
-    private static final int CALL_FILTER_SELF_MANAGED = 1;
+    private static final int CALL_FILTER_SELF_MANAGED = CallRegistry.CALL_FILTER_SELF_MANAGED;
 
     /**
      * Call filter specifier used with
      * {@link #getNumCallsWithState(int, Call, PhoneAccountHandle, int...)} to indicate only
      * managed calls should be included.
      */
-    private static final int CALL_FILTER_MANAGED = 2;
+    private static final int CALL_FILTER_MANAGED = CallRegistry.CALL_FILTER_MANAGED;
 
     /**
      * Call filter specifier used with
      * {@link #getNumCallsWithState(int, Call, PhoneAccountHandle, int...)} to indicate both managed
      * and self-managed calls should be included.
      */
-    private static final int CALL_FILTER_ALL = 3;
+    private static final int CALL_FILTER_ALL = CallRegistry.CALL_FILTER_ALL;
 
     private static final String PERMISSION_PROCESS_PHONE_ACCOUNT_REGISTRATION =
             "android.permission.PROCESS_PHONE_ACCOUNT_REGISTRATION";
@@ -241,6 +242,12 @@ public class CallsManager extends Call.ListenerBase
             {CallState.CONNECTING, CallState.SELECT_PHONE_ACCOUNT, CallState.DIALING,
                     CallState.PULLING, CallState.ACTIVE, CallState.AUDIO_PROCESSING};
 
+    private static final int[] HOLDING_CALL_STATES = {CallState.ON_HOLD};
+
+    private static final int[] RINGING_CALL_STATES = {CallState.RINGING, CallState.ANSWERED};
+
+    private static final int[] DIALING_CALL_STATES = {CallState.DIALING, CallState.PULLING};
+
     /**
      * These states determine which calls will cause {@link TelecomManager#isInCall()} or
      * {@link TelecomManager#isInManagedCall()} to return true.
@@ -285,6 +292,19 @@ public class CallsManager extends Call.ListenerBase
     private final Set<Call> mCalls = Collections.newSetFromMap(
             new ConcurrentHashMap<Call, Boolean>(8, 0.9f, 1));
 
+    /**
+     * Per-state counters for the calls in {@link #mCalls}, used to answer
+     * {@link #getNumCallsWithState(int, Call, PhoneAccountHandle, int...)} without scanning the
+     * call list.
+     */
+    private final CallRegistry mCallRegistry = new CallRegistry();
+
+    /**
+     * Last published summary of the call state; read without the Telecom lock by
+     * {@link TelecomServiceImpl}.  Only replaced while holding the Telecom lock.
+     */
+    private volatile CallStateSnapshot mCallStateSnapshot = CallStateSnapshot.EMPTY;
+
     /**
      * A pending call is one which requires user-intervention in order to be placed.
      * Used by {@link #startCallConfirmation}.
@@ -400,7 +420,11 @@ public class CallsManager extends Call.ListenerBase
 
     private Runnable mStopTone;
 
-    private LinkedList<HandlerThread> mGraphHandlerThreads;
+    private final CallFilteringExecutor mCallFilteringExecutor;
+    private final BlockedNumberIndex mBlockedNumberIndex;
+    private final CallScreeningServicePool mCallScreeningServicePool;
+    private String mCallFilterGraphSpecConfig;
+    private CallFilterGraphSpec mCallFilterGraphSpec;
 
     private boolean mHasActiveRttCall = false;
 
@@ -513,7 +537,9 @@ public class CallsManager extends Call.ListenerBase
             InCallControllerFactory inCallControllerFactory,
             CallDiagnosticServiceController callDiagnosticServiceController,
             RoleManagerAdapter roleManagerAdapter,
-            ToastFactory toastFactory) {
+            ToastFactory toastFactory,
+            CallFilteringExecutor callFilteringExecutor,
+            CallScreeningServicePool callScreeningServicePool) {
         mContext = context;
         mLock = lock;
         mPhoneNumberUtilsAdapter = phoneNumberUtilsAdapter;
@@ -530,6 +556,9 @@ public class CallsManager extends Call.ListenerBase
         mTimeoutsAdapter = timeoutsAdapter;
         mEmergencyCallHelper = emergencyCallHelper;
         mCallerInfoLookupHelper = callerInfoLookupHelper;
+        mCallFilteringExecutor = callFilteringExecutor;
+        mBlockedNumberIndex = new BlockedNumberIndex(context, mCallFilteringExecutor);
+        mCallScreeningServicePool = callScreeningServicePool;
 
         mDtmfLocalTonePlayer =
                 new DtmfLocalTonePlayer(new DtmfLocalTonePlayer.ToneGeneratorProxy());
@@ -620,7 +649,6 @@ public class CallsManager extends Call.ListenerBase
         intentFilter.addAction(SystemContract.ACTION_BLOCK_SUPPRESSION_STATE_CHANGED);
         intentFilter.addAction(ACTION_MSIM_VOICE_CAPABILITY_CHANGED);
         context.registerReceiver(mReceiver, intentFilter);
-        mGraphHandlerThreads = new LinkedList<>();
         QtiCarrierConfigHelper.getInstance().setup(mContext);
     }
 
@@ -724,39 +752,62 @@ public class CallsManager extends Call.ListenerBase
         ParcelableCallUtils.Converter converter = new ParcelableCallUtils.Converter();
 
         IncomingCallFilterGraph graph = new IncomingCallFilterGraph(incomingCall,
-                this::onCallFilteringComplete, mContext, mTimeoutsAdapter, mLock);
+                this::onCallFilteringComplete, mContext, mTimeoutsAdapter, mLock,
+                mCallFilteringExecutor);
         DirectToVoicemailFilter voicemailFilter = new DirectToVoicemailFilter(incomingCall,
                 mCallerInfoLookupHelper);
         BlockCheckerFilter blockCheckerFilter = new BlockCheckerFilter(mContext, incomingCall,
-                mCallerInfoLookupHelper, new BlockCheckerAdapter());
+                mCallerInfoLookupHelper, new BlockCheckerAdapter(), mCallFilteringExecutor,
+                mBlockedNumberIndex);
         CallScreeningServiceFilter carrierCallScreeningServiceFilter =
                 new CallScreeningServiceFilter(incomingCall, carrierPackageName,
                         CallScreeningServiceFilter.PACKAGE_TYPE_CARRIER, mContext, this,
-                        appLabelProxy, converter);
+                        appLabelProxy, converter, mCallScreeningServicePool);
         CallScreeningServiceFilter callScreeningServiceFilter;
         if ((userChosenPackageName != null)
                 && (!userChosenPackageName.equals(defaultDialerPackageName))) {
             callScreeningServiceFilter = new CallScreeningServiceFilter(incomingCall,
                     userChosenPackageName, CallScreeningServiceFilter.PACKAGE_TYPE_USER_CHOSEN,
-                    mContext, this, appLabelProxy, converter);
+                    mContext, this, appLabelProxy, converter, mCallScreeningServicePool);
         } else {
             callScreeningServiceFilter = new CallScreeningServiceFilter(incomingCall,
                     defaultDialerPackageName,
                     CallScreeningServiceFilter.PACKAGE_TYPE_DEFAULT_DIALER,
-                    mContext, this, appLabelProxy, converter);
-        }
-        graph.addFilter(voicemailFilter);
-        graph.addFilter(blockCheckerFilter);
-        graph.addFilter(carrierCallScreeningServiceFilter);
-        graph.addFilter(callScreeningServiceFilter);
-        IncomingCallFilterGraph.addEdge(voicemailFilter, carrierCallScreeningServiceFilter);
-        IncomingCallFilterGraph.addEdge(blockCheckerFilter, carrierCallScreeningServiceFilter);
-        IncomingCallFilterGraph.addEdge(carrierCallScreeningServiceFilter,
-                callScreeningServiceFilter);
-        mGraphHandlerThreads.add(graph.getHandlerThread());
+                    mContext, this, appLabelProxy, converter, mCallScreeningServicePool);
+            // Start binding while the earlier filters run.  A user chosen app is only bound once
+            // its filter decides to screen the call, as it may not be allowed to see the call.
+            mCallScreeningServicePool.warmUp(defaultDialerPackageName, getCurrentUserHandle());
+        }
+        mCallScreeningServicePool.warmUp(carrierPackageName, getCurrentUserHandle());
+        Map<String, CallFilter> filters = new HashMap<>();
+        filters.put(CallFilterGraphSpec.VOICEMAIL, voicemailFilter);
+        filters.put(CallFilterGraphSpec.BLOCK_CHECKER, blockCheckerFilter);
+        filters.put(CallFilterGraphSpec.CARRIER_SCREENING, carrierCallScreeningServiceFilter);
+        filters.put(CallFilterGraphSpec.USER_SCREENING, callScreeningServiceFilter);
+        getCallFilterGraphSpec(filters.keySet()).addTo(graph, filters);
         return graph;
     }
 
+    /**
+     * @return The configured filter graph, or the default graph if none is configured.
+     */
+    private CallFilterGraphSpec getCallFilterGraphSpec(Set<String> filterNames) {
+        String spec = mTimeoutsAdapter.getCallFilterGraph();
+        if (mCallFilterGraphSpec == null || !Objects.equals(spec, mCallFilterGraphSpecConfig)) {
+            mCallFilterGraphSpecConfig = spec;
+            mCallFilterGraphSpec = CallFilterGraphSpec.parseOrDefault(spec, filterNames);
+            long timeoutMillis = mTimeoutsAdapter.getCallScreeningTimeoutMillis(
+                    mContext.getContentResolver());
+            long criticalPathMillis = mCallFilterGraphSpec.getCriticalPathMillis(0);
+            if (criticalPathMillis > timeoutMillis) {
+                Log.w(this, "Filter deadlines along %s add up to %d ms, over the %d ms timeout",
+                        mCallFilterGraphSpec.getCriticalPath(0), criticalPathMillis,
+                        timeoutMillis);
+            }
+        }
+        return mCallFilterGraphSpec;
+    }
+
     private String getCarrierPackageName() {
         ComponentName componentName = null;
         CarrierConfigManager configManager = (CarrierConfigManager) mContext.getSystemService
@@ -777,7 +828,6 @@ public class CallsManager extends Call.ListenerBase
         // that the connection service disconnected the call before it was even added to Telecom, in
         // which case it makes no sense to set it back to a ringing state.
         Log.i(this, "onCallFilteringComplete");
-        mGraphHandlerThreads.clear();
 
         if (timeout) {
             Log.i(this, "onCallFilteringCompleted: Call filters timeout!");
@@ -1018,18 +1068,34 @@ public class CallsManager extends Call.ListenerBase
 
     @Override
     public void onConnectionPropertiesChanged(Call call, boolean didRttChange) {
+        // Self-managed and external calls are reflected in the connection properties.
+        mCallRegistry.updateCall(call);
         if (didRttChange) {
             updateHasActiveRttCall();
         }
+        publishCallStateSnapshot();
     }
 
     @Override
     public void onParentChanged(Call call) {
+        mCallRegistry.updateCall(call);
         // parent-child relationship affects which call should be foreground, so do an update.
         updateCanAddCall();
         for (CallsManagerListener listener : mListeners) {
             listener.onIsConferencedChanged(call);
         }
+        publishCallStateSnapshot();
+    }
+
+    @Override
+    public void onStateChanged(Call call, int oldState, int newState) {
+        mCallRegistry.updateCall(call);
+        publishCallStateSnapshot();
+    }
+
+    @Override
+    public void onTargetPhoneAccountChanged(Call call) {
+        mCallRegistry.updateCall(call);
     }
 
     @Override
@@ -3003,9 +3069,11 @@ public class CallsManager extends Call.ListenerBase
     @Override
     public void onExternalCallChanged(Call call, boolean isExternalCall) {
         Log.v(this, "onConnectionPropertiesChanged: %b", isExternalCall);
+        mCallRegistry.updateCall(call);
         for (CallsManagerListener listener : mListeners) {
             listener.onExternalCallChanged(call, isExternalCall);
         }
+        publishCallStateSnapshot();
     }
 
     private void handleCallTechnologyChange(Call call) {
@@ -3808,6 +3876,7 @@ public class CallsManager extends Call.ListenerBase
         Log.i(this, "addCall(%s)", call);
         call.addListener(this);
         mCalls.add(call);
+        mCallRegistry.addCall(call);
 
         // Specifies the time telecom finished routing the call. This is used by the dialer for
         // analytics.
@@ -3829,6 +3898,7 @@ public class CallsManager extends Call.ListenerBase
                 Trace.endSection();
             }
         }
+        publishCallStateSnapshot();
         Trace.endSection();
     }
 
@@ -3845,6 +3915,7 @@ public class CallsManager extends Call.ListenerBase
         boolean shouldNotify = false;
         if (mCalls.contains(call)) {
             mCalls.remove(call);
+            mCallRegistry.removeCall(call);
             shouldNotify = true;
         }
 
@@ -3863,6 +3934,7 @@ public class CallsManager extends Call.ListenerBase
                     Trace.endSection();
                 }
             }
+            publishCallStateSnapshot();
         }
         Trace.endSection();
     }
@@ -3959,6 +4031,8 @@ public class CallsManager extends Call.ListenerBase
                     Trace.endSection();
                 }
             }
+            // Publish again now that PhoneStateBroadcaster has seen the change.
+            publishCallStateSnapshot();
         }
     }
 
@@ -4154,31 +4228,38 @@ public class CallsManager extends Call.ListenerBase
     @VisibleForTesting
     public int getNumCallsWithState(final int callFilter, Call excludeCall,
                                     PhoneAccountHandle phoneAccountHandle, int... states) {
+        return mCallRegistry.getNumCallsWithState(callFilter, excludeCall, phoneAccountHandle,
+                states);
+    }
 
-        Set<Integer> desiredStates = IntStream.of(states).boxed().collect(Collectors.toSet());
-
-        Stream<Call> callsStream = mCalls.stream()
-                .filter(call -> desiredStates.contains(call.getState()) &&
-                        call.getParentCall() == null && !call.isExternalCall());
-
-        if (callFilter == CALL_FILTER_MANAGED) {
-            callsStream = callsStream.filter(call -> !call.isSelfManaged());
-        } else if (callFilter == CALL_FILTER_SELF_MANAGED) {
-            callsStream = callsStream.filter(call -> call.isSelfManaged());
-        }
+    @VisibleForTesting
+    public CallRegistry getCallRegistry() {
+        return mCallRegistry;
+    }
 
-        // If a call to exclude was specified, filter it out.
-        if (excludeCall != null) {
-            callsStream = callsStream.filter(call -> call != excludeCall);
-        }
+    /**
+     * @return The last published {@link CallStateSnapshot}.  Safe to call without holding the
+     *         Telecom lock.
+     */
+    public CallStateSnapshot getCallStateSnapshot() {
+        return mCallStateSnapshot;
+    }
 
-        // If a phone account handle was specified, only consider calls for that phone account.
-        if (phoneAccountHandle != null) {
-            callsStream = callsStream.filter(
-                    call -> phoneAccountHandle.equals(call.getTargetPhoneAccount()));
+    /**
+     * Recomputes the {@link CallStateSnapshot} and publishes it if anything changed.  Must be
+     * called with the Telecom lock held after any change which affects the snapshot.
+     */
+    private void publishCallStateSnapshot() {
+        CallStateSnapshot current = mCallStateSnapshot;
+        CallStateSnapshot next = new CallStateSnapshot(current.getVersion() + 1,
+                hasOngoingCalls(), hasOngoingManagedCalls(),
+                getNumCallsWithState(CALL_FILTER_ALL, null /* excludeCall */,
+                        null /* phoneAccountHandle */, CallState.SIMULATED_RINGING,
+                        CallState.RINGING, CallState.ANSWERED) > 0,
+                getCallState());
+        if (!next.hasSameState(current)) {
+            mCallStateSnapshot = next;
         }
-
-        return (int) callsStream.count();
     }
 
     private boolean hasMaximumLiveCalls(Call exceptCall) {
@@ -4199,7 +4280,7 @@ public class CallsManager extends Call.ListenerBase
 
     private boolean hasMaximumManagedHoldingCalls(Call exceptCall) {
         return MAXIMUM_HOLD_CALLS <= getNumCallsWithState(false /* isSelfManaged */, exceptCall,
-                null /* phoneAccountHandle */, CallState.ON_HOLD);
+                null /* phoneAccountHandle */, HOLDING_CALL_STATES);
     }
 
     /**
@@ -4210,21 +4291,20 @@ public class CallsManager extends Call.ListenerBase
     private boolean hasMaximumManagedRingingCalls(Call exceptCall) {
         // At any point we should have only one incoming call on a given PhoneAccount.
         if (MAXIMUM_RINGING_CALLS <= getNumCallsWithState(false /* isSelfManaged */,
-                exceptCall, exceptCall.getTargetPhoneAccount(), CallState.RINGING,
-                CallState.ANSWERED)) {
+                exceptCall, exceptCall.getTargetPhoneAccount(), RINGING_CALL_STATES)) {
             return true;
         }
         // Check if we are exceeding overall maximum ringing call count.
         int maxAllowedManagedRingingCalls = TelephonyManager.isConcurrentCallsPossible() ?
                 MAXIMUM_RINGING_CALLS_DSDA : MAXIMUM_RINGING_CALLS;
         return maxAllowedManagedRingingCalls <= getNumCallsWithState(false /* isSelfManaged */,
-                exceptCall, null /*phoneAccountHandle*/, CallState.RINGING, CallState.ANSWERED);
+                exceptCall, null /*phoneAccountHandle*/, RINGING_CALL_STATES);
     }
 
     private boolean hasMaximumSelfManagedRingingCalls(Call exceptCall,
                                                       PhoneAccountHandle phoneAccountHandle) {
         return MAXIMUM_RINGING_CALLS <= getNumCallsWithState(true /* isSelfManaged */, exceptCall,
-                phoneAccountHandle, CallState.RINGING, CallState.ANSWERED);
+                phoneAccountHandle, RINGING_CALL_STATES);
     }
 
     private boolean hasMaximumOutgoingCalls(Call exceptCall) {
@@ -4239,7 +4319,7 @@ public class CallsManager extends Call.ListenerBase
 
     private boolean hasMaximumManagedDialingCalls(Call exceptCall) {
         return MAXIMUM_DIALING_CALLS <= getNumCallsWithState(false /* isSelfManaged */, exceptCall,
-                null /* phoneAccountHandle */, CallState.DIALING, CallState.PULLING);
+                null /* phoneAccountHandle */, DIALING_CALL_STATES);
     }
 
     /**
@@ -4287,7 +4367,8 @@ public class CallsManager extends Call.ListenerBase
     }
 
     /**
-     * Determines if there are any ongoing managed or self-managed calls.
+     * Determines if there are any ongoing managed or self-managed calls.  May be called without
+     * holding the Telecom lock.
      * Note: The {@link #ONGOING_CALL_STATES} are
      * @return {@code true} if there are ongoing managed or self-managed calls, {@code false}
      *      otherwise.
@@ -4300,7 +4381,8 @@ public class CallsManager extends Call.ListenerBase
     }
 
     /**
-     * Determines if there are any ongoing managed calls.
+     * Determines if there are any ongoing managed calls.  May be called without holding the
+     * Telecom lock.
      * @return {@code true} if there are ongoing managed calls, {@code false} otherwise.
      */
     public boolean hasOngoingManagedCalls() {
@@ -4747,6 +4829,7 @@ public class CallsManager extends Call.ListenerBase
     @VisibleForTesting
     public void onUserSwitch(UserHandle userHandle) {
         mCurrentUserHandle = userHandle;
+        mCallerInfoLookupHelper.onUserSwitched();
         mMissedCallNotifier.setCurrentUserHandle(userHandle);
         mRoleManagerAdapter.setCurrentUserHandle(userHandle);
         final UserManager userManager = UserManager.get(mContext);
@@ -4761,6 +4844,8 @@ public class CallsManager extends Call.ListenerBase
      * switched, we reload missed calls of profile that are just started here.
      */
     void onUserStarting(UserHandle userHandle) {
+        // A user which was stopped had its notifications removed, so recount its missed calls.
+        mMissedCallNotifier.resetLoadedCalls(userHandle);
         if (UserUtil.isProfile(mContext, userHandle)) {
             reloadMissedCallsOfUser(userHandle);
         }
@@ -5007,6 +5092,36 @@ public class CallsManager extends Call.ListenerBase
             pw.decreaseIndent();
         }
 
+        pw.println("mCallStateSnapshot: " + mCallStateSnapshot);
+        pw.println("mCallRegistry:");
+        pw.increaseIndent();
+        mCallRegistry.dump(pw);
+        pw.decreaseIndent();
+        pw.println("mCallFilteringExecutor:");
+        pw.increaseIndent();
+        mCallFilteringExecutor.dump(pw);
+        pw.decreaseIndent();
+        pw.println("mBlockedNumberIndex:");
+        pw.increaseIndent();
+        mBlockedNumberIndex.dump(pw);
+        pw.decreaseIndent();
+        pw.println("mCallScreeningServicePool:");
+        pw.increaseIndent();
+        mCallScreeningServicePool.dump(pw);
+        pw.decreaseIndent();
+        pw.println("mCallerInfoLookupHelper:");
+        pw.increaseIndent();
+        mCallerInfoLookupHelper.dump(pw);
+        pw.decreaseIndent();
+        pw.println("mCallLogManager:");
+        pw.increaseIndent();
+        mCallLogManager.dump(pw);
+        pw.decreaseIndent();
+        if (mCallFilterGraphSpec != null) {
+            pw.println("mCallFilterGraphSpec: " + mCallFilterGraphSpec + ", criticalPath: "
+                    + mCallFilterGraphSpec.getCriticalPath(0));
+        }
+
         if (mPendingCall != null) {
             pw.print("mPendingCall:");
             pw.println(mPendingCall.getId());
@@ -5735,10 +5850,6 @@ public class CallsManager extends Call.ListenerBase
         return PhoneAccountHandle.areFromSamePackage(call1TargetAcct, call2TargetAcct);
     }
 
-    public LinkedList<HandlerThread> getGraphHandlerThreads() {
-        return mGraphHandlerThreads;
-    }
-
     private void maybeSendPostCallScreenIntent(Call call) {
         if (call.isEmergencyCall() || (call.isNetworkIdentifiedEmergencyCall()) ||
                 (call.getPostCallPackageName() == null)) {
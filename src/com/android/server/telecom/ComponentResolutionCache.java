@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.telecom.ConnectionService;
+import android.telecom.Log;
+import android.util.Pair;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the {@link ConnectionService} resolution of phone account components so that enumerating
+ * phone accounts does not require a {@link PackageManager} query per account.
+ * <p>
+ * Entries for a package are dropped whenever the package is added, removed or changed.  Only
+ * components which resolve are cached; a component which does not resolve is queried again on the
+ * next lookup, as the accounts of uninstalled or disabled components are not expected to be
+ * looked up frequently.
+ */
+public class ComponentResolutionCache {
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.startSession("CRC.oR");
+            try {
+                Uri data = intent.getData();
+                if (data == null) {
+                    invalidateAll();
+                } else {
+                    invalidatePackage(data.getSchemeSpecificPart());
+                }
+            } finally {
+                Log.endSession();
+            }
+        }
+    };
+
+    private final Context mContext;
+    private final Map<Pair<ComponentName, UserHandle>, List<ResolveInfo>> mCache =
+            new ConcurrentHashMap<>();
+    /** Incremented on every invalidation so that in-flight lookups do not cache stale results. */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mInvalidations = new AtomicLong();
+
+    public ComponentResolutionCache(Context context) {
+        mContext = context;
+
+        IntentFilter packageIntentFilter = new IntentFilter();
+        packageIntentFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageIntentFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageIntentFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageIntentFilter.addDataScheme("package");
+        context.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, packageIntentFilter,
+                null, null);
+    }
+
+    /**
+     * Resolves a {@link ConnectionService} component.
+     * @param componentName The component to resolve.
+     * @param userHandle The user to resolve the component for, or {@code null} for the calling
+     *                   user, in which case the result is not cached.
+     * @return The matching services; empty if the component does not resolve.
+     */
+    public List<ResolveInfo> resolve(ComponentName componentName, UserHandle userHandle) {
+        if (userHandle == null) {
+            // The result depends on the calling user; don't cache it.
+            return query(componentName, null);
+        }
+        Pair<ComponentName, UserHandle> key = new Pair<>(componentName, userHandle);
+        List<ResolveInfo> result = mCache.get(key);
+        if (result != null) {
+            mHits.incrementAndGet();
+            return result;
+        }
+        mMisses.incrementAndGet();
+
+        int generation = mGeneration.get();
+        result = query(componentName, userHandle);
+        if (!result.isEmpty()) {
+            result = Collections.unmodifiableList(result);
+            mCache.put(key, result);
+            if (generation != mGeneration.get()) {
+                // A package changed while querying; the result may already be stale.
+                mCache.remove(key);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops all cached entries for components in the specified package.
+     * @param packageName The package which changed.
+     */
+    public void invalidatePackage(String packageName) {
+        mGeneration.incrementAndGet();
+        mInvalidations.incrementAndGet();
+        mCache.keySet().removeIf(key -> key.first.getPackageName().equals(packageName));
+    }
+
+    @VisibleForTesting
+    public void invalidateAll() {
+        mGeneration.incrementAndGet();
+        mInvalidations.incrementAndGet();
+        mCache.clear();
+    }
+
+    @VisibleForTesting
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    @VisibleForTesting
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    @VisibleForTesting
+    public BroadcastReceiver getPackageReceiver() {
+        return mPackageReceiver;
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        pw.println("entries: " + mCache.size() + ", hits: " + mHits.get() + ", misses: "
+                + mMisses.get() + ", invalidations: " + mInvalidations.get());
+    }
+
+    private List<ResolveInfo> query(ComponentName componentName, UserHandle userHandle) {
+        PackageManager pm = mContext.getPackageManager();
+        Intent intent = new Intent(ConnectionService.SERVICE_INTERFACE);
+        intent.setComponent(componentName);
+        try {
+            if (userHandle != null) {
+                return pm.queryIntentServicesAsUser(intent, 0, userHandle.getIdentifier());
+            } else {
+                return pm.queryIntentServices(intent, 0);
+            }
+        } catch (SecurityException e) {
+            Log.e(this, e, "%s is not visible for the calling user", componentName);
+            return Collections.EMPTY_LIST;
+        }
+    }
+}
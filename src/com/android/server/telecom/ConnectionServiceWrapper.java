@@ -83,7 +83,8 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock,
+                        LogUtils.Sessions.CSW_HANDLE_CREATE_CONNECTION_COMPLETE, () -> {
                     logIncoming("handleCreateConnectionComplete %s", callId);
                     ConnectionServiceWrapper.this
                             .handleCreateConnectionComplete(callId, request, connection);
@@ -97,7 +98,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                             logOutgoing("createConnectionComplete remote exception=%s", e);
                         }
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -114,7 +115,8 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock,
+                        LogUtils.Sessions.CSW_HANDLE_CREATE_CONFERENCE_COMPLETE, () -> {
                     logIncoming("handleCreateConferenceComplete %s", callId);
                     ConnectionServiceWrapper.this
                             .handleCreateConferenceComplete(callId, request, conference);
@@ -127,7 +129,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                         } catch (RemoteException e) {
                         }
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -144,7 +146,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.CSW_SET_ACTIVE, () -> {
                     logIncoming("setActive %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -152,7 +154,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     } else {
                         // Log.w(this, "setActive, unknown call id: %s", msg.obj);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -167,7 +169,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_SET_RINGING, mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.CSW_SET_RINGING, () -> {
                     logIncoming("setRinging %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -175,7 +177,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     } else {
                         // Log.w(this, "setRinging, unknown call id: %s", msg.obj);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -190,7 +192,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.rCCT", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.rCCT", () -> {
                     logIncoming("resetConnectionTime %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -198,7 +200,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     } else {
                         // Log.w(this, "resetConnectionTime, unknown call id: %s", msg.obj);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -211,13 +213,13 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.sVP", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.sVP", () -> {
                     logIncoming("setVideoProvider %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setVideoProvider(videoProvider);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -232,7 +234,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_SET_DIALING, mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.CSW_SET_DIALING, () -> {
                     logIncoming("setDialing %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -240,7 +242,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     } else {
                         // Log.w(this, "setDialing, unknown call id: %s", msg.obj);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -255,13 +257,13 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_SET_PULLING, mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.CSW_SET_PULLING, () -> {
                     logIncoming("setPulling %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         mCallsManager.markCallAsPulling(call);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -278,7 +280,8 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock,
+                        LogUtils.Sessions.CSW_SET_DISCONNECTED, () -> {
                     logIncoming("setDisconnected %s %s", callId, disconnectCause);
                     Call call = mCallIdMapper.getCall(callId);
                     Log.d(this, "disconnect call %s %s", disconnectCause, call);
@@ -287,7 +290,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     } else {
                         // Log.w(this, "setDisconnected, unknown call id: %s", args.arg1);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -302,7 +305,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_SET_ON_HOLD, mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.CSW_SET_ON_HOLD, () -> {
                     logIncoming("setOnHold %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -310,7 +313,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     } else {
                         // Log.w(this, "setOnHold, unknown call id: %s", msg.obj);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -326,7 +329,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.SRR", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.SRR", () -> {
                     logIncoming("setRingbackRequested %s %b", callId, ringback);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -334,7 +337,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     } else {
                         // Log.w(this, "setRingback, unknown call id: %s", args.arg1);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -349,7 +352,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_REMOVE_CALL, mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.CSW_REMOVE_CALL, () -> {
                     logIncoming("removeCall %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -360,7 +363,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                             mCallsManager.markCallAsRemoved(call);
                         }
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -376,7 +379,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.sCC", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.sCC", () -> {
                     logIncoming("setConnectionCapabilities %s %d", callId, connectionCapabilities);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -385,7 +388,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                         // Log.w(ConnectionServiceWrapper.this,
                         // "setConnectionCapabilities, unknown call id: %s", msg.obj);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -401,13 +404,13 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession("CSW.sCP", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.sCP", () -> {
                     logIncoming("setConnectionProperties %s %d", callId, connectionProperties);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setConnectionProperties(connectionProperties);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -424,7 +427,8 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock,
+                        LogUtils.Sessions.CSW_SET_IS_CONFERENCED, () -> {
                     logIncoming("setIsConferenced %s %s", callId, conferenceCallId);
                     Call childCall = mCallIdMapper.getCall(callId);
                     if (childCall != null) {
@@ -438,7 +442,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     } else {
                         // Log.w(this, "setIsConferenced, unknown call id: %s", args.arg1);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -453,7 +457,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.sCMF", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.sCMF", () -> {
                     logIncoming("setConferenceMergeFailed %s", callId);
                     // TODO: we should move the UI for indication a merge failure here
                     // from CallNotifier.onSuppServiceFailed(). This way the InCallUI can
@@ -464,7 +468,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     } else {
                         Log.w(this, "setConferenceMergeFailed, unknown call id: %s", callId);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -502,40 +506,43 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                         .build();
             }
 
+            // The conference may have been replaced above, so the lambda takes a final copy.
+            final ParcelableConference conference = parcelableConference;
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock,
+                        LogUtils.Sessions.CSW_ADD_CONFERENCE_CALL, () -> {
                     if (mCallIdMapper.getCall(callId) != null) {
                         Log.w(this, "Attempting to add a conference call using an existing " +
                                 "call id %s", callId);
                         return;
                     }
-                    logIncoming("addConferenceCall %s %s [%s]", callId, parcelableConference,
-                            parcelableConference.getConnectionIds());
+                    logIncoming("addConferenceCall %s %s [%s]", callId, conference,
+                            conference.getConnectionIds());
 
                     // Make sure that there's at least one valid call. For remote connections
                     // we'll get a add conference msg from both the remote connection service
                     // and from the real connection service.
                     boolean hasValidCalls = false;
-                    for (String connId : parcelableConference.getConnectionIds()) {
+                    for (String connId : conference.getConnectionIds()) {
                         if (mCallIdMapper.getCall(connId) != null) {
                             hasValidCalls = true;
                         }
                     }
                     // But don't bail out if the connection count is 0, because that is a valid
                     // IMS conference state.
-                    if (!hasValidCalls && parcelableConference.getConnectionIds().size() > 0) {
+                    if (!hasValidCalls && conference.getConnectionIds().size() > 0) {
                         Log.d(this, "Attempting to add a conference with no valid calls");
                         return;
                     }
 
                     PhoneAccountHandle phAcc = null;
-                    if (parcelableConference != null &&
-                            parcelableConference.getPhoneAccount() != null) {
-                        phAcc = parcelableConference.getPhoneAccount();
+                    if (conference != null &&
+                            conference.getPhoneAccount() != null) {
+                        phAcc = conference.getPhoneAccount();
                     }
 
-                    Bundle connectionExtras = parcelableConference.getExtras();
+                    Bundle connectionExtras = conference.getExtras();
 
                     String connectIdToCheck = null;
                     if (connectionExtras != null && connectionExtras
@@ -564,22 +571,22 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     } else {
                         // need to create a new Call
                         Call newConferenceCall = mCallsManager.createConferenceCall(callId,
-                                phAcc, parcelableConference);
+                                phAcc, conference);
                         mCallIdMapper.addCall(newConferenceCall, callId);
                         newConferenceCall.setConnectionService(ConnectionServiceWrapper.this);
                         conferenceCall = newConferenceCall;
                     }
 
                     Log.d(this, "adding children to conference %s phAcc %s",
-                            parcelableConference.getConnectionIds(), phAcc);
-                    for (String connId : parcelableConference.getConnectionIds()) {
+                            conference.getConnectionIds(), phAcc);
+                    for (String connId : conference.getConnectionIds()) {
                         Call childCall = mCallIdMapper.getCall(connId);
                         Log.d(this, "found child: %s", connId);
                         if (childCall != null) {
                             childCall.setParentAndChildCall(conferenceCall);
                         }
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -595,7 +602,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.oPDW", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.oPDW", () -> {
                     logIncoming("onPostDialWait %s %s", callId, remaining);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -603,7 +610,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     } else {
                         // Log.w(this, "onPostDialWait, unknown call id: %s", args.arg1);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -619,7 +626,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.oPDC", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.oPDC", () -> {
                     logIncoming("onPostDialChar %s %s", callId, nextChar);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -627,7 +634,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                     } else {
                         // Log.w(this, "onPostDialChar, unknown call id: %s", args.arg1);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -644,12 +651,12 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.qRCS", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.qRCS", () -> {
                     logIncoming("queryRemoteConnectionServices callingPackage=" + callingPackage);
                     ConnectionServiceWrapper.this
                             .queryRemoteConnectionServices(callingUserHandle, callingPackage,
                                     callback);
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -664,13 +671,13 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.sVS", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.sVS", () -> {
                     logIncoming("setVideoState %s %d", callId, videoState);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setVideoState(videoState);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -685,13 +692,13 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.sIVAM", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.sIVAM", () -> {
                     logIncoming("setIsVoipAudioMode %s %b", callId, isVoip);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setIsVoipAudioMode(isVoip);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -707,11 +714,11 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.sAR", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.sAR", () -> {
                     logIncoming("setAudioRoute %s %s", callId,
                             CallAudioState.audioRouteToString(audioRoute));
                     mCallsManager.setAudioRoute(audioRoute, bluetoothAddress);
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -727,13 +734,13 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.sSH", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.sSH", () -> {
                     logIncoming("setStatusHints %s %s", callId, statusHints);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setStatusHints(statusHints);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -748,13 +755,13 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.pE", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.pE", () -> {
                     Bundle.setDefusable(extras, true);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.putExtras(Call.SOURCE_CONNECTION_SERVICE, extras);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -769,13 +776,13 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.rE", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.rE", () -> {
                     logIncoming("removeExtra %s %s", callId, keys);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.removeExtras(Call.SOURCE_CONNECTION_SERVICE, keys);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -792,13 +799,13 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
 
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.sA", () -> {
                     logIncoming("setAddress %s %s %d", callId, address, presentation);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setHandle(address, presentation);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -814,14 +821,14 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.sCDN", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.sCDN", () -> {
                     logIncoming("setCallerDisplayName %s %s %d", callId, callerDisplayName,
                             presentation);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setCallerDisplayName(callerDisplayName, presentation);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -837,7 +844,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.sCC", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.sCC", () -> {
 
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -853,7 +860,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                         }
                         call.setConferenceableCalls(conferenceableCalls);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -877,7 +884,9 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
 
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.aEC", () -> {
+                    // The connection may be replaced below, so the lambda works on a copy.
+                    ParcelableConnection existingConnection = connection;
                     // Make sure that the PhoneAccount associated with the incoming
                     // ParcelableConnection is in fact registered to Telecom and is being called
                     // from the correct user.
@@ -910,9 +919,9 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                         }
                     }
                     if (phoneAccountHandle != null) {
-                        logIncoming("addExistingConnection %s %s", callId, connection);
+                        logIncoming("addExistingConnection %s %s", callId, existingConnection);
 
-                        Bundle connectionExtras = connection.getExtras();
+                        Bundle connectionExtras = existingConnection.getExtras();
                         String connectIdToCheck = null;
                         if (connectionExtras != null && connectionExtras
                                 .containsKey(Connection.EXTRA_ORIGINAL_CONNECTION_ID)) {
@@ -929,36 +938,36 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                         if (connectionExtras != null
                                 && connectionExtras.containsKey(
                                         Connection.EXTRA_ADD_TO_CONFERENCE_ID)
-                                && connection.getParentCallId() == null) {
+                                && existingConnection.getParentCallId() == null) {
                             String parentId = connectionExtras.getString(
                                     Connection.EXTRA_ADD_TO_CONFERENCE_ID);
                             Log.i(ConnectionServiceWrapper.this, "addExistingConnection: remote "
                                     + "connection will auto-add to parent %s", parentId);
                             // Replace parcelable connection instance, swapping the new desired
                             // parent in.
-                            connection = new ParcelableConnection(
-                                    connection.getPhoneAccount(),
-                                    connection.getState(),
-                                    connection.getConnectionCapabilities(),
-                                    connection.getConnectionProperties(),
-                                    connection.getSupportedAudioRoutes(),
-                                    connection.getHandle(),
-                                    connection.getHandlePresentation(),
-                                    connection.getCallerDisplayName(),
-                                    connection.getCallerDisplayNamePresentation(),
-                                    connection.getVideoProvider(),
-                                    connection.getVideoState(),
-                                    connection.isRingbackRequested(),
-                                    connection.getIsVoipAudioMode(),
-                                    connection.getConnectTimeMillis(),
-                                    connection.getConnectElapsedTimeMillis(),
-                                    connection.getStatusHints(),
-                                    connection.getDisconnectCause(),
-                                    connection.getConferenceableConnectionIds(),
-                                    connection.getExtras(),
+                            existingConnection = new ParcelableConnection(
+                                    existingConnection.getPhoneAccount(),
+                                    existingConnection.getState(),
+                                    existingConnection.getConnectionCapabilities(),
+                                    existingConnection.getConnectionProperties(),
+                                    existingConnection.getSupportedAudioRoutes(),
+                                    existingConnection.getHandle(),
+                                    existingConnection.getHandlePresentation(),
+                                    existingConnection.getCallerDisplayName(),
+                                    existingConnection.getCallerDisplayNamePresentation(),
+                                    existingConnection.getVideoProvider(),
+                                    existingConnection.getVideoState(),
+                                    existingConnection.isRingbackRequested(),
+                                    existingConnection.getIsVoipAudioMode(),
+                                    existingConnection.getConnectTimeMillis(),
+                                    existingConnection.getConnectElapsedTimeMillis(),
+                                    existingConnection.getStatusHints(),
+                                    existingConnection.getDisconnectCause(),
+                                    existingConnection.getConferenceableConnectionIds(),
+                                    existingConnection.getExtras(),
                                     parentId,
-                                    connection.getCallDirection(),
-                                    connection.getCallerNumberVerificationStatus());
+                                    existingConnection.getCallDirection(),
+                                    existingConnection.getCallerNumberVerificationStatus());
                         }
                         // Check to see if this Connection has already been added.
                         Call alreadyAddedConnection = mCallsManager
@@ -973,7 +982,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                         }
 
                         Call existingCall = mCallsManager
-                                .createCallForExistingConnection(callId, connection);
+                                .createCallForExistingConnection(callId, existingConnection);
                         mCallIdMapper.addCall(existingCall, callId);
                         existingCall.setConnectionService(ConnectionServiceWrapper.this);
                     } else {
@@ -981,7 +990,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                                 "currently registered with Telecom."), "Unable to " +
                                 "addExistingConnection.");
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -997,13 +1006,13 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.oCE", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.oCE", () -> {
                     Bundle.setDefusable(extras, true);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.onConnectionEvent(event, extras);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -1025,12 +1034,12 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.oRIF", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.oRIF", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.onRttConnectionFailure(reason);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -1052,12 +1061,12 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.oRRR", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.oRRR", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.onRemoteRttRequest();
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -1078,12 +1087,12 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.oPAC", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.oPAC", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setTargetPhoneAccount(pHandle);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -1099,10 +1108,10 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
             Log.startSession(sessionInfo, "CSW.oCSFR", mPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.oCSFR", () -> {
                     mConnSvrFocusListener.onConnectionServiceReleased(
                             ConnectionServiceWrapper.this);
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -1126,12 +1135,12 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
 
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.sCS", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setConferenceState(isConference);
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -1154,13 +1163,13 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
 
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "CSW.sCD", () -> {
                     logIncoming("setCallDirection %s %d", callId, direction);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setCallDirection(Call.getRemappedCallDirection(direction));
                     }
-                }
+                });
             } catch (Throwable t) {
                 Log.e(ConnectionServiceWrapper.this, t, "");
                 throw t;
@@ -17,8 +17,11 @@
 package com.android.server.telecom;
 
 import android.app.Notification;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.telecom.Log;
@@ -27,19 +30,32 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.util.LruCache;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
 
 // TODO: Needed for move to system service: import com.android.internal.R;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Helper class for loading contacts photo asynchronously.
+ * <p>
+ * Decoded photos are kept in a cache keyed by photo URI and bounded by the bytes held by the
+ * decoded bitmaps, so that a photo is not decoded again for each call or notification from the
+ * same contact.  Photos are downsampled while decoding to the size of a notification icon, since
+ * that is the largest size Telecom shows them at.
  */
-public class ContactsAsyncHelper {
+public class ContactsAsyncHelper implements ComponentCallbacks2 {
     private static final String LOG_TAG = ContactsAsyncHelper.class.getSimpleName();
 
+    @VisibleForTesting
+    public static final int PHOTO_CACHE_MAX_BYTES = 4 * 1024 * 1024;
+
     public static class Factory {
         public ContactsAsyncHelper create(ContentResolverAdapter adapter) {
             return new ContactsAsyncHelper(adapter);
@@ -79,6 +95,33 @@ public class ContactsAsyncHelper {
     private Handler mThreadHandler;
     private final ContentResolverAdapter mContentResolverAdapter;
 
+    private static final class CachedPhoto {
+        public final Bitmap photo;
+        public final Bitmap photoIcon;
+
+        public CachedPhoto(Bitmap photo, Bitmap photoIcon) {
+            this.photo = photo;
+            this.photoIcon = photoIcon;
+        }
+
+        public int getByteCount() {
+            int byteCount = photo.getAllocationByteCount();
+            if (photoIcon != null && photoIcon != photo) {
+                byteCount += photoIcon.getAllocationByteCount();
+            }
+            return byteCount;
+        }
+    }
+
+    private final LruCache<Uri, CachedPhoto> mPhotoCache =
+            new LruCache<Uri, CachedPhoto>(PHOTO_CACHE_MAX_BYTES) {
+                @Override
+                protected int sizeOf(Uri key, CachedPhoto value) {
+                    return value.getByteCount();
+                }
+            };
+    private final AtomicLong mDecodedBytes = new AtomicLong(0);
+
     public ContactsAsyncHelper(ContentResolverAdapter contentResolverAdapter) {
         mContentResolverAdapter = contentResolverAdapter;
     }
@@ -112,40 +155,28 @@ public class ContactsAsyncHelper {
 
             switch (msg.arg1) {
                 case EVENT_LOAD_IMAGE:
-                    InputStream inputStream = null;
-                    try {
-                        try {
-                            inputStream = mContentResolverAdapter.openInputStream(
-                                    args.context, args.displayPhotoUri);
-                        } catch (Exception e) {
-                            Log.e(this, e, "Error opening photo input stream");
+                    CachedPhoto cachedPhoto = mPhotoCache.get(args.displayPhotoUri);
+                    if (cachedPhoto == null) {
+                        cachedPhoto = loadPhoto(args.context, args.displayPhotoUri);
+                        if (cachedPhoto != null) {
+                            mDecodedBytes.addAndGet(cachedPhoto.getByteCount());
+                            mPhotoCache.put(args.displayPhotoUri, cachedPhoto);
                         }
+                    }
 
-                        if (inputStream != null) {
-                            args.photo = Drawable.createFromStream(inputStream,
-                                    args.displayPhotoUri.toString());
-
-                            // This assumes Drawable coming from contact database is usually
-                            // BitmapDrawable and thus we can have (down)scaled version of it.
-                            args.photoIcon = getPhotoIconWhenAppropriate(args.context, args.photo);
-
-                            Log.d(this, "Loading image: " + msg.arg1 +
-                                    " token: " + msg.what + " image URI: " + args.displayPhotoUri);
-                        } else {
-                            args.photo = null;
-                            args.photoIcon = null;
-                            Log.d(this, "Problem with image: " + msg.arg1 +
-                                    " token: " + msg.what + " image URI: " + args.displayPhotoUri +
-                                    ", using default image.");
-                        }
-                    } finally {
-                        if (inputStream != null) {
-                            try {
-                                inputStream.close();
-                            } catch (IOException e) {
-                                Log.e(this, e, "Unable to close input stream.");
-                            }
-                        }
+                    if (cachedPhoto != null) {
+                        args.photo = new BitmapDrawable(args.context.getResources(),
+                                cachedPhoto.photo);
+                        args.photoIcon = cachedPhoto.photoIcon;
+
+                        Log.d(this, "Loading image: " + msg.arg1 +
+                                " token: " + msg.what + " image URI: " + args.displayPhotoUri);
+                    } else {
+                        args.photo = null;
+                        args.photoIcon = null;
+                        Log.d(this, "Problem with image: " + msg.arg1 +
+                                " token: " + msg.what + " image URI: " + args.displayPhotoUri +
+                                ", using default image.");
                     }
 
                     // Listener will synchronize as needed
@@ -160,17 +191,59 @@ public class ContactsAsyncHelper {
         }
 
         /**
-         * Returns a Bitmap object suitable for {@link Notification}'s large icon. This might
-         * return null when the given Drawable isn't BitmapDrawable, or if the system fails to
-         * create a scaled Bitmap for the Drawable.
+         * Decodes a photo, downsampled so that it is no smaller than a notification icon.
+         * @return The decoded photo, or {@code null} if it could not be opened or decoded.
          */
-        private Bitmap getPhotoIconWhenAppropriate(Context context, Drawable photo) {
-            if (!(photo instanceof BitmapDrawable)) {
-                return null;
-            }
+        private CachedPhoto loadPhoto(Context context, Uri displayPhotoUri) {
             int iconSize = context.getResources()
                     .getDimensionPixelSize(R.dimen.notification_icon_size);
-            Bitmap orgBitmap = ((BitmapDrawable) photo).getBitmap();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decodeStream(context, displayPhotoUri, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            int longerEdge = Math.max(options.outWidth, options.outHeight);
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = 1;
+            while (longerEdge / (options.inSampleSize * 2) >= iconSize) {
+                options.inSampleSize *= 2;
+            }
+            Bitmap photo = decodeStream(context, displayPhotoUri, options);
+            if (photo == null) {
+                return null;
+            }
+            return new CachedPhoto(photo, getPhotoIconWhenAppropriate(photo, iconSize));
+        }
+
+        private Bitmap decodeStream(Context context, Uri displayPhotoUri,
+                BitmapFactory.Options options) {
+            InputStream inputStream = null;
+            try {
+                try {
+                    inputStream = mContentResolverAdapter.openInputStream(context,
+                            displayPhotoUri);
+                } catch (Exception e) {
+                    Log.e(this, e, "Error opening photo input stream");
+                }
+                return inputStream == null
+                        ? null : BitmapFactory.decodeStream(inputStream, null, options);
+            } finally {
+                if (inputStream != null) {
+                    try {
+                        inputStream.close();
+                    } catch (IOException e) {
+                        Log.e(this, e, "Unable to close input stream.");
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns a Bitmap object suitable for {@link Notification}'s large icon. This might
+         * return null if the system fails to create a scaled Bitmap for the photo.
+         */
+        private Bitmap getPhotoIconWhenAppropriate(Bitmap orgBitmap, int iconSize) {
             int orgWidth = orgBitmap.getWidth();
             int orgHeight = orgBitmap.getHeight();
             int longerEdge = orgWidth > orgHeight ? orgWidth : orgHeight;
@@ -251,4 +324,42 @@ public class ContactsAsyncHelper {
             mThreadHandler = new WorkerHandler(thread.getLooper());
         }
     }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // UI_HIDDEN only means that Telecom's own UI went away, not that memory is low.
+        if (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN) {
+            mPhotoCache.evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE && level != TRIM_MEMORY_UI_HIDDEN) {
+            mPhotoCache.trimToSize(PHOTO_CACHE_MAX_BYTES / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        mPhotoCache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Drops all cached photos, e.g. because the contacts have changed.
+     */
+    public void clearPhotoCache() {
+        mPhotoCache.evictAll();
+    }
+
+    @VisibleForTesting
+    public int getPhotoCacheSize() {
+        return mPhotoCache.size();
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        int hits = mPhotoCache.hitCount();
+        int requests = hits + mPhotoCache.missCount();
+        pw.println("photoCache: bytes=" + mPhotoCache.size() + "/" + mPhotoCache.maxSize()
+                + ", hits=" + hits + "/" + requests + ", decodedBytes=" + mDecodedBytes.get());
+    }
 }
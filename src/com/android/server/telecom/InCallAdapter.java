@@ -54,7 +54,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_ANSWER_CALL, mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.ICA_ANSWER_CALL, () -> {
                     Log.d(this, "answerCall(%s,%d)", callId, videoState);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -62,7 +62,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "answerCall, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -77,7 +77,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_DEFLECT_CALL, mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.ICA_DEFLECT_CALL, () -> {
                     Log.i(this, "deflectCall - %s, %s ", callId, Log.pii(address));
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -85,7 +85,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "deflectCall, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -102,23 +102,25 @@ class InCallAdapter extends IInCallAdapter.Stub {
             int callingUid = Binder.getCallingUid();
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.ICA_REJECT_CALL, () -> {
                     // Check to make sure the in-call app's user isn't restricted from sending SMS.
                     // If so, silently drop the outgoing message. Also drop message if the screen is
                     // locked.
+                    boolean shouldRejectWithMessage = rejectWithMessage;
+                    String message = textMessage;
                     if (!mCallsManager.isReplyWithSmsAllowed(callingUid)) {
-                        rejectWithMessage = false;
-                        textMessage = null;
+                        shouldRejectWithMessage = false;
+                        message = null;
                     }
 
-                    Log.d(this, "rejectCall(%s,%b,%s)", callId, rejectWithMessage, textMessage);
+                    Log.d(this, "rejectCall(%s,%b,%s)", callId, shouldRejectWithMessage, message);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
-                        mCallsManager.rejectCall(call, rejectWithMessage, textMessage);
+                        mCallsManager.rejectCall(call, shouldRejectWithMessage, message);
                     } else {
                         Log.w(this, "setRingback, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -136,7 +138,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             int callingUid = Binder.getCallingUid();
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.ICA_REJECT_CALL, () -> {
                     Log.d(this, "rejectCallWithReason(%s,%d)", callId, rejectReason);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -144,7 +146,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "rejectCallWithReason, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -158,7 +160,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_TRANSFER_CALL, mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.ICA_TRANSFER_CALL, () -> {
                     Log.i(this, "transferCall - %s, %s, %b", callId, Log.pii(targetNumber),
                             isConfirmationRequired);
                     Call call = mCallIdMapper.getCall(callId);
@@ -167,7 +169,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "transferCall, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -183,7 +185,8 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock,
+                        LogUtils.Sessions.ICA_CONSULTATIVE_TRANSFER, () -> {
                     Log.i(this, "consultativeTransfer - %s, %s", callId, otherCallId);
                     Call call = mCallIdMapper.getCall(callId);
                     Call otherCall = mCallIdMapper.getCall(otherCallId);
@@ -193,7 +196,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                         Log.w(this, "consultativeTransfer, unknown call id: %s or %s",
                                 callId, otherCallId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -208,7 +211,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.pDT", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.pDT", () -> {
                     Log.d(this, "playDtmfTone(%s,%c)", callId, digit);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -216,7 +219,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "playDtmfTone, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -231,7 +234,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.sDT", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.sDT", () -> {
                     Log.d(this, "stopDtmfTone(%s)", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -239,7 +242,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "stopDtmfTone, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -254,7 +257,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.pDC", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.pDC", () -> {
                     Log.d(this, "postDialContinue(%s)", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -262,7 +265,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "postDialContinue, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -277,7 +280,8 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_DISCONNECT_CALL, mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock,
+                        LogUtils.Sessions.ICA_DISCONNECT_CALL, () -> {
                     Log.v(this, "disconnectCall: %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -285,7 +289,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "disconnectCall, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -300,14 +304,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_HOLD_CALL, mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.ICA_HOLD_CALL, () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         mCallsManager.holdCall(call);
                     } else {
                         Log.w(this, "holdCall, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -322,14 +326,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_UNHOLD_CALL, mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.ICA_UNHOLD_CALL, () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         mCallsManager.unholdCall(call);
                     } else {
                         Log.w(this, "unholdCall, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -345,14 +349,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.pAS", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.pAS", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         mCallsManager.phoneAccountSelected(call, accountHandle, setDefault);
                     } else {
                         Log.w(this, "phoneAccountSelected, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -367,9 +371,9 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_MUTE, mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.ICA_MUTE, () -> {
                     mCallsManager.mute(shouldMute);
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -384,9 +388,10 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_SET_AUDIO_ROUTE, mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock,
+                        LogUtils.Sessions.ICA_SET_AUDIO_ROUTE, () -> {
                     mCallsManager.setAudioRoute(route, bluetoothAddress);
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -402,14 +407,15 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     mOwnerPackageAbbreviation);
             // TODO: enforce the extra permission.
             Binder.withCleanCallingIdentity(() -> {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock,
+                        LogUtils.Sessions.ICA_ENTER_AUDIO_PROCESSING, () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         mCallsManager.enterBackgroundAudioProcessing(call, mOwnerPackageName);
                     } else {
                         Log.w(this, "enterBackgroundAudioProcessing, unknown call id: %s", callId);
                     }
-                }
+                });
             });
         } finally {
             Log.endSession();
@@ -422,7 +428,8 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_EXIT_AUDIO_PROCESSING,
                     mOwnerPackageAbbreviation);
             Binder.withCleanCallingIdentity(() -> {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock,
+                        LogUtils.Sessions.ICA_EXIT_AUDIO_PROCESSING, () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         mCallsManager.exitBackgroundAudioProcessing(call, shouldRing);
@@ -430,7 +437,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                         Log.w(InCallAdapter.this,
                                 "exitBackgroundAudioProcessing, unknown call id: %s", callId);
                     }
-                }
+                });
             });
         } finally {
             Log.endSession();
@@ -443,7 +450,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_CONFERENCE, mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, LogUtils.Sessions.ICA_CONFERENCE, () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     Call otherCall = mCallIdMapper.getCall(otherCallId);
                     if (call != null && otherCall != null) {
@@ -451,7 +458,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "conference, unknown call id: %s or %s", callId, otherCallId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -466,14 +473,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.sFC", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.sFC", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.splitFromConference();
                     } else {
                         Log.w(this, "splitFromConference, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -488,14 +495,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.mC", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.mC", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.mergeConference();
                     } else {
                         Log.w(this, "mergeConference, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -510,14 +517,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.sC", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.sC", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.swapConference();
                     } else {
                         Log.w(this, "swapConference, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -532,14 +539,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.aCP", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.aCP", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.addConferenceParticipants(participants);
                     } else {
                         Log.w(this, "addConferenceParticipants, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -555,14 +562,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.pEC", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.pEC", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.pullExternalCall();
                     } else {
                         Log.w(this, "pullExternalCall, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -577,14 +584,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.sCE", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.sCE", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.sendCallEvent(event, targetSdkVer, extras);
                     } else {
                         Log.w(this, "sendCallEvent, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -599,14 +606,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.pE", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.pE", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.putExtras(Call.SOURCE_INCALL_SERVICE, extras);
                     } else {
                         Log.w(this, "putExtras, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -621,14 +628,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.rE", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.rE", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.removeExtras(Call.SOURCE_INCALL_SERVICE, keys);
                     } else {
                         Log.w(this, "removeExtra, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -643,9 +650,9 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.tOnPS", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.tOnPS", () -> {
                     mCallsManager.turnOnProximitySensor();
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -660,9 +667,9 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.tOffPS", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.tOffPS", () -> {
                     mCallsManager.turnOffProximitySensor(screenOnImmediately);
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -677,14 +684,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.sRR");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.sRR", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.sendRttRequest();
                     } else {
                         Log.w(this, "stopRtt(): call %s not found", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -699,14 +706,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.rTRR");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.rTRR", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.handleRttRequestResponse(id, accept);
                     } else {
                         Log.w(this, "respondToRttRequest(): call %s not found", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -721,14 +728,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.sRTT");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.sRTT", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.stopRtt();
                     } else {
                         Log.w(this, "stopRtt(): call %s not found", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -743,9 +750,9 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.sRM");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.sRM", () -> {
                     // TODO
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -761,14 +768,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.hT", mOwnerPackageAbbreviation);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "ICA.hT", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.handoverTo(destAcct, videoState, extras);
                     } else {
                         Log.w(this, "handoverTo, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -214,6 +214,7 @@ public class InCallController extends CallsManagerListenerBase implements
                 synchronized (mLock) {
                     try {
                         Log.d(this, "onServiceConnected: %s %b %b", name, mIsBound, mIsConnected);
+                        endBindTrace("connected");
                         mIsBound = true;
                         if (mIsConnected) {
                             // Only proceed if we are supposed to be connected.
@@ -245,6 +246,7 @@ public class InCallController extends CallsManagerListenerBase implements
                 synchronized (mLock) {
                     try {
                         Log.d(this, "onNullBinding: %s", name);
+                        endBindTrace("null binding");
                         mIsNullBinding = true;
                         mIsBound = false;
                         onDisconnected();
@@ -260,6 +262,7 @@ public class InCallController extends CallsManagerListenerBase implements
                 synchronized (mLock) {
                     try {
                         Log.d(this, "onBindingDied: %s", name);
+                        endBindTrace("binding died");
                         mIsBound = false;
                         onDisconnected();
                     } finally {
@@ -273,6 +276,8 @@ public class InCallController extends CallsManagerListenerBase implements
         private boolean mIsConnected = false;
         private boolean mIsBound = false;
         private boolean mIsNullBinding = false;
+        /** Whether a binding has been requested which has not completed yet. */
+        private boolean mIsBindTraced = false;
         private NotificationManager mNotificationManager;
 
         public InCallServiceBindingConnection(InCallServiceInfo info) {
@@ -316,6 +321,8 @@ public class InCallController extends CallsManagerListenerBase implements
             Log.i(this, "Attempting to bind to InCall %s, with %s", mInCallServiceInfo, intent);
             mIsConnected = true;
             mInCallServiceInfo.setBindingStartTime(mClockProxy.elapsedRealtime());
+            mIsBindTraced = true;
+            Trace.beginAsyncSection(getBindTraceName(), System.identityHashCode(this));
             if (!mContext.bindServiceAsUser(intent, mServiceConnection,
                         Context.BIND_AUTO_CREATE | Context.BIND_FOREGROUND_SERVICE |
                         Context.BIND_ALLOW_BACKGROUND_ACTIVITY_STARTS |
@@ -323,6 +330,7 @@ public class InCallController extends CallsManagerListenerBase implements
                         UserHandle.CURRENT)) {
                 Log.w(this, "Failed to connect.");
                 mIsConnected = false;
+                endBindTrace("failed");
             }
 
             if (mIsConnected && call != null) {
@@ -340,6 +348,7 @@ public class InCallController extends CallsManagerListenerBase implements
 
         @Override
         public void disconnect() {
+            endBindTrace("disconnected");
             if (mIsConnected) {
                 mInCallServiceInfo.setDisconnectTime(mClockProxy.elapsedRealtime());
                 Log.i(InCallController.this, "ICSBC#disconnect: unbinding after %s ms;"
@@ -377,6 +386,16 @@ public class InCallController extends CallsManagerListenerBase implements
             return mIsConnected;
         }
 
+        /**
+         * Unbinds from the service and binds to it again, e.g. once it has stopped responding.
+         */
+        public void rebind() {
+            Call call = mCall;
+            Log.i(InCallController.this, "ICSBC#rebind: %s", mInCallServiceInfo);
+            disconnect();
+            connect(call);
+        }
+
         @Override
         public void dump(IndentingPrintWriter pw) {
             pw.print("BindingConnection [");
@@ -388,9 +407,31 @@ public class InCallController extends CallsManagerListenerBase implements
             pw.println("\n");
         }
 
+        /**
+         * Ends the trace of the pending binding, if any, and records how long it took.
+         */
+        private void endBindTrace(String outcome) {
+            if (!mIsBindTraced) {
+                return;
+            }
+            mIsBindTraced = false;
+            Trace.endAsyncSection(getBindTraceName(), System.identityHashCode(this));
+            long latencyMillis =
+                    mClockProxy.elapsedRealtime() - mInCallServiceInfo.getBindingStartTime();
+            Log.i(InCallController.this, "Binding to %s %s after %d ms",
+                    mInCallServiceInfo.getComponentName(), outcome, latencyMillis);
+            if ("connected".equals(outcome)) {
+                mBindLatencies.record(latencyMillis);
+            }
+        }
+
+        private String getBindTraceName() {
+            return "ICSBC.bind " + mInCallServiceInfo.getComponentName().flattenToShortString();
+        }
+
         protected void onConnected(IBinder service) {
             boolean shouldRemainConnected =
-                    InCallController.this.onConnected(mInCallServiceInfo, service);
+                    InCallController.this.onConnected(mInCallServiceInfo, service, this);
             if (!shouldRemainConnected) {
                 // Sometimes we can opt to disconnect for certain reasons, like if the
                 // InCallService rejected our initialization step, or the calls went away
@@ -978,11 +1019,14 @@ public class InCallController extends CallsManagerListenerBase implements
     private static final int IN_CALL_SERVICE_TYPE_NON_UI = 4;
     private static final int IN_CALL_SERVICE_TYPE_COMPANION = 5;
 
+    private static final long IN_CALL_SERVICE_INFO_WARM_UP_DELAY_MILLIS = 1000;
+
     private static final int[] LIVE_CALL_STATES = { CallState.ACTIVE, CallState.PULLING,
             CallState.DISCONNECTING };
 
     /** The in-call app implementations, see {@link IInCallService}. */
-    private final Map<InCallServiceInfo, IInCallService> mInCallServices = new ArrayMap<>();
+    private final Map<InCallServiceInfo, InCallServiceDispatcher> mInCallServices =
+            new ArrayMap<>();
 
     private final CallIdMapper mCallIdMapper = new CallIdMapper(Call::getId);
 
@@ -1039,6 +1083,63 @@ public class InCallController extends CallsManagerListenerBase implements
     private ArraySet<String> mAllCarrierPrivilegedApps = new ArraySet<>();
     private ArraySet<String> mActiveCarrierPrivilegedApps = new ArraySet<>();
 
+    /**
+     * The changes to each call which have not been sent to the {@link InCallService}s yet.
+     */
+    private final Map<Call, PendingCallUpdate> mPendingCallUpdates = new ArrayMap<>();
+
+    /**
+     * The fingerprint of the last update of each call sent to each {@link InCallService}, see
+     * {@link ParcelableCallUtils#getFingerprint}.
+     */
+    private final Map<InCallServiceInfo, Map<Call, byte[]>> mCallFingerprints = new ArrayMap<>();
+
+    /** The number of call updates sent to an {@link InCallService}. */
+    private long mCallUpdatesSent;
+
+    /** The number of call changes which were sent along with an earlier change to the call. */
+    private long mCallUpdatesCoalesced;
+
+    /** The number of call updates not sent to an {@link InCallService} as nothing changed. */
+    private long mCallUpdatesUnchanged;
+
+    /**
+     * The {@link InCallService}s found by each query of {@link #getInCallServiceComponents}, by
+     * user and query, so that binding for a new call does not have to wait on the package
+     * manager.  Cleared whenever a package, the default dialer, or the apps allowed to manage
+     * ongoing calls change.  Guarded by itself, as the package manager is queried without the
+     * lock in some paths.
+     */
+    private final Map<List<Object>, List<InCallServiceInfo>> mInCallServiceInfoCache =
+            new ArrayMap<>();
+    /** Incremented whenever the cache is cleared, so that queries in flight are not cached. */
+    private int mInCallServiceInfoCacheGeneration;
+    private long mInCallServiceInfoCacheHits;
+    private long mInCallServiceInfoCacheMisses;
+
+    /** The time taken to bind to each {@link InCallService}. */
+    private final LatencyHistogram mBindLatencies = new LatencyHistogram();
+
+    private final BroadcastReceiver mInCallServiceInfoCacheReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.startSession("ICC.iCR");
+            try {
+                invalidateInCallServiceInfoCache(intent.getAction());
+            } finally {
+                Log.endSession();
+            }
+        }
+    };
+
+    /**
+     * The changes to a call waiting to be sent to the {@link InCallService}s as one update.
+     */
+    private static final class PendingCallUpdate {
+        boolean videoProviderChanged;
+        boolean rttInfoChanged;
+    }
+
     public InCallController(Context context, TelecomSystem.SyncRoot lock, CallsManager callsManager,
             SystemStateHelper systemStateHelper, DefaultDialerCache defaultDialerCache,
             Timeouts.Adapter timeoutsAdapter, EmergencyCallHelper emergencyCallHelper,
@@ -1056,6 +1157,27 @@ public class InCallController extends CallsManagerListenerBase implements
         mSystemStateHelper.addListener(mSystemStateListener);
         mClockProxy = clockProxy;
         restrictPhoneCallOps();
+        observeInCallServiceInfoChanges();
+    }
+
+    /**
+     * Clears the cached {@link InCallServiceInfo}s whenever a change could alter which services
+     * are found or their types, and resolves them again in the background.
+     */
+    private void observeInCallServiceInfoChanges() {
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addDataScheme("package");
+        mContext.registerReceiverAsUser(mInCallServiceInfoCacheReceiver, UserHandle.ALL,
+                packageFilter, null, null);
+        mDefaultDialerCache.observeDefaultDialerApplication(mContext.getMainExecutor(),
+                userId -> invalidateInCallServiceInfoCache("default dialer changed"));
+        mAppOpsManager.startWatchingMode(AppOpsManager.OPSTR_MANAGE_ONGOING_CALLS, null,
+                (op, packageName) -> invalidateInCallServiceInfoCache(op));
+        scheduleInCallServiceInfoCacheWarmUp();
     }
 
     private void restrictPhoneCallOps() {
@@ -1144,12 +1266,16 @@ public class InCallController extends CallsManagerListenerBase implements
             Log.i(this, "onCallAdded: %s", call);
             // Track the call if we don't already know about it.
             addCall(call);
+            clearCallFingerprints(call);
 
             Log.i(this, "mInCallServiceConnection isConnected=%b",
                     mInCallServiceConnection.isConnected());
 
             List<ComponentName> componentsUpdated = new ArrayList<>();
-            for (Map.Entry<InCallServiceInfo, IInCallService> entry : mInCallServices.entrySet()) {
+            ParcelableCallUtils.Snapshot snapshot =
+                    new ParcelableCallUtils.Snapshot(call, true /* includeVideoProvider */);
+            for (Map.Entry<InCallServiceInfo, InCallServiceDispatcher> entry
+                    : mInCallServices.entrySet()) {
                 InCallServiceInfo info = entry.getKey();
 
                 if (call.isExternalCall() && !info.isExternalCallsSupported()) {
@@ -1168,18 +1294,13 @@ public class InCallController extends CallsManagerListenerBase implements
                 }
 
                 componentsUpdated.add(info.getComponentName());
-                IInCallService inCallService = entry.getValue();
 
-                ParcelableCall parcelableCall = ParcelableCallUtils.toParcelableCall(call,
-                        true /* includeVideoProvider */, mCallsManager.getPhoneAccountRegistrar(),
-                        info.isExternalCallsSupported(), includeRttCall,
-                        info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI ||
-                                info.getType() == IN_CALL_SERVICE_TYPE_NON_UI);
-                try {
-                    inCallService.addCall(sanitizeParcelableCallForService(info, parcelableCall));
-                    updateCallTracking(call, info, true /* isAdd */);
-                } catch (RemoteException ignored) {
-                }
+                ParcelableCall parcelableCall = sanitizeParcelableCallForService(info,
+                        snapshot.toParcelableCall(info.isExternalCallsSupported(), includeRttCall,
+                                info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI ||
+                                        info.getType() == IN_CALL_SERVICE_TYPE_NON_UI));
+                entry.getValue().dispatch("addCall", (service) -> service.addCall(parcelableCall));
+                updateCallTracking(call, info, true /* isAdd */);
             }
             Log.i(this, "Call added to components: %s", componentsUpdated);
         }
@@ -1188,6 +1309,8 @@ public class InCallController extends CallsManagerListenerBase implements
     @Override
     public void onCallRemoved(Call call) {
         Log.i(this, "onCallRemoved: %s", call);
+        sendPendingCallUpdate(call);
+        clearCallFingerprints(call);
         if (mCallsManager.getCalls().isEmpty()) {
             /** Let's add a 2 second delay before we send unbind to the services to hopefully
              *  give them enough time to process all the pending messages.
@@ -1218,12 +1341,17 @@ public class InCallController extends CallsManagerListenerBase implements
     @Override
     public void onExternalCallChanged(Call call, boolean isExternalCall) {
         Log.i(this, "onExternalCallChanged: %s -> %b", call, isExternalCall);
+        sendPendingCallUpdate(call);
+        clearCallFingerprints(call);
 
         List<ComponentName> componentsUpdated = new ArrayList<>();
         if (!isExternalCall) {
+            ParcelableCallUtils.Snapshot snapshot =
+                    new ParcelableCallUtils.Snapshot(call, true /* includeVideoProvider */);
             // The call was external but it is no longer external.  We must now add it to any
             // InCallServices which do not support external calls.
-            for (Map.Entry<InCallServiceInfo, IInCallService> entry : mInCallServices.entrySet()) {
+            for (Map.Entry<InCallServiceInfo, InCallServiceDispatcher> entry
+                    : mInCallServices.entrySet()) {
                 InCallServiceInfo info = entry.getKey();
 
                 if (info.isExternalCallsSupported()) {
@@ -1238,21 +1366,16 @@ public class InCallController extends CallsManagerListenerBase implements
                 }
 
                 componentsUpdated.add(info.getComponentName());
-                IInCallService inCallService = entry.getValue();
 
                 // Only send the RTT call if it's a UI in-call service
                 boolean includeRttCall = info.equals(mInCallServiceConnection.getInfo());
 
-                ParcelableCall parcelableCall = ParcelableCallUtils.toParcelableCall(call,
-                        true /* includeVideoProvider */, mCallsManager.getPhoneAccountRegistrar(),
-                        info.isExternalCallsSupported(), includeRttCall,
-                        info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI
-                                || info.getType() == IN_CALL_SERVICE_TYPE_NON_UI);
-                try {
-                    inCallService.addCall(sanitizeParcelableCallForService(info, parcelableCall));
-                    updateCallTracking(call, info, true /* isAdd */);
-                } catch (RemoteException ignored) {
-                }
+                ParcelableCall parcelableCall = sanitizeParcelableCallForService(info,
+                        snapshot.toParcelableCall(info.isExternalCallsSupported(), includeRttCall,
+                                info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI
+                                        || info.getType() == IN_CALL_SERVICE_TYPE_NON_UI));
+                entry.getValue().dispatch("addCall", (service) -> service.addCall(parcelableCall));
+                updateCallTracking(call, info, true /* isAdd */);
             }
             Log.i(this, "Previously external call added to components: %s", componentsUpdated);
         } else {
@@ -1260,7 +1383,10 @@ public class InCallController extends CallsManagerListenerBase implements
             // InCallServices which do not support external calls.
             // Remove the call by sending a call update indicating the call was disconnected.
             Log.i(this, "Removing external call %s", call);
-            for (Map.Entry<InCallServiceInfo, IInCallService> entry : mInCallServices.entrySet()) {
+            ParcelableCallUtils.Snapshot snapshot =
+                    new ParcelableCallUtils.Snapshot(call, false /* includeVideoProvider */);
+            for (Map.Entry<InCallServiceInfo, InCallServiceDispatcher> entry
+                    : mInCallServices.entrySet()) {
                 InCallServiceInfo info = entry.getKey();
                 if (info.isExternalCallsSupported()) {
                     // For InCallServices which support external calls, we do not need to remove
@@ -1269,24 +1395,16 @@ public class InCallController extends CallsManagerListenerBase implements
                 }
 
                 componentsUpdated.add(info.getComponentName());
-                IInCallService inCallService = entry.getValue();
 
-                ParcelableCall parcelableCall = ParcelableCallUtils.toParcelableCall(
-                        call,
-                        false /* includeVideoProvider */,
-                        mCallsManager.getPhoneAccountRegistrar(),
-                        false /* supportsExternalCalls */,
-                        android.telecom.Call.STATE_DISCONNECTED /* overrideState */,
-                        false /* includeRttCall */,
-                        info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI
-                                || info.getType() == IN_CALL_SERVICE_TYPE_NON_UI
-                );
-
-                try {
-                    inCallService.updateCall(
-                            sanitizeParcelableCallForService(info, parcelableCall));
-                } catch (RemoteException ignored) {
-                }
+                ParcelableCall parcelableCall = sanitizeParcelableCallForService(info,
+                        snapshot.toParcelableCall(
+                                false /* supportsExternalCalls */,
+                                android.telecom.Call.STATE_DISCONNECTED /* overrideState */,
+                                false /* includeRttCall */,
+                                info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI
+                                        || info.getType() == IN_CALL_SERVICE_TYPE_NON_UI));
+                entry.getValue().dispatch("updateCall",
+                        (service) -> service.updateCall(parcelableCall));
             }
             Log.i(this, "External call removed from components: %s", componentsUpdated);
         }
@@ -1314,11 +1432,9 @@ public class InCallController extends CallsManagerListenerBase implements
             Log.i(this, "Calling onAudioStateChanged, audioState: %s -> %s", oldCallAudioState,
                     newCallAudioState);
             maybeTrackMicrophoneUse(newCallAudioState.isMuted());
-            for (IInCallService inCallService : mInCallServices.values()) {
-                try {
-                    inCallService.onCallAudioStateChanged(newCallAudioState);
-                } catch (RemoteException ignored) {
-                }
+            for (InCallServiceDispatcher dispatcher : mInCallServices.values()) {
+                dispatcher.dispatch("onCallAudioStateChanged", "audioState",
+                        (service) -> service.onCallAudioStateChanged(newCallAudioState));
             }
         }
     }
@@ -1327,23 +1443,21 @@ public class InCallController extends CallsManagerListenerBase implements
     public void onCanAddCallChanged(boolean canAddCall) {
         if (!mInCallServices.isEmpty()) {
             Log.i(this, "onCanAddCallChanged : %b", canAddCall);
-            for (IInCallService inCallService : mInCallServices.values()) {
-                try {
-                    inCallService.onCanAddCallChanged(canAddCall);
-                } catch (RemoteException ignored) {
-                }
+            for (InCallServiceDispatcher dispatcher : mInCallServices.values()) {
+                dispatcher.dispatch("onCanAddCallChanged", "canAddCall",
+                        (service) -> service.onCanAddCallChanged(canAddCall));
             }
         }
     }
 
     void onPostDialWait(Call call, String remaining) {
+        sendPendingCallUpdate(call);
         if (!mInCallServices.isEmpty()) {
             Log.i(this, "Calling onPostDialWait, remaining = %s", remaining);
-            for (IInCallService inCallService : mInCallServices.values()) {
-                try {
-                    inCallService.setPostDialWait(mCallIdMapper.getCallId(call), remaining);
-                } catch (RemoteException ignored) {
-                }
+            String callId = mCallIdMapper.getCallId(call);
+            for (InCallServiceDispatcher dispatcher : mInCallServices.values()) {
+                dispatcher.dispatch("setPostDialWait",
+                        (service) -> service.setPostDialWait(callId, remaining));
             }
         }
     }
@@ -1415,11 +1529,9 @@ public class InCallController extends CallsManagerListenerBase implements
 
     void bringToForeground(boolean showDialpad) {
         if (!mInCallServices.isEmpty()) {
-            for (IInCallService inCallService : mInCallServices.values()) {
-                try {
-                    inCallService.bringToForeground(showDialpad);
-                } catch (RemoteException ignored) {
-                }
+            for (InCallServiceDispatcher dispatcher : mInCallServices.values()) {
+                dispatcher.dispatch("bringToForeground",
+                        (service) -> service.bringToForeground(showDialpad));
             }
         } else {
             Log.w(this, "Asking to bring unbound in-call UI to foreground.");
@@ -1428,80 +1540,76 @@ public class InCallController extends CallsManagerListenerBase implements
 
     void silenceRinger() {
         if (!mInCallServices.isEmpty()) {
-            for (IInCallService inCallService : mInCallServices.values()) {
-                try {
-                    inCallService.silenceRinger();
-                } catch (RemoteException ignored) {
-                }
+            for (InCallServiceDispatcher dispatcher : mInCallServices.values()) {
+                dispatcher.dispatch("silenceRinger", (service) -> service.silenceRinger());
             }
         }
     }
 
     private void notifyConnectionEvent(Call call, String event, Bundle extras) {
+        sendPendingCallUpdate(call);
         if (!mInCallServices.isEmpty()) {
-            for (IInCallService inCallService : mInCallServices.values()) {
-                try {
-                    Log.i(this, "notifyConnectionEvent {Call: %s, Event: %s, Extras:[%s]}",
-                            (call != null ? call.toString() : "null"),
-                            (event != null ? event : "null"),
-                            (extras != null ? extras.toString() : "null"));
-                    inCallService.onConnectionEvent(mCallIdMapper.getCallId(call), event, extras);
-                } catch (RemoteException ignored) {
-                }
+            String callId = mCallIdMapper.getCallId(call);
+            // The call may change its extras while the event is still queued for the services.
+            Bundle extrasCopy = extras == null ? null : new Bundle(extras);
+            for (InCallServiceDispatcher dispatcher : mInCallServices.values()) {
+                Log.i(this, "notifyConnectionEvent {Call: %s, Event: %s, Extras:[%s]}",
+                        (call != null ? call.toString() : "null"),
+                        (event != null ? event : "null"),
+                        (extras != null ? extras.toString() : "null"));
+                dispatcher.dispatch("onConnectionEvent",
+                        (service) -> service.onConnectionEvent(callId, event, extrasCopy));
             }
         }
     }
 
     private void notifyRttInitiationFailure(Call call, int reason) {
+        sendPendingCallUpdate(call);
         if (!mInCallServices.isEmpty()) {
             mInCallServices.entrySet().stream()
                     .filter((entry) -> entry.getKey().equals(mInCallServiceConnection.getInfo()))
                     .forEach((entry) -> {
-                        try {
-                            Log.i(this, "notifyRttFailure, call %s, incall %s",
-                                    call, entry.getKey());
-                            entry.getValue().onRttInitiationFailure(mCallIdMapper.getCallId(call),
-                                    reason);
-                        } catch (RemoteException ignored) {
-                        }
+                        Log.i(this, "notifyRttFailure, call %s, incall %s", call, entry.getKey());
+                        String callId = mCallIdMapper.getCallId(call);
+                        entry.getValue().dispatch("onRttInitiationFailure",
+                                (service) -> service.onRttInitiationFailure(callId, reason));
                     });
         }
     }
 
     private void notifyRemoteRttRequest(Call call, int requestId) {
+        sendPendingCallUpdate(call);
         if (!mInCallServices.isEmpty()) {
             mInCallServices.entrySet().stream()
                     .filter((entry) -> entry.getKey().equals(mInCallServiceConnection.getInfo()))
                     .forEach((entry) -> {
-                        try {
-                            Log.i(this, "notifyRemoteRttRequest, call %s, incall %s",
-                                    call, entry.getKey());
-                            entry.getValue().onRttUpgradeRequest(
-                                    mCallIdMapper.getCallId(call), requestId);
-                        } catch (RemoteException ignored) {
-                        }
+                        Log.i(this, "notifyRemoteRttRequest, call %s, incall %s",
+                                call, entry.getKey());
+                        String callId = mCallIdMapper.getCallId(call);
+                        entry.getValue().dispatch("onRttUpgradeRequest",
+                                (service) -> service.onRttUpgradeRequest(callId, requestId));
                     });
         }
     }
 
     private void notifyHandoverFailed(Call call, int error) {
+        sendPendingCallUpdate(call);
         if (!mInCallServices.isEmpty()) {
-            for (IInCallService inCallService : mInCallServices.values()) {
-                try {
-                    inCallService.onHandoverFailed(mCallIdMapper.getCallId(call), error);
-                } catch (RemoteException ignored) {
-                }
+            String callId = mCallIdMapper.getCallId(call);
+            for (InCallServiceDispatcher dispatcher : mInCallServices.values()) {
+                dispatcher.dispatch("onHandoverFailed",
+                        (service) -> service.onHandoverFailed(callId, error));
             }
         }
     }
 
     private void notifyHandoverComplete(Call call) {
+        sendPendingCallUpdate(call);
         if (!mInCallServices.isEmpty()) {
-            for (IInCallService inCallService : mInCallServices.values()) {
-                try {
-                    inCallService.onHandoverComplete(mCallIdMapper.getCallId(call));
-                } catch (RemoteException ignored) {
-                }
+            String callId = mCallIdMapper.getCallId(call);
+            for (InCallServiceDispatcher dispatcher : mInCallServices.values()) {
+                dispatcher.dispatch("onHandoverComplete",
+                        (service) -> service.onHandoverComplete(callId));
             }
         }
     }
@@ -1524,7 +1632,11 @@ public class InCallController extends CallsManagerListenerBase implements
             mNonUIInCallServiceConnections.disconnect();
             mNonUIInCallServiceConnections = null;
         }
+        for (InCallServiceDispatcher dispatcher : mInCallServices.values()) {
+            dispatcher.shutDown();
+        }
         mInCallServices.clear();
+        mCallFingerprints.clear();
     }
 
     /**
@@ -1686,6 +1798,44 @@ public class InCallController extends CallsManagerListenerBase implements
 
     private List<InCallServiceInfo> getInCallServiceComponents(String packageName,
             ComponentName componentName, int requestedType, boolean ignoreDisabled) {
+        if (!mTimeoutsAdapter.isInCallServiceInfoCacheEnabled()) {
+            return queryInCallServiceComponents(packageName, componentName, requestedType,
+                    ignoreDisabled);
+        }
+        List<Object> key = Arrays.asList(mCallsManager.getCurrentUserHandle(), packageName,
+                componentName, requestedType, ignoreDisabled);
+        List<InCallServiceInfo> infos;
+        int generation;
+        synchronized (mInCallServiceInfoCache) {
+            infos = mInCallServiceInfoCache.get(key);
+            generation = mInCallServiceInfoCacheGeneration;
+            if (infos != null) {
+                mInCallServiceInfoCacheHits++;
+            } else {
+                mInCallServiceInfoCacheMisses++;
+            }
+        }
+        if (infos == null) {
+            infos = queryInCallServiceComponents(packageName, componentName, requestedType,
+                    ignoreDisabled);
+            synchronized (mInCallServiceInfoCache) {
+                if (generation == mInCallServiceInfoCacheGeneration) {
+                    mInCallServiceInfoCache.put(key, infos);
+                }
+            }
+        }
+        // Each binding records its own times in its info, so it must not share the cached one.
+        List<InCallServiceInfo> retval = new LinkedList<>();
+        for (InCallServiceInfo info : infos) {
+            retval.add(new InCallServiceInfo(info.getComponentName(),
+                    info.isExternalCallsSupported(), info.isSelfManagedCallsSupported(),
+                    info.getType()));
+        }
+        return retval;
+    }
+
+    private List<InCallServiceInfo> queryInCallServiceComponents(String packageName,
+            ComponentName componentName, int requestedType, boolean ignoreDisabled) {
         List<InCallServiceInfo> retval = new LinkedList<>();
 
         Intent serviceIntent = new Intent(InCallService.SERVICE_INTERFACE);
@@ -1720,7 +1870,10 @@ public class InCallController extends CallsManagerListenerBase implements
                 ComponentName foundComponentName =
                         new ComponentName(serviceInfo.packageName, serviceInfo.name);
                 if (requestedType == IN_CALL_SERVICE_TYPE_NON_UI) {
-                    mKnownNonUiInCallServices.add(foundComponentName);
+                    // The cache warm-up queries without holding the lock.
+                    synchronized (mLock) {
+                        mKnownNonUiInCallServices.add(foundComponentName);
+                    }
                 }
 
                 boolean isEnabled = isServiceEnabled(foundComponentName,
@@ -1741,6 +1894,59 @@ public class InCallController extends CallsManagerListenerBase implements
         return retval;
     }
 
+    private void invalidateInCallServiceInfoCache(String reason) {
+        synchronized (mInCallServiceInfoCache) {
+            mInCallServiceInfoCache.clear();
+            mInCallServiceInfoCacheGeneration++;
+        }
+        Log.d(this, "Cleared cached in-call services: %s", reason);
+        scheduleInCallServiceInfoCacheWarmUp();
+    }
+
+    /**
+     * Resolves the services which {@link #bindToServices} binds to ahead of the next call.
+     * Changes tend to come in bursts, e.g. while an app is updated, so this waits for them to
+     * settle first.  The queries run without the Telecom lock, so that they don't hold up calls.
+     */
+    private void scheduleInCallServiceInfoCacheWarmUp() {
+        mHandler.removeCallbacksAndMessages(mInCallServiceInfoCache);
+        mHandler.postDelayed(new Runnable("ICC.wUC", null /* lock */) {
+            @Override
+            public void loggedRun() {
+                warmUpInCallServiceInfoCache();
+            }
+        }.prepare(), mInCallServiceInfoCache, IN_CALL_SERVICE_INFO_WARM_UP_DELAY_MILLIS);
+    }
+
+    private void warmUpInCallServiceInfoCache() {
+        if (!mTimeoutsAdapter.isInCallServiceInfoCacheEnabled()) {
+            return;
+        }
+        // Only the state which decides what to resolve is read under the lock.
+        boolean useCarModeUi;
+        String carModePackage;
+        List<String> callCompanionApps;
+        synchronized (mLock) {
+            useCarModeUi = shouldUseCarModeUI();
+            carModePackage = mCarModeTracker.getCurrentCarModePackage();
+            callCompanionApps = mCallsManager.getRoleManagerAdapter().getCallCompanionApps();
+        }
+        getDefaultDialerComponent();
+        getInCallServiceComponents(mDefaultDialerCache.getSystemDialerComponent(),
+                IN_CALL_SERVICE_TYPE_SYSTEM_UI);
+        if (useCarModeUi) {
+            getInCallServiceComponent(carModePackage, IN_CALL_SERVICE_TYPE_CAR_MODE_UI,
+                    true /* ignoreDisabled */);
+        }
+        getInCallServiceComponents(IN_CALL_SERVICE_TYPE_NON_UI);
+        if (callCompanionApps != null) {
+            for (String pkg : callCompanionApps) {
+                getInCallServiceComponent(pkg, IN_CALL_SERVICE_TYPE_COMPANION,
+                        true /* ignoreDisabled */);
+            }
+        }
+    }
+
     private boolean isServiceEnabled(ComponentName componentName,
             ServiceInfo serviceInfo, PackageManager packageManager) {
         if (packageManager == null) {
@@ -1854,9 +2060,11 @@ public class InCallController extends CallsManagerListenerBase implements
      *
      * @param info Info about the service, including its {@link ComponentName}.
      * @param service The {@link IInCallService} implementation.
+     * @param connection The connection which bound to the service.
      * @return True if we successfully connected.
      */
-    private boolean onConnected(InCallServiceInfo info, IBinder service) {
+    private boolean onConnected(InCallServiceInfo info, IBinder service,
+            InCallServiceBindingConnection connection) {
         Log.i(this, "onConnected to %s", info.getComponentName());
 
         if (info.getType() == IN_CALL_SERVICE_TYPE_CAR_MODE_UI
@@ -1865,9 +2073,17 @@ public class InCallController extends CallsManagerListenerBase implements
             trackCallingUserInterfaceStarted(info);
         }
         IInCallService inCallService = IInCallService.Stub.asInterface(service);
-        mInCallServices.put(info, inCallService);
+        InCallServiceDispatcher dispatcher = new InCallServiceDispatcher(inCallService,
+                info.getComponentName(), mTimeoutsAdapter.getInCallServiceDispatchQueueDepth(),
+                (unresponsive) -> onUnresponsive(info, connection, unresponsive));
+        InCallServiceDispatcher oldDispatcher = mInCallServices.put(info, dispatcher);
+        if (oldDispatcher != null) {
+            oldDispatcher.shutDown();
+        }
+        mCallFingerprints.remove(info);
 
         try {
+            // Nothing is queued for the service yet, so the adapter is still set first.
             inCallService.setInCallAdapter(
                     new InCallAdapter(
                             mCallsManager,
@@ -1886,13 +2102,14 @@ public class InCallController extends CallsManagerListenerBase implements
                 "calls", calls.size(), info.getComponentName());
         int numCallsSent = 0;
         for (Call call : calls) {
-            numCallsSent += sendCallToService(call, info, inCallService);
-        }
-        try {
-            inCallService.onCallAudioStateChanged(mCallsManager.getAudioState());
-            inCallService.onCanAddCallChanged(mCallsManager.canAddCall());
-        } catch (RemoteException ignored) {
-        }
+            numCallsSent += sendCallToService(call, info, dispatcher);
+        }
+        CallAudioState audioState = mCallsManager.getAudioState();
+        boolean canAddCall = mCallsManager.canAddCall();
+        dispatcher.dispatch("onCallAudioStateChanged", "audioState",
+                (ics) -> ics.onCallAudioStateChanged(audioState));
+        dispatcher.dispatch("onCanAddCallChanged", "canAddCall",
+                (ics) -> ics.onCanAddCallChanged(canAddCall));
         // Don't complete the binding future for non-ui incalls
         if (info.getType() != IN_CALL_SERVICE_TYPE_NON_UI && !mBindingFuture.isDone()) {
             mBindingFuture.complete(true);
@@ -1902,37 +2119,54 @@ public class InCallController extends CallsManagerListenerBase implements
         return true;
     }
 
-    private int sendCallToService(Call call, InCallServiceInfo info,
-            IInCallService inCallService) {
-        try {
-            if ((call.isSelfManaged() && (!info.isSelfManagedCallsSupported()
-                    || !call.visibleToInCallService())) ||
-                    (call.isExternalCall() && !info.isExternalCallsSupported())) {
-                return 0;
+    /**
+     * Rebinds to a service whose dispatch queue overflowed, so that it gets the current state of
+     * the calls afresh instead of missing some of the changes to them.
+     */
+    private void onUnresponsive(InCallServiceInfo info, InCallServiceBindingConnection connection,
+            InCallServiceDispatcher dispatcher) {
+        mHandler.post(new Runnable("ICC.oU", mLock) {
+            @Override
+            public void loggedRun() {
+                if (mInCallServices.get(info) != dispatcher) {
+                    // The service has been unbound or rebound since.
+                    return;
+                }
+                Log.w(InCallController.this, "%s is unresponsive; rebinding",
+                        info.getComponentName());
+                connection.rebind();
             }
+        }.prepare());
+    }
 
-            // Only send the RTT call if it's a UI in-call service
-            boolean includeRttCall = false;
-            if (mInCallServiceConnection != null) {
-                includeRttCall = info.equals(mInCallServiceConnection.getInfo());
-            }
+    private int sendCallToService(Call call, InCallServiceInfo info,
+            InCallServiceDispatcher dispatcher) {
+        if ((call.isSelfManaged() && (!info.isSelfManagedCallsSupported()
+                || !call.visibleToInCallService())) ||
+                (call.isExternalCall() && !info.isExternalCallsSupported())) {
+            return 0;
+        }
 
-            // Track the call if we don't already know about it.
-            addCall(call);
-            ParcelableCall parcelableCall = ParcelableCallUtils.toParcelableCall(
-                    call,
-                    true /* includeVideoProvider */,
-                    mCallsManager.getPhoneAccountRegistrar(),
-                    info.isExternalCallsSupported(),
-                    includeRttCall,
-                    info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI ||
-                            info.getType() == IN_CALL_SERVICE_TYPE_NON_UI);
-            inCallService.addCall(sanitizeParcelableCallForService(info, parcelableCall));
-            updateCallTracking(call, info, true /* isAdd */);
-            return 1;
-        } catch (RemoteException ignored) {
-        }
-        return 0;
+        // Only send the RTT call if it's a UI in-call service
+        boolean includeRttCall = false;
+        if (mInCallServiceConnection != null) {
+            includeRttCall = info.equals(mInCallServiceConnection.getInfo());
+        }
+
+        // Track the call if we don't already know about it.
+        addCall(call);
+        ParcelableCall parcelableCall = sanitizeParcelableCallForService(info,
+                ParcelableCallUtils.toParcelableCall(
+                        call,
+                        true /* includeVideoProvider */,
+                        mCallsManager.getPhoneAccountRegistrar(),
+                        info.isExternalCallsSupported(),
+                        includeRttCall,
+                        info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI ||
+                                info.getType() == IN_CALL_SERVICE_TYPE_NON_UI));
+        dispatcher.dispatch("addCall", (service) -> service.addCall(parcelableCall));
+        updateCallTracking(call, info, true /* isAdd */);
+        return 1;
     }
 
     /**
@@ -1947,7 +2181,11 @@ public class InCallController extends CallsManagerListenerBase implements
                 || disconnectedInfo.getType() == IN_CALL_SERVICE_TYPE_DEFAULT_DIALER_UI) {
             trackCallingUserInterfaceStopped(disconnectedInfo);
         }
-        mInCallServices.remove(disconnectedInfo);
+        InCallServiceDispatcher dispatcher = mInCallServices.remove(disconnectedInfo);
+        if (dispatcher != null) {
+            dispatcher.shutDown();
+        }
+        mCallFingerprints.remove(disconnectedInfo);
     }
 
     /**
@@ -1961,6 +2199,12 @@ public class InCallController extends CallsManagerListenerBase implements
 
     /**
      * Informs all {@link InCallService} instances of the updated call information.
+     * <p>
+     * Changes to a call often come in bursts, e.g. a {@link ConnectionService} setting the
+     * capabilities, extras and status hints of a connection one after the other.  Unless
+     * coalescing is disabled, the update is held for the coalescing window and any further changes
+     * to the call in that time are sent along with it, so that each {@link InCallService} gets one
+     * update for the whole burst.
      *
      * @param call The {@link Call}.
      * @param videoProviderChanged {@code true} if the video provider changed, {@code false}
@@ -1969,10 +2213,56 @@ public class InCallController extends CallsManagerListenerBase implements
      * {@code false} otherwise.
      */
     private void updateCall(Call call, boolean videoProviderChanged, boolean rttInfoChanged) {
+        if (mInCallServices.isEmpty()) {
+            return;
+        }
+        if (!mTimeoutsAdapter.isInCallUpdateCoalescingEnabled()) {
+            sendCallUpdate(call, videoProviderChanged, rttInfoChanged);
+            return;
+        }
+
+        PendingCallUpdate pendingUpdate = mPendingCallUpdates.get(call);
+        if (pendingUpdate != null) {
+            mCallUpdatesCoalesced++;
+        } else {
+            pendingUpdate = new PendingCallUpdate();
+            mPendingCallUpdates.put(call, pendingUpdate);
+            mHandler.postDelayed(new Runnable("ICC.sPCU", mLock) {
+                @Override
+                public void loggedRun() {
+                    sendPendingCallUpdate(call);
+                }
+            }.prepare(), Math.max(0, mTimeoutsAdapter.getInCallUpdateCoalescingWindowMillis()));
+        }
+        pendingUpdate.videoProviderChanged |= videoProviderChanged;
+        pendingUpdate.rttInfoChanged |= rttInfoChanged;
+    }
+
+    /**
+     * Sends the changes to a call which are waiting to be sent, if any.  This must be done before
+     * telling the {@link InCallService}s anything else about the call, so that they see the
+     * changes in the order they happened.
+     *
+     * @param call The {@link Call}.
+     */
+    private void sendPendingCallUpdate(Call call) {
+        PendingCallUpdate pendingUpdate = mPendingCallUpdates.remove(call);
+        if (pendingUpdate != null) {
+            sendCallUpdate(call, pendingUpdate.videoProviderChanged,
+                    pendingUpdate.rttInfoChanged);
+        }
+    }
+
+    private void sendCallUpdate(Call call, boolean videoProviderChanged, boolean rttInfoChanged) {
         if (!mInCallServices.isEmpty()) {
             Log.i(this, "Sending updateCall %s", call);
             List<ComponentName> componentsUpdated = new ArrayList<>();
-            for (Map.Entry<InCallServiceInfo, IInCallService> entry : mInCallServices.entrySet()) {
+            ParcelableCallUtils.Snapshot snapshot =
+                    new ParcelableCallUtils.Snapshot(call, videoProviderChanged);
+            // Services which are sent the same parcelled call share its fingerprint.
+            Map<ParcelableCall, byte[]> fingerprints = new ArrayMap<>();
+            for (Map.Entry<InCallServiceInfo, InCallServiceDispatcher> entry
+                    : mInCallServices.entrySet()) {
                 InCallServiceInfo info = entry.getKey();
                 if (call.isExternalCall() && !info.isExternalCallsSupported()) {
                     continue;
@@ -1983,28 +2273,69 @@ public class InCallController extends CallsManagerListenerBase implements
                     continue;
                 }
 
-                ParcelableCall parcelableCall = ParcelableCallUtils.toParcelableCall(
-                        call,
-                        videoProviderChanged /* includeVideoProvider */,
-                        mCallsManager.getPhoneAccountRegistrar(),
-                        info.isExternalCallsSupported(),
-                        rttInfoChanged && info.equals(mInCallServiceConnection.getInfo()),
-                        info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI ||
-                        info.getType() == IN_CALL_SERVICE_TYPE_NON_UI);
+                boolean includeRttCall =
+                        rttInfoChanged && info.equals(mInCallServiceConnection.getInfo());
+                ParcelableCall parcelableCall = sanitizeParcelableCallForService(info,
+                        snapshot.toParcelableCall(info.isExternalCallsSupported(), includeRttCall,
+                                info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI ||
+                                info.getType() == IN_CALL_SERVICE_TYPE_NON_UI));
+                byte[] fingerprint;
+                if (fingerprints.containsKey(parcelableCall)) {
+                    fingerprint = fingerprints.get(parcelableCall);
+                } else {
+                    fingerprint = ParcelableCallUtils.getFingerprint(parcelableCall);
+                    fingerprints.put(parcelableCall, fingerprint);
+                }
+                if (!updateCallFingerprint(info, call, fingerprint)) {
+                    mCallUpdatesUnchanged++;
+                    continue;
+                }
                 ComponentName componentName = info.getComponentName();
-                IInCallService inCallService = entry.getValue();
                 componentsUpdated.add(componentName);
 
-                try {
-                    inCallService.updateCall(
-                            sanitizeParcelableCallForService(info, parcelableCall));
-                } catch (RemoteException ignored) {
-                }
+                // A queued update which is only superseded by this one need not be sent; one
+                // which carries a video provider or RTT pipes must be.
+                String mergeKey = videoProviderChanged || includeRttCall
+                        ? null : "updateCall/" + parcelableCall.getId();
+                entry.getValue().dispatch("updateCall", mergeKey,
+                        (service) -> service.updateCall(parcelableCall));
+                mCallUpdatesSent++;
             }
             Log.i(this, "Components updated: %s", componentsUpdated);
         }
     }
 
+    /**
+     * Records the fingerprint of an update of a call which is about to be sent to a service.
+     *
+     * @param info The service.
+     * @param call The {@link Call}.
+     * @param fingerprint The fingerprint of the update, as it will be sent to the service, or
+     *                    {@code null} if the update has to be sent regardless.
+     * @return {@code false} if the service was already sent the same update.
+     */
+    private boolean updateCallFingerprint(InCallServiceInfo info, Call call, byte[] fingerprint) {
+        Map<Call, byte[]> fingerprints = mCallFingerprints.get(info);
+        if (fingerprints == null) {
+            fingerprints = new ArrayMap<>();
+            mCallFingerprints.put(info, fingerprints);
+        }
+        byte[] lastFingerprint = fingerprints.put(call, fingerprint);
+        return fingerprint == null || lastFingerprint == null
+                || !Arrays.equals(lastFingerprint, fingerprint);
+    }
+
+    /**
+     * Forgets the updates sent for a call, because it was sent to the services another way.
+     *
+     * @param call The {@link Call}.
+     */
+    private void clearCallFingerprints(Call call) {
+        for (Map<Call, byte[]> fingerprints : mCallFingerprints.values()) {
+            fingerprints.remove(call);
+        }
+    }
+
     /**
      * Adds the call to the list of calls tracked by the {@link InCallController}.
      * @param call The call to add.
@@ -2048,8 +2379,12 @@ public class InCallController extends CallsManagerListenerBase implements
     public void dump(IndentingPrintWriter pw) {
         pw.println("mInCallServices (InCalls registered):");
         pw.increaseIndent();
-        for (InCallServiceInfo info : mInCallServices.keySet()) {
-            pw.println(info);
+        for (Map.Entry<InCallServiceInfo, InCallServiceDispatcher> entry
+                : mInCallServices.entrySet()) {
+            pw.println(entry.getKey());
+            pw.increaseIndent();
+            entry.getValue().dump(pw);
+            pw.decreaseIndent();
         }
         pw.decreaseIndent();
 
@@ -2061,6 +2396,18 @@ public class InCallController extends CallsManagerListenerBase implements
         pw.decreaseIndent();
 
         mCarModeTracker.dump(pw);
+
+        long callUpdates = mCallUpdatesSent + mCallUpdatesUnchanged;
+        pw.println("Call updates sent: " + mCallUpdatesSent + ", coalesced: "
+                + mCallUpdatesCoalesced + ", skipped as unchanged: " + mCallUpdatesUnchanged
+                + " (" + (callUpdates == 0 ? 0 : 100 * mCallUpdatesUnchanged / callUpdates)
+                + "%)");
+        synchronized (mInCallServiceInfoCache) {
+            pw.println("Cached in-call service queries: " + mInCallServiceInfoCache.size()
+                    + ", hits: " + mInCallServiceInfoCacheHits + ", misses: "
+                    + mInCallServiceInfoCacheMisses);
+        }
+        pw.println("Bind latencies: " + mBindLatencies);
     }
 
     /**
@@ -2140,17 +2487,18 @@ public class InCallController extends CallsManagerListenerBase implements
 
     private ParcelableCall sanitizeParcelableCallForService(
             InCallServiceInfo info, ParcelableCall parcelableCall) {
-        ParcelableCall.ParcelableCallBuilder builder =
-                ParcelableCall.ParcelableCallBuilder.fromParcelableCall(parcelableCall);
         // Check for contacts permission. If it's not there, remove the contactsDisplayName.
         PackageManager pm = mContext.getPackageManager();
-        if (pm.checkPermission(Manifest.permission.READ_CONTACTS,
+        if (parcelableCall.getContactDisplayName() != null
+                && pm.checkPermission(Manifest.permission.READ_CONTACTS,
                 info.getComponentName().getPackageName()) != PackageManager.PERMISSION_GRANTED) {
-            builder.setContactDisplayName(null);
+            return ParcelableCall.ParcelableCallBuilder.fromParcelableCall(parcelableCall)
+                    .setContactDisplayName(null)
+                    .createParcelableCall();
         }
 
         // TODO: move all the other service-specific sanitizations in here
-        return builder.createParcelableCall();
+        return parcelableCall;
     }
 
     @VisibleForTesting
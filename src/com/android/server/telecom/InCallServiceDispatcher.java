@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.content.ComponentName;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.telecom.InCallService;
+import android.telecom.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.telecom.IInCallService;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Makes the calls to a single {@link InCallService} in the order they were made, on a thread of
+ * its own, so that Telecom only has to queue them while it holds its lock.  A slow or stuck
+ * service then only holds up its own calls, not Telecom's call handling.
+ * <p>
+ * A call which supersedes the one queued right before it, e.g. a newer update of the same call,
+ * replaces it, so that a service which falls behind does not have to catch up on states which are
+ * already out of date.  The queue holds at most the maximum depth of calls; once it is full,
+ * calls which have been superseded by a later call are dropped.  If it is still full, the service
+ * is not keeping up, and dropping any other call would leave it with a wrong picture of the calls,
+ * so the dispatcher stops and reports the service as unresponsive instead.  While the maximum
+ * depth is zero the calls are made straight away on the caller's thread.
+ */
+public class InCallServiceDispatcher {
+    /**
+     * A call to make on an {@link InCallService}.
+     */
+    public interface Dispatch {
+        void dispatch(IInCallService service) throws RemoteException;
+    }
+
+    public interface Listener {
+        /**
+         * Called once, on the thread which queued the call, when the service has fallen so far
+         * behind that its queue overflowed.  The dispatcher has dropped its calls and stopped.
+         */
+        void onUnresponsive(InCallServiceDispatcher dispatcher);
+    }
+
+    private static final class QueuedDispatch {
+        final String name;
+        final String mergeKey;
+        Dispatch dispatch;
+        final long enqueueTimeMillis;
+
+        QueuedDispatch(String name, String mergeKey, Dispatch dispatch, long enqueueTimeMillis) {
+            this.name = name;
+            this.mergeKey = mergeKey;
+            this.dispatch = dispatch;
+            this.enqueueTimeMillis = enqueueTimeMillis;
+        }
+    }
+
+    private final IInCallService mService;
+    private final ComponentName mComponentName;
+    private final int mMaxDepth;
+    private final Listener mListener;
+    private final ArrayDeque<QueuedDispatch> mQueue = new ArrayDeque<>();
+    private final LatencyHistogram mLatencies = new LatencyHistogram();
+    private ExecutorService mExecutor;
+    private boolean mIsDraining;
+    private boolean mIsShutDown;
+    private boolean mIsUnresponsive;
+    private long mDispatched;
+    private long mMerged;
+    private long mDropped;
+    private int mMaxQueued;
+
+    /**
+     * @param service The service to make the calls on.
+     * @param componentName The component of the service.
+     * @param maxDepth The maximum number of calls to queue, or 0 to make calls straight away.
+     * @param listener Told when the service is unresponsive.
+     */
+    public InCallServiceDispatcher(IInCallService service, ComponentName componentName,
+            int maxDepth, Listener listener) {
+        mService = service;
+        mComponentName = componentName;
+        mMaxDepth = maxDepth;
+        mListener = listener;
+    }
+
+    public IInCallService getService() {
+        return mService;
+    }
+
+    /**
+     * Queues a call to the service.
+     * @param name The name of the call, for logging.
+     * @param dispatch The call.
+     */
+    public void dispatch(String name, Dispatch dispatch) {
+        dispatch(name, null /* mergeKey */, dispatch);
+    }
+
+    /**
+     * Queues a call to the service, replacing the call queued right before it if that has the
+     * same merge key.
+     * @param name The name of the call, for logging.
+     * @param mergeKey Identifies the calls which supersede each other, or {@code null} if the
+     *                 call must always be made.
+     * @param dispatch The call.
+     */
+    public void dispatch(String name, String mergeKey, Dispatch dispatch) {
+        long nowMillis = SystemClock.elapsedRealtime();
+        if (mMaxDepth <= 0) {
+            makeCall(new QueuedDispatch(name, mergeKey, dispatch, nowMillis));
+            return;
+        }
+        synchronized (this) {
+            if (mIsShutDown) {
+                return;
+            }
+            QueuedDispatch last = mQueue.peekLast();
+            if (mergeKey != null && last != null && mergeKey.equals(last.mergeKey)) {
+                last.dispatch = dispatch;
+                mMerged++;
+                return;
+            }
+            if (mQueue.size() >= mMaxDepth) {
+                dropSupersededCalls();
+            }
+            if (mQueue.size() < mMaxDepth) {
+                mQueue.addLast(new QueuedDispatch(name, mergeKey, dispatch, nowMillis));
+                mMaxQueued = Math.max(mMaxQueued, mQueue.size());
+                if (!mIsDraining) {
+                    mIsDraining = true;
+                    if (mExecutor == null) {
+                        mExecutor = Executors.newSingleThreadExecutor(
+                                r -> new Thread(r, "ICSD-" + mComponentName.getShortClassName()));
+                    }
+                    mExecutor.execute(this::drain);
+                }
+                return;
+            }
+            Log.w(this, "Queue to %s is full; dropped %d calls and stopped", mComponentName,
+                    mQueue.size() + 1);
+            mDropped += mQueue.size() + 1;
+            mIsUnresponsive = true;
+            shutDown();
+        }
+        if (mListener != null) {
+            mListener.onUnresponsive(this);
+        }
+    }
+
+    /**
+     * Drops the calls which have not been made yet and stops the thread, e.g. once the service
+     * has been unbound.
+     */
+    public synchronized void shutDown() {
+        mIsShutDown = true;
+        mQueue.clear();
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    @VisibleForTesting
+    public synchronized int getQueuedCount() {
+        return mQueue.size();
+    }
+
+    public synchronized void dump(IndentingPrintWriter pw) {
+        pw.println(mComponentName.flattenToShortString()
+                + (mIsUnresponsive ? " (unresponsive)" : "") + ": queued: " + mQueue.size()
+                + ", max queued: " + mMaxQueued + ", dispatched: " + mDispatched + ", merged: "
+                + mMerged + ", dropped: " + mDropped);
+        pw.increaseIndent();
+        pw.println("latencies: " + mLatencies);
+        pw.decreaseIndent();
+    }
+
+    private void drain() {
+        while (true) {
+            QueuedDispatch queuedDispatch;
+            synchronized (this) {
+                queuedDispatch = mQueue.pollFirst();
+                if (queuedDispatch == null) {
+                    mIsDraining = false;
+                    return;
+                }
+            }
+            makeCall(queuedDispatch);
+        }
+    }
+
+    private void makeCall(QueuedDispatch queuedDispatch) {
+        try {
+            queuedDispatch.dispatch.dispatch(mService);
+        } catch (RemoteException | RuntimeException e) {
+            // A failed call must not stop the calls queued after it from being made.
+            Log.w(this, "%s to %s failed: %s", queuedDispatch.name, mComponentName,
+                    e.getMessage());
+        }
+        synchronized (this) {
+            mDispatched++;
+            mLatencies.record(SystemClock.elapsedRealtime() - queuedDispatch.enqueueTimeMillis);
+        }
+    }
+
+    private void dropSupersededCalls() {
+        // Drop the calls which a later call supersedes, newest first, keeping the last of each.
+        Iterator<QueuedDispatch> iterator = mQueue.descendingIterator();
+        Set<String> laterMergeKeys = new HashSet<>();
+        while (iterator.hasNext()) {
+            QueuedDispatch queuedDispatch = iterator.next();
+            if (queuedDispatch.mergeKey != null && !laterMergeKeys.add(queuedDispatch.mergeKey)) {
+                iterator.remove();
+                mDropped++;
+            }
+        }
+    }
+}
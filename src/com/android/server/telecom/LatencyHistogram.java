@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+/**
+ * Counts latencies in buckets, each holding the latencies below its upper bound, for dumpsys.
+ */
+public final class LatencyHistogram {
+    private static final long[] BUCKET_UPPER_BOUNDS_MILLIS = {50, 100, 250, 500, 1000, 2000};
+
+    private final long[] mCounts = new long[BUCKET_UPPER_BOUNDS_MILLIS.length + 1];
+
+    public synchronized void record(long latencyMillis) {
+        int bucket = 0;
+        while (bucket < BUCKET_UPPER_BOUNDS_MILLIS.length
+                && latencyMillis >= BUCKET_UPPER_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        mCounts[bucket]++;
+    }
+
+    public synchronized long getCount() {
+        long count = 0;
+        for (long bucketCount : mCounts) {
+            count += bucketCount;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mCounts.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(i < BUCKET_UPPER_BOUNDS_MILLIS.length
+                    ? "<" + BUCKET_UPPER_BOUNDS_MILLIS[i]
+                    : ">=" + BUCKET_UPPER_BOUNDS_MILLIS[i - 1]);
+            sb.append("ms=").append(mCounts[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.os.SystemClock;
+import android.os.SystemProperties;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.server.telecom.nano.TelecomLogClass;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Opt-in profiler for contention on the {@link TelecomSystem.SyncRoot} lock.
+ * <p>
+ * Instrumented critical sections are run through {@link #runLocked(Object, String, Runnable)},
+ * which calls {@link #beforeAcquire(String)} immediately before entering the
+ * {@code synchronized} block, {@link #onAcquired()} as the first statement inside it and
+ * {@link #onReleased()} once the block has been exited.  For each session name (the
+ * {@link LogUtils.Sessions} abbreviations, e.g. "CSW.sA") the time spent waiting for the lock and
+ * the time the lock was held are recorded into lock-free histograms.
+ * <p>
+ * Profiling is disabled unless the {@link #PROPERTY_ENABLED} system property is set when Telecom
+ * starts; while disabled every hook is a single volatile read.
+ */
+public class LockContentionProfiler {
+    /** System property used to enable lock profiling at Telecom startup. */
+    public static final String PROPERTY_ENABLED = "persist.telecom.lock_profiling";
+
+    /**
+     * Number of histogram buckets.  Bucket {@code i} counts durations in
+     * [2^(i-1), 2^i) microseconds; the last bucket also counts anything longer.
+     */
+    @VisibleForTesting
+    public static final int NUM_BUCKETS = 20;
+
+    /** Statistics for a single session name. */
+    @VisibleForTesting
+    public static class Stats {
+        private final String mSessionName;
+        private final AtomicLong mAcquisitions = new AtomicLong();
+        private final AtomicLong mTotalWaitMicros = new AtomicLong();
+        private final AtomicLong mMaxWaitMicros = new AtomicLong();
+        private final AtomicLong mTotalHoldMicros = new AtomicLong();
+        private final AtomicLong mMaxHoldMicros = new AtomicLong();
+        private final AtomicLongArray mWaitHistogram = new AtomicLongArray(NUM_BUCKETS);
+        private final AtomicLongArray mHoldHistogram = new AtomicLongArray(NUM_BUCKETS);
+
+        Stats(String sessionName) {
+            mSessionName = sessionName;
+        }
+
+        void record(long waitMicros, long holdMicros) {
+            mAcquisitions.incrementAndGet();
+            mTotalWaitMicros.addAndGet(waitMicros);
+            mMaxWaitMicros.accumulateAndGet(waitMicros, Math::max);
+            mTotalHoldMicros.addAndGet(holdMicros);
+            mMaxHoldMicros.accumulateAndGet(holdMicros, Math::max);
+            mWaitHistogram.incrementAndGet(getBucket(waitMicros));
+            mHoldHistogram.incrementAndGet(getBucket(holdMicros));
+        }
+
+        public String getSessionName() {
+            return mSessionName;
+        }
+
+        public long getAcquisitions() {
+            return mAcquisitions.get();
+        }
+
+        public long getTotalWaitMicros() {
+            return mTotalWaitMicros.get();
+        }
+
+        public long getMaxWaitMicros() {
+            return mMaxWaitMicros.get();
+        }
+
+        public long getTotalHoldMicros() {
+            return mTotalHoldMicros.get();
+        }
+
+        public long getMaxHoldMicros() {
+            return mMaxHoldMicros.get();
+        }
+
+        public long[] getWaitHistogram() {
+            return toArray(mWaitHistogram);
+        }
+
+        public long[] getHoldHistogram() {
+            return toArray(mHoldHistogram);
+        }
+
+        TelecomLogClass.LockContention toProto() {
+            TelecomLogClass.LockContention result = new TelecomLogClass.LockContention();
+            result.setSessionName(mSessionName)
+                    .setAcquisitions(getAcquisitions())
+                    .setTotalWaitMicros(getTotalWaitMicros())
+                    .setMaxWaitMicros(getMaxWaitMicros())
+                    .setTotalHoldMicros(getTotalHoldMicros())
+                    .setMaxHoldMicros(getMaxHoldMicros());
+            result.waitHistogram = getWaitHistogram();
+            result.holdHistogram = getHoldHistogram();
+            return result;
+        }
+
+        private static long[] toArray(AtomicLongArray histogram) {
+            long[] result = new long[histogram.length()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = histogram.get(i);
+            }
+            return result;
+        }
+    }
+
+    /** Tracks the outermost instrumented critical section entered by the current thread. */
+    private static class ThreadState {
+        String sessionName;
+        long waitStartNanos;
+        long acquiredNanos;
+        int depth;
+    }
+
+    private static volatile boolean sIsEnabled = false;
+
+    private static final Map<String, Stats> sStats = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<ThreadState> sThreadState =
+            ThreadLocal.withInitial(ThreadState::new);
+
+    /**
+     * Reads {@link #PROPERTY_ENABLED} and enables or disables profiling accordingly.
+     */
+    public static void init() {
+        setEnabled(SystemProperties.getBoolean(PROPERTY_ENABLED, false));
+    }
+
+    @VisibleForTesting
+    public static void setEnabled(boolean isEnabled) {
+        sIsEnabled = isEnabled;
+    }
+
+    public static boolean isEnabled() {
+        return sIsEnabled;
+    }
+
+    /**
+     * Runs a critical section while holding the Telecom lock, profiling it under a session name.
+     * @param lock The Telecom lock.
+     * @param sessionName The name of the logging session running the critical section.
+     * @param criticalSection The code to run while holding the lock.
+     */
+    public static void runLocked(Object lock, String sessionName, Runnable criticalSection) {
+        beforeAcquire(sessionName);
+        try {
+            synchronized (lock) {
+                onAcquired();
+                criticalSection.run();
+            }
+        } finally {
+            onReleased();
+        }
+    }
+
+    /**
+     * Called immediately before attempting to acquire the Telecom lock.
+     * @param sessionName The name of the logging session doing the acquisition.
+     */
+    public static void beforeAcquire(String sessionName) {
+        if (!sIsEnabled) {
+            return;
+        }
+        ThreadState state = sThreadState.get();
+        if (state.depth++ == 0) {
+            state.sessionName = sessionName;
+            state.waitStartNanos = SystemClock.elapsedRealtimeNanos();
+            state.acquiredNanos = 0;
+        }
+    }
+
+    /**
+     * Called as the first statement after the Telecom lock has been acquired.
+     */
+    public static void onAcquired() {
+        if (!sIsEnabled) {
+            return;
+        }
+        ThreadState state = sThreadState.get();
+        if (state.depth == 1 && state.acquiredNanos == 0) {
+            state.acquiredNanos = SystemClock.elapsedRealtimeNanos();
+        }
+    }
+
+    /**
+     * Called once the Telecom lock has been released, or if acquisition was abandoned.
+     */
+    public static void onReleased() {
+        if (!sIsEnabled) {
+            return;
+        }
+        ThreadState state = sThreadState.get();
+        if (state.depth == 0) {
+            // Profiling was enabled while this thread was inside a critical section.
+            return;
+        }
+        if (--state.depth > 0) {
+            return;
+        }
+        if (state.acquiredNanos != 0 && state.sessionName != null) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            record(state.sessionName, (state.acquiredNanos - state.waitStartNanos) / 1000,
+                    (now - state.acquiredNanos) / 1000);
+        }
+        state.sessionName = null;
+        state.acquiredNanos = 0;
+    }
+
+    @VisibleForTesting
+    public static void record(String sessionName, long waitMicros, long holdMicros) {
+        Stats stats = sStats.get(sessionName);
+        if (stats == null) {
+            stats = sStats.computeIfAbsent(sessionName, Stats::new);
+        }
+        stats.record(Math.max(0, waitMicros), Math.max(0, holdMicros));
+    }
+
+    @VisibleForTesting
+    public static Stats getStats(String sessionName) {
+        return sStats.get(sessionName);
+    }
+
+    public static void reset() {
+        sStats.clear();
+    }
+
+    @VisibleForTesting
+    public static int getBucket(long micros) {
+        if (micros <= 0) {
+            return 0;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, NUM_BUCKETS - 1);
+    }
+
+    /**
+     * @return The collected statistics, sorted by descending total wait time.
+     */
+    private static List<Stats> getSortedStats() {
+        List<Stats> stats = new ArrayList<>(sStats.values());
+        Collections.sort(stats,
+                (a, b) -> Long.compare(b.getTotalWaitMicros(), a.getTotalWaitMicros()));
+        return stats;
+    }
+
+    public static TelecomLogClass.LockContention[] toProto() {
+        return getSortedStats().stream()
+                .map(Stats::toProto)
+                .toArray(TelecomLogClass.LockContention[]::new);
+    }
+
+    public static void dump(IndentingPrintWriter pw) {
+        pw.println("enabled: " + sIsEnabled);
+        if (sStats.isEmpty()) {
+            return;
+        }
+        pw.println("session: count, avgWaitUs, maxWaitUs, avgHoldUs, maxHoldUs");
+        pw.increaseIndent();
+        for (Stats stats : getSortedStats()) {
+            long count = stats.getAcquisitions();
+            if (count == 0) {
+                continue;
+            }
+            pw.printf("%s: %d, %d, %d, %d, %d\n", stats.getSessionName(), count,
+                    stats.getTotalWaitMicros() / count, stats.getMaxWaitMicros(),
+                    stats.getTotalHoldMicros() / count, stats.getMaxHoldMicros());
+        }
+        pw.decreaseIndent();
+    }
+}
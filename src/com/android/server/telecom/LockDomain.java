@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.os.SystemProperties;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A lock guarding the state of a single Telecom subsystem, used in place of the global
+ * {@link TelecomSystem.SyncRoot} where a subsystem's state is read from binder threads which
+ * should not have to queue behind call processing.
+ * <p>
+ * Locks must be acquired in increasing rank order.  The hierarchy, outermost first, is:
+ * <ol>
+ *     <li>{@link TelecomSystem.SyncRoot}: call processing, audio routing and in-call service
+ *     bindings.  Implicitly rank 0.</li>
+ *     <li>{@link #RANK_PHONE_ACCOUNTS}: the {@link PhoneAccountRegistrar} state.  Writers always
+ *     hold the Telecom lock already; readers take no lock at all.</li>
+ *     <li>{@link #RANK_CALL_REGISTRY}: the {@link CallRegistry} counters.  A leaf lock; no other
+ *     lock may be acquired while it is held.</li>
+ * </ol>
+ * A thread holding a lock of a given rank must never acquire a lock of the same or a lower rank
+ * which it does not already hold.
+ * <p>
+ * Use as {@code synchronized (mLock.ordered()) { ... }}.  When the lock order checker is enabled,
+ * {@link #ordered()} verifies the hierarchy before the monitor is entered and throws an
+ * {@link IllegalStateException} on violation.
+ */
+public class LockDomain {
+    /** System property used to enable the lock order checker at Telecom startup. */
+    public static final String PROPERTY_ORDER_CHECK_ENABLED = "persist.telecom.lock_order_check";
+
+    public static final int RANK_PHONE_ACCOUNTS = 1;
+    public static final int RANK_CALL_REGISTRY = 2;
+
+    private static volatile boolean sIsOrderCheckEnabled = false;
+
+    /** All live lock domains; only consulted when the order checker is enabled. */
+    private static final List<WeakReference<LockDomain>> sDomains = new CopyOnWriteArrayList<>();
+
+    private final String mName;
+    private final int mRank;
+
+    public LockDomain(String name, int rank) {
+        mName = name;
+        mRank = rank;
+        sDomains.removeIf(ref -> ref.get() == null);
+        sDomains.add(new WeakReference<>(this));
+    }
+
+    /**
+     * Reads {@link #PROPERTY_ORDER_CHECK_ENABLED} and enables or disables the order checker.
+     */
+    public static void init() {
+        setOrderCheckEnabled(SystemProperties.getBoolean(PROPERTY_ORDER_CHECK_ENABLED, false));
+    }
+
+    @VisibleForTesting
+    public static void setOrderCheckEnabled(boolean isEnabled) {
+        sIsOrderCheckEnabled = isEnabled;
+    }
+
+    /**
+     * Verifies that the calling thread may acquire this lock without violating the lock
+     * hierarchy.  Must be called before entering the monitor.
+     * @return This lock, so that the call can be made inline in a {@code synchronized} statement.
+     */
+    public LockDomain ordered() {
+        if (!sIsOrderCheckEnabled || Thread.holdsLock(this)) {
+            return this;
+        }
+        for (WeakReference<LockDomain> ref : sDomains) {
+            LockDomain other = ref.get();
+            if (other != null && other != this && other.mRank >= mRank
+                    && Thread.holdsLock(other)) {
+                throw new IllegalStateException("Lock order violation: acquiring " + this
+                        + " while holding " + other);
+            }
+        }
+        return this;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getRank() {
+        return mRank;
+    }
+
+    @Override
+    public String toString() {
+        return "LockDomain[" + mName + ", rank=" + mRank + "]";
+    }
+}
@@ -74,6 +74,7 @@ public class LogUtils {
         public static final String ICA_EXIT_AUDIO_PROCESSING = "ICA.exBAP";
         public static final String ICA_CONFERENCE = "ICA.c";
         public static final String CSW_HANDLE_CREATE_CONNECTION_COMPLETE = "CSW.hCCC";
+        public static final String CSW_HANDLE_CREATE_CONFERENCE_COMPLETE = "CSW.hCCfC";
         public static final String CSW_SET_ACTIVE = "CSW.sA";
         public static final String CSW_SET_RINGING = "CSW.sR";
         public static final String CSW_SET_DIALING = "CSW.sD";
@@ -160,11 +161,15 @@ public class LogUtils {
         public static final String CALL_IDENTIFICATION_SET = "CALL_IDENTIFICATION_SET";
         public static final String BLOCK_CHECK_INITIATED = "BLOCK_CHECK_INITIATED";
         public static final String BLOCK_CHECK_FINISHED = "BLOCK_CHECK_FINISHED";
+        public static final String BLOCK_CHECK_SPECULATION_USED = "BLOCK_CHECK_SPECULATION_USED";
+        public static final String BLOCK_CHECK_SPECULATION_MISSED =
+                "BLOCK_CHECK_SPECULATION_MISSED";
         public static final String DIRECT_TO_VM_INITIATED = "DIRECT_TO_VM_INITIATED";
         public static final String DIRECT_TO_VM_FINISHED = "DIRECT_TO_VM_FINISHED";
         public static final String FILTERING_INITIATED = "FILTERING_INITIATED";
         public static final String FILTERING_COMPLETED = "FILTERING_COMPLETED";
         public static final String FILTERING_TIMED_OUT = "FILTERING_TIMED_OUT";
+        public static final String FILTER_DEADLINE_EXCEEDED = "FILTER_DEADLINE_EXCEEDED";
         public static final String REMOTELY_HELD = "REMOTELY_HELD";
         public static final String REMOTELY_UNHELD = "REMOTELY_UNHELD";
         public static final String REQUEST_PULL = "PULL";
@@ -35,6 +35,16 @@ public class LoggedHandlerExecutor implements Executor {
 
     @Override
     public void execute(java.lang.Runnable command) {
+        if (mLock != null && LockContentionProfiler.isEnabled()) {
+            // Acquire the Telecom lock here rather than in Runnable so the wait can be measured.
+            mHandler.post(new Runnable(mSessionName, null) {
+                @Override
+                public void loggedRun() {
+                    LockContentionProfiler.runLocked(mLock, mSessionName, command);
+                }
+            }.prepare());
+            return;
+        }
         mHandler.post(new Runnable(mSessionName, mLock) {
             @Override
             public void loggedRun() {
@@ -34,10 +34,14 @@ public interface MissedCallNotifier extends CallsManager.CallsManagerListener {
     }
 
     class CallInfo {
+        /** The call log row id of a call which has not been written, or is not known. */
+        public static final long NO_CALL_LOG_ID = -1;
+
         private CallerInfo mCallerInfo;
         private PhoneAccountHandle mPhoneAccountHandle;
         private Uri mHandle;
         private long mCreationTimeMillis;
+        private long mCallLogId = NO_CALL_LOG_ID;
 
         public CallInfo(CallerInfo callerInfo, PhoneAccountHandle phoneAccountHandle, Uri handle,
                 long creationTimeMillis) {
@@ -74,6 +78,14 @@ public interface MissedCallNotifier extends CallsManager.CallsManagerListener {
             return mCreationTimeMillis;
         }
 
+        public long getCallLogId() {
+            return mCallLogId;
+        }
+
+        public void setCallLogId(long callLogId) {
+            mCallLogId = callLogId;
+        }
+
         public String getPhoneNumber() {
             return mCallerInfo == null ? null : mCallerInfo.getPhoneNumber();
         }
@@ -93,5 +105,7 @@ public interface MissedCallNotifier extends CallsManager.CallsManagerListener {
     void reloadFromDatabase(CallerInfoLookupHelper callerInfoLookupHelper,
             CallInfoFactory callInfoFactory, UserHandle userHandle);
 
+    void resetLoadedCalls(UserHandle userHandle);
+
     void setCurrentUserHandle(UserHandle userHandle);
 }
@@ -22,6 +22,7 @@ import static android.telecom.Call.Details.DIRECTION_UNKNOWN;
 
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Parcel;
 import android.telecom.Connection;
 import android.telecom.DisconnectCause;
 import android.telecom.ParcelableCall;
@@ -29,11 +30,15 @@ import android.telecom.ParcelableRttCall;
 import android.telecom.TelecomManager;
 import android.telephony.ims.ImsCallProfile;
 import android.text.TextUtils;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Utilities dealing with {@link ParcelableCall}.
@@ -41,6 +46,11 @@ import java.util.List;
 public class ParcelableCallUtils {
     private static final int CALL_STATE_OVERRIDE_NONE = -1;
 
+    /** The number of {@link Snapshot}s taken. */
+    private static final AtomicLong sSnapshotCount = new AtomicLong();
+    /** The number of {@link ParcelableCall}s built by {@link Snapshot}s. */
+    private static final AtomicLong sParcelableCallCount = new AtomicLong();
+
     /**
      * A list of extra keys which should be removed from a {@link ParcelableCall} when it is being
      * generated for the purpose of sending to a incallservice other than the system incallservice.
@@ -136,123 +146,213 @@ public class ParcelableCallUtils {
             int overrideState,
             boolean includeRttCall,
             boolean isForSystemInCallService) {
-        int state;
-        if (overrideState == CALL_STATE_OVERRIDE_NONE) {
-            state = getParcelableState(call, supportsExternalCalls);
-        } else {
-            state = overrideState;
-        }
-        int capabilities = convertConnectionToCallCapabilities(call.getConnectionCapabilities());
-        int properties = convertConnectionToCallProperties(call.getConnectionProperties());
-        int supportedAudioRoutes = call.getSupportedAudioRoutes();
+        return new Snapshot(call, includeVideoProvider).toParcelableCall(supportsExternalCalls,
+                overrideState, includeRttCall, isForSystemInCallService);
+    }
 
-        if (call.isConference()) {
-            properties |= android.telecom.Call.Details.PROPERTY_CONFERENCE;
-        }
+    /**
+     * The information about a {@link Call} which is the same for every {@link InCallService}, read
+     * once for an update and then used to parcel the call for each service.
+     * <p>
+     * Only the state, the capabilities which depend on it, the RTT call and the extras differ
+     * between services; these are laid over the shared base for each service.  Services which
+     * need the call parcelled the same way are given the same {@link ParcelableCall}.  A snapshot
+     * is meant to be used for a single update, while the call does not change.
+     */
+    public static class Snapshot {
+        private final Call mCall;
+        private final ParcelableCall mBase;
+        private final int mCapabilities;
+        private final Bundle mExtras;
+        private Bundle mSanitizedExtras;
+        private ParcelableRttCall mRttCall;
+        private boolean mIsRttCallCreated;
+        /** The calls parcelled so far, by {@link #getAudienceKey}. */
+        private final SparseArray<ParcelableCall> mParcelableCalls = new SparseArray<>(2);
+
+        /**
+         * @param call The {@link Call} to parcel.
+         * @param includeVideoProvider {@code true} if the video provider should be parcelled with
+         *      the {@link Call}, see {@link ParcelableCallUtils#toParcelableCall}.
+         */
+        public Snapshot(Call call, boolean includeVideoProvider) {
+            sSnapshotCount.incrementAndGet();
+            mCall = call;
+            int capabilities =
+                    convertConnectionToCallCapabilities(call.getConnectionCapabilities());
+            int properties = convertConnectionToCallProperties(call.getConnectionProperties());
+            int supportedAudioRoutes = call.getSupportedAudioRoutes();
+
+            if (call.isConference()) {
+                properties |= android.telecom.Call.Details.PROPERTY_CONFERENCE;
+            }
 
-        if (call.isWorkCall()) {
-            properties |= android.telecom.Call.Details.PROPERTY_ENTERPRISE_CALL;
-        }
+            if (call.isWorkCall()) {
+                properties |= android.telecom.Call.Details.PROPERTY_ENTERPRISE_CALL;
+            }
 
-        if (call.getIsVoipAudioMode()) {
-            properties |= android.telecom.Call.Details.PROPERTY_VOIP_AUDIO_MODE;
-        }
+            if (call.getIsVoipAudioMode()) {
+                properties |= android.telecom.Call.Details.PROPERTY_VOIP_AUDIO_MODE;
+            }
 
-        if (call.isRespondViaSmsCapable()) {
-            capabilities |= android.telecom.Call.Details.CAPABILITY_RESPOND_VIA_TEXT;
-        }
+            if (call.isRespondViaSmsCapable()) {
+                capabilities |= android.telecom.Call.Details.CAPABILITY_RESPOND_VIA_TEXT;
+            }
 
-        if (call.isEmergencyCall()) {
-            capabilities = removeCapability(
-                    capabilities, android.telecom.Call.Details.CAPABILITY_MUTE);
-        }
+            if (call.isEmergencyCall()) {
+                capabilities = removeCapability(
+                        capabilities, android.telecom.Call.Details.CAPABILITY_MUTE);
+            }
+            mCapabilities = capabilities;
 
-        if (state == android.telecom.Call.STATE_DIALING) {
-            capabilities = removeCapability(capabilities,
-                    android.telecom.Call.Details.CAPABILITY_SUPPORTS_VT_LOCAL_BIDIRECTIONAL);
-            capabilities = removeCapability(capabilities,
-                    android.telecom.Call.Details.CAPABILITY_SUPPORTS_VT_REMOTE_BIDIRECTIONAL);
-        }
+            String parentCallId = null;
+            Call parentCall = call.getParentCall();
+            if (parentCall != null) {
+                parentCallId = parentCall.getId();
+            }
 
-        String parentCallId = null;
-        Call parentCall = call.getParentCall();
-        if (parentCall != null) {
-            parentCallId = parentCall.getId();
-        }
+            List<Call> childCalls = call.getChildCalls();
+            List<String> childCallIds = new ArrayList<>();
+            if (!childCalls.isEmpty()) {
+                for (Call child : childCalls) {
+                    childCallIds.add(child.getId());
+                }
+            }
+
+            Uri handle = call.getHandlePresentation() == TelecomManager.PRESENTATION_ALLOWED ?
+                    call.getHandle() : null;
+            String callerDisplayName = call.getCallerDisplayNamePresentation() ==
+                    TelecomManager.PRESENTATION_ALLOWED ?  call.getCallerDisplayName() : null;
 
-        List<Call> childCalls = call.getChildCalls();
-        List<String> childCallIds = new ArrayList<>();
-        if (!childCalls.isEmpty()) {
-            for (Call child : childCalls) {
-                childCallIds.add(child.getId());
+            List<Call> conferenceableCalls = call.getConferenceableCalls();
+            List<String> conferenceableCallIds =
+                    new ArrayList<String>(conferenceableCalls.size());
+            for (Call otherCall : conferenceableCalls) {
+                conferenceableCallIds.add(otherCall.getId());
             }
-        }
 
-        Uri handle = call.getHandlePresentation() == TelecomManager.PRESENTATION_ALLOWED ?
-                call.getHandle() : null;
-        String callerDisplayName = call.getCallerDisplayNamePresentation() ==
-                TelecomManager.PRESENTATION_ALLOWED ?  call.getCallerDisplayName() : null;
+            int callDirection;
+            if (call.isIncoming()) {
+                callDirection = DIRECTION_INCOMING;
+            } else if (call.isUnknown()) {
+                callDirection = DIRECTION_UNKNOWN;
+            } else {
+                callDirection = DIRECTION_OUTGOING;
+            }
 
-        List<Call> conferenceableCalls = call.getConferenceableCalls();
-        List<String> conferenceableCallIds = new ArrayList<String>(conferenceableCalls.size());
-        for (Call otherCall : conferenceableCalls) {
-            conferenceableCallIds.add(otherCall.getId());
-        }
+            String activeChildCallId = null;
+            if (call.getConferenceLevelActiveCall() != null) {
+                activeChildCallId = call.getConferenceLevelActiveCall().getId();
+            }
 
-        ParcelableRttCall rttCall = includeRttCall ? getParcelableRttCall(call) : null;
-        int callDirection;
-        if (call.isIncoming()) {
-            callDirection = DIRECTION_INCOMING;
-        } else if (call.isUnknown()) {
-            callDirection = DIRECTION_UNKNOWN;
-        } else {
-            callDirection = DIRECTION_OUTGOING;
+            // The call's own bundles may change while the parcelled calls are still queued for
+            // the services, so the snapshot takes a copy of them.
+            mExtras = copyBundle(call.getExtras());
+
+            // The state, capabilities, RTT call and extras are set for each service.
+            mBase = new ParcelableCall.ParcelableCallBuilder()
+                    .setId(call.getId())
+                    .setDisconnectCause(call.getDisconnectCause())
+                    .setCannedSmsResponses(call.getCannedSmsResponses())
+                    .setProperties(properties)
+                    .setSupportedAudioRoutes(supportedAudioRoutes)
+                    .setConnectTimeMillis(call.getConnectTimeMillis())
+                    .setHandle(handle)
+                    .setHandlePresentation(call.getHandlePresentation())
+                    .setCallerDisplayName(callerDisplayName)
+                    .setCallerDisplayNamePresentation(call.getCallerDisplayNamePresentation())
+                    .setGatewayInfo(call.getGatewayInfo())
+                    .setAccountHandle(call.getTargetPhoneAccount())
+                    .setIsVideoCallProviderChanged(includeVideoProvider)
+                    .setVideoCallProvider(includeVideoProvider ? call.getVideoProvider() : null)
+                    .setParentCallId(parentCallId)
+                    .setChildCallIds(childCallIds)
+                    .setStatusHints(call.getStatusHints())
+                    .setVideoState(call.getVideoState())
+                    .setConferenceableCallIds(conferenceableCallIds)
+                    .setIntentExtras(copyBundle(call.getIntentExtras()))
+                    .setCreationTimeMillis(call.getCreationTimeMillis())
+                    .setCallDirection(callDirection)
+                    .setCallerNumberVerificationStatus(call.getCallerNumberVerificationStatus())
+                    .setContactDisplayName(call.getName())
+                    .setActiveChildCallId(activeChildCallId)
+                    .createParcelableCall();
+            sParcelableCallCount.incrementAndGet();
         }
 
-        String activeChildCallId = null;
-        if (call.getConferenceLevelActiveCall() != null) {
-            activeChildCallId = call.getConferenceLevelActiveCall().getId();
+        /**
+         * Parcels the call for a service, see {@link ParcelableCallUtils#toParcelableCall}.
+         */
+        public ParcelableCall toParcelableCall(boolean supportsExternalCalls,
+                boolean includeRttCall, boolean isForSystemInCallService) {
+            return toParcelableCall(supportsExternalCalls, CALL_STATE_OVERRIDE_NONE,
+                    includeRttCall, isForSystemInCallService);
         }
 
-        Bundle extras;
-        if (isForSystemInCallService) {
-            extras = call.getExtras();
-        } else {
-            extras = sanitizeExtras(call.getExtras());
+        /**
+         * Parcels the call for a service, see {@link ParcelableCallUtils#toParcelableCall}.
+         */
+        public ParcelableCall toParcelableCall(boolean supportsExternalCalls, int overrideState,
+                boolean includeRttCall, boolean isForSystemInCallService) {
+            int key = getAudienceKey(supportsExternalCalls, includeRttCall,
+                    isForSystemInCallService);
+            if (overrideState == CALL_STATE_OVERRIDE_NONE) {
+                ParcelableCall parcelableCall = mParcelableCalls.get(key);
+                if (parcelableCall != null) {
+                    return parcelableCall;
+                }
+            }
+
+            int state;
+            if (overrideState == CALL_STATE_OVERRIDE_NONE) {
+                state = getParcelableState(mCall, supportsExternalCalls);
+            } else {
+                state = overrideState;
+            }
+
+            int capabilities = mCapabilities;
+            if (state == android.telecom.Call.STATE_DIALING) {
+                capabilities = removeCapability(capabilities,
+                        android.telecom.Call.Details.CAPABILITY_SUPPORTS_VT_LOCAL_BIDIRECTIONAL);
+                capabilities = removeCapability(capabilities,
+                        android.telecom.Call.Details.CAPABILITY_SUPPORTS_VT_REMOTE_BIDIRECTIONAL);
+            }
+
+            if (includeRttCall && !mIsRttCallCreated) {
+                mRttCall = getParcelableRttCall(mCall);
+                mIsRttCallCreated = true;
+            }
+
+            Bundle extras;
+            if (isForSystemInCallService) {
+                extras = mExtras;
+            } else {
+                if (mSanitizedExtras == null) {
+                    mSanitizedExtras = sanitizeExtras(mExtras);
+                }
+                extras = mSanitizedExtras;
+            }
+
+            ParcelableCall parcelableCall = ParcelableCall.ParcelableCallBuilder
+                    .fromParcelableCall(mBase)
+                    .setState(state)
+                    .setCapabilities(capabilities)
+                    .setIsRttCallChanged(includeRttCall)
+                    .setRttCall(includeRttCall ? mRttCall : null)
+                    .setExtras(extras)
+                    .createParcelableCall();
+            sParcelableCallCount.incrementAndGet();
+            if (overrideState == CALL_STATE_OVERRIDE_NONE) {
+                mParcelableCalls.put(key, parcelableCall);
+            }
+            return parcelableCall;
         }
 
-        return new ParcelableCall.ParcelableCallBuilder()
-                .setId(call.getId())
-                .setState(state)
-                .setDisconnectCause(call.getDisconnectCause())
-                .setCannedSmsResponses(call.getCannedSmsResponses())
-                .setCapabilities(capabilities)
-                .setProperties(properties)
-                .setSupportedAudioRoutes(supportedAudioRoutes)
-                .setConnectTimeMillis(call.getConnectTimeMillis())
-                .setHandle(handle)
-                .setHandlePresentation(call.getHandlePresentation())
-                .setCallerDisplayName(callerDisplayName)
-                .setCallerDisplayNamePresentation(call.getCallerDisplayNamePresentation())
-                .setGatewayInfo(call.getGatewayInfo())
-                .setAccountHandle(call.getTargetPhoneAccount())
-                .setIsVideoCallProviderChanged(includeVideoProvider)
-                .setVideoCallProvider(includeVideoProvider ? call.getVideoProvider() : null)
-                .setIsRttCallChanged(includeRttCall)
-                .setRttCall(rttCall)
-                .setParentCallId(parentCallId)
-                .setChildCallIds(childCallIds)
-                .setStatusHints(call.getStatusHints())
-                .setVideoState(call.getVideoState())
-                .setConferenceableCallIds(conferenceableCallIds)
-                .setIntentExtras(call.getIntentExtras())
-                .setExtras(extras)
-                .setCreationTimeMillis(call.getCreationTimeMillis())
-                .setCallDirection(callDirection)
-                .setCallerNumberVerificationStatus(call.getCallerNumberVerificationStatus())
-                .setContactDisplayName(call.getName())
-                .setActiveChildCallId(activeChildCallId)
-                .createParcelableCall();
+        private static int getAudienceKey(boolean supportsExternalCalls, boolean includeRttCall,
+                boolean isForSystemInCallService) {
+            return (supportsExternalCalls ? 1 : 0) | (includeRttCall ? 2 : 0)
+                    | (isForSystemInCallService ? 4 : 0);
+        }
     }
 
     /**
@@ -330,6 +430,10 @@ public class ParcelableCallUtils {
                 .createParcelableCall();
     }
 
+    private static Bundle copyBundle(Bundle bundle) {
+        return bundle == null ? null : new Bundle(bundle);
+    }
+
     /**
      * Sanitize the extras bundle passed in, removing keys which should not be sent to non-system
      * incallservice apps.
@@ -581,6 +685,38 @@ public class ParcelableCallUtils {
         return capabilities & ~capability;
     }
 
+    /**
+     * Computes a fingerprint of everything a {@link ParcelableCall} tells an in-call service, so
+     * that an update which is the same as the last one sent to a service can be skipped.  The
+     * fingerprint is the parcelled call itself, which leaves lazily parcelled extras as they are;
+     * fingerprints are compared byte for byte, so two different updates never look the same.
+     * @param parcelableCall The call.
+     * @return The fingerprint, or {@code null} if the call holds binders or file descriptors,
+     *         e.g. a video provider or RTT pipes, and has to be sent regardless.
+     */
+    public static byte[] getFingerprint(ParcelableCall parcelableCall) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcelableCall.writeToParcel(parcel, 0);
+            // Throws if the parcel holds any binders or file descriptors.
+            return parcel.marshall();
+        } catch (RuntimeException e) {
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @VisibleForTesting
+    public static long getSnapshotCount() {
+        return sSnapshotCount.get();
+    }
+
+    @VisibleForTesting
+    public static long getParcelableCallCount() {
+        return sParcelableCallCount.get();
+    }
+
     private static ParcelableRttCall getParcelableRttCall(Call call) {
         if (!call.isRttCall()) {
             return null;
@@ -19,10 +19,11 @@ package com.android.server.telecom;
 import android.Manifest;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
+import android.content.IntentFilter;
 import android.content.pm.ResolveInfo;
 import android.content.pm.ServiceInfo;
 import android.content.pm.UserInfo;
@@ -31,9 +32,11 @@ import android.graphics.BitmapFactory;
 import android.graphics.drawable.Icon;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.PersistableBundle;
 import android.os.Process;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Settings;
@@ -48,13 +51,14 @@ import android.telephony.PhoneNumberUtils;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.AtomicFile;
 import android.util.Base64;
+import android.util.SparseArray;
 import android.util.Xml;
 
 // TODO: Needed for move to system service: import com.android.internal.R;
 import com.android.internal.annotations.VisibleForTesting;
-import com.android.internal.util.FastXmlSerializer;
 import com.android.internal.util.IndentingPrintWriter;
 import com.android.internal.util.XmlUtils;
 
@@ -65,6 +69,8 @@ import org.xmlpull.v1.XmlSerializer;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -73,6 +79,7 @@ import java.io.InputStream;
 import java.lang.Integer;
 import java.lang.SecurityException;
 import java.lang.String;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -83,6 +90,8 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -131,7 +140,17 @@ public class PhoneAccountRegistrar {
                 PhoneAccount phoneAccount) {}
     }
 
+    /**
+     * Name of the legacy XML state file.  The binary state file is named after it, see
+     * {@link #getBinaryFileName(String)}.
+     */
     public static final String FILE_NAME = "phone-account-registrar-state.xml";
+    private static final String XML_FILE_SUFFIX = ".xml";
+    private static final String BINARY_FILE_SUFFIX = ".bin";
+    /** Identifies a binary state file; "PARS" in ASCII. */
+    private static final int BINARY_MAGIC = 0x50415253;
+    @VisibleForTesting
+    public static final int BINARY_FORMAT_VERSION = 1;
     @VisibleForTesting
     public static final int EXPECTED_STATE_VERSION = 9;
 
@@ -140,17 +159,62 @@ public class PhoneAccountRegistrar {
 
     private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
     private final AtomicFile mAtomicFile;
+    /** State file written by older releases; read once and deleted after migration. */
+    private final AtomicFile mLegacyXmlFile;
     private final Context mContext;
     private final UserManager mUserManager;
     private final SubscriptionManager mSubscriptionManager;
     private final DefaultDialerCache mDefaultDialerCache;
     private final AppLabelProxy mAppLabelProxy;
-    private State mState;
-    private UserHandle mCurrentUserHandle;
+    private final ComponentResolutionCache mComponentResolutionCache;
+    /**
+     * Guards modifications of {@link #mState}.  Readers take no lock; the account list and default
+     * handle map in {@link State} are safe for concurrent reads.
+     */
+    private final LockDomain mAccountsLock = new LockDomain("PhoneAccounts",
+            LockDomain.RANK_PHONE_ACCOUNTS);
+    private volatile State mState;
+    private volatile UserHandle mCurrentUserHandle;
+    /**
+     * Incremented after every change to the contents or order of {@code mState.accounts}; used to
+     * detect when {@link #mAccountIndex} must be rebuilt.
+     */
+    private volatile int mAccountsVersion;
+    private volatile AccountIndex mAccountIndex;
     private String mTestPhoneAccountPackageNameFilter;
     private interface PhoneAccountRegistrarWriteLock {}
     private final PhoneAccountRegistrarWriteLock mWriteLock =
             new PhoneAccountRegistrarWriteLock() {};
+    /** Thread on which every registrar persists its state; started on first use. */
+    private static HandlerThread sWriteThread;
+    /** Handler on which pending state changes are persisted. */
+    private final Handler mWriteHandler;
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushPendingWrite();
+        }
+    };
+    /** Set when the state has changed and a write has been scheduled but not yet performed. */
+    private final AtomicBoolean mIsWritePending = new AtomicBoolean(false);
+    /** {@link SystemClock#elapsedRealtime} of the oldest unwritten change, or 0 if none. */
+    private final AtomicLong mFirstPendingWriteMillis = new AtomicLong();
+    private final AtomicLong mWriteRequests = new AtomicLong();
+    private final AtomicLong mWritesPerformed = new AtomicLong();
+    private final AtomicLong mDecodedIconCount = new AtomicLong();
+    /** Estimated heap used by the icons decoded from {@link State#encodedIcons}. */
+    private final AtomicLong mDecodedIconBytes = new AtomicLong();
+    private final BroadcastReceiver mShutdownReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.startSession("PAR.oSR");
+            try {
+                flush();
+            } finally {
+                Log.endSession();
+            }
+        }
+    };
 
     @VisibleForTesting
     public PhoneAccountRegistrar(Context context, DefaultDialerCache defaultDialerCache,
@@ -162,18 +226,30 @@ public class PhoneAccountRegistrar {
     public PhoneAccountRegistrar(Context context, String fileName,
             DefaultDialerCache defaultDialerCache, AppLabelProxy appLabelProxy) {
 
-        mAtomicFile = new AtomicFile(new File(context.getFilesDir(), fileName));
+        mAtomicFile = new AtomicFile(new File(context.getFilesDir(), getBinaryFileName(fileName)));
+        mLegacyXmlFile = new AtomicFile(new File(context.getFilesDir(), fileName));
 
         mState = new State();
         mContext = context;
+        mComponentResolutionCache = new ComponentResolutionCache(context);
         mUserManager = UserManager.get(context);
         mDefaultDialerCache = defaultDialerCache;
         mSubscriptionManager = SubscriptionManager.from(mContext);
         mAppLabelProxy = appLabelProxy;
         mCurrentUserHandle = Process.myUserHandle();
+        mWriteHandler = new Handler(getWriteThread().getLooper());
+        context.registerReceiver(mShutdownReceiver, new IntentFilter(Intent.ACTION_SHUTDOWN));
         read();
     }
 
+    private static synchronized HandlerThread getWriteThread() {
+        if (sWriteThread == null) {
+            sWriteThread = new HandlerThread("PhoneAccountRegistrarWriter");
+            sWriteThread.start();
+        }
+        return sWriteThread;
+    }
+
     /**
      * Retrieves the subscription id for a given phone account if it exists. Subscription ids
      * apply only to PSTN/SIM card phone accounts so all other accounts should not have a
@@ -306,59 +382,69 @@ public class PhoneAccountRegistrar {
         if (userHandle == null) {
             return;
         }
-        DefaultPhoneAccountHandle currentDefaultInfo =
-                mState.defaultOutgoingAccountHandles.get(userHandle);
-        PhoneAccountHandle currentDefaultPhoneAccount = currentDefaultInfo == null ? null :
-                currentDefaultInfo.phoneAccountHandle;
-        boolean isSimAccount = false;
-        if (accountHandle == null) {
-            // Asking to clear the default outgoing is a valid request
-            mState.defaultOutgoingAccountHandles.remove(userHandle);
-        } else {
-            PhoneAccount account = getPhoneAccount(accountHandle, userHandle);
-            if (account == null) {
-                Log.w(this, "Trying to set nonexistent default outgoing %s",
-                        accountHandle);
-                return;
-            }
+        boolean updateVoiceSub = false;
+        synchronized (mAccountsLock.ordered()) {
+            DefaultPhoneAccountHandle currentDefaultInfo =
+                    mState.defaultOutgoingAccountHandles.get(userHandle);
+            PhoneAccountHandle currentDefaultPhoneAccount = currentDefaultInfo == null ? null :
+                    currentDefaultInfo.phoneAccountHandle;
+            boolean isSimAccount = false;
+            if (accountHandle == null) {
+                // Asking to clear the default outgoing is a valid request
+                mState.defaultOutgoingAccountHandles.remove(userHandle);
+            } else {
+                PhoneAccount account = getPhoneAccount(accountHandle, userHandle);
+                if (account == null) {
+                    Log.w(this, "Trying to set nonexistent default outgoing %s",
+                            accountHandle);
+                    return;
+                }
 
-            if (!account.hasCapabilities(PhoneAccount.CAPABILITY_CALL_PROVIDER)) {
-                Log.w(this, "Trying to set non-call-provider default outgoing %s",
-                        accountHandle);
-                return;
+                if (!account.hasCapabilities(PhoneAccount.CAPABILITY_CALL_PROVIDER)) {
+                    Log.w(this, "Trying to set non-call-provider default outgoing %s",
+                            accountHandle);
+                    return;
+                }
+
+                if (account.hasCapabilities(PhoneAccount.CAPABILITY_SIM_SUBSCRIPTION)) {
+                    // If the account selected is a SIM account, propagate down to the subscription
+                    // record.
+                    isSimAccount = true;
+                }
+
+                Log.i(this, "setUserSelectedOutgoingPhoneAccount: %s", accountHandle);
+                mState.defaultOutgoingAccountHandles
+                        .put(userHandle, new DefaultPhoneAccountHandle(userHandle, accountHandle,
+                                account.getGroupId()));
             }
 
-            if (account.hasCapabilities(PhoneAccount.CAPABILITY_SIM_SUBSCRIPTION)) {
-                // If the account selected is a SIM account, propagate down to the subscription
-                // record.
-                isSimAccount = true;
+            // Decide under the lock whether the default voice subid needs updating, but leave the
+            // binder calls which look it up and set it until the lock has been released.
+            if (!Objects.equals(currentDefaultPhoneAccount, accountHandle)) {
+                if (isSimAccount || accountHandle == null) {
+                    updateVoiceSub = true;
+                } else {
+                    Log.i(this, "setUserSelectedOutgoingPhoneAccount: %s is not a sub",
+                            accountHandle);
+                }
+            } else {
+                Log.i(this, "setUserSelectedOutgoingPhoneAccount: no change to voice sub");
             }
 
-            Log.i(this, "setUserSelectedOutgoingPhoneAccount: %s", accountHandle);
-            mState.defaultOutgoingAccountHandles
-                    .put(userHandle, new DefaultPhoneAccountHandle(userHandle, accountHandle,
-                            account.getGroupId()));
+            write();
         }
 
         // Potentially update the default voice subid in SubscriptionManager.
-        if (!Objects.equals(currentDefaultPhoneAccount, accountHandle)) {
+        if (updateVoiceSub) {
             int newSubId = accountHandle == null ? SubscriptionManager.INVALID_SUBSCRIPTION_ID :
                     getSubscriptionIdForPhoneAccount(accountHandle);
-            if (isSimAccount || accountHandle == null) {
-                int currentVoiceSubId = mSubscriptionManager.getDefaultVoiceSubscriptionId();
-                if (newSubId != currentVoiceSubId) {
-                    Log.i(this, "setUserSelectedOutgoingPhoneAccount: update voice sub; "
-                            + "account=%s, subId=%d", accountHandle, newSubId);
-                    mSubscriptionManager.setDefaultVoiceSubscriptionId(newSubId);
-                }
-            } else {
-                Log.i(this, "setUserSelectedOutgoingPhoneAccount: %s is not a sub", accountHandle);
+            int currentVoiceSubId = mSubscriptionManager.getDefaultVoiceSubscriptionId();
+            if (newSubId != currentVoiceSubId) {
+                Log.i(this, "setUserSelectedOutgoingPhoneAccount: update voice sub; "
+                        + "account=%s, subId=%d", accountHandle, newSubId);
+                mSubscriptionManager.setDefaultVoiceSubscriptionId(newSubId);
             }
-        } else {
-            Log.i(this, "setUserSelectedOutgoingPhoneAccount: no change to voice sub");
         }
-
-        write();
         fireDefaultOutgoingChanged();
     }
 
@@ -557,24 +643,30 @@ public class PhoneAccountRegistrar {
      *         otherwise.
      */
     public boolean enablePhoneAccount(PhoneAccountHandle accountHandle, boolean isEnabled) {
-        PhoneAccount account = getPhoneAccountUnchecked(accountHandle);
-        Log.i(this, "Phone account %s %s.", accountHandle, isEnabled ? "enabled" : "disabled");
-        if (account == null) {
-            Log.w(this, "Could not find account to enable: " + accountHandle);
-            return false;
-        } else if (account.hasCapabilities(PhoneAccount.CAPABILITY_SIM_SUBSCRIPTION)) {
-            // We never change the enabled state of SIM-based accounts.
-            Log.w(this, "Could not change enable state of SIM account: " + accountHandle);
-            return false;
-        }
+        boolean isChanged = false;
+        synchronized (mAccountsLock.ordered()) {
+            PhoneAccount account = getPhoneAccountUnchecked(accountHandle);
+            Log.i(this, "Phone account %s %s.", accountHandle, isEnabled ? "enabled" : "disabled");
+            if (account == null) {
+                Log.w(this, "Could not find account to enable: " + accountHandle);
+                return false;
+            } else if (account.hasCapabilities(PhoneAccount.CAPABILITY_SIM_SUBSCRIPTION)) {
+                // We never change the enabled state of SIM-based accounts.
+                Log.w(this, "Could not change enable state of SIM account: " + accountHandle);
+                return false;
+            }
 
-        if (account.isEnabled() != isEnabled) {
-            account.setIsEnabled(isEnabled);
-            if (!isEnabled) {
-                // If the disabled account is the default, remove it.
-                removeDefaultPhoneAccountHandle(accountHandle);
+            if (account.isEnabled() != isEnabled) {
+                account.setIsEnabled(isEnabled);
+                if (!isEnabled) {
+                    // If the disabled account is the default, remove it.
+                    removeDefaultPhoneAccountHandle(accountHandle);
+                }
+                write();
+                isChanged = true;
             }
-            write();
+        }
+        if (isChanged) {
             fireAccountsChanged();
         }
         return true;
@@ -634,19 +726,12 @@ public class PhoneAccountRegistrar {
 
     private List<ResolveInfo> resolveComponent(ComponentName componentName,
             UserHandle userHandle) {
-        PackageManager pm = mContext.getPackageManager();
-        Intent intent = new Intent(ConnectionService.SERVICE_INTERFACE);
-        intent.setComponent(componentName);
-        try {
-            if (userHandle != null) {
-                return pm.queryIntentServicesAsUser(intent, 0, userHandle.getIdentifier());
-            } else {
-                return pm.queryIntentServices(intent, 0);
-            }
-        } catch (SecurityException e) {
-            Log.e(this, e, "%s is not visible for the calling user", componentName);
-            return Collections.EMPTY_LIST;
-        }
+        return mComponentResolutionCache.resolve(componentName, userHandle);
+    }
+
+    @VisibleForTesting
+    public ComponentResolutionCache getComponentResolutionCache() {
+        return mComponentResolutionCache;
     }
 
     /**
@@ -660,7 +745,7 @@ public class PhoneAccountRegistrar {
     }
 
     public List<PhoneAccount> getAllPhoneAccounts(UserHandle userHandle) {
-        return getPhoneAccounts(0, null, null, false, userHandle);
+        return decodeIcons(getPhoneAccounts(0, null, null, false, userHandle));
     }
 
     public List<PhoneAccount> getAllPhoneAccountsOfCurrentUser() {
@@ -803,49 +888,59 @@ public class PhoneAccountRegistrar {
         boolean isEnabled = false;
         boolean isNewAccount;
 
-        PhoneAccount oldAccount = getPhoneAccountUnchecked(account.getAccountHandle());
-        if (oldAccount != null) {
-            mState.accounts.remove(oldAccount);
-            isEnabled = oldAccount.isEnabled();
-            Log.i(this, "Modify account: %s", getAccountDiffString(account, oldAccount));
-            isNewAccount = false;
-        } else {
-            Log.i(this, "New phone account registered: " + account);
-            isNewAccount = true;
-        }
-
-        // When registering a self-managed PhoneAccount we enforce the rule that the label that the
-        // app uses is also its phone account label.  Also ensure it does not attempt to declare
-        // itself as a sim acct, call manager or call provider.
-        if (account.hasCapabilities(PhoneAccount.CAPABILITY_SELF_MANAGED)) {
-            // Turn off bits we don't want to be able to set (TelecomServiceImpl protects against
-            // this but we'll also prevent it from happening here, just to be safe).
-            int newCapabilities = account.getCapabilities() &
-                    ~(PhoneAccount.CAPABILITY_CALL_PROVIDER |
-                        PhoneAccount.CAPABILITY_CONNECTION_MANAGER |
-                        PhoneAccount.CAPABILITY_SIM_SUBSCRIPTION);
-
-            // Ensure name is correct.
-            CharSequence newLabel = mAppLabelProxy.getAppLabel(
-                    account.getAccountHandle().getComponentName().getPackageName());
-
-            account = account.toBuilder()
-                    .setLabel(newLabel)
-                    .setCapabilities(newCapabilities)
-                    .build();
-        }
-
-        mState.accounts.add(account);
-        // Set defaults and replace based on the group Id.
-        maybeReplaceOldAccount(account);
-        // Reset enabled state to whatever the value was if the account was already registered,
-        // or _true_ if this is a SIM-based account.  All SIM-based accounts are always enabled,
-        // as are all self-managed phone accounts.
-        account.setIsEnabled(
-                isEnabled || account.hasCapabilities(PhoneAccount.CAPABILITY_SIM_SUBSCRIPTION)
-                || account.hasCapabilities(PhoneAccount.CAPABILITY_SELF_MANAGED));
-
-        write();
+        synchronized (mAccountsLock.ordered()) {
+            PhoneAccount oldAccount = getPhoneAccountUnchecked(account.getAccountHandle());
+            if (oldAccount != null) {
+                isEnabled = oldAccount.isEnabled();
+                Log.i(this, "Modify account: %s", getAccountDiffString(account, oldAccount));
+                isNewAccount = false;
+            } else {
+                Log.i(this, "New phone account registered: " + account);
+                isNewAccount = true;
+            }
+
+            // When registering a self-managed PhoneAccount we enforce the rule that the label that
+            // the app uses is also its phone account label.  Also ensure it does not attempt to
+            // declare itself as a sim acct, call manager or call provider.
+            if (account.hasCapabilities(PhoneAccount.CAPABILITY_SELF_MANAGED)) {
+                // Turn off bits we don't want to be able to set (TelecomServiceImpl protects
+                // against this but we'll also prevent it from happening here, just to be safe).
+                int newCapabilities = account.getCapabilities() &
+                        ~(PhoneAccount.CAPABILITY_CALL_PROVIDER |
+                            PhoneAccount.CAPABILITY_CONNECTION_MANAGER |
+                            PhoneAccount.CAPABILITY_SIM_SUBSCRIPTION);
+
+                // Ensure name is correct.
+                CharSequence newLabel = mAppLabelProxy.getAppLabel(
+                        account.getAccountHandle().getComponentName().getPackageName());
+
+                account = account.toBuilder()
+                        .setLabel(newLabel)
+                        .setCapabilities(newCapabilities)
+                        .build();
+            }
+
+            // Replace the old account in place so that lock-free readers never observe the
+            // account as missing.
+            int oldIndex = oldAccount == null ? -1 : mState.accounts.indexOf(oldAccount);
+            if (oldIndex >= 0) {
+                mState.accounts.set(oldIndex, account);
+            } else {
+                mState.accounts.add(account);
+            }
+            mState.encodedIcons.remove(account.getAccountHandle());
+            invalidateAccountIndex();
+            // Set defaults and replace based on the group Id.
+            maybeReplaceOldAccount(account);
+            // Reset enabled state to whatever the value was if the account was already
+            // registered, or _true_ if this is a SIM-based account.  All SIM-based accounts are
+            // always enabled, as are all self-managed phone accounts.
+            account.setIsEnabled(
+                    isEnabled || account.hasCapabilities(PhoneAccount.CAPABILITY_SIM_SUBSCRIPTION)
+                    || account.hasCapabilities(PhoneAccount.CAPABILITY_SELF_MANAGED));
+
+            write();
+        }
         fireAccountsChanged();
         if (isNewAccount) {
             fireAccountRegistered(account.getAccountHandle());
@@ -855,14 +950,17 @@ public class PhoneAccountRegistrar {
     }
 
     public void unregisterPhoneAccount(PhoneAccountHandle accountHandle) {
-        PhoneAccount account = getPhoneAccountUnchecked(accountHandle);
-        if (account != null) {
-            if (mState.accounts.remove(account)) {
-                write();
-                fireAccountsChanged();
-                fireAccountUnRegistered(accountHandle);
+        synchronized (mAccountsLock.ordered()) {
+            PhoneAccount account = getPhoneAccountUnchecked(accountHandle);
+            if (account == null || !mState.accounts.remove(account)) {
+                return;
             }
+            mState.encodedIcons.remove(accountHandle);
+            invalidateAccountIndex();
+            write();
         }
+        fireAccountsChanged();
+        fireAccountUnRegistered(accountHandle);
     }
 
     /**
@@ -873,20 +971,27 @@ public class PhoneAccountRegistrar {
      */
     public void clearAccounts(String packageName, UserHandle userHandle) {
         boolean accountsRemoved = false;
-        Iterator<PhoneAccount> it = mState.accounts.iterator();
-        while (it.hasNext()) {
-            PhoneAccount phoneAccount = it.next();
-            PhoneAccountHandle handle = phoneAccount.getAccountHandle();
-            if (Objects.equals(packageName, handle.getComponentName().getPackageName())
-                    && Objects.equals(userHandle, handle.getUserHandle())) {
-                Log.i(this, "Removing phone account " + phoneAccount.getLabel());
-                mState.accounts.remove(phoneAccount);
-                accountsRemoved = true;
+        synchronized (mAccountsLock.ordered()) {
+            Iterator<PhoneAccount> it = mState.accounts.iterator();
+            while (it.hasNext()) {
+                PhoneAccount phoneAccount = it.next();
+                PhoneAccountHandle handle = phoneAccount.getAccountHandle();
+                if (Objects.equals(packageName, handle.getComponentName().getPackageName())
+                        && Objects.equals(userHandle, handle.getUserHandle())) {
+                    Log.i(this, "Removing phone account " + phoneAccount.getLabel());
+                    mState.accounts.remove(phoneAccount);
+                    mState.encodedIcons.remove(handle);
+                    accountsRemoved = true;
+                }
+            }
+
+            if (accountsRemoved) {
+                invalidateAccountIndex();
+                write();
             }
         }
 
         if (accountsRemoved) {
-            write();
             fireAccountsChanged();
         }
     }
@@ -1045,12 +1150,10 @@ public class PhoneAccountRegistrar {
      * @return The corresponding phone account if one exists.
      */
     public PhoneAccount getPhoneAccountUnchecked(PhoneAccountHandle handle) {
-        for (PhoneAccount m : mState.accounts) {
-            if (Objects.equals(handle, m.getAccountHandle())) {
-                return m;
-            }
+        if (handle == null) {
+            return null;
         }
-        return null;
+        return getAccountIndex().byHandle.get(handle);
     }
 
     /**
@@ -1066,11 +1169,84 @@ public class PhoneAccountRegistrar {
             UserHandle userHandle, boolean acrossProfiles) {
         PhoneAccount account = getPhoneAccountUnchecked(handle);
         if (account != null && (isVisibleForUser(account, userHandle, acrossProfiles))) {
-            return account;
+            return decodeIcons(Collections.singletonList(account)).get(0);
         }
         return null;
     }
 
+    /**
+     * Decodes the icons of any of the specified accounts which were loaded from disk with their
+     * icon still encoded, replacing them in {@link #mState} with copies which include the icon.
+     * Accounts are only handed out with their icon through {@link #getPhoneAccount} and
+     * {@link #getAllPhoneAccounts}; everything else Telecom does with an account ignores its icon.
+     *
+     * @param accounts The accounts to return to the caller.
+     * @return The accounts, each including its icon.
+     */
+    private List<PhoneAccount> decodeIcons(List<PhoneAccount> accounts) {
+        if (mState.encodedIcons.isEmpty()) {
+            return accounts;
+        }
+        List<PhoneAccount> result = new ArrayList<>(accounts.size());
+        synchronized (mAccountsLock.ordered()) {
+            boolean isChanged = false;
+            for (PhoneAccount account : accounts) {
+                if (account.getIcon() != null) {
+                    result.add(account);
+                    continue;
+                }
+                // The account may have been decoded since the caller looked it up.
+                PhoneAccountHandle handle = account.getAccountHandle();
+                int index = indexOfAccount(handle);
+                PhoneAccount current = index >= 0 ? mState.accounts.get(index) : account;
+                byte[] encodedIcon = mState.encodedIcons.remove(handle);
+                Icon icon = encodedIcon == null ? null : decodeIcon(encodedIcon);
+                if (icon != null) {
+                    current = current.toBuilder().setIcon(icon).build();
+                    mDecodedIconCount.incrementAndGet();
+                    mDecodedIconBytes.addAndGet(getIconByteCount(icon, encodedIcon));
+                    if (index >= 0) {
+                        mState.accounts.set(index, current);
+                        isChanged = true;
+                    }
+                }
+                result.add(current);
+            }
+            if (isChanged) {
+                invalidateAccountIndex();
+            }
+        }
+        return result;
+    }
+
+    private int indexOfAccount(PhoneAccountHandle handle) {
+        for (int i = 0; i < mState.accounts.size(); i++) {
+            if (Objects.equals(mState.accounts.get(i).getAccountHandle(), handle)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Icon decodeIcon(byte[] encodedIcon) {
+        try {
+            return Icon.createFromStream(new ByteArrayInputStream(encodedIcon));
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(this, e, "Decoding PhoneAccount icon");
+            return null;
+        }
+    }
+
+    /**
+     * @return The approximate number of bytes of heap used by the icon.
+     */
+    private static long getIconByteCount(Icon icon, byte[] encodedIcon) {
+        if (icon.getType() == Icon.TYPE_BITMAP || icon.getType() == Icon.TYPE_ADAPTIVE_BITMAP) {
+            return icon.getBitmap().getAllocationByteCount();
+        }
+        return encodedIcon.length;
+    }
+
     public PhoneAccount getPhoneAccountOfCurrentUser(PhoneAccountHandle handle) {
         return getPhoneAccount(handle, mCurrentUserHandle);
     }
@@ -1134,8 +1310,11 @@ public class PhoneAccountRegistrar {
             String packageName,
             boolean includeDisabledAccounts,
             UserHandle userHandle) {
-        List<PhoneAccount> accounts = new ArrayList<>(mState.accounts.size());
-        for (PhoneAccount m : mState.accounts) {
+        // Only consider the accounts which could possibly match; the checks below still apply.
+        List<PhoneAccount> candidates = getAccountIndex().getCandidates(capabilities, uriScheme,
+                packageName, mCurrentUserHandle == null ? null : userHandle);
+        List<PhoneAccount> accounts = new ArrayList<>(candidates.size());
+        for (PhoneAccount m : candidates) {
             if (!(m.isEnabled() || includeDisabledAccounts)) {
                 // Do not include disabled accounts.
                 continue;
@@ -1174,6 +1353,133 @@ public class PhoneAccountRegistrar {
         return accounts;
     }
 
+    /**
+     * Must be called after any change to the contents or order of {@code mState.accounts}, or when
+     * {@link #mState} is replaced.
+     */
+    private void invalidateAccountIndex() {
+        mAccountsVersion++;
+    }
+
+    private AccountIndex getAccountIndex() {
+        AccountIndex index = mAccountIndex;
+        // Read the version before the accounts; if the accounts change while the index is being
+        // built the version will no longer match and the next lookup rebuilds it again.
+        int version = mAccountsVersion;
+        if (index == null || index.version != version || index.accounts != mState.accounts) {
+            index = new AccountIndex(version, mState.accounts);
+            mAccountIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Immutable secondary indexes over the registered {@link PhoneAccount}s, rebuilt lazily when
+     * the accounts change.  Each list preserves the order of {@code mState.accounts}.
+     */
+    private static final class AccountIndex {
+        final int version;
+        final List<PhoneAccount> accounts;
+        final List<PhoneAccount> all;
+        final Map<PhoneAccountHandle, PhoneAccount> byHandle = new ArrayMap<>();
+        final Map<String, List<PhoneAccount>> byScheme = new ArrayMap<>();
+        final Map<String, List<PhoneAccount>> byPackage = new ArrayMap<>();
+        /** Accounts visible to each user; includes the {@link #multiUser} accounts. */
+        final Map<UserHandle, List<PhoneAccount>> byUser = new ArrayMap<>();
+        /** Accounts with {@link PhoneAccount#CAPABILITY_MULTI_USER}. */
+        final List<PhoneAccount> multiUser = new ArrayList<>();
+        /** Accounts having each capability, keyed by capability bit. */
+        final SparseArray<List<PhoneAccount>> byCapability = new SparseArray<>();
+
+        AccountIndex(int version, List<PhoneAccount> accounts) {
+            this.version = version;
+            this.accounts = accounts;
+            all = new ArrayList<>(accounts);
+            for (PhoneAccount account : all) {
+                PhoneAccountHandle handle = account.getAccountHandle();
+                byHandle.putIfAbsent(handle, account);
+                if (account.getSupportedUriSchemes() != null) {
+                    for (String scheme : account.getSupportedUriSchemes()) {
+                        add(byScheme, scheme, account);
+                    }
+                }
+                add(byPackage, handle.getComponentName().getPackageName(), account);
+                int capabilities = account.getCapabilities();
+                while (capabilities != 0) {
+                    int bit = Integer.lowestOneBit(capabilities);
+                    capabilities &= ~bit;
+                    List<PhoneAccount> list = byCapability.get(bit);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        byCapability.put(bit, list);
+                    }
+                    list.add(account);
+                }
+                if (account.hasCapabilities(PhoneAccount.CAPABILITY_MULTI_USER)) {
+                    multiUser.add(account);
+                }
+            }
+            // Build the per-user lists in a second pass so multi-user accounts keep their place.
+            for (PhoneAccount account : all) {
+                UserHandle userHandle = account.getAccountHandle().getUserHandle();
+                if (userHandle != null) {
+                    byUser.putIfAbsent(userHandle, new ArrayList<>());
+                }
+            }
+            for (PhoneAccount account : all) {
+                boolean isMultiUser = account.hasCapabilities(PhoneAccount.CAPABILITY_MULTI_USER);
+                UserHandle owner = account.getAccountHandle().getUserHandle();
+                for (Map.Entry<UserHandle, List<PhoneAccount>> entry : byUser.entrySet()) {
+                    if (isMultiUser || entry.getKey().equals(owner)) {
+                        entry.getValue().add(account);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return The smallest list of accounts which is guaranteed to contain every account
+         *         matching the criteria; a {@code null} or 0 criterion is not used to narrow.
+         */
+        List<PhoneAccount> getCandidates(int capabilities, String uriScheme, String packageName,
+                UserHandle userHandle) {
+            List<PhoneAccount> candidates = all;
+            while (capabilities != 0) {
+                int bit = Integer.lowestOneBit(capabilities);
+                capabilities &= ~bit;
+                candidates = smaller(candidates, byCapability.get(bit));
+            }
+            if (uriScheme != null) {
+                candidates = smaller(candidates, byScheme.get(uriScheme));
+            }
+            if (packageName != null) {
+                candidates = smaller(candidates, byPackage.get(packageName));
+            }
+            if (userHandle != null) {
+                candidates = smaller(candidates, byUser.getOrDefault(userHandle, multiUser));
+            }
+            return candidates;
+        }
+
+        private static List<PhoneAccount> smaller(List<PhoneAccount> current,
+                List<PhoneAccount> other) {
+            if (other == null) {
+                return Collections.emptyList();
+            }
+            return other.size() < current.size() ? other : current;
+        }
+
+        private static <K> void add(Map<K, List<PhoneAccount>> map, K key,
+                PhoneAccount account) {
+            List<PhoneAccount> list = map.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                map.put(key, list);
+            }
+            list.add(account);
+        }
+    }
+
     //
     // State Implementation for PhoneAccountRegistrar
     //
@@ -1195,6 +1501,13 @@ public class PhoneAccountRegistrar {
          */
         public final List<PhoneAccount> accounts = new CopyOnWriteArrayList<>();
 
+        /**
+         * The encoded icons of accounts in {@link #accounts} which were loaded from disk without
+         * decoding their icon, keyed by account handle.  An icon is decoded, and removed from
+         * this map, when its account is first handed out by the registrar.
+         */
+        public final Map<PhoneAccountHandle, byte[]> encodedIcons = new ConcurrentHashMap<>();
+
         /**
          * The version number of the State data.
          */
@@ -1242,6 +1555,19 @@ public class PhoneAccountRegistrar {
             pw.increaseIndent();
             pw.println("test emergency PhoneAccount filter: " + mTestPhoneAccountPackageNameFilter);
             pw.decreaseIndent();
+            pw.println("writes: requested=" + mWriteRequests.get() + ", performed="
+                    + mWritesPerformed.get() + ", pending=" + mIsWritePending.get());
+            long encodedIconBytes = 0;
+            for (byte[] encodedIcon : mState.encodedIcons.values()) {
+                encodedIconBytes += encodedIcon.length;
+            }
+            pw.println("icons: encoded=" + mState.encodedIcons.size() + " (" + encodedIconBytes
+                    + " bytes), decoded=" + mDecodedIconCount.get() + " ("
+                    + mDecodedIconBytes.get() + " bytes)");
+            pw.println("componentResolutionCache:");
+            pw.increaseIndent();
+            mComponentResolutionCache.dump(pw);
+            pw.decreaseIndent();
         }
     }
 
@@ -1288,6 +1614,7 @@ public class PhoneAccountRegistrar {
 
             // Sort the phone accounts.
             mState.accounts.sort(bySimCapability.thenComparing(bySortOrder.thenComparing(byLabel)));
+            invalidateAccountIndex();
         }
     }
 
@@ -1296,60 +1623,190 @@ public class PhoneAccountRegistrar {
     // State management
     //
 
-    private class AsyncXmlWriter extends AsyncTask<ByteArrayOutputStream, Void, Void> {
-        @Override
-        public Void doInBackground(ByteArrayOutputStream... args) {
-            final ByteArrayOutputStream buffer = args[0];
-            FileOutputStream fileOutput = null;
+    /**
+     * Marks the state as changed.  The state is persisted once no further changes have been made
+     * for {@link Timeouts#getPhoneAccountWriteDelayMillis}, so that a burst of changes costs a
+     * single serialization and write.  A burst which lasts longer than
+     * {@link Timeouts#getPhoneAccountMaxWriteDelayMillis} is written without waiting for it to end.
+     */
+    private void write() {
+        sortPhoneAccounts();
+        mWriteRequests.incrementAndGet();
+        long now = SystemClock.elapsedRealtime();
+        mFirstPendingWriteMillis.compareAndSet(0, now);
+        mIsWritePending.set(true);
+        // Push the write back on every change, so that it happens once the burst is over, but
+        // never past the deadline of the oldest unwritten change.
+        long deadline = mFirstPendingWriteMillis.get()
+                + Timeouts.getPhoneAccountMaxWriteDelayMillis(mContext.getContentResolver());
+        long delay = Math.min(
+                Timeouts.getPhoneAccountWriteDelayMillis(mContext.getContentResolver()),
+                Math.max(0, deadline - now));
+        mWriteHandler.removeCallbacks(mFlushRunnable);
+        mWriteHandler.postDelayed(mFlushRunnable, delay);
+    }
+
+    /**
+     * Immediately persists any pending changes on the calling thread.
+     */
+    public void flush() {
+        mWriteHandler.removeCallbacks(mFlushRunnable);
+        flushPendingWrite();
+    }
+
+    /**
+     * Drops any pending changes without persisting them.
+     */
+    @VisibleForTesting
+    public void cancelPendingWrite() {
+        mWriteHandler.removeCallbacks(mFlushRunnable);
+        synchronized (mWriteLock) {
+            mFirstPendingWriteMillis.set(0);
+            mIsWritePending.set(false);
+        }
+    }
+
+    @VisibleForTesting
+    public long getWriteRequestCount() {
+        return mWriteRequests.get();
+    }
+
+    @VisibleForTesting
+    public long getWriteCount() {
+        return mWritesPerformed.get();
+    }
+
+    private void flushPendingWrite() {
+        synchronized (mWriteLock) {
+            // Cleared before the pending flag so that a concurrent change is never left without
+            // a deadline; at worst the next write happens early.
+            mFirstPendingWriteMillis.set(0);
+            if (!mIsWritePending.getAndSet(false)) {
+                return;
+            }
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
             try {
-                synchronized (mWriteLock) {
-                    fileOutput = mAtomicFile.startWrite();
-                    buffer.writeTo(fileOutput);
-                    mAtomicFile.finishWrite(fileOutput);
+                // Serialize a consistent snapshot; changes made after this point schedule
+                // another write.
+                synchronized (mAccountsLock.ordered()) {
+                    writeToBinary(mState, new DataOutputStream(os), mContext);
                 }
             } catch (IOException e) {
-                Log.e(this, e, "Writing state to XML file");
+                Log.e(this, e, "Writing state to binary buffer");
+                return;
+            }
+
+            FileOutputStream fileOutput = null;
+            try {
+                fileOutput = mAtomicFile.startWrite();
+                os.writeTo(fileOutput);
+                mAtomicFile.finishWrite(fileOutput);
+                mWritesPerformed.incrementAndGet();
+            } catch (IOException e) {
+                Log.e(this, e, "Writing state to binary file");
                 mAtomicFile.failWrite(fileOutput);
+                return;
+            }
+
+            // The binary file now holds everything the legacy file did, so complete the migration.
+            if (mLegacyXmlFile.getBaseFile().exists()) {
+                Log.i(this, "Deleting migrated state file %s", mLegacyXmlFile.getBaseFile());
+                mLegacyXmlFile.delete();
             }
-            return null;
         }
     }
 
-    private void write() {
-        try {
-            sortPhoneAccounts();
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            XmlSerializer serializer = new FastXmlSerializer();
-            serializer.setOutput(os, "utf-8");
-            writeToXml(mState, serializer, mContext);
-            serializer.flush();
-            new AsyncXmlWriter().execute(os);
-        } catch (IOException e) {
-            Log.e(this, e, "Writing state to XML buffer");
+    private void read() {
+        boolean isMigrating = false;
+
+        State state = readBinaryFile();
+        if (state == null) {
+            // No binary state yet; migrate the state written by older releases, if any.  The XML
+            // file is only deleted once the binary file has been written.
+            state = readLegacyXmlFile();
+            if (state == null) {
+                return;
+            }
+            isMigrating = true;
+        }
+        mState = state;
+        boolean versionChanged = mState.versionNumber < EXPECTED_STATE_VERSION;
+
+        // Verify all of the UserHandles.
+        List<PhoneAccount> badAccounts = new ArrayList<>();
+        for (PhoneAccount phoneAccount : mState.accounts) {
+            UserHandle userHandle = phoneAccount.getAccountHandle().getUserHandle();
+            if (userHandle == null) {
+                Log.w(this, "Missing UserHandle for %s", phoneAccount);
+                badAccounts.add(phoneAccount);
+            } else if (mUserManager.getSerialNumberForUser(userHandle) == -1) {
+                Log.w(this, "User does not exist for %s", phoneAccount);
+                badAccounts.add(phoneAccount);
+            }
+        }
+        mState.accounts.removeAll(badAccounts);
+        for (PhoneAccount phoneAccount : badAccounts) {
+            mState.encodedIcons.remove(phoneAccount.getAccountHandle());
+        }
+        invalidateAccountIndex();
+
+        // If an upgrade or migration occurred, write out the changed data.
+        if (versionChanged || isMigrating || !badAccounts.isEmpty()) {
+            write();
         }
     }
 
-    private void read() {
+    /**
+     * Reads the binary state file.
+     *
+     * @return The state, an empty state if the file could not be parsed, or {@code null} if the
+     *         file does not exist.
+     */
+    private State readBinaryFile() {
         final InputStream is;
         try {
             is = mAtomicFile.openRead();
         } catch (FileNotFoundException ex) {
-            return;
+            return null;
         }
 
-        boolean versionChanged = false;
+        try {
+            return readFromBinary(new DataInputStream(new BufferedInputStream(is)), mContext);
+        } catch (IOException e) {
+            Log.e(this, e, "Reading state from binary file");
+            return new State();
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                Log.e(this, e, "Closing InputStream");
+            }
+        }
+    }
+
+    /**
+     * Reads the legacy XML state file.
+     *
+     * @return The state, an empty state if the file could not be parsed, or {@code null} if the
+     *         file does not exist.
+     */
+    private State readLegacyXmlFile() {
+        final InputStream is;
+        try {
+            is = mLegacyXmlFile.openRead();
+        } catch (FileNotFoundException ex) {
+            return null;
+        }
 
         XmlPullParser parser;
         try {
             parser = Xml.newPullParser();
             parser.setInput(new BufferedInputStream(is), null);
             parser.nextTag();
-            mState = readFromXml(parser, mContext);
-            versionChanged = mState.versionNumber < EXPECTED_STATE_VERSION;
-
+            return readFromXml(parser, mContext);
         } catch (IOException | XmlPullParserException e) {
             Log.e(this, e, "Reading state from XML file");
-            mState = new State();
+            return new State();
         } finally {
             try {
                 is.close();
@@ -1357,30 +1814,38 @@ public class PhoneAccountRegistrar {
                 Log.e(this, e, "Closing InputStream");
             }
         }
+    }
 
-        // Verify all of the UserHandles.
-        List<PhoneAccount> badAccounts = new ArrayList<>();
-        for (PhoneAccount phoneAccount : mState.accounts) {
-            UserHandle userHandle = phoneAccount.getAccountHandle().getUserHandle();
-            if (userHandle == null) {
-                Log.w(this, "Missing UserHandle for %s", phoneAccount);
-                badAccounts.add(phoneAccount);
-            } else if (mUserManager.getSerialNumberForUser(userHandle) == -1) {
-                Log.w(this, "User does not exist for %s", phoneAccount);
-                badAccounts.add(phoneAccount);
-            }
-        }
-        mState.accounts.removeAll(badAccounts);
-
-        // If an upgrade occurred, write out the changed data.
-        if (versionChanged || !badAccounts.isEmpty()) {
-            write();
+    /**
+     * @param fileName The name of the legacy XML state file.
+     * @return The name of the binary state file which replaces it.
+     */
+    @VisibleForTesting
+    public static String getBinaryFileName(String fileName) {
+        if (fileName.endsWith(XML_FILE_SUFFIX)) {
+            fileName = fileName.substring(0, fileName.length() - XML_FILE_SUFFIX.length());
         }
+        return fileName + BINARY_FILE_SUFFIX;
     }
 
-    private static void writeToXml(State state, XmlSerializer serializer, Context context)
+    private static void writeToBinary(State state, DataOutputStream out, Context context)
             throws IOException {
-        sStateXml.writeToXml(state, serializer, context);
+        out.writeInt(BINARY_MAGIC);
+        out.writeInt(BINARY_FORMAT_VERSION);
+        sStateBinary.writeToBinary(state, out, context);
+        out.flush();
+    }
+
+    private static State readFromBinary(DataInputStream in, Context context) throws IOException {
+        if (in.readInt() != BINARY_MAGIC) {
+            throw new IOException("Not a phone account state file");
+        }
+        int formatVersion = in.readInt();
+        if (formatVersion > BINARY_FORMAT_VERSION) {
+            throw new IOException("Unsupported state format version " + formatVersion);
+        }
+        State s = sStateBinary.readFromBinary(in, 0, context);
+        return s != null ? s : new State();
     }
 
     private static State readFromXml(XmlPullParser parser, Context context)
@@ -2080,7 +2545,461 @@ public class PhoneAccountRegistrar {
         }
     };
 
-    private String nullToEmpty(String str) {
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    // Binary serialization
+    //
+
+    /**
+     * Compact binary counterpart of {@link XmlSerialization}.  Every object is written as a
+     * length-prefixed record, so a reader can skip a record, or fields appended to it by a later
+     * revision of the format, without decoding them.  A record length of {@code -1} denotes a
+     * {@code null} object.
+     */
+    @VisibleForTesting
+    public abstract static class BinarySerialization<T> {
+        private static final int NULL_LENGTH = -1;
+        private static final byte VALUE_TYPE_STRING = 1;
+        private static final byte VALUE_TYPE_INTEGER = 2;
+        private static final byte VALUE_TYPE_BOOLEAN = 3;
+
+        /**
+         * Write the fields of the supplied non-null object.
+         */
+        protected abstract void writeFields(T o, DataOutputStream out, Context context)
+                throws IOException;
+
+        /**
+         * Read the fields written by writeFields() into a new object, returning null in case of
+         * an unrecoverable data error.  Fields following the ones this object knows about are
+         * ignored.
+         */
+        protected abstract T readFields(DataInputStream in, int version, Context context)
+                throws IOException;
+
+        /**
+         * Write the supplied object, which may be null, as a single record.
+         */
+        public void writeToBinary(T o, DataOutputStream out, Context context) throws IOException {
+            if (o == null) {
+                out.writeInt(NULL_LENGTH);
+                return;
+            }
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            writeFields(o, new DataOutputStream(record), context);
+            out.writeInt(record.size());
+            record.writeTo(out);
+        }
+
+        /**
+         * Read a record written by writeToBinary() into a new object.
+         */
+        public T readFromBinary(DataInputStream in, int version, Context context)
+                throws IOException {
+            byte[] record = readBlob(in);
+            if (record == null) {
+                return null;
+            }
+            return readFields(new DataInputStream(new ByteArrayInputStream(record)), version,
+                    context);
+        }
+
+        protected void writeBlob(byte[] value, DataOutputStream out) throws IOException {
+            if (value == null) {
+                out.writeInt(NULL_LENGTH);
+            } else {
+                out.writeInt(value.length);
+                out.write(value);
+            }
+        }
+
+        protected byte[] readBlob(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length == NULL_LENGTH) {
+                return null;
+            } else if (length < 0) {
+                throw new IOException("Invalid record length " + length);
+            }
+            byte[] value = new byte[length];
+            in.readFully(value);
+            return value;
+        }
+
+        /**
+         * Writes a string, which unlike {@link DataOutputStream#writeUTF} may be null and is not
+         * limited in length.
+         */
+        protected void writeString(String value, DataOutputStream out) throws IOException {
+            writeBlob(value == null ? null : value.getBytes(StandardCharsets.UTF_8), out);
+        }
+
+        protected String readString(DataInputStream in) throws IOException {
+            byte[] value = readBlob(in);
+            return value == null ? null : new String(value, StandardCharsets.UTF_8);
+        }
+
+        protected void writeStringList(List<String> values, DataOutputStream out)
+                throws IOException {
+            if (values == null) {
+                out.writeInt(0);
+                return;
+            }
+            out.writeInt(values.size());
+            for (String value : values) {
+                writeString(value, out);
+            }
+        }
+
+        protected List<String> readStringList(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            List<String> values = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                values.add(readString(in));
+            }
+            return values;
+        }
+
+        /**
+         * Writes a bundle; as with XML, only string, integer and boolean values are persisted.
+         */
+        protected void writeBundle(Bundle values, DataOutputStream out) throws IOException {
+            if (values == null) {
+                out.writeInt(NULL_LENGTH);
+                return;
+            }
+            List<String> keys = new ArrayList<>();
+            for (String key : values.keySet()) {
+                Object value = values.get(key);
+                if (value instanceof String || value instanceof Integer
+                        || value instanceof Boolean) {
+                    keys.add(key);
+                } else if (value != null) {
+                    Log.w(this,
+                            "PhoneAccounts support only string, integer and boolean extras TY.");
+                }
+            }
+
+            out.writeInt(keys.size());
+            for (String key : keys) {
+                Object value = values.get(key);
+                writeString(key, out);
+                if (value instanceof String) {
+                    out.writeByte(VALUE_TYPE_STRING);
+                    writeString((String) value, out);
+                } else if (value instanceof Integer) {
+                    out.writeByte(VALUE_TYPE_INTEGER);
+                    out.writeInt((Integer) value);
+                } else {
+                    out.writeByte(VALUE_TYPE_BOOLEAN);
+                    out.writeBoolean((Boolean) value);
+                }
+            }
+        }
+
+        protected Bundle readBundle(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length == NULL_LENGTH) {
+                return null;
+            }
+            Bundle bundle = new Bundle();
+            for (int i = 0; i < length; i++) {
+                String key = readString(in);
+                byte valueType = in.readByte();
+                if (valueType == VALUE_TYPE_STRING) {
+                    bundle.putString(key, readString(in));
+                } else if (valueType == VALUE_TYPE_INTEGER) {
+                    bundle.putInt(key, in.readInt());
+                } else if (valueType == VALUE_TYPE_BOOLEAN) {
+                    bundle.putBoolean(key, in.readBoolean());
+                } else {
+                    throw new IOException(
+                            "Invalid type " + valueType + " for PhoneAccount bundle.");
+                }
+            }
+            return bundle;
+        }
+
+        /**
+         * Writes an icon as a blob holding its {@link Icon#writeToStream} encoding.
+         */
+        protected void writeIcon(Icon value, DataOutputStream out) throws IOException {
+            if (value == null) {
+                writeBlob(null, out);
+                return;
+            }
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            value.writeToStream(stream);
+            writeBlob(stream.toByteArray(), out);
+        }
+
+        @Nullable
+        protected Icon readIcon(DataInputStream in) throws IOException {
+            byte[] iconByteArray = readBlob(in);
+            if (iconByteArray == null) {
+                return null;
+            }
+            try {
+                return Icon.createFromStream(new ByteArrayInputStream(iconByteArray));
+            } catch (IllegalArgumentException e) {
+                Log.e(this, e, "Bitmap must not be null.");
+                return null;
+            }
+        }
+
+        protected void writeUserSerialNumber(UserHandle userHandle, DataOutputStream out,
+                Context context) throws IOException {
+            long serialNumber = -1;
+            if (userHandle != null && context != null) {
+                serialNumber = UserManager.get(context).getSerialNumberForUser(userHandle);
+            }
+            out.writeLong(serialNumber);
+        }
+
+        protected UserHandle readUserSerialNumber(DataInputStream in, Context context)
+                throws IOException {
+            long serialNumber = in.readLong();
+            if (serialNumber == -1) {
+                return null;
+            }
+            return UserManager.get(context).getUserForSerialNumber(serialNumber);
+        }
+    }
+
+    @VisibleForTesting
+    public static final BinarySerialization<State> sStateBinary =
+            new BinarySerialization<State>() {
+        @Override
+        protected void writeFields(State o, DataOutputStream out, Context context)
+                throws IOException {
+            out.writeInt(EXPECTED_STATE_VERSION);
+
+            List<DefaultPhoneAccountHandle> defaultHandles =
+                    new ArrayList<>(o.defaultOutgoingAccountHandles.values());
+            out.writeInt(defaultHandles.size());
+            for (DefaultPhoneAccountHandle defaultPhoneAccountHandle : defaultHandles) {
+                sDefaultPhoneAccountHandleBinary.writeToBinary(defaultPhoneAccountHandle, out,
+                        context);
+            }
+
+            List<PhoneAccount> accounts = new ArrayList<>(o.accounts);
+            out.writeInt(accounts.size());
+            for (PhoneAccount account : accounts) {
+                byte[] encodedIcon = o.encodedIcons.get(account.getAccountHandle());
+                if (encodedIcon != null && account.getIcon() == null) {
+                    sPhoneAccountBinary.writeToBinary(account, encodedIcon, out, context);
+                } else {
+                    sPhoneAccountBinary.writeToBinary(account, out, context);
+                }
+            }
+        }
+
+        @Override
+        protected State readFields(DataInputStream in, int version, Context context)
+                throws IOException {
+            State s = new State();
+            s.versionNumber = in.readInt();
+
+            int defaultHandleCount = in.readInt();
+            for (int i = 0; i < defaultHandleCount; i++) {
+                DefaultPhoneAccountHandle accountHandle = sDefaultPhoneAccountHandleBinary
+                        .readFromBinary(in, s.versionNumber, context);
+                if (accountHandle != null) {
+                    s.defaultOutgoingAccountHandles.put(accountHandle.userHandle, accountHandle);
+                }
+            }
+
+            int accountCount = in.readInt();
+            List<PhoneAccount> accounts = new ArrayList<>(accountCount);
+            for (int i = 0; i < accountCount; i++) {
+                PhoneAccount account = sPhoneAccountBinary.readFromBinaryWithEncodedIcon(in,
+                        s.versionNumber, context, s.encodedIcons);
+                if (account != null) {
+                    accounts.add(account);
+                }
+            }
+            // Add in bulk; each add to the copy-on-write list copies it.
+            s.accounts.addAll(accounts);
+            return s;
+        }
+    };
+
+    @VisibleForTesting
+    public static final BinarySerialization<DefaultPhoneAccountHandle>
+            sDefaultPhoneAccountHandleBinary =
+            new BinarySerialization<DefaultPhoneAccountHandle>() {
+        @Override
+        protected void writeFields(DefaultPhoneAccountHandle o, DataOutputStream out,
+                Context context) throws IOException {
+            // A handle whose user no longer exists is written with serial number -1 and dropped
+            // when read back, as the XML format does not write it at all.
+            writeUserSerialNumber(o.userHandle, out, context);
+            writeString(nullToEmpty(o.groupId), out);
+            sPhoneAccountHandleBinary.writeToBinary(o.phoneAccountHandle, out, context);
+        }
+
+        @Override
+        protected DefaultPhoneAccountHandle readFields(DataInputStream in, int version,
+                Context context) throws IOException {
+            UserHandle userHandle = readUserSerialNumber(in, context);
+            String groupId = readString(in);
+            PhoneAccountHandle accountHandle = sPhoneAccountHandleBinary.readFromBinary(in,
+                    version, context);
+            if (accountHandle != null && userHandle != null && groupId != null) {
+                return new DefaultPhoneAccountHandle(userHandle, accountHandle, groupId);
+            }
+            return null;
+        }
+    };
+
+    /**
+     * Binary serialization of {@link PhoneAccount}.  The binary format was introduced at state
+     * version {@link #EXPECTED_STATE_VERSION}, so none of the upgrades performed by
+     * {@link #sPhoneAccountXml} apply.  The icon is written last, as an encoded blob, so that an
+     * account can be read and written again without decoding its icon.
+     */
+    @VisibleForTesting
+    public static final class PhoneAccountBinarySerialization
+            extends BinarySerialization<PhoneAccount> {
+        @Override
+        protected void writeFields(PhoneAccount o, DataOutputStream out, Context context)
+                throws IOException {
+            writeFieldsExceptIcon(o, out, context);
+            writeIcon(o.getIcon(), out);
+        }
+
+        @Override
+        protected PhoneAccount readFields(DataInputStream in, int version, Context context)
+                throws IOException {
+            PhoneAccount.Builder builder = readFieldsExceptIcon(in, version, context);
+            Icon icon = readIcon(in);
+            if (builder == null) {
+                return null;
+            }
+            if (icon != null) {
+                builder.setIcon(icon);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Write an account whose icon is still encoded as a single record.
+         *
+         * @param encodedIcon The encoded icon, written in place of the account's icon.
+         */
+        public void writeToBinary(PhoneAccount o, byte[] encodedIcon, DataOutputStream out,
+                Context context) throws IOException {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream recordOut = new DataOutputStream(record);
+            writeFieldsExceptIcon(o, recordOut, context);
+            writeBlob(encodedIcon, recordOut);
+            writeBlob(record.toByteArray(), out);
+        }
+
+        /**
+         * Read a record written by writeToBinary() into a new account, without decoding its
+         * icon.
+         *
+         * @param encodedIcons Receives the encoded icon of the account, if it has one.
+         * @return The account, without its icon.
+         */
+        public PhoneAccount readFromBinaryWithEncodedIcon(DataInputStream in, int version,
+                Context context, Map<PhoneAccountHandle, byte[]> encodedIcons)
+                throws IOException {
+            byte[] record = readBlob(in);
+            if (record == null) {
+                return null;
+            }
+            DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+            PhoneAccount.Builder builder = readFieldsExceptIcon(recordIn, version, context);
+            byte[] encodedIcon = readBlob(recordIn);
+            if (builder == null) {
+                return null;
+            }
+            PhoneAccount account = builder.build();
+            if (encodedIcon != null) {
+                encodedIcons.put(account.getAccountHandle(), encodedIcon);
+            }
+            return account;
+        }
+
+        private void writeFieldsExceptIcon(PhoneAccount o, DataOutputStream out, Context context)
+                throws IOException {
+            sPhoneAccountHandleBinary.writeToBinary(o.getAccountHandle(), out, context);
+            writeString(Objects.toString(o.getAddress(), null), out);
+            writeString(Objects.toString(o.getSubscriptionAddress(), null), out);
+            out.writeInt(o.getCapabilities());
+            out.writeInt(o.getHighlightColor());
+            writeString(Objects.toString(o.getLabel(), null), out);
+            writeString(Objects.toString(o.getShortDescription(), null), out);
+            writeStringList(o.getSupportedUriSchemes(), out);
+            writeBundle(o.getExtras(), out);
+            out.writeBoolean(o.isEnabled());
+            out.writeInt(o.getSupportedAudioRoutes());
+        }
+
+        private PhoneAccount.Builder readFieldsExceptIcon(DataInputStream in, int version,
+                Context context) throws IOException {
+            PhoneAccountHandle accountHandle = sPhoneAccountHandleBinary.readFromBinary(in,
+                    version, context);
+            String address = readString(in);
+            String subscriptionAddress = readString(in);
+            int capabilities = in.readInt();
+            int highlightColor = in.readInt();
+            String label = readString(in);
+            String shortDescription = readString(in);
+            List<String> supportedUriSchemes = readStringList(in);
+            Bundle extras = readBundle(in);
+            boolean enabled = in.readBoolean();
+            int supportedAudioRoutes = in.readInt();
+
+            if (accountHandle == null) {
+                return null;
+            }
+            return PhoneAccount.builder(accountHandle, label)
+                    .setAddress(address == null ? null : Uri.parse(address))
+                    .setSubscriptionAddress(subscriptionAddress == null
+                            ? null : Uri.parse(subscriptionAddress))
+                    .setCapabilities(capabilities)
+                    .setSupportedAudioRoutes(supportedAudioRoutes)
+                    .setShortDescription(shortDescription)
+                    .setSupportedUriSchemes(supportedUriSchemes)
+                    .setHighlightColor(highlightColor)
+                    .setExtras(extras)
+                    .setIsEnabled(enabled);
+        }
+    }
+
+    @VisibleForTesting
+    public static final PhoneAccountBinarySerialization sPhoneAccountBinary =
+            new PhoneAccountBinarySerialization();
+
+    @VisibleForTesting
+    public static final BinarySerialization<PhoneAccountHandle> sPhoneAccountHandleBinary =
+            new BinarySerialization<PhoneAccountHandle>() {
+        @Override
+        protected void writeFields(PhoneAccountHandle o, DataOutputStream out, Context context)
+                throws IOException {
+            writeString(o.getComponentName() == null
+                    ? null : o.getComponentName().flattenToString(), out);
+            writeString(o.getId(), out);
+            writeUserSerialNumber(o.getUserHandle(), out, context);
+        }
+
+        @Override
+        protected PhoneAccountHandle readFields(DataInputStream in, int version, Context context)
+                throws IOException {
+            String componentNameString = readString(in);
+            String idString = readString(in);
+            UserHandle userHandle = readUserSerialNumber(in, context);
+            if (componentNameString == null) {
+                return null;
+            }
+            return new PhoneAccountHandle(ComponentName.unflattenFromString(componentNameString),
+                    idString, userHandle);
+        }
+    };
+
+    private static String nullToEmpty(String str) {
         return str == null ? "" : str;
     }
 }
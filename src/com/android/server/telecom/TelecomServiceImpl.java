@@ -203,18 +203,17 @@ public class TelecomServiceImpl {
                         "getCallCapablePhoneAccounts")) {
                     return Collections.emptyList();
                 }
-                synchronized (mLock) {
-                    final UserHandle callingUserHandle = Binder.getCallingUserHandle();
-                    long token = Binder.clearCallingIdentity();
-                    try {
-                        return mPhoneAccountRegistrar.getCallCapablePhoneAccounts(null,
-                                includeDisabledAccounts, callingUserHandle);
-                    } catch (Exception e) {
-                        Log.e(this, e, "getCallCapablePhoneAccounts");
-                        throw e;
-                    } finally {
-                        Binder.restoreCallingIdentity(token);
-                    }
+                // The registrar supports lock-free reads; see PhoneAccountRegistrar#mAccountsLock.
+                final UserHandle callingUserHandle = Binder.getCallingUserHandle();
+                long token = Binder.clearCallingIdentity();
+                try {
+                    return mPhoneAccountRegistrar.getCallCapablePhoneAccounts(null,
+                            includeDisabledAccounts, callingUserHandle);
+                } catch (Exception e) {
+                    Log.e(this, e, "getCallCapablePhoneAccounts");
+                    throw e;
+                } finally {
+                    Binder.restoreCallingIdentity(token);
                 }
             } finally {
                 Log.endSession();
@@ -844,9 +843,7 @@ public class TelecomServiceImpl {
                     return false;
                 }
 
-                synchronized (mLock) {
-                    return mCallsManager.hasOngoingCalls();
-                }
+                return mCallsManager.getCallStateSnapshot().hasOngoingCalls();
             } finally {
                 Log.endSession();
             }
@@ -885,9 +882,7 @@ public class TelecomServiceImpl {
                             "READ_PHONE_STATE permission can use this method.");
                 }
 
-                synchronized (mLock) {
-                    return mCallsManager.hasOngoingManagedCalls();
-                }
+                return mCallsManager.getCallStateSnapshot().hasOngoingManagedCalls();
             } finally {
                 Log.endSession();
             }
@@ -910,14 +905,12 @@ public class TelecomServiceImpl {
                     }
                 }
 
-                synchronized (mLock) {
-                    // Note: We are explicitly checking the calls telecom is tracking rather than
-                    // relying on mCallsManager#getCallState(). Since getCallState() relies on the
-                    // current state as tracked by PhoneStateBroadcaster, any failure to properly
-                    // track the current call state there could result in the wrong ringing state
-                    // being reported by this API.
-                    return mCallsManager.hasRingingOrSimulatedRingingCall();
-                }
+                // Note: We are explicitly checking the calls telecom is tracking rather than
+                // relying on mCallsManager#getCallState(). Since getCallState() relies on the
+                // current state as tracked by PhoneStateBroadcaster, any failure to properly
+                // track the current call state there could result in the wrong ringing state
+                // being reported by this API.
+                return mCallsManager.getCallStateSnapshot().hasRingingOrSimulatedRingingCall();
             } finally {
                 Log.endSession();
             }
@@ -941,9 +934,7 @@ public class TelecomServiceImpl {
                     throw new SecurityException("This method can only be used for applications "
                             + "targeting API version 30 or less.");
                 }
-                synchronized (mLock) {
-                    return mCallsManager.getCallState();
-                }
+                return mCallsManager.getCallStateSnapshot().getCallState();
             } finally {
                 Log.endSession();
             }
@@ -966,9 +957,7 @@ public class TelecomServiceImpl {
                                 + " for API version 31+");
                     }
                 }
-                synchronized (mLock) {
-                    return mCallsManager.getCallState();
-                }
+                return mCallsManager.getCallStateSnapshot().getCallState();
             } finally {
                 Log.endSession();
             }
@@ -1239,7 +1228,7 @@ public class TelecomServiceImpl {
         public void addNewIncomingCall(PhoneAccountHandle phoneAccountHandle, Bundle extras) {
             try {
                 Log.startSession("TSI.aNIC");
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "TSI.aNIC", () -> {
                     Log.i(this, "Adding new incoming call with phoneAccountHandle %s",
                             phoneAccountHandle);
                     if (phoneAccountHandle != null &&
@@ -1288,7 +1277,7 @@ public class TelecomServiceImpl {
                         Log.w(this, "Null phoneAccountHandle. Ignoring request to add new" +
                                 " incoming call");
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -1301,7 +1290,7 @@ public class TelecomServiceImpl {
         public void addNewIncomingConference(PhoneAccountHandle phoneAccountHandle, Bundle extras) {
             try {
                 Log.startSession("TSI.aNIC");
-                synchronized (mLock) {
+                LockContentionProfiler.runLocked(mLock, "TSI.aNIC", () -> {
                     Log.i(this, "Adding new incoming conference with phoneAccountHandle %s",
                             phoneAccountHandle);
                     if (phoneAccountHandle != null &&
@@ -1335,7 +1324,7 @@ public class TelecomServiceImpl {
                         Log.w(this, "Null phoneAccountHandle. Ignoring request to add new" +
                                 " incoming conference");
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -1531,14 +1520,15 @@ public class TelecomServiceImpl {
                 final boolean hasCallPrivilegedPermission = mContext.checkCallingPermission(
                         CALL_PRIVILEGED) == PackageManager.PERMISSION_GRANTED;
 
-                synchronized (mLock) {
+                final boolean shouldClearPhoneAccountHandle = clearPhoneAccountHandleExtra;
+                LockContentionProfiler.runLocked(mLock, "TSI.pC", () -> {
                     final UserHandle userHandle = Binder.getCallingUserHandle();
                     long token = Binder.clearCallingIdentity();
                     try {
                         final Intent intent = new Intent(hasCallPrivilegedPermission ?
                                 Intent.ACTION_CALL_PRIVILEGED : Intent.ACTION_CALL, handle);
                         if (extras != null) {
-                            if (clearPhoneAccountHandleExtra) {
+                            if (shouldClearPhoneAccountHandle) {
                                 extras.remove(TelecomManager.EXTRA_PHONE_ACCOUNT_HANDLE);
                             }
                             extras.setDefusable(true);
@@ -1552,7 +1542,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -1676,6 +1666,11 @@ public class TelecomServiceImpl {
                 pw.increaseIndent();
                 Analytics.dump(pw);
                 pw.decreaseIndent();
+
+                pw.println("LockContentionProfiler:");
+                pw.increaseIndent();
+                LockContentionProfiler.dump(pw);
+                pw.decreaseIndent();
             }
             if (isTimeLineView) {
                 Log.dumpEventsTimeline(pw);
@@ -20,6 +20,8 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.telecom.bluetooth.BluetoothDeviceManager;
 import com.android.server.telecom.bluetooth.BluetoothRouteManager;
 import com.android.server.telecom.bluetooth.BluetoothStateReceiver;
+import com.android.server.telecom.callfiltering.CallFilteringExecutor;
+import com.android.server.telecom.callfiltering.CallScreeningServicePool;
 import com.android.server.telecom.components.UserCallIntentProcessor;
 import com.android.server.telecom.components.UserCallIntentProcessorFactory;
 import com.android.server.telecom.ui.AudioProcessingNotification;
@@ -135,6 +137,8 @@ public class TelecomSystem {
                 synchronized (mLock) {
                     int userHandleId = intent.getIntExtra(Intent.EXTRA_USER_HANDLE, 0);
                     UserHandle currentUserHandle = new UserHandle(userHandleId);
+                    // Persist any pending changes before the new user's session starts.
+                    mPhoneAccountRegistrar.flush();
                     mPhoneAccountRegistrar.setCurrentUserHandle(currentUserHandle);
                     mCallsManager.onUserSwitch(currentUserHandle);
                 }
@@ -210,6 +214,8 @@ public class TelecomSystem {
             DeviceIdleControllerAdapter deviceIdleControllerAdapter) {
         mContext = context.getApplicationContext();
         LogUtils.initLogging(mContext);
+        LockContentionProfiler.init();
+        LockDomain.init();
         DefaultDialerManagerAdapter defaultDialerAdapter =
                 new DefaultDialerCache.DefaultDialerManagerAdapterImpl();
 
@@ -231,6 +237,10 @@ public class TelecomSystem {
                             return context.getContentResolver().openInputStream(uri);
                         }
                     });
+            mContext.registerComponentCallbacks(mContactsAsyncHelper);
+            CallScreeningServicePool callScreeningServicePool =
+                    new CallScreeningServicePool(mContext, timeoutsAdapter);
+            mContext.registerComponentCallbacks(callScreeningServicePool);
             BluetoothDeviceManager bluetoothDeviceManager = new BluetoothDeviceManager(mContext,
                     new BluetoothAdapterProxy());
             BluetoothRouteManager bluetoothRouteManager = new BluetoothRouteManager(mContext, mLock,
@@ -347,7 +357,9 @@ public class TelecomSystem {
                     inCallControllerFactory,
                     callDiagnosticServiceController,
                     roleManagerAdapter,
-                    toastFactory);
+                    toastFactory,
+                    new CallFilteringExecutor(),
+                    callScreeningServicePool);
 
             mIncomingCallNotifier = incomingCallNotifier;
             incomingCallNotifier.setCallsManagerProxy(new IncomingCallNotifier.CallsManagerProxy() {
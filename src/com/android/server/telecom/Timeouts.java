@@ -22,6 +22,7 @@ import android.provider.Settings;
 import android.telecom.CallDiagnosticService;
 import android.telecom.CallRedirectionService;
 import android.telecom.CallDiagnostics;
+import android.telecom.InCallService;
 import android.telephony.ims.ImsReasonInfo;
 
 import java.util.concurrent.TimeUnit;
@@ -41,6 +42,30 @@ public final class Timeouts {
             return Timeouts.getCallScreeningTimeoutMillis(cr);
         }
 
+        public long getCallScreeningServicePoolIdleTimeoutMillis() {
+            return Timeouts.getCallScreeningServicePoolIdleTimeoutMillis();
+        }
+
+        public String getCallFilterGraph() {
+            return Timeouts.getCallFilterGraph();
+        }
+
+        public boolean isInCallUpdateCoalescingEnabled() {
+            return Timeouts.isInCallUpdateCoalescingEnabled();
+        }
+
+        public long getInCallUpdateCoalescingWindowMillis() {
+            return Timeouts.getInCallUpdateCoalescingWindowMillis();
+        }
+
+        public int getInCallServiceDispatchQueueDepth() {
+            return Timeouts.getInCallServiceDispatchQueueDepth();
+        }
+
+        public boolean isInCallServiceInfoCacheEnabled() {
+            return Timeouts.isInCallServiceInfoCacheEnabled();
+        }
+
         public long getCallRemoveUnbindInCallServicesDelay(ContentResolver cr) {
             return Timeouts.getCallRemoveUnbindInCallServicesDelay(cr);
         }
@@ -191,6 +216,61 @@ public final class Timeouts {
         return get(contentResolver, "call_screening_timeout", 5000L /* 5 seconds */);
     }
 
+    /**
+     * Returns the amount of time a call screening service is kept bound after it was last used
+     * to screen a call, or 0 to bind the service separately for each call.
+     */
+    public static long getCallScreeningServicePoolIdleTimeoutMillis() {
+        return DeviceConfig.getLong(DeviceConfig.NAMESPACE_TELEPHONY,
+                "call_screening_service_pool_idle_timeout_millis", 0L);
+    }
+
+    /**
+     * Returns the description of the incoming call filter graph, including the deadline of each
+     * filter, or {@code null} to use the default graph.
+     * @see com.android.server.telecom.callfiltering.CallFilterGraphSpec
+     */
+    public static String getCallFilterGraph() {
+        return DeviceConfig.getString(DeviceConfig.NAMESPACE_TELEPHONY, "call_filter_graph",
+                null);
+    }
+
+    /**
+     * Returns whether changes to a call are collected and sent to the {@link InCallService}s as
+     * one update, rather than one update for each change.
+     */
+    public static boolean isInCallUpdateCoalescingEnabled() {
+        return DeviceConfig.getBoolean(DeviceConfig.NAMESPACE_TELEPHONY,
+                "in_call_update_coalescing_enabled", true);
+    }
+
+    /**
+     * Returns the amount of time changes to a call are collected before they are sent to the
+     * {@link InCallService}s, or 0 to send them once the current handler message is done.
+     */
+    public static long getInCallUpdateCoalescingWindowMillis() {
+        return DeviceConfig.getLong(DeviceConfig.NAMESPACE_TELEPHONY,
+                "in_call_update_coalescing_window_millis", 0L);
+    }
+
+    /**
+     * Returns the maximum number of calls queued for an {@link InCallService} before they are
+     * made on its own thread, or 0 to make the calls while Telecom holds its lock.
+     */
+    public static int getInCallServiceDispatchQueueDepth() {
+        return DeviceConfig.getInt(DeviceConfig.NAMESPACE_TELEPHONY,
+                "in_call_service_dispatch_queue_depth", 256);
+    }
+
+    /**
+     * Returns whether the {@link InCallService}s found by the package manager are cached between
+     * calls and resolved ahead of the next call.
+     */
+    public static boolean isInCallServiceInfoCacheEnabled() {
+        return DeviceConfig.getBoolean(DeviceConfig.NAMESPACE_TELEPHONY,
+                "in_call_service_info_cache_enabled", true);
+    }
+
     /**
      * Returns the amount of time after an emergency call that incoming calls should be treated
      * as potential emergency callbacks.
@@ -251,4 +331,20 @@ public final class Timeouts {
         return get(contentResolver, "dialer_missed_call_power_save_exemption_time_millis",
                 30000L /*30 seconds*/);
     }
+
+    /**
+     * Returns the amount of time {@link PhoneAccountRegistrar} waits for further changes before
+     * persisting its state, so that a burst of registrations results in a single write.
+     */
+    public static long getPhoneAccountWriteDelayMillis(ContentResolver contentResolver) {
+        return get(contentResolver, "phone_account_write_delay_millis", 500L /* 500 ms */);
+    }
+
+    /**
+     * Returns the longest time a change to the {@link PhoneAccountRegistrar} state may go unwritten
+     * while further changes keep pushing the write back.
+     */
+    public static long getPhoneAccountMaxWriteDelayMillis(ContentResolver contentResolver) {
+        return get(contentResolver, "phone_account_max_write_delay_millis", 5000L /* 5 s */);
+    }
 }
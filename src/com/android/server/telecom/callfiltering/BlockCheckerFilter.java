@@ -19,18 +19,17 @@ package com.android.server.telecom.callfiltering;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.provider.BlockedNumberContract;
 import android.provider.CallLog;
 import android.telecom.CallerInfo;
 import android.telecom.Log;
 import android.telecom.TelecomManager;
+import android.util.Pair;
 
 import com.android.server.telecom.Call;
 import com.android.server.telecom.CallerInfoLookupHelper;
 import com.android.server.telecom.LogUtils;
-import com.android.server.telecom.LoggedHandlerExecutor;
 import com.android.server.telecom.settings.BlockedNumbersUtil;
 
 import java.util.concurrent.CompletableFuture;
@@ -43,78 +42,141 @@ public class BlockCheckerFilter extends CallFilter {
     private final BlockCheckerAdapter mBlockCheckerAdapter;
     private final String TAG = "BlockCheckerFilter";
     private boolean mContactExists;
-    private HandlerThread mHandlerThread;
-    private Handler mHandler;
+    private final CallFilteringExecutor.SerialExecutor mExecutor;
+    private final BlockedNumberIndex mBlockedNumberIndex;
+    private final CallFilteringExecutor mCallFilteringExecutor;
 
     public static final long CALLER_INFO_QUERY_TIMEOUT = 5000;
-
+    /** Name under which the block status query made before the contact lookup is timed. */
+    public static final String SPECULATIVE_CHECK_LATENCY = "BlockCheckerFilter.speculative";
+    /** Name under which the block status query repeated for a contact is timed. */
+    public static final String SERIAL_CHECK_LATENCY = "BlockCheckerFilter.serial";
+
+    /**
+     * @param blockedNumberIndex An index used to skip the provider query for numbers which are
+     *                           definitely not blocked, or {@code null} to always query.
+     */
     public BlockCheckerFilter(Context context, Call call,
             CallerInfoLookupHelper callerInfoLookupHelper,
-            BlockCheckerAdapter blockCheckerAdapter) {
+            BlockCheckerAdapter blockCheckerAdapter, CallFilteringExecutor callFilteringExecutor,
+            BlockedNumberIndex blockedNumberIndex) {
         mCall = call;
         mContext = context;
         mCallerInfoLookupHelper = callerInfoLookupHelper;
         mBlockCheckerAdapter = blockCheckerAdapter;
         mContactExists = false;
-        mHandlerThread = new HandlerThread(TAG);
-        mHandlerThread.start();
-        mHandler = new Handler(mHandlerThread.getLooper());
+        mCallFilteringExecutor = callFilteringExecutor;
+        mExecutor = callFilteringExecutor.newSerialExecutor();
+        mBlockedNumberIndex = blockedNumberIndex;
     }
 
     @Override
     public CompletionStage<CallFilteringResult> startFilterLookup(CallFilteringResult result) {
         Log.addEvent(mCall, LogUtils.Events.BLOCK_CHECK_INITIATED);
         CompletableFuture<CallFilteringResult> resultFuture = new CompletableFuture<>();
-        Bundle extras = new Bundle();
-        if (BlockedNumbersUtil.isEnhancedCallBlockingEnabledByPlatform(mContext)) {
-            int presentation = mCall.getHandlePresentation();
-            extras.putInt(BlockedNumberContract.EXTRA_CALL_PRESENTATION, presentation);
-            if (presentation == TelecomManager.PRESENTATION_ALLOWED) {
-                mCallerInfoLookupHelper.startLookup(mCall.getHandle(),
-                        new CallerInfoLookupHelper.OnQueryCompleteListener() {
-                            @Override
-                            public void onCallerInfoQueryComplete(Uri handle, CallerInfo info) {
-                                if (info != null && info.contactExists) {
-                                    mContactExists = true;
-                                }
-                                getBlockStatus(resultFuture);
-                            }
-
-                            @Override
-                            public void onContactPhotoQueryComplete(Uri handle, CallerInfo info) {
-                                // Ignore
-                            }
-                        });
-            } else {
-                getBlockStatus(resultFuture);
-            }
+        if (BlockedNumbersUtil.isEnhancedCallBlockingEnabledByPlatform(mContext)
+                && mCall.getHandlePresentation() == TelecomManager.PRESENTATION_ALLOWED) {
+            getBlockStatusWithContactLookup(resultFuture);
         } else {
             getBlockStatus(resultFuture);
         }
         return resultFuture;
     }
 
+    /**
+     * Looks up whether the caller is a contact while speculatively querying the block status as
+     * if they were not.  The contact state only changes the block status when the number would
+     * otherwise be blocked as {@link BlockedNumberContract#STATUS_BLOCKED_NOT_IN_CONTACTS}, so in
+     * every other case the speculative status is the final one and the two lookups overlap
+     * instead of running one after the other.
+     */
+    private void getBlockStatusWithContactLookup(
+            CompletableFuture<CallFilteringResult> resultFuture) {
+        final long startMillis = SystemClock.elapsedRealtime();
+        CompletableFuture<Long> contactLookupFuture = new CompletableFuture<>();
+        mCallerInfoLookupHelper.startLookup(mCall.getHandle(),
+                new CallerInfoLookupHelper.OnQueryCompleteListener() {
+                    @Override
+                    public void onCallerInfoQueryComplete(Uri handle, CallerInfo info) {
+                        if (info != null && info.contactExists) {
+                            mContactExists = true;
+                        }
+                        contactLookupFuture.complete(SystemClock.elapsedRealtime() - startMillis);
+                    }
+
+                    @Override
+                    public void onContactPhotoQueryComplete(Uri handle, CallerInfo info) {
+                        // Ignore
+                    }
+                });
+        CompletableFuture<Pair<Integer, Long>> blockStatusFuture = CompletableFuture.supplyAsync(
+                () -> {
+                    int blockStatus = mBlockCheckerAdapter.getBlockStatus(mContext,
+                            getNumber(), getExtras(false));
+                    long blockStatusMillis = SystemClock.elapsedRealtime() - startMillis;
+                    mCallFilteringExecutor.recordFilterLatency(SPECULATIVE_CHECK_LATENCY,
+                            blockStatusMillis);
+                    return new Pair<>(blockStatus, blockStatusMillis);
+                }, mExecutor.withSession("BCF.gBSWCL", null));
+
+        contactLookupFuture.thenAcceptBothAsync(blockStatusFuture,
+                (contactLookupMillis, speculativeStatus) -> {
+                    int blockStatus = speculativeStatus.first;
+                    if (mContactExists && blockStatus
+                            == BlockedNumberContract.STATUS_BLOCKED_NOT_IN_CONTACTS) {
+                        Log.addEvent(mCall, LogUtils.Events.BLOCK_CHECK_SPECULATION_MISSED);
+                        long serialStartMillis = SystemClock.elapsedRealtime();
+                        blockStatus = mBlockCheckerAdapter.getBlockStatus(mContext, getNumber(),
+                                getExtras(true));
+                        mCallFilteringExecutor.recordFilterLatency(SERIAL_CHECK_LATENCY,
+                                SystemClock.elapsedRealtime() - serialStartMillis);
+                    } else {
+                        // Run one after the other, the lookups would have taken the sum of their
+                        // durations; overlapped they took the longer of the two.  The time saved
+                        // is kept with the call's events.
+                        long savedMillis = Math.min(contactLookupMillis, speculativeStatus.second);
+                        Log.addEvent(mCall, LogUtils.Events.BLOCK_CHECK_SPECULATION_USED,
+                                savedMillis);
+                    }
+                    completeResult(resultFuture, blockStatus);
+                }, mExecutor.withSession("BCF.gBSWCL", null));
+    }
+
     private void getBlockStatus(
             CompletableFuture<CallFilteringResult> resultFuture) {
-        // Set extras
+        final String number = getNumber();
+        final Bundle extras = getExtras(mContactExists);
+
+        CompletableFuture.supplyAsync(
+                () -> {
+                    // With enhanced blocking the status also depends on the presentation and
+                    // whether the caller is a contact, so only the provider can answer.
+                    if (mBlockedNumberIndex != null
+                            && !BlockedNumbersUtil.isEnhancedCallBlockingEnabledByPlatform(mContext)
+                            && mBlockedNumberIndex.isDefinitelyNotBlocked(number)) {
+                        return BlockedNumberContract.STATUS_NOT_BLOCKED;
+                    }
+                    return mBlockCheckerAdapter.getBlockStatus(mContext, number, extras);
+                },
+                mExecutor.withSession("BCF.gBS", null))
+                .thenApplyAsync((x) -> completeResult(resultFuture, x),
+                        mExecutor.withSession("BCF.gBS", null));
+    }
+
+    private String getNumber() {
+        return mCall.getHandle() == null ? null : mCall.getHandle().getSchemeSpecificPart();
+    }
+
+    private Bundle getExtras(boolean contactExists) {
         Bundle extras = new Bundle();
         if (BlockedNumbersUtil.isEnhancedCallBlockingEnabledByPlatform(mContext)) {
             int presentation = mCall.getHandlePresentation();
             extras.putInt(BlockedNumberContract.EXTRA_CALL_PRESENTATION, presentation);
             if (presentation == TelecomManager.PRESENTATION_ALLOWED) {
-                extras.putBoolean(BlockedNumberContract.EXTRA_CONTACT_EXIST, mContactExists);
+                extras.putBoolean(BlockedNumberContract.EXTRA_CONTACT_EXIST, contactExists);
             }
         }
-
-        // Set number
-        final String number = mCall.getHandle() == null ? null :
-                mCall.getHandle().getSchemeSpecificPart();
-
-        CompletableFuture.supplyAsync(
-                () -> mBlockCheckerAdapter.getBlockStatus(mContext, number, extras),
-                new LoggedHandlerExecutor(mHandler, "BCF.gBS", null))
-                .thenApplyAsync((x) -> completeResult(resultFuture, x),
-                        new LoggedHandlerExecutor(mHandler, "BCF.gBS", null));
+        return extras;
     }
 
     private int completeResult(CompletableFuture<CallFilteringResult> resultFuture,
@@ -145,7 +207,6 @@ public class BlockCheckerFilter extends CallFilter {
                 BlockedNumberContract.SystemContract.blockStatusToString(blockStatus) + " "
                         + result);
         resultFuture.complete(result);
-        mHandlerThread.quitSafely();
         return blockStatus;
     }
 
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.callfiltering;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BlockedNumberContract;
+import android.telecom.Log;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory index of the blocked numbers list which can tell that a number is definitely not
+ * in the list without querying the {@link BlockedNumberContract} provider.
+ * <p>
+ * The index is a Bloom filter keyed by the trailing digits of each blocked number.  Any two
+ * numbers the provider considers equal, either as entered or once formatted as E.164, share their
+ * trailing digits, so the index has no false negatives regardless of the country used for
+ * formatting.  A number which may be blocked is still checked against the provider.
+ * <p>
+ * The index is rebuilt in the background whenever the blocked numbers table changes, and is not
+ * used between the change and the rebuild completing.
+ */
+public class BlockedNumberIndex {
+    /** Number of trailing digits used as the key of a number. */
+    private static final int KEY_DIGITS = 7;
+    private static final String[] PROJECTION = new String[] {
+            BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
+            BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER
+    };
+
+    /**
+     * A Bloom filter of strings.  Immutable once built.
+     */
+    @VisibleForTesting
+    public static final class BloomFilter {
+        private static final int BITS_PER_ENTRY = 10;
+        private static final int HASH_COUNT = 7;
+
+        private final long[] mBits;
+        private final int mBitCount;
+
+        public BloomFilter(int expectedEntries) {
+            mBitCount = Math.max(Long.SIZE, expectedEntries * BITS_PER_ENTRY);
+            mBits = new long[(mBitCount + Long.SIZE - 1) / Long.SIZE];
+        }
+
+        public void add(String key) {
+            int hash1 = key.hashCode();
+            int hash2 = secondaryHash(key);
+            for (int i = 0; i < HASH_COUNT; i++) {
+                int bit = bitIndex(hash1 + i * hash2);
+                mBits[bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+            }
+        }
+
+        /**
+         * @return {@code false} if the key was definitely never added.
+         */
+        public boolean mightContain(String key) {
+            int hash1 = key.hashCode();
+            int hash2 = secondaryHash(key);
+            for (int i = 0; i < HASH_COUNT; i++) {
+                int bit = bitIndex(hash1 + i * hash2);
+                if ((mBits[bit / Long.SIZE] & (1L << (bit % Long.SIZE))) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int bitIndex(int hash) {
+            return (hash & Integer.MAX_VALUE) % mBitCount;
+        }
+
+        /** FNV-1a, which is independent enough of {@link String#hashCode} for double hashing. */
+        private static int secondaryHash(String key) {
+            int hash = 0x811c9dc5;
+            for (int i = 0; i < key.length(); i++) {
+                hash ^= key.charAt(i);
+                hash *= 0x01000193;
+            }
+            // An even step would only visit half of an even-sized table.
+            return hash | 1;
+        }
+    }
+
+    private final ContentObserver mBlockedNumbersObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            Log.startSession("BNI.oC");
+            try {
+                invalidate();
+            } finally {
+                Log.endSession();
+            }
+        }
+    };
+
+    private final Context mContext;
+    private final CallFilteringExecutor.SerialExecutor mExecutor;
+    /** The index of the current blocked numbers list, or {@code null} if it is being rebuilt. */
+    private volatile BloomFilter mBloomFilter;
+    private volatile int mBlockedNumberCount;
+    /** Incremented on every change so that a rebuild in progress does not publish stale data. */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private final AtomicLong mNotBlockedCount = new AtomicLong();
+    private final AtomicLong mMaybeBlockedCount = new AtomicLong();
+    private final AtomicLong mUnavailableCount = new AtomicLong();
+    private final AtomicLong mRebuildCount = new AtomicLong();
+
+    public BlockedNumberIndex(Context context, CallFilteringExecutor callFilteringExecutor) {
+        mContext = context;
+        mExecutor = callFilteringExecutor.newSerialExecutor();
+        context.getContentResolver().registerContentObserver(
+                BlockedNumberContract.BlockedNumbers.CONTENT_URI, true, mBlockedNumbersObserver);
+        invalidate();
+    }
+
+    /**
+     * @param number The number to check.
+     * @return {@code true} if the number is definitely not in the blocked numbers list;
+     *         {@code false} if it may be, or if the index is not available.
+     */
+    public boolean isDefinitelyNotBlocked(String number) {
+        BloomFilter bloomFilter = mBloomFilter;
+        String key = getKey(number);
+        if (bloomFilter == null || key == null) {
+            mUnavailableCount.incrementAndGet();
+            return false;
+        }
+        if (bloomFilter.mightContain(key)) {
+            mMaybeBlockedCount.incrementAndGet();
+            return false;
+        }
+        mNotBlockedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Stops using the index and rebuilds it from the provider.
+     */
+    @VisibleForTesting
+    public void invalidate() {
+        mBloomFilter = null;
+        int generation = mGeneration.incrementAndGet();
+        mExecutor.execute(() -> {
+            if (generation == mGeneration.get()) {
+                List<String> numbers = queryBlockedNumbers();
+                if (numbers != null) {
+                    publish(numbers, generation);
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces the index with one built from the specified numbers.
+     */
+    @VisibleForTesting
+    public void setBlockedNumbers(Collection<String> numbers) {
+        publish(numbers, mGeneration.incrementAndGet());
+    }
+
+    @VisibleForTesting
+    public ContentObserver getBlockedNumbersObserver() {
+        return mBlockedNumbersObserver;
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        pw.println("available: " + (mBloomFilter != null) + ", numbers: " + mBlockedNumberCount
+                + ", rebuilds: " + mRebuildCount.get());
+        pw.println("lookups: notBlocked=" + mNotBlockedCount.get() + ", maybeBlocked="
+                + mMaybeBlockedCount.get() + ", unavailable=" + mUnavailableCount.get());
+    }
+
+    /**
+     * @return The key of a number in the index, or {@code null} if the number cannot be looked up
+     *         in the index, e.g. because it is a SIP address.
+     */
+    @VisibleForTesting
+    public static String getKey(String number) {
+        if (TextUtils.isEmpty(number) || number.contains("@")) {
+            return null;
+        }
+        String digits = PhoneNumberUtils.normalizeNumber(number);
+        if (digits.startsWith("+")) {
+            digits = digits.substring(1);
+        }
+        if (digits.isEmpty()) {
+            return null;
+        }
+        return digits.length() > KEY_DIGITS
+                ? digits.substring(digits.length() - KEY_DIGITS) : digits;
+    }
+
+    private void publish(Collection<String> numbers, int generation) {
+        BloomFilter bloomFilter = new BloomFilter(numbers.size());
+        for (String number : numbers) {
+            String key = getKey(number);
+            if (key != null) {
+                bloomFilter.add(key);
+            }
+        }
+        synchronized (this) {
+            if (generation == mGeneration.get()) {
+                mBloomFilter = bloomFilter;
+                mBlockedNumberCount = numbers.size();
+                mRebuildCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return The original and E.164 forms of every blocked number, or {@code null} if the
+     *         blocked numbers could not be read.
+     */
+    private List<String> queryBlockedNumbers() {
+        Uri uri = BlockedNumberContract.BlockedNumbers.CONTENT_URI;
+        try (Cursor cursor = mContext.getContentResolver().query(uri, PROJECTION, null, null,
+                null)) {
+            if (cursor == null) {
+                return null;
+            }
+            List<String> numbers = new ArrayList<>(cursor.getCount() * 2);
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < PROJECTION.length; i++) {
+                    String number = cursor.getString(i);
+                    if (!TextUtils.isEmpty(number)) {
+                        numbers.add(number);
+                    }
+                }
+            }
+            return numbers;
+        } catch (Exception e) {
+            Log.e(this, e, "Unable to read the blocked numbers");
+            return null;
+        }
+    }
+}
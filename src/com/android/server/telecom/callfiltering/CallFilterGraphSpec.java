@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.callfiltering;
+
+import android.telecom.Log;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A declarative description of the incoming call filter graph: which filters run, which filters
+ * each one waits for, and how long each one may take.
+ * <p>
+ * A description is a list of filters separated by {@code ;}.  Each filter is written as
+ * {@code name[:deadlineMillis][<dependency[,dependency...]]}, for example:
+ * <pre>
+ *     voicemail;block;carrier:2000&lt;voicemail,block;user&lt;carrier
+ * </pre>
+ * A filter runs as soon as all of its dependencies have finished, so filters which do not depend
+ * on each other run in parallel.  A filter which has not finished by its deadline is treated as
+ * having passed its input through unchanged, so that the filters after it still get to run within
+ * the overall call screening timeout.  A filter without a deadline is only bounded by the overall
+ * timeout.  The {@link #BLOCK_CHECKER} filter may not have a deadline, as passing its input through
+ * would let a blocked number ring.
+ */
+public class CallFilterGraphSpec {
+    public static final String VOICEMAIL = "voicemail";
+    public static final String BLOCK_CHECKER = "block";
+    public static final String CARRIER_SCREENING = "carrier";
+    public static final String USER_SCREENING = "user";
+
+    /** The graph used when no valid description is configured. */
+    public static final String DEFAULT_SPEC = VOICEMAIL + ";" + BLOCK_CHECKER + ";"
+            + CARRIER_SCREENING + "<" + VOICEMAIL + "," + BLOCK_CHECKER + ";"
+            + USER_SCREENING + "<" + CARRIER_SCREENING;
+
+    /** Deadline of a filter which is only bounded by the overall timeout. */
+    public static final long NO_DEADLINE = 0;
+
+    /**
+     * A single filter in the graph.
+     */
+    public static final class Node {
+        public final String name;
+        public final long deadlineMillis;
+        public final List<String> dependencies;
+
+        private Node(String name, long deadlineMillis, List<String> dependencies) {
+            this.name = name;
+            this.deadlineMillis = deadlineMillis;
+            this.dependencies = Collections.unmodifiableList(dependencies);
+        }
+    }
+
+    private final String mSpec;
+    /** The filters in an order where every filter follows all of its dependencies. */
+    private final List<Node> mNodes;
+
+    private CallFilterGraphSpec(String spec, List<Node> nodes) {
+        mSpec = spec;
+        mNodes = Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * Parses a graph description.
+     * @param spec The description.
+     * @return The parsed graph.
+     * @throws IllegalArgumentException if the description is malformed, names a filter twice,
+     *         depends on a filter it does not name, has a cycle, or gives
+     *         {@link #BLOCK_CHECKER} a deadline.
+     */
+    public static CallFilterGraphSpec parse(String spec) {
+        Map<String, Node> nodes = new LinkedHashMap<>();
+        for (String entry : spec.split(";")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            List<String> dependencies = new ArrayList<>();
+            int dependenciesStart = entry.indexOf('<');
+            if (dependenciesStart >= 0) {
+                for (String dependency : entry.substring(dependenciesStart + 1).split(",")) {
+                    dependency = dependency.trim();
+                    if (dependency.isEmpty()) {
+                        throw new IllegalArgumentException("Empty dependency in " + entry);
+                    }
+                    dependencies.add(dependency);
+                }
+                entry = entry.substring(0, dependenciesStart).trim();
+            }
+            long deadlineMillis = NO_DEADLINE;
+            int deadlineStart = entry.indexOf(':');
+            if (deadlineStart >= 0) {
+                try {
+                    deadlineMillis = Long.parseLong(entry.substring(deadlineStart + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid deadline in " + entry, e);
+                }
+                if (deadlineMillis < 0) {
+                    throw new IllegalArgumentException("Negative deadline in " + entry);
+                }
+                entry = entry.substring(0, deadlineStart).trim();
+            }
+            if (entry.isEmpty()) {
+                throw new IllegalArgumentException("Missing filter name in " + spec);
+            }
+            if (BLOCK_CHECKER.equals(entry) && deadlineMillis != NO_DEADLINE) {
+                throw new IllegalArgumentException("Filter " + entry + " may not have a deadline");
+            }
+            if (nodes.put(entry, new Node(entry, deadlineMillis, dependencies)) != null) {
+                throw new IllegalArgumentException("Filter " + entry + " named twice");
+            }
+        }
+        return new CallFilterGraphSpec(spec, sortTopologically(nodes));
+    }
+
+    /**
+     * Parses a graph description, falling back to {@link #DEFAULT_SPEC} if it is not valid.
+     * @param spec The description, or {@code null} to use the default.
+     * @param filterNames The filters which are available; a valid description names exactly these
+     *                    filters, so that a configuration can never drop a filter.
+     * @return The parsed graph.
+     */
+    public static CallFilterGraphSpec parseOrDefault(String spec, Set<String> filterNames) {
+        if (!TextUtils.isEmpty(spec)) {
+            try {
+                CallFilterGraphSpec graphSpec = parse(spec);
+                if (graphSpec.getFilterNames().equals(filterNames)) {
+                    return graphSpec;
+                }
+                Log.w(CallFilterGraphSpec.class, "Filter graph %s does not name filters %s",
+                        spec, filterNames);
+            } catch (IllegalArgumentException e) {
+                Log.w(CallFilterGraphSpec.class, "Invalid filter graph %s: %s", spec,
+                        e.getMessage());
+            }
+        }
+        return parse(DEFAULT_SPEC);
+    }
+
+    /**
+     * Adds the described filters and edges to a graph.
+     * @param graph The graph to add the filters to.
+     * @param filters The filter to use for each name in the description.
+     */
+    public void addTo(IncomingCallFilterGraph graph, Map<String, ? extends CallFilter> filters) {
+        for (Node node : mNodes) {
+            graph.addFilter(filters.get(node.name), node.deadlineMillis);
+        }
+        for (Node node : mNodes) {
+            for (String dependency : node.dependencies) {
+                IncomingCallFilterGraph.addEdge(filters.get(dependency), filters.get(node.name));
+            }
+        }
+    }
+
+    public List<Node> getNodes() {
+        return mNodes;
+    }
+
+    public Set<String> getFilterNames() {
+        Set<String> names = new HashSet<>();
+        for (Node node : mNodes) {
+            names.add(node.name);
+        }
+        return names;
+    }
+
+    /**
+     * Finds the longest chain of dependent filters, taking each filter to run until its deadline.
+     * @param defaultDeadlineMillis The time to assume for filters without a deadline.
+     * @return The names of the filters on the critical path, in the order they run.
+     */
+    public List<String> getCriticalPath(long defaultDeadlineMillis) {
+        Map<String, Long> finishMillis = new HashMap<>();
+        Map<String, String> predecessors = new HashMap<>();
+        String last = null;
+        for (Node node : mNodes) {
+            long startMillis = 0;
+            String predecessor = null;
+            for (String dependency : node.dependencies) {
+                long dependencyFinishMillis = finishMillis.get(dependency);
+                if (predecessor == null || dependencyFinishMillis > startMillis) {
+                    startMillis = dependencyFinishMillis;
+                    predecessor = dependency;
+                }
+            }
+            if (predecessor != null) {
+                predecessors.put(node.name, predecessor);
+            }
+            finishMillis.put(node.name, startMillis + getDeadline(node, defaultDeadlineMillis));
+            if (last == null || finishMillis.get(node.name) > finishMillis.get(last)) {
+                last = node.name;
+            }
+        }
+        List<String> path = new ArrayList<>();
+        for (String name = last; name != null; name = predecessors.get(name)) {
+            path.add(0, name);
+        }
+        return path;
+    }
+
+    /**
+     * @param defaultDeadlineMillis The time to assume for filters without a deadline.
+     * @return The time the critical path takes if every filter on it runs until its deadline.
+     */
+    public long getCriticalPathMillis(long defaultDeadlineMillis) {
+        long millis = 0;
+        for (String name : getCriticalPath(defaultDeadlineMillis)) {
+            millis += getDeadline(getNode(name), defaultDeadlineMillis);
+        }
+        return millis;
+    }
+
+    @Override
+    public String toString() {
+        return mSpec;
+    }
+
+    private Node getNode(String name) {
+        for (Node node : mNodes) {
+            if (node.name.equals(name)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static long getDeadline(Node node, long defaultDeadlineMillis) {
+        return node.deadlineMillis == NO_DEADLINE ? defaultDeadlineMillis : node.deadlineMillis;
+    }
+
+    private static List<Node> sortTopologically(Map<String, Node> nodes) {
+        List<Node> sorted = new ArrayList<>(nodes.size());
+        Map<String, Boolean> visited = new HashMap<>();
+        for (Node node : nodes.values()) {
+            visit(node, nodes, visited, sorted);
+        }
+        return sorted;
+    }
+
+    private static void visit(Node node, Map<String, Node> nodes, Map<String, Boolean> visited,
+            List<Node> sorted) {
+        Boolean done = visited.get(node.name);
+        if (done != null) {
+            if (!done) {
+                throw new IllegalArgumentException("Cycle through filter " + node.name);
+            }
+            return;
+        }
+        visited.put(node.name, false);
+        for (String dependency : node.dependencies) {
+            Node dependencyNode = nodes.get(dependency);
+            if (dependencyNode == null) {
+                throw new IllegalArgumentException(
+                        "Filter " + node.name + " depends on unknown filter " + dependency);
+            }
+            visit(dependencyNode, nodes, visited, sorted);
+        }
+        visited.put(node.name, true);
+        sorted.add(node);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.callfiltering;
+
+import android.telecom.Logging.Runnable;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.server.telecom.TelecomSystem;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of threads shared by the incoming call filters of all calls.
+ * <p>
+ * Work for a single call is submitted through a {@link SerialExecutor}, which runs its tasks one
+ * at a time and in submission order, so that a filter graph sees the same ordering it did when it
+ * ran on a thread of its own.  Tasks of different calls run in parallel, up to the size of the
+ * pool.
+ */
+public class CallFilteringExecutor {
+    private static final String TAG = "CallFilteringExecutor";
+    private static final int MAX_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Runs the tasks submitted to it one at a time, in order, on the shared pool.
+     */
+    public final class SerialExecutor implements Executor {
+        private final ArrayDeque<java.lang.Runnable> mTasks = new ArrayDeque<>();
+        private java.lang.Runnable mActive;
+
+        private SerialExecutor() {
+        }
+
+        @Override
+        public synchronized void execute(java.lang.Runnable command) {
+            onTaskQueued();
+            mTasks.offer(() -> {
+                onTaskStarted();
+                try {
+                    command.run();
+                } finally {
+                    scheduleNext();
+                }
+            });
+            if (mActive == null) {
+                scheduleNext();
+            }
+        }
+
+        /**
+         * @param sessionName The name of the log session to run each task in.
+         * @param lock The lock to hold while running each task, or {@code null}.
+         * @return An executor which runs tasks on this executor within a log session.
+         */
+        public Executor withSession(String sessionName, TelecomSystem.SyncRoot lock) {
+            return command -> execute(new Runnable(sessionName, lock) {
+                @Override
+                public void loggedRun() {
+                    command.run();
+                }
+            }.prepare());
+        }
+
+        /**
+         * Runs a task on this executor after a delay.
+         * @return A future which can be used to cancel the task before it is queued.
+         */
+        public Future<?> executeDelayed(java.lang.Runnable command, long delayMillis) {
+            return mExecutor.schedule(() -> execute(command), delayMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void scheduleNext() {
+            mActive = mTasks.poll();
+            if (mActive != null) {
+                mExecutor.execute(mActive);
+            }
+        }
+    }
+
+    private static final class LatencyStats {
+        long count;
+        long totalMillis;
+        long maxMillis;
+    }
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final AtomicInteger mQueueDepth = new AtomicInteger();
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+    private final AtomicLong mTasksRun = new AtomicLong();
+    private final Map<String, LatencyStats> mFilterLatencies = new ConcurrentHashMap<>();
+
+    public CallFilteringExecutor() {
+        this(MAX_THREADS);
+    }
+
+    @VisibleForTesting
+    public CallFilteringExecutor(int maxThreads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = r -> new Thread(r, TAG + "-" + threadCount.incrementAndGet());
+        mExecutor = new ScheduledThreadPoolExecutor(maxThreads, threadFactory);
+        // Let the pool empty out between bursts of calls.
+        mExecutor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        mExecutor.allowCoreThreadTimeOut(true);
+        mExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @return A new executor for the filtering work of a single call.
+     */
+    public SerialExecutor newSerialExecutor() {
+        return new SerialExecutor();
+    }
+
+    /**
+     * Records the time a filter took to produce its result.
+     * @param filterName The name of the filter.
+     * @param latencyMillis The time from scheduling the filter to its completion.
+     */
+    public void recordFilterLatency(String filterName, long latencyMillis) {
+        LatencyStats stats = mFilterLatencies.computeIfAbsent(filterName, k -> new LatencyStats());
+        synchronized (stats) {
+            stats.count++;
+            stats.totalMillis += latencyMillis;
+            stats.maxMillis = Math.max(stats.maxMillis, latencyMillis);
+        }
+    }
+
+    /**
+     * @return The number of latencies recorded for the given filter.
+     */
+    @VisibleForTesting
+    public long getFilterLatencyCount(String filterName) {
+        LatencyStats stats = mFilterLatencies.get(filterName);
+        if (stats == null) {
+            return 0;
+        }
+        synchronized (stats) {
+            return stats.count;
+        }
+    }
+
+    /**
+     * @return The number of tasks which have been submitted but have not started running.
+     */
+    @VisibleForTesting
+    public int getQueueDepth() {
+        return mQueueDepth.get();
+    }
+
+    @VisibleForTesting
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    @VisibleForTesting
+    public int getLargestPoolSize() {
+        return mExecutor.getLargestPoolSize();
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        pw.println("threads: " + mExecutor.getPoolSize() + " (largest "
+                + mExecutor.getLargestPoolSize() + ", max " + mExecutor.getCorePoolSize() + ")");
+        pw.println("queueDepth: " + mQueueDepth.get() + " (max " + mMaxQueueDepth.get()
+                + "), tasksRun: " + mTasksRun.get());
+        pw.println("filterLatencies:");
+        pw.increaseIndent();
+        for (Map.Entry<String, LatencyStats> entry : mFilterLatencies.entrySet()) {
+            LatencyStats stats = entry.getValue();
+            synchronized (stats) {
+                pw.println(entry.getKey() + ": count=" + stats.count + ", avgMs="
+                        + (stats.count == 0 ? 0 : stats.totalMillis / stats.count) + ", maxMs="
+                        + stats.maxMillis);
+            }
+        }
+        pw.decreaseIndent();
+    }
+
+    private void onTaskQueued() {
+        mMaxQueueDepth.accumulateAndGet(mQueueDepth.incrementAndGet(), Math::max);
+    }
+
+    private void onTaskStarted() {
+        mQueueDepth.decrementAndGet();
+        mTasksRun.incrementAndGet();
+    }
+}
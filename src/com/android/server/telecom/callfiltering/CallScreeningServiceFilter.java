@@ -24,6 +24,7 @@ import android.content.pm.PackageManager;
 import android.os.Binder;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.provider.CallLog;
 import android.telecom.CallScreeningService;
 import android.telecom.Log;
@@ -56,6 +57,14 @@ public class CallScreeningServiceFilter extends CallFilter {
     private final CallsManager mCallsManager;
     private CharSequence mAppName;
     private final ParcelableCallUtils.Converter mParcelableCallUtilsConverter;
+    private final CallScreeningServicePool mServicePool;
+    /** The lease on the pooled service screening the call, if it is owned by the pool. */
+    private CallScreeningServicePool.Lease mPooledServiceLease;
+    /**
+     * Set once the service is unbound, for instance because the filter timed out.  The graph
+     * then moves on with the prior stage's result by itself, so the lookup's future is left alone.
+     */
+    private boolean mIsUnbound;
 
     private class CallScreeningAdapter extends ICallScreeningAdapter.Stub {
         private CompletableFuture<CallFilteringResult> mResultFuture;
@@ -104,7 +113,7 @@ public class CallScreeningServiceFilter extends CallFilter {
                 Log.addEvent(mCall, LogUtils.Events.SCREENING_COMPLETED, result);
                 mResultFuture.complete(result);
             } finally {
-                unbindCallScreeningService();
+                releaseCallScreeningService();
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
             }
@@ -136,7 +145,7 @@ public class CallScreeningServiceFilter extends CallFilter {
                     mResultFuture.complete(mPriorStageResult);
                 }
             } finally {
-                unbindCallScreeningService();
+                releaseCallScreeningService();
                 Log.endSession();
                 Binder.restoreCallingIdentity(token);
             }
@@ -166,7 +175,7 @@ public class CallScreeningServiceFilter extends CallFilter {
                     mResultFuture.complete(mPriorStageResult);
                 }
             } finally {
-                unbindCallScreeningService();
+                releaseCallScreeningService();
                 Log.endSession();
                 Binder.restoreCallingIdentity(token);
             }
@@ -201,7 +210,7 @@ public class CallScreeningServiceFilter extends CallFilter {
                     mResultFuture.complete(mPriorStageResult);
                 }
             } finally {
-                unbindCallScreeningService();
+                releaseCallScreeningService();
                 Log.endSession();
                 Binder.restoreCallingIdentity(token);
             }
@@ -210,6 +219,7 @@ public class CallScreeningServiceFilter extends CallFilter {
 
     private class CallScreeningServiceConnection implements ServiceConnection {
         private CompletableFuture<CallFilteringResult> mResultFuture;
+        private final long mBindStartMillis = SystemClock.elapsedRealtime();
 
         public CallScreeningServiceConnection(CompletableFuture<CallFilteringResult> resultFuture) {
             mResultFuture = resultFuture;
@@ -217,16 +227,11 @@ public class CallScreeningServiceFilter extends CallFilter {
 
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder service) {
-            ICallScreeningService callScreeningService =
-                    ICallScreeningService.Stub.asInterface(service);
-            try {
-                callScreeningService.screenCall(new CallScreeningAdapter(mResultFuture),
-                        mParcelableCallUtilsConverter.
-                                toParcelableCallForScreening(mCall, isSystemDialer()));
-            } catch (RemoteException e) {
-                Log.e(this, e, "Failed to set the call screening adapter");
-                mResultFuture.complete(mPriorStageResult);
+            if (mServicePool != null) {
+                mServicePool.recordColdBindLatency(
+                        SystemClock.elapsedRealtime() - mBindStartMillis);
             }
+            screenCall(service, mResultFuture);
             Log.addEvent(mCall, LogUtils.Events.SCREENING_BOUND, componentName);
             Log.i(this, "Binding completed.");
         }
@@ -259,6 +264,23 @@ public class CallScreeningServiceFilter extends CallFilter {
             CallsManager callsManager,
             AppLabelProxy appLabelProxy,
             ParcelableCallUtils.Converter parcelableCallUtilsConverter) {
+        this(call, packageName, packageType, context, callsManager, appLabelProxy,
+                parcelableCallUtilsConverter, null);
+    }
+
+    /**
+     * @param servicePool The pool to take an already bound screening service from, or
+     *                    {@code null} to always bind the service for this call.
+     */
+    public CallScreeningServiceFilter(
+            Call call,
+            String packageName,
+            int packageType,
+            Context context,
+            CallsManager callsManager,
+            AppLabelProxy appLabelProxy,
+            ParcelableCallUtils.Converter parcelableCallUtilsConverter,
+            CallScreeningServicePool servicePool) {
         super();
         mCall = call;
         mPackageName = packageName;
@@ -268,6 +290,7 @@ public class CallScreeningServiceFilter extends CallFilter {
         mCallsManager = callsManager;
         mAppName = appLabelProxy.getAppLabel(mPackageName);
         mParcelableCallUtilsConverter = parcelableCallUtilsConverter;
+        mServicePool = servicePool;
     }
 
     @Override
@@ -290,7 +313,6 @@ public class CallScreeningServiceFilter extends CallFilter {
         }
 
         CompletableFuture<CallFilteringResult> resultFuture = new CompletableFuture<>();
-
         bindCallScreeningService(resultFuture);
         return resultFuture;
     }
@@ -313,6 +335,34 @@ public class CallScreeningServiceFilter extends CallFilter {
 
     private void bindCallScreeningService(
             CompletableFuture<CallFilteringResult> resultFuture) {
+        if (mServicePool == null) {
+            bindCallScreeningServiceForCall(resultFuture);
+            return;
+        }
+        mServicePool.acquire(mPackageName, mCallsManager.getCurrentUserHandle())
+                .thenAccept(lease -> {
+                    synchronized (this) {
+                        if (mIsUnbound) {
+                            // The filter timed out while the pool was binding the service.
+                            if (lease != null) {
+                                lease.release();
+                            }
+                            return;
+                        }
+                        mPooledServiceLease = lease;
+                    }
+                    if (lease == null) {
+                        bindCallScreeningServiceForCall(resultFuture);
+                        return;
+                    }
+                    screenCall(lease.getService(), resultFuture);
+                    Log.addEvent(mCall, LogUtils.Events.SCREENING_BOUND, mPackageName);
+                    Log.i(this, "Using pooled service.");
+                });
+    }
+
+    private void bindCallScreeningServiceForCall(
+            CompletableFuture<CallFilteringResult> resultFuture) {
         CallScreeningServiceConnection connection = new CallScreeningServiceConnection(
                 resultFuture);
         if (!CallScreeningServiceHelper.bindCallScreeningService(mContext,
@@ -325,7 +375,47 @@ public class CallScreeningServiceFilter extends CallFilter {
         }
     }
 
+    private void screenCall(IBinder service, CompletableFuture<CallFilteringResult> resultFuture) {
+        ICallScreeningService callScreeningService =
+                ICallScreeningService.Stub.asInterface(service);
+        try {
+            callScreeningService.screenCall(new CallScreeningAdapter(resultFuture),
+                    mParcelableCallUtilsConverter.
+                            toParcelableCallForScreening(mCall, isSystemDialer()));
+        } catch (RemoteException e) {
+            Log.e(this, e, "Failed to set the call screening adapter");
+            resultFuture.complete(mPriorStageResult);
+        }
+    }
+
+    /**
+     * Called once the service has responded; a pooled service stays bound for later calls.
+     */
+    private void releaseCallScreeningService() {
+        CallScreeningServicePool.Lease lease;
+        synchronized (this) {
+            lease = mPooledServiceLease;
+            mPooledServiceLease = null;
+        }
+        if (lease != null) {
+            lease.release();
+            return;
+        }
+        unbindCallScreeningService();
+    }
+
     public void unbindCallScreeningService() {
+        CallScreeningServicePool.Lease lease;
+        synchronized (this) {
+            lease = mPooledServiceLease;
+            mPooledServiceLease = null;
+            // Stop a service which is still being bound from screening the call.
+            mIsUnbound = true;
+        }
+        if (lease != null) {
+            // The service did not respond in time; don't hand it out to later calls either.
+            lease.releaseUnresponsive();
+        }
         if (mConnection != null) {
             try {
                 mContext.unbindService(mConnection);
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.callfiltering;
+
+import android.content.ComponentCallbacks2;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.ServiceConnection;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.telecom.CallScreeningService;
+import android.telecom.Log;
+import android.text.TextUtils;
+import android.util.Pair;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.server.telecom.CallScreeningServiceHelper;
+import com.android.server.telecom.LatencyHistogram;
+import com.android.server.telecom.Timeouts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps {@link CallScreeningService}s bound between calls so that screening an incoming call does
+ * not have to wait for the service's process to start and bind.
+ * <p>
+ * A service is bound when it is first needed for a call, and stays bound until it has not been
+ * used for the idle timeout.  Calls tend to come in bursts, so the calls which follow soon after
+ * another one find the service already bound.  All services are unbound when the system is low
+ * on memory.  The pool is disabled while the idle timeout is zero.
+ * <p>
+ * Each call holds a {@link Lease} on the service while it screens the call.  A service which is
+ * taken out of the pool, e.g. because it failed to respond in time, is not handed out again, but
+ * stays bound until the calls still holding a lease on it have released it.
+ */
+public class CallScreeningServicePool implements ComponentCallbacks2 {
+    /**
+     * A pooled service in use by a single call.
+     */
+    public final class Lease {
+        private final PooledService mPooledService;
+        private boolean mIsReleased;
+
+        private Lease(PooledService pooledService) {
+            mPooledService = pooledService;
+        }
+
+        public IBinder getService() {
+            return mPooledService.mService;
+        }
+
+        /**
+         * Hands the service back to the pool once the call no longer needs it.
+         */
+        public void release() {
+            releaseLease(this, false /* isUnresponsive */);
+        }
+
+        /**
+         * Hands the service back to the pool because it failed to respond in time, which takes it
+         * out of the pool.
+         */
+        public void releaseUnresponsive() {
+            releaseLease(this, true /* isUnresponsive */);
+        }
+    }
+
+    private final class PooledService implements ServiceConnection {
+        private final Pair<String, UserHandle> mKey;
+        private final long mBindStartMillis = SystemClock.elapsedRealtime();
+        private final List<CompletableFuture<Lease>> mPendingRequests = new ArrayList<>();
+        private final Runnable mIdleTimeoutRunnable = () -> {
+            Log.startSession("CSSP.iT");
+            try {
+                evict(this, "idle");
+            } finally {
+                Log.endSession();
+            }
+        };
+        private IBinder mService;
+        /** The number of leases which have not been released yet. */
+        private int mLeaseCount;
+        /** Whether the service has been taken out of the pool. */
+        private boolean mIsEvicted;
+
+        PooledService(Pair<String, UserHandle> key) {
+            mKey = key;
+        }
+
+        @Override
+        public void onServiceConnected(ComponentName componentName, IBinder service) {
+            Log.startSession("CSSP.oSC");
+            try {
+                synchronized (CallScreeningServicePool.this) {
+                    if (mServices.get(mKey) != this) {
+                        return;
+                    }
+                    mService = service;
+                    mWarmBindLatencies.record(SystemClock.elapsedRealtime() - mBindStartMillis);
+                    for (CompletableFuture<Lease> request : mPendingRequests) {
+                        mLeaseCount++;
+                        request.complete(new Lease(this));
+                    }
+                    mPendingRequests.clear();
+                }
+            } finally {
+                Log.endSession();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName componentName) {
+            evict(this, "disconnected");
+        }
+
+        @Override
+        public void onBindingDied(ComponentName componentName) {
+            evict(this, "binding died");
+        }
+
+        @Override
+        public void onNullBinding(ComponentName componentName) {
+            evict(this, "null binding");
+        }
+    }
+
+    private final Context mContext;
+    private final Timeouts.Adapter mTimeoutsAdapter;
+    private final Handler mHandler;
+    private final Map<Pair<String, UserHandle>, PooledService> mServices = new HashMap<>();
+    private final LatencyHistogram mWarmBindLatencies = new LatencyHistogram();
+    private final LatencyHistogram mColdBindLatencies = new LatencyHistogram();
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    public CallScreeningServicePool(Context context, Timeouts.Adapter timeoutsAdapter) {
+        this(context, timeoutsAdapter, new Handler(Looper.getMainLooper()));
+    }
+
+    @VisibleForTesting
+    public CallScreeningServicePool(Context context, Timeouts.Adapter timeoutsAdapter,
+            Handler handler) {
+        mContext = context;
+        mTimeoutsAdapter = timeoutsAdapter;
+        mHandler = handler;
+    }
+
+    /**
+     * Starts binding to a screening service, if it is not bound already, so that it is ready by
+     * the time a call needs it.
+     * @param packageName The package of the screening service.
+     * @param userHandle The user to bind the service as.
+     */
+    public synchronized void warmUp(String packageName, UserHandle userHandle) {
+        getOrBind(packageName, userHandle);
+    }
+
+    /**
+     * Gets a bound screening service from the pool, binding it if needed.
+     * @param packageName The package of the screening service.
+     * @param userHandle The user to bind the service as.
+     * @return A future completed with a lease on the service once it is bound, or with
+     *         {@code null} if the pool is disabled or the service could not be bound, in which
+     *         case the caller should bind the service itself.
+     */
+    public synchronized CompletableFuture<Lease> acquire(String packageName,
+            UserHandle userHandle) {
+        PooledService pooledService = getOrBind(packageName, userHandle);
+        if (pooledService == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (pooledService.mService != null) {
+            mHits++;
+            pooledService.mLeaseCount++;
+            return CompletableFuture.completedFuture(new Lease(pooledService));
+        }
+        mMisses++;
+        CompletableFuture<Lease> request = new CompletableFuture<>();
+        pooledService.mPendingRequests.add(request);
+        return request;
+    }
+
+    /**
+     * Records the time taken to bind a screening service which was not in the pool.
+     */
+    public void recordColdBindLatency(long latencyMillis) {
+        mColdBindLatencies.record(latencyMillis);
+    }
+
+    @VisibleForTesting
+    public synchronized int getPooledServiceCount() {
+        return mServices.size();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // UI_HIDDEN only means that Telecom's own UI went away, not that memory is low.
+        if (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN) {
+            evictAll("trim memory " + level);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        evictAll("low memory");
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    public synchronized void dump(IndentingPrintWriter pw) {
+        pw.println("enabled: " + (getIdleTimeoutMillis() > 0) + ", bound: " + mServices.keySet());
+        pw.println("hits: " + mHits + ", misses: " + mMisses + ", evictions: " + mEvictions);
+        pw.println("warmBindLatencies: " + mWarmBindLatencies);
+        pw.println("coldBindLatencies: " + mColdBindLatencies);
+    }
+
+    private PooledService getOrBind(String packageName, UserHandle userHandle) {
+        long idleTimeoutMillis = getIdleTimeoutMillis();
+        if (idleTimeoutMillis <= 0 || TextUtils.isEmpty(packageName) || userHandle == null) {
+            return null;
+        }
+        Pair<String, UserHandle> key = new Pair<>(packageName, userHandle);
+        PooledService pooledService = mServices.get(key);
+        if (pooledService == null) {
+            pooledService = new PooledService(key);
+            if (!CallScreeningServiceHelper.bindCallScreeningService(mContext, userHandle,
+                    packageName, pooledService)) {
+                Log.i(this, "Unable to bind %s for the pool", packageName);
+                return null;
+            }
+            Log.i(this, "Bound %s for the pool", packageName);
+            mServices.put(key, pooledService);
+        }
+        mHandler.removeCallbacks(pooledService.mIdleTimeoutRunnable);
+        mHandler.postDelayed(pooledService.mIdleTimeoutRunnable, idleTimeoutMillis);
+        return pooledService;
+    }
+
+    private synchronized void releaseLease(Lease lease, boolean isUnresponsive) {
+        if (lease.mIsReleased) {
+            return;
+        }
+        lease.mIsReleased = true;
+        PooledService pooledService = lease.mPooledService;
+        pooledService.mLeaseCount--;
+        if (isUnresponsive) {
+            evict(pooledService, "unresponsive");
+        } else if (pooledService.mIsEvicted && pooledService.mLeaseCount == 0) {
+            unbind(pooledService);
+        }
+    }
+
+    /**
+     * Takes a service out of the pool, and unbinds it unless a call still holds a lease on it.
+     */
+    private synchronized void evict(PooledService pooledService, String reason) {
+        if (pooledService.mIsEvicted) {
+            return;
+        }
+        Log.i(this, "Evicting %s: %s", pooledService.mKey.first, reason);
+        pooledService.mIsEvicted = true;
+        mServices.remove(pooledService.mKey);
+        mEvictions++;
+        mHandler.removeCallbacks(pooledService.mIdleTimeoutRunnable);
+        for (CompletableFuture<Lease> request : pooledService.mPendingRequests) {
+            request.complete(null);
+        }
+        pooledService.mPendingRequests.clear();
+        if (pooledService.mLeaseCount == 0) {
+            unbind(pooledService);
+        }
+    }
+
+    private void unbind(PooledService pooledService) {
+        Log.i(this, "Unbinding %s", pooledService.mKey.first);
+        try {
+            mContext.unbindService(pooledService);
+        } catch (IllegalArgumentException e) {
+            Log.i(this, "Exception when unbinding %s: %s", pooledService.mKey.first,
+                    e.getMessage());
+        }
+    }
+
+    private synchronized void evictAll(String reason) {
+        for (PooledService pooledService : new ArrayList<>(mServices.values())) {
+            evict(pooledService, reason);
+        }
+    }
+
+    private long getIdleTimeoutMillis() {
+        return mTimeoutsAdapter.getCallScreeningServicePoolIdleTimeoutMillis();
+    }
+}
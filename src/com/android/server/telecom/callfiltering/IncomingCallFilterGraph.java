@@ -17,20 +17,21 @@
 package com.android.server.telecom.callfiltering;
 
 import android.content.Context;
-import android.os.Handler;
-import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.telecom.Log;
 import android.telecom.Logging.Runnable;
 
 import com.android.server.telecom.Call;
-import com.android.server.telecom.LoggedHandlerExecutor;
 import com.android.server.telecom.LogUtils;
 import com.android.server.telecom.TelecomSystem;
 import com.android.server.telecom.Timeouts;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
 public class IncomingCallFilterGraph {
     //TODO: Add logging for control flow.
@@ -45,25 +46,68 @@ public class IncomingCallFilterGraph {
 
     private final CallFilterResultCallback mListener;
     private final Call mCall;
-    private final Handler mHandler;
-    private final HandlerThread mHandlerThread;
+    private final CallFilteringExecutor mCallFilteringExecutor;
+    private final CallFilteringExecutor.SerialExecutor mExecutor;
     private final TelecomSystem.SyncRoot mLock;
     private List<CallFilter> mFiltersList;
+    private Map<CallFilter, Long> mDeadlines;
     private CallFilter mCompletionSentinel;
     private boolean mFinished;
     private CallFilteringResult mCurrentResult;
     private Context mContext;
     private Timeouts.Adapter mTimeoutsAdapter;
+    private Future<?> mTimeoutFuture;
 
     private class PostFilterTask {
         private final CallFilter mFilter;
+        private final long mStartTimeMillis;
+        private boolean mDone;
+        private Future<?> mDeadlineFuture;
 
         public PostFilterTask(final CallFilter filter) {
             mFilter = filter;
+            mStartTimeMillis = SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * Passes the input of the filter on unchanged if the filter has not finished by the
+         * specified deadline.
+         */
+        public void scheduleDeadline(CallFilteringResult input, long deadlineMillis) {
+            mDeadlineFuture = mExecutor.executeDelayed(new Runnable("ICFG.fD", null) {
+                @Override
+                public void loggedRun() {
+                    if (mDone) {
+                        return;
+                    }
+                    Log.i(TAG, "Filter %s missed its deadline of %d ms.", mFilter,
+                            deadlineMillis);
+                    Log.addEvent(mCall, LogUtils.Events.FILTER_DEADLINE_EXCEEDED,
+                            mFilter.getClass().getSimpleName());
+                    if (mFilter instanceof CallScreeningServiceFilter) {
+                        ((CallScreeningServiceFilter) mFilter).unbindCallScreeningService();
+                    }
+                    whenDone(input);
+                }
+            }.prepare(), deadlineMillis);
         }
 
         public CallFilteringResult whenDone(CallFilteringResult result) {
+            if (mDone) {
+                // The filter missed its deadline and its result has already been replaced.
+                Log.i(TAG, "Filter %s done after its deadline, result: %s.", mFilter, result);
+                return result;
+            }
+            mDone = true;
+            if (mDeadlineFuture != null) {
+                mDeadlineFuture.cancel(false);
+            }
             Log.i(TAG, "Filter %s done, result: %s.", mFilter, result);
+            if (mFilter.getClass() != CallFilter.class) {
+                // Only record actual filters, not the start and completion sentinels.
+                mCallFilteringExecutor.recordFilterLatency(mFilter.getClass().getSimpleName(),
+                        SystemClock.elapsedRealtime() - mStartTimeMillis);
+            }
             mFilter.result = result;
             for (CallFilter filter : mFilter.getFollowings()) {
                 if (filter.decrementAndGetIndegree() == 0) {
@@ -72,25 +116,30 @@ public class IncomingCallFilterGraph {
             }
             if (mFilter.equals(mCompletionSentinel)) {
                 synchronized (mLock) {
+                    if (mFinished) {
+                        // The graph timed out and its listener has already been told.
+                        return result;
+                    }
                     mFinished = true;
                     mListener.onCallFilteringComplete(mCall, result, false);
                     Log.addEvent(mCall, LogUtils.Events.FILTERING_COMPLETED, result);
                 }
-                mHandlerThread.quit();
+                mTimeoutFuture.cancel(false);
             }
             return result;
         }
     }
 
     public IncomingCallFilterGraph(Call call, CallFilterResultCallback listener, Context context,
-            Timeouts.Adapter timeoutsAdapter, TelecomSystem.SyncRoot lock) {
+            Timeouts.Adapter timeoutsAdapter, TelecomSystem.SyncRoot lock,
+            CallFilteringExecutor callFilteringExecutor) {
         mListener = listener;
         mCall = call;
         mFiltersList = new ArrayList<>();
+        mDeadlines = new HashMap<>();
 
-        mHandlerThread = new HandlerThread(TAG);
-        mHandlerThread.start();
-        mHandler = new Handler(mHandlerThread.getLooper());
+        mCallFilteringExecutor = callFilteringExecutor;
+        mExecutor = callFilteringExecutor.newSerialExecutor();
         mLock = lock;
         mFinished = false;
         mContext = context;
@@ -99,7 +148,21 @@ public class IncomingCallFilterGraph {
     }
 
     public void addFilter(CallFilter filter) {
+        addFilter(filter, CallFilterGraphSpec.NO_DEADLINE);
+    }
+
+    /**
+     * Adds a filter which is given up on if it does not finish in time.
+     * @param filter The filter to add.
+     * @param deadlineMillis The time the filter may take from when it starts, or
+     *                       {@link CallFilterGraphSpec#NO_DEADLINE} to only be bounded by the
+     *                       timeout of the whole graph.
+     */
+    public void addFilter(CallFilter filter, long deadlineMillis) {
         mFiltersList.add(filter);
+        if (deadlineMillis != CallFilterGraphSpec.NO_DEADLINE) {
+            mDeadlines.put(filter, deadlineMillis);
+        }
     }
 
     public void performFiltering() {
@@ -115,8 +178,8 @@ public class IncomingCallFilterGraph {
         }
         addEdge(dummyStart, mCompletionSentinel);
 
-        scheduleFilter(dummyStart);
-        mHandler.postDelayed(new Runnable("ICFG.pF", mLock) {
+        // Schedule the timeout first so that it can be cancelled as soon as filtering completes.
+        mTimeoutFuture = mExecutor.executeDelayed(new Runnable("ICFG.pF", mLock) {
             @Override
             public void loggedRun() {
                 if (!mFinished) {
@@ -124,7 +187,6 @@ public class IncomingCallFilterGraph {
                     Log.addEvent(mCall, LogUtils.Events.FILTERING_TIMED_OUT);
                     mListener.onCallFilteringComplete(mCall, mCurrentResult, true);
                     mFinished = true;
-                    mHandlerThread.quit();
                 }
                 for (CallFilter filter : mFiltersList) {
                     // unbind timed out call screening service
@@ -134,9 +196,17 @@ public class IncomingCallFilterGraph {
                 }
             }
         }.prepare(), mTimeoutsAdapter.getCallScreeningTimeoutMillis(mContext.getContentResolver()));
+        scheduleFilter(dummyStart);
     }
 
     private void scheduleFilter(CallFilter filter) {
+        synchronized (mLock) {
+            if (mFinished) {
+                // Nothing is waiting for the result any more, so don't start further lookups.
+                Log.i(TAG, "Filter %s not scheduled, filtering is finished.", filter);
+                return;
+            }
+        }
         CallFilteringResult result = new CallFilteringResult.Builder()
                 .setShouldAllowCall(true)
                 .setShouldReject(false)
@@ -153,13 +223,17 @@ public class IncomingCallFilterGraph {
         CompletableFuture<CallFilteringResult> startFuture =
                 CompletableFuture.completedFuture(input);
         PostFilterTask postFilterTask = new PostFilterTask(filter);
+        Long deadlineMillis = mDeadlines.get(filter);
+        if (deadlineMillis != null) {
+            postFilterTask.scheduleDeadline(input, deadlineMillis);
+        }
 
         // TODO: improve these filter logging names to be more reflective of the filters that are
         // executing
         startFuture.thenComposeAsync(filter::startFilterLookup,
-                new LoggedHandlerExecutor(mHandler, "ICFG.sF", null))
+                mExecutor.withSession("ICFG.sF", null))
                 .thenApplyAsync(postFilterTask::whenDone,
-                        new LoggedHandlerExecutor(mHandler, "ICFG.sF", null))
+                        mExecutor.withSession("ICFG.sF", null))
                 .exceptionally((t) -> {
                     Log.e(filter, t, "Encountered exception running filter");
                     return null;
@@ -171,8 +245,4 @@ public class IncomingCallFilterGraph {
         before.addFollowings(after);
         after.addDependency(before);
     }
-
-    public HandlerThread getHandlerThread() {
-        return mHandlerThread;
-    }
 }
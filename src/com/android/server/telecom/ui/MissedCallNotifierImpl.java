@@ -68,14 +68,17 @@ import android.text.TextUtils;
 
 import android.telecom.CallerInfo;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 
 import java.lang.Override;
 import java.lang.String;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * Creates a notification for calls that the user missed (neither answered nor rejected).
@@ -117,6 +120,11 @@ public class MissedCallNotifierImpl extends CallsManagerListenerBase implements
             " AND new=1" +
             " AND is_read=0";
 
+    private static final String[] UNREAD_COUNT_PROJECTION = new String[] { Calls._ID };
+
+    private static final int LOAD_QUERY_TOKEN = 0;
+    private static final int UNREAD_COUNT_QUERY_TOKEN = 1;
+
     public static final int CALL_LOG_COLUMN_ID = 0;
     public static final int CALL_LOG_COLUMN_NUMBER = 1;
     public static final int CALL_LOG_COLUMN_NUMBER_PRESENTATION = 2;
@@ -140,9 +148,29 @@ public class MissedCallNotifierImpl extends CallsManagerListenerBase implements
     private final Object mMissedCallCountsLock = new Object();
     // Used to track the number of missed calls.
     private final Map<UserHandle, Integer> mMissedCallCounts;
+    // The newest call log row which has been loaded for each user, so that a later reload only
+    // has to fetch the rows after it.  Guarded by mMissedCallCountsLock.
+    private final Map<UserHandle, Long> mLastLoadedCallIds = new ArrayMap<>();
+    // The call log row ids of the missed calls shown for each loaded user since it was last
+    // reloaded.  Their rows are newer than the last loaded row, but they are already counted.
+    // Guarded by mMissedCallCountsLock.
+    private final Map<UserHandle, Set<Long>> mCallsShownSinceReload = new ArrayMap<>();
 
     private List<UserHandle> mUsersToLoadAfterBootComplete = new ArrayList<>();
 
+    /** The calls fetched by an incremental reload, shown once the unread calls are counted. */
+    private static class LoadedCalls {
+        final long newestCallId;
+        final int callCount;
+        final Map<Uri, List<Long>> missedCallDates;
+
+        LoadedCalls(long newestCallId, int callCount, Map<Uri, List<Long>> missedCallDates) {
+            this.newestCallId = newestCallId;
+            this.callCount = callCount;
+            this.missedCallDates = missedCallDates;
+        }
+    }
+
     public MissedCallNotifierImpl(Context context, PhoneAccountRegistrar phoneAccountRegistrar,
             DefaultDialerCache defaultDialerCache,
             DeviceIdleControllerAdapter deviceIdleControllerAdapter) {
@@ -305,9 +333,38 @@ public class MissedCallNotifierImpl extends CallsManagerListenerBase implements
         } else {
             userHandle = phoneAccountHandle.getUserHandle();
         }
+        synchronized (mMissedCallCountsLock) {
+            Set<Long> callsShown = mCallsShownSinceReload.get(userHandle);
+            if (callsShown != null) {
+                if (callInfo.getCallLogId() != MissedCallNotifier.CallInfo.NO_CALL_LOG_ID) {
+                    callsShown.add(callInfo.getCallLogId());
+                } else {
+                    // The row of the call is not known, so it cannot be told apart from the
+                    // calls a reload would add; the next reload recounts all of them instead.
+                    resetLoadedCallsLocked(userHandle);
+                }
+            }
+        }
         showMissedCallNotification(callInfo, userHandle);
     }
 
+    /**
+     * Forgets which missed calls have been loaded for a user, so that the next reload recounts
+     * all of the unread missed calls and shows the notification again, e.g. once a profile which
+     * was stopped, and had its notifications removed, starts again.
+     */
+    @Override
+    public void resetLoadedCalls(UserHandle userHandle) {
+        synchronized (mMissedCallCountsLock) {
+            resetLoadedCallsLocked(userHandle);
+        }
+    }
+
+    private void resetLoadedCallsLocked(UserHandle userHandle) {
+        mLastLoadedCallIds.remove(userHandle);
+        mCallsShownSinceReload.remove(userHandle);
+    }
+
     private void showMissedCallNotification(@NonNull CallInfo callInfo, UserHandle userHandle) {
         int missedCallCounts;
         synchronized (mMissedCallCountsLock) {
@@ -600,6 +657,11 @@ public class MissedCallNotifierImpl extends CallsManagerListenerBase implements
     }
     /**
      * Adds the missed call notification on startup if there are unread missed calls.
+     * <p>
+     * The first reload for a user counts all of the unread missed calls.  Later reloads, e.g.
+     * when switching back to the user, only fetch the calls logged since, and then recount the
+     * unread missed calls so that calls which were read or deleted meanwhile drop out of the
+     * count.  Caller info is looked up once for each distinct number rather than for each call.
      */
     @Override
     public void reloadFromDatabase(final CallerInfoLookupHelper callerInfoLookupHelper,
@@ -613,84 +675,199 @@ public class MissedCallNotifierImpl extends CallsManagerListenerBase implements
             return;
         }
 
+        final Long lastLoadedCallId;
+        synchronized (mMissedCallCountsLock) {
+            lastLoadedCallId = mLastLoadedCallIds.get(userHandle);
+        }
+        // setup query spec, look for all Missed calls that are new.
+        final Uri callsUri =
+                ContentProvider.maybeAddUserId(Calls.CONTENT_URI, userHandle.getIdentifier());
+
         // instantiate query handler
         AsyncQueryHandler queryHandler = new AsyncQueryHandler(mContext.getContentResolver()) {
             @Override
             protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
                 Log.d(MissedCallNotifierImpl.this, "onQueryComplete()...");
+                if (token == UNREAD_COUNT_QUERY_TOKEN) {
+                    onUnreadCountQueryComplete(callerInfoLookupHelper, callInfoFactory,
+                            userHandle, (LoadedCalls) cookie, cursor);
+                    return;
+                }
                 if (cursor != null) {
+                    // The dates of the missed calls from each number, in the order loaded.
+                    Map<Uri, List<Long>> missedCallDates = new LinkedHashMap<>();
+                    int callCount = 0;
+                    long newestCallId = lastLoadedCallId == null ? -1 : lastLoadedCallId;
                     try {
                         synchronized(mMissedCallCountsLock) {
-                            mMissedCallCounts.remove(userHandle);
-                        }
-                        while (cursor.moveToNext()) {
-                            // Get data about the missed call from the cursor
-                            final String handleString = cursor.getString(CALL_LOG_COLUMN_NUMBER);
-                            final int presentation =
-                                    cursor.getInt(CALL_LOG_COLUMN_NUMBER_PRESENTATION);
-                            final long date = cursor.getLong(CALL_LOG_COLUMN_DATE);
-
-                            final Uri handle;
-                            if (presentation != Calls.PRESENTATION_ALLOWED
-                                    || TextUtils.isEmpty(handleString)) {
-                                handle = null;
-                            } else {
-                                // TODO: Remove the assumption that numbers are SIP or TEL only.
-                                handle = Uri.fromParts(PhoneNumberUtils.isUriNumber(handleString) ?
-                                        PhoneAccount.SCHEME_SIP : PhoneAccount.SCHEME_TEL,
-                                                handleString, null);
+                            if (!Objects.equals(mLastLoadedCallIds.get(userHandle),
+                                    lastLoadedCallId)) {
+                                // Another reload finished first or the loaded calls were reset
+                                // meanwhile, so these rows are out of date.
+                                Log.i(MissedCallNotifierImpl.this, "reloadFromDatabase: "
+                                        + "discarding out of date query for user %d",
+                                        userHandle.getIdentifier());
+                                return;
                             }
-
-                            callerInfoLookupHelper.startLookup(handle,
-                                    new CallerInfoLookupHelper.OnQueryCompleteListener() {
-                                        @Override
-                                        public void onCallerInfoQueryComplete(Uri queryHandle,
-                                                CallerInfo info) {
-                                            if (!Objects.equals(queryHandle, handle)) {
-                                                Log.w(MissedCallNotifierImpl.this,
-                                                        "CallerInfo query returned with " +
-                                                                "different handle.");
-                                                return;
-                                            }
-                                            if (info == null ||
-                                                    info.getContactDisplayPhotoUri() == null) {
-                                                // If there is no photo or if the caller info is
-                                                // null, just show the notification.
-                                                CallInfo callInfo = callInfoFactory.makeCallInfo(
-                                                        info, null, handle, date);
-                                                showMissedCallNotification(callInfo, userHandle);
-                                            }
-                                        }
-
-                                        @Override
-                                        public void onContactPhotoQueryComplete(Uri queryHandle,
-                                                CallerInfo info) {
-                                            if (!Objects.equals(queryHandle, handle)) {
-                                                Log.w(MissedCallNotifierImpl.this,
-                                                        "CallerInfo query for photo returned " +
-                                                                "with different handle.");
-                                                return;
-                                            }
-                                            CallInfo callInfo = callInfoFactory.makeCallInfo(
-                                                    info, null, handle, date);
-                                            showMissedCallNotification(callInfo, userHandle);
-                                        }
-                                    }
-                            );
+                            Set<Long> callsShown = mCallsShownSinceReload.remove(userHandle);
+                            if (lastLoadedCallId == null) {
+                                mMissedCallCounts.remove(userHandle);
+                            }
+                            while (cursor.moveToNext()) {
+                                final long callId = cursor.getLong(CALL_LOG_COLUMN_ID);
+                                newestCallId = Math.max(newestCallId, callId);
+                                // Get data about the missed call from the cursor
+                                final String handleString =
+                                        cursor.getString(CALL_LOG_COLUMN_NUMBER);
+                                final int presentation =
+                                        cursor.getInt(CALL_LOG_COLUMN_NUMBER_PRESENTATION);
+                                final long date = cursor.getLong(CALL_LOG_COLUMN_DATE);
+                                if (lastLoadedCallId != null && callsShown != null
+                                        && callsShown.remove(callId)) {
+                                    // Shown when the call was missed, so already counted.
+                                    continue;
+                                }
+
+                                final Uri handle;
+                                if (presentation != Calls.PRESENTATION_ALLOWED
+                                        || TextUtils.isEmpty(handleString)) {
+                                    handle = null;
+                                } else {
+                                    // TODO: Remove the assumption that numbers are SIP or TEL
+                                    // only.
+                                    handle = Uri.fromParts(
+                                            PhoneNumberUtils.isUriNumber(handleString)
+                                                    ? PhoneAccount.SCHEME_SIP
+                                                    : PhoneAccount.SCHEME_TEL,
+                                            handleString, null);
+                                }
+                                missedCallDates.computeIfAbsent(handle, h -> new ArrayList<>())
+                                        .add(date);
+                                callCount++;
+                            }
+                            mLastLoadedCallIds.put(userHandle, newestCallId);
+                            mCallsShownSinceReload.put(userHandle, new ArraySet<>());
                         }
                     } finally {
                         cursor.close();
                     }
+                    Log.i(MissedCallNotifierImpl.this, "reloadFromDatabase: loaded %d calls "
+                            + "from %d numbers, incremental=%b", callCount,
+                            missedCallDates.size(), lastLoadedCallId != null);
+
+                    if (lastLoadedCallId != null) {
+                        // Only new rows were fetched; count the unread calls before showing them.
+                        startQuery(UNREAD_COUNT_QUERY_TOKEN,
+                                new LoadedCalls(newestCallId, callCount, missedCallDates),
+                                callsUri, UNREAD_COUNT_PROJECTION, CALL_LOG_WHERE_CLAUSE, null,
+                                null);
+                        return;
+                    }
+                    showLoadedCalls(callerInfoLookupHelper, callInfoFactory, userHandle,
+                            missedCallDates);
                 }
             }
         };
 
-        // setup query spec, look for all Missed calls that are new.
-        Uri callsUri =
-                ContentProvider.maybeAddUserId(Calls.CONTENT_URI, userHandle.getIdentifier());
         // start the query
-        queryHandler.startQuery(0, null, callsUri, CALL_LOG_PROJECTION,
-                CALL_LOG_WHERE_CLAUSE, null, Calls.DEFAULT_SORT_ORDER);
+        if (lastLoadedCallId == null) {
+            queryHandler.startQuery(LOAD_QUERY_TOKEN, null, callsUri, CALL_LOG_PROJECTION,
+                    CALL_LOG_WHERE_CLAUSE, null, Calls.DEFAULT_SORT_ORDER);
+        } else {
+            queryHandler.startQuery(LOAD_QUERY_TOKEN, null, callsUri, CALL_LOG_PROJECTION,
+                    CALL_LOG_WHERE_CLAUSE + " AND " + Calls._ID + ">?",
+                    new String[] { Long.toString(lastLoadedCallId) }, Calls.DEFAULT_SORT_ORDER);
+        }
+    }
+
+    /**
+     * Sets the count of an incremental reload to the unread missed calls in the call log, so that
+     * calls which were read or deleted since the last reload are no longer counted, and then
+     * shows the calls the reload fetched.
+     */
+    private void onUnreadCountQueryComplete(CallerInfoLookupHelper callerInfoLookupHelper,
+            CallInfoFactory callInfoFactory, UserHandle userHandle, LoadedCalls loadedCalls,
+            Cursor cursor) {
+        if (cursor == null) {
+            showLoadedCalls(callerInfoLookupHelper, callInfoFactory, userHandle,
+                    loadedCalls.missedCallDates);
+            return;
+        }
+        int unreadCount;
+        try {
+            unreadCount = cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+        synchronized (mMissedCallCountsLock) {
+            Long lastLoadedCallId = mLastLoadedCallIds.get(userHandle);
+            if (lastLoadedCallId == null || lastLoadedCallId != loadedCalls.newestCallId) {
+                // The loaded calls were reset meanwhile; the next reload recounts them.
+                Log.i(this, "reloadFromDatabase: discarding out of date count for user %d",
+                        userHandle.getIdentifier());
+                return;
+            }
+            // The calls about to be shown each add one to the count.
+            mMissedCallCounts.put(userHandle, Math.max(0, unreadCount - loadedCalls.callCount));
+        }
+        Log.i(this, "reloadFromDatabase: %d unread missed calls for user %d", unreadCount,
+                userHandle.getIdentifier());
+        if (unreadCount == 0) {
+            cancelMissedCallNotification(userHandle);
+        }
+        showLoadedCalls(callerInfoLookupHelper, callInfoFactory, userHandle,
+                loadedCalls.missedCallDates);
+    }
+
+    private void showLoadedCalls(CallerInfoLookupHelper callerInfoLookupHelper,
+            CallInfoFactory callInfoFactory, UserHandle userHandle,
+            Map<Uri, List<Long>> missedCallDates) {
+        for (Map.Entry<Uri, List<Long>> entry : missedCallDates.entrySet()) {
+            lookUpAndShowMissedCalls(callerInfoLookupHelper, callInfoFactory, userHandle,
+                    entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Looks up the caller info for a number once, and shows each of the missed calls from it.
+     */
+    private void lookUpAndShowMissedCalls(CallerInfoLookupHelper callerInfoLookupHelper,
+            CallInfoFactory callInfoFactory, UserHandle userHandle, Uri handle,
+            List<Long> dates) {
+        callerInfoLookupHelper.startLookup(handle,
+                new CallerInfoLookupHelper.OnQueryCompleteListener() {
+                    @Override
+                    public void onCallerInfoQueryComplete(Uri queryHandle, CallerInfo info) {
+                        if (!Objects.equals(queryHandle, handle)) {
+                            Log.w(MissedCallNotifierImpl.this,
+                                    "CallerInfo query returned with different handle.");
+                            return;
+                        }
+                        if (info == null || info.getContactDisplayPhotoUri() == null) {
+                            // If there is no photo or if the caller info is null, just show the
+                            // notification.
+                            showMissedCalls(info);
+                        }
+                    }
+
+                    @Override
+                    public void onContactPhotoQueryComplete(Uri queryHandle, CallerInfo info) {
+                        if (!Objects.equals(queryHandle, handle)) {
+                            Log.w(MissedCallNotifierImpl.this,
+                                    "CallerInfo query for photo returned with different handle.");
+                            return;
+                        }
+                        showMissedCalls(info);
+                    }
+
+                    private void showMissedCalls(CallerInfo info) {
+                        for (long date : dates) {
+                            CallInfo callInfo = callInfoFactory.makeCallInfo(
+                                    info, null, handle, date);
+                            showMissedCallNotification(callInfo, userHandle);
+                        }
+                    }
+                });
     }
 
     @Override
@@ -465,6 +465,24 @@ public class AnalyticsTests extends TelecomSystemTest {
                 .count(), 0);
     }
 
+    @SmallTest
+    @Test
+    public void testRingBuffer() {
+        Analytics.RingBuffer<Integer> buffer = new Analytics.RingBuffer<>(3);
+        for (int i = 0; i < 5; i++) {
+            buffer.add(i);
+        }
+        // Only the newest values are kept, oldest first.
+        assertEquals(Arrays.asList(2, 3, 4), buffer.snapshot());
+        assertEquals(Arrays.asList(2, 3, 4), buffer.drain());
+        assertTrue(buffer.snapshot().isEmpty());
+
+        buffer.add(5);
+        assertEquals(Collections.singletonList(5), buffer.snapshot());
+        buffer.clear();
+        assertTrue(buffer.drain().isEmpty());
+    }
+
     private void assertIsRoundedToOneSigFig(long x) {
         assertEquals(x, Analytics.roundToOneSigFig(x));
     }
@@ -16,13 +16,18 @@
 
 package com.android.server.telecom.tests;
 
+import static android.provider.BlockedNumberContract.EXTRA_CONTACT_EXIST;
 import static android.provider.BlockedNumberContract.STATUS_BLOCKED_IN_LIST;
+import static android.provider.BlockedNumberContract.STATUS_BLOCKED_NOT_IN_CONTACTS;
 import static android.provider.BlockedNumberContract.STATUS_NOT_BLOCKED;
 
 import static junit.framework.TestCase.assertEquals;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -42,6 +47,8 @@ import com.android.server.telecom.Call;
 import com.android.server.telecom.CallerInfoLookupHelper;
 import com.android.server.telecom.callfiltering.BlockCheckerAdapter;
 import com.android.server.telecom.callfiltering.BlockCheckerFilter;
+import com.android.server.telecom.callfiltering.BlockedNumberIndex;
+import com.android.server.telecom.callfiltering.CallFilteringExecutor;
 import com.android.server.telecom.callfiltering.CallFilteringResult;
 
 import org.junit.Before;
@@ -61,8 +68,10 @@ public class BlockCheckerFilterTest extends TelecomTestCase {
     @Mock private BlockCheckerAdapter mBlockCheckerAdapter;
     @Mock private CallerInfoLookupHelper mCallerInfoLookupHelper;
     @Mock private CarrierConfigManager mCarrierConfigManager;
+    @Mock private BlockedNumberIndex mBlockedNumberIndex;
 
     private BlockCheckerFilter mFilter;
+    private final CallFilteringExecutor mCallFilteringExecutor = new CallFilteringExecutor();
     private static final CallFilteringResult PASS_RESULT = new CallFilteringResult.Builder()
             .setShouldAllowCall(true)
             .setShouldReject(false)
@@ -87,7 +96,7 @@ public class BlockCheckerFilterTest extends TelecomTestCase {
         super.setUp();
         when(mCall.getHandle()).thenReturn(TEST_HANDLE);
         mFilter = new BlockCheckerFilter(mContext, mCall, mCallerInfoLookupHelper,
-                mBlockCheckerAdapter);
+                mBlockCheckerAdapter, mCallFilteringExecutor, null);
     }
 
     @SmallTest
@@ -142,6 +151,113 @@ public class BlockCheckerFilterTest extends TelecomTestCase {
                 .get(BlockCheckerFilter.CALLER_INFO_QUERY_TIMEOUT, TimeUnit.MILLISECONDS));
     }
 
+    @SmallTest
+    @Test
+    public void testIndexSkipsProviderForUnblockedNumber() throws Exception {
+        when(mBlockedNumberIndex.isDefinitelyNotBlocked(TEST_HANDLE.getSchemeSpecificPart()))
+                .thenReturn(true);
+        mFilter = new BlockCheckerFilter(mContext, mCall, mCallerInfoLookupHelper,
+                mBlockCheckerAdapter, mCallFilteringExecutor, mBlockedNumberIndex);
+
+        setEnhancedBlockingEnabled(false);
+        assertEquals(PASS_RESULT, mFilter.startFilterLookup(PASS_RESULT).toCompletableFuture()
+                .get(BlockCheckerFilter.CALLER_INFO_QUERY_TIMEOUT, TimeUnit.MILLISECONDS));
+        verify(mBlockCheckerAdapter, never()).getBlockStatus(any(Context.class), anyString(),
+                any(Bundle.class));
+    }
+
+    @SmallTest
+    @Test
+    public void testIndexFallsBackToProvider() throws Exception {
+        when(mBlockedNumberIndex.isDefinitelyNotBlocked(TEST_HANDLE.getSchemeSpecificPart()))
+                .thenReturn(false);
+        when(mBlockCheckerAdapter.getBlockStatus(any(Context.class),
+                eq(TEST_HANDLE.getSchemeSpecificPart()), any(Bundle.class)))
+                .thenReturn(STATUS_BLOCKED_IN_LIST);
+        mFilter = new BlockCheckerFilter(mContext, mCall, mCallerInfoLookupHelper,
+                mBlockCheckerAdapter, mCallFilteringExecutor, mBlockedNumberIndex);
+
+        setEnhancedBlockingEnabled(false);
+        assertEquals(BLOCK_RESULT, mFilter.startFilterLookup(PASS_RESULT).toCompletableFuture()
+                .get(BlockCheckerFilter.CALLER_INFO_QUERY_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @SmallTest
+    @Test
+    public void testIndexNotUsedWhenEnhancedBlockingEnabled() throws Exception {
+        when(mBlockedNumberIndex.isDefinitelyNotBlocked(anyString())).thenReturn(true);
+        when(mBlockCheckerAdapter.getBlockStatus(any(Context.class),
+                eq(TEST_HANDLE.getSchemeSpecificPart()), any(Bundle.class)))
+                .thenReturn(STATUS_BLOCKED_IN_LIST);
+        mFilter = new BlockCheckerFilter(mContext, mCall, mCallerInfoLookupHelper,
+                mBlockCheckerAdapter, mCallFilteringExecutor, mBlockedNumberIndex);
+
+        setEnhancedBlockingEnabled(true);
+        CompletionStage<CallFilteringResult> resultFuture = mFilter.startFilterLookup(PASS_RESULT);
+        verifyEnhancedLookupStart();
+        assertEquals(BLOCK_RESULT, resultFuture.toCompletableFuture()
+                .get(BlockCheckerFilter.CALLER_INFO_QUERY_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @SmallTest
+    @Test
+    public void testBlockStatusQueriedDuringContactLookup() throws Exception {
+        when(mBlockCheckerAdapter.getBlockStatus(any(Context.class),
+                eq(TEST_HANDLE.getSchemeSpecificPart()), any(Bundle.class)))
+                .thenReturn(STATUS_NOT_BLOCKED);
+
+        setEnhancedBlockingEnabled(true);
+        CompletableFuture<CallFilteringResult> resultFuture =
+                mFilter.startFilterLookup(PASS_RESULT).toCompletableFuture();
+        // The block status is queried before the contact lookup completes.
+        verify(mBlockCheckerAdapter, timeout(BlockCheckerFilter.CALLER_INFO_QUERY_TIMEOUT))
+                .getBlockStatus(any(Context.class), eq(TEST_HANDLE.getSchemeSpecificPart()),
+                        withContactExists(false));
+        verifyEnhancedLookupStart();
+        assertEquals(PASS_RESULT, resultFuture
+                .get(BlockCheckerFilter.CALLER_INFO_QUERY_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(1, mCallFilteringExecutor.getFilterLatencyCount(
+                BlockCheckerFilter.SPECULATIVE_CHECK_LATENCY));
+        assertEquals(0, mCallFilteringExecutor.getFilterLatencyCount(
+                BlockCheckerFilter.SERIAL_CHECK_LATENCY));
+    }
+
+    @SmallTest
+    @Test
+    public void testBlockStatusRequeriedForContact() throws Exception {
+        when(mBlockCheckerAdapter.getBlockStatus(any(Context.class),
+                eq(TEST_HANDLE.getSchemeSpecificPart()), withContactExists(false)))
+                .thenReturn(STATUS_BLOCKED_NOT_IN_CONTACTS);
+        when(mBlockCheckerAdapter.getBlockStatus(any(Context.class),
+                eq(TEST_HANDLE.getSchemeSpecificPart()), withContactExists(true)))
+                .thenReturn(STATUS_NOT_BLOCKED);
+
+        setEnhancedBlockingEnabled(true);
+        CompletableFuture<CallFilteringResult> resultFuture =
+                mFilter.startFilterLookup(PASS_RESULT).toCompletableFuture();
+        ArgumentCaptor<CallerInfoLookupHelper.OnQueryCompleteListener> captor =
+                ArgumentCaptor.forClass(CallerInfoLookupHelper.OnQueryCompleteListener.class);
+        verify(mCallerInfoLookupHelper, timeout(BlockCheckerFilter.CALLER_INFO_QUERY_TIMEOUT))
+                .startLookup(eq(TEST_HANDLE), captor.capture());
+        CallerInfo info = new CallerInfo();
+        info.contactExists = true;
+        captor.getValue().onCallerInfoQueryComplete(TEST_HANDLE, info);
+
+        CallFilteringResult expected = new CallFilteringResult.Builder()
+                .setShouldAllowCall(true)
+                .setShouldReject(false)
+                .setShouldAddToCallLog(true)
+                .setShouldShowNotification(true)
+                .setContactExists(true)
+                .build();
+        assertEquals(expected, resultFuture
+                .get(BlockCheckerFilter.CALLER_INFO_QUERY_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(1, mCallFilteringExecutor.getFilterLatencyCount(
+                BlockCheckerFilter.SPECULATIVE_CHECK_LATENCY));
+        assertEquals(1, mCallFilteringExecutor.getFilterLatencyCount(
+                BlockCheckerFilter.SERIAL_CHECK_LATENCY));
+    }
+
     private void setEnhancedBlockingEnabled(boolean value) {
         PersistableBundle bundle = new PersistableBundle();
         bundle.putBoolean(CarrierConfigManager.KEY_SUPPORT_ENHANCED_CALL_BLOCKING_BOOL, value);
@@ -153,6 +269,11 @@ public class BlockCheckerFilterTest extends TelecomTestCase {
         }
     }
 
+    private static Bundle withContactExists(boolean contactExists) {
+        return argThat(extras -> extras != null
+                && extras.getBoolean(EXTRA_CONTACT_EXIST) == contactExists);
+    }
+
     private void verifyEnhancedLookupStart() {
         ArgumentCaptor<CallerInfoLookupHelper.OnQueryCompleteListener> captor =
                 ArgumentCaptor.forClass(CallerInfoLookupHelper.OnQueryCompleteListener.class);
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.callfiltering.BlockedNumberIndex;
+import com.android.server.telecom.callfiltering.CallFilteringExecutor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class BlockedNumberIndexTest extends TelecomTestCase {
+    private BlockedNumberIndex mBlockedNumberIndex;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        mBlockedNumberIndex = new BlockedNumberIndex(mContext, new CallFilteringExecutor(1));
+    }
+
+    @SmallTest
+    @Test
+    public void testBloomFilterHasNoFalseNegatives() {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add(BlockedNumberIndex.getKey("650555" + (1000 + i)));
+        }
+        BlockedNumberIndex.BloomFilter bloomFilter = new BlockedNumberIndex.BloomFilter(
+                keys.size());
+        keys.forEach(bloomFilter::add);
+
+        for (String key : keys) {
+            assertTrue(bloomFilter.mightContain(key));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (bloomFilter.mightContain(BlockedNumberIndex.getKey("408555" + (5000 + i)))) {
+                falsePositives++;
+            }
+        }
+        // 10 bits per entry gives a false positive rate of about 1%.
+        assertTrue("falsePositives=" + falsePositives, falsePositives < 50);
+    }
+
+    @SmallTest
+    @Test
+    public void testKeyIgnoresFormatting() {
+        assertEquals(BlockedNumberIndex.getKey("+1 650-555-1234"),
+                BlockedNumberIndex.getKey("(650) 555-1234"));
+        assertEquals(BlockedNumberIndex.getKey("+16505551234"),
+                BlockedNumberIndex.getKey("5551234"));
+        assertEquals("123", BlockedNumberIndex.getKey("123"));
+        assertNull(BlockedNumberIndex.getKey("test@example.com"));
+        assertNull(BlockedNumberIndex.getKey(""));
+        assertNull(BlockedNumberIndex.getKey(null));
+    }
+
+    @SmallTest
+    @Test
+    public void testLookup() {
+        mBlockedNumberIndex.setBlockedNumbers(Arrays.asList("+16505551234", "6505551234"));
+
+        assertFalse(mBlockedNumberIndex.isDefinitelyNotBlocked("650-555-1234"));
+        assertTrue(mBlockedNumberIndex.isDefinitelyNotBlocked("650-555-4321"));
+        // Numbers which have no key always need the provider.
+        assertFalse(mBlockedNumberIndex.isDefinitelyNotBlocked("test@example.com"));
+    }
+
+    @SmallTest
+    @Test
+    public void testChangeInvalidatesIndex() {
+        mBlockedNumberIndex.setBlockedNumbers(Arrays.asList("+16505551234"));
+        assertTrue(mBlockedNumberIndex.isDefinitelyNotBlocked("650-555-4321"));
+
+        // The test provider returns no cursor, so the index stays unavailable after the change.
+        mBlockedNumberIndex.getBlockedNumbersObserver().onChange(false);
+        assertFalse(mBlockedNumberIndex.isDefinitelyNotBlocked("650-555-4321"));
+    }
+}
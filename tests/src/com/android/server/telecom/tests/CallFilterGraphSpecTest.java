@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.callfiltering.CallFilterGraphSpec;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class CallFilterGraphSpecTest extends TelecomTestCase {
+    private static final Set<String> FILTER_NAMES = new HashSet<>(Arrays.asList(
+            CallFilterGraphSpec.VOICEMAIL, CallFilterGraphSpec.BLOCK_CHECKER,
+            CallFilterGraphSpec.CARRIER_SCREENING, CallFilterGraphSpec.USER_SCREENING));
+
+    @SmallTest
+    @Test
+    public void testParse() {
+        CallFilterGraphSpec spec = CallFilterGraphSpec.parse(
+                "user:3000<carrier; carrier:2000<voicemail,block; voicemail:500; block");
+
+        List<CallFilterGraphSpec.Node> nodes = spec.getNodes();
+        assertEquals(4, nodes.size());
+        // Every filter comes after its dependencies.
+        assertEquals(Arrays.asList("voicemail", "block", "carrier", "user"),
+                Arrays.asList(nodes.get(0).name, nodes.get(1).name, nodes.get(2).name,
+                        nodes.get(3).name));
+        assertEquals(500, nodes.get(0).deadlineMillis);
+        assertEquals(CallFilterGraphSpec.NO_DEADLINE, nodes.get(1).deadlineMillis);
+        assertEquals(Arrays.asList("voicemail", "block"), nodes.get(2).dependencies);
+    }
+
+    @SmallTest
+    @Test
+    public void testParseInvalid() {
+        String[] invalidSpecs = {
+                "a<b;b<a",
+                "a<b",
+                "a;a",
+                "a:-1",
+                "a:soon",
+                "a<",
+                ":100",
+                // Passing the input of the block check through would let blocked calls ring.
+                "block:100",
+        };
+        for (String invalidSpec : invalidSpecs) {
+            try {
+                CallFilterGraphSpec.parse(invalidSpec);
+                fail("Parsed " + invalidSpec);
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+
+    @SmallTest
+    @Test
+    public void testParseOrDefault() {
+        assertEquals(CallFilterGraphSpec.DEFAULT_SPEC,
+                CallFilterGraphSpec.parseOrDefault(null, FILTER_NAMES).toString());
+        assertEquals(CallFilterGraphSpec.DEFAULT_SPEC,
+                CallFilterGraphSpec.parseOrDefault("voicemail<user;user<voicemail",
+                        FILTER_NAMES).toString());
+        // A configuration may not drop a filter.
+        assertEquals(CallFilterGraphSpec.DEFAULT_SPEC,
+                CallFilterGraphSpec.parseOrDefault("voicemail;carrier;user",
+                        FILTER_NAMES).toString());
+
+        String parallelSpec = "voicemail;block;carrier:1000;user:1000";
+        assertEquals(parallelSpec,
+                CallFilterGraphSpec.parseOrDefault(parallelSpec, FILTER_NAMES).toString());
+    }
+
+    @SmallTest
+    @Test
+    public void testCriticalPath() {
+        CallFilterGraphSpec spec = CallFilterGraphSpec.parse(
+                "voicemail:300;block;carrier:2000<voicemail,block;user:1000<carrier");
+
+        assertEquals(Arrays.asList("voicemail", "carrier", "user"), spec.getCriticalPath(0));
+        assertEquals(3300, spec.getCriticalPathMillis(0));
+
+        // Filters without a deadline take the default.
+        spec = CallFilterGraphSpec.parse("voicemail:300;block;carrier:2000<voicemail,block");
+        assertEquals(Arrays.asList("block", "carrier"), spec.getCriticalPath(5000));
+        assertEquals(7000, spec.getCriticalPathMillis(5000));
+    }
+}
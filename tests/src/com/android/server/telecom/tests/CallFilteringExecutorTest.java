@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.callfiltering.CallFilteringExecutor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class CallFilteringExecutorTest extends TelecomTestCase {
+    private static final long TEST_TIMEOUT = 5000;
+    private static final int MAX_THREADS = 2;
+
+    private final CallFilteringExecutor mExecutor = new CallFilteringExecutor(MAX_THREADS);
+
+    @SmallTest
+    @Test
+    public void testSerialExecutorPreservesOrder() throws Exception {
+        CallFilteringExecutor.SerialExecutor serialExecutor = mExecutor.newSerialExecutor();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            final int index = i;
+            serialExecutor.execute(() -> {
+                if (running.incrementAndGet() > 1) {
+                    overlapped.set(true);
+                }
+                order.add(index);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertFalse(overlapped.get());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @SmallTest
+    @Test
+    public void testPoolIsBounded() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            mExecutor.newSerialExecutor().execute(() -> {
+                try {
+                    release.await(TEST_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // Fall through.
+                }
+                done.countDown();
+            });
+        }
+        // At most MAX_THREADS tasks can have started; the rest wait in the queue.
+        assertTrue(mExecutor.getQueueDepth() >= 10 - MAX_THREADS);
+        release.countDown();
+
+        assertTrue(done.await(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(mExecutor.getLargestPoolSize() <= MAX_THREADS);
+        assertEquals(0, mExecutor.getQueueDepth());
+    }
+
+    @SmallTest
+    @Test
+    public void testCancelDelayedTask() throws Exception {
+        CallFilteringExecutor.SerialExecutor serialExecutor = mExecutor.newSerialExecutor();
+        AtomicBoolean cancelledTaskRan = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        Future<?> future = serialExecutor.executeDelayed(() -> cancelledTaskRan.set(true), 100);
+        serialExecutor.executeDelayed(done::countDown, 200);
+        future.cancel(false);
+
+        assertTrue(done.await(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertFalse(cancelledTaskRan.get());
+    }
+}
@@ -23,27 +23,38 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.ContentProvider;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.UserInfo;
 import android.content.res.Resources;
+import android.database.MatrixCursor;
 import android.location.Country;
 import android.location.CountryDetector;
 import android.location.CountryListener;
 import android.location.Location;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.os.Looper;
 import android.os.PersistableBundle;
 import android.os.SystemClock;
@@ -84,6 +95,7 @@ import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.io.File;
 import java.util.Arrays;
 
 @RunWith(JUnit4.class)
@@ -339,6 +351,145 @@ public class CallLogManagerTest extends TelecomTestCase {
                 Integer.valueOf(CallLog.Calls.OUTGOING_TYPE));
     }
 
+    @MediumTest
+    @Test
+    public void testCallsLoggedTogetherAreWrittenInOrder() {
+        when(mMockPhoneAccountRegistrar.getPhoneAccountUnchecked(any(PhoneAccountHandle.class)))
+                .thenReturn(makeFakePhoneAccount(mDefaultAccountHandle, CURRENT_USER_ID));
+        String[] numbers = {"5555551001", "5555551002", "5555551003"};
+        for (String number : numbers) {
+            Call fakeCall = makeFakeCall(
+                    DisconnectCause.OTHER, // disconnectCauseCode
+                    false, // isConference
+                    false, // isIncoming
+                    1L, // creationTimeMillis
+                    1000L, // ageMillis
+                    Uri.parse("tel:" + number), // callHandle
+                    mDefaultAccountHandle, // phoneAccountHandle
+                    NO_VIDEO_STATE, // callVideoState
+                    POST_DIAL_STRING, // postDialDigits
+                    VIA_NUMBER_STRING, // viaNumber
+                    UserHandle.of(CURRENT_USER_ID)
+            );
+            mCallLogManager.onCallStateChanged(fakeCall, CallState.ACTIVE,
+                    CallState.DISCONNECTED);
+        }
+
+        Uri uri = ContentProvider.maybeAddUserId(CallLog.Calls.CONTENT_URI, CURRENT_USER_ID);
+        ArgumentCaptor<ContentValues> captor = ArgumentCaptor.forClass(ContentValues.class);
+        verify(mContentProvider, timeout(TEST_TIMEOUT_MILLIS).times(numbers.length)).insert(
+                eq(uri), captor.capture());
+        for (int i = 0; i < numbers.length; i++) {
+            assertEquals(numbers[i],
+                    captor.getAllValues().get(i).getAsString(CallLog.Calls.NUMBER));
+        }
+    }
+
+    @MediumTest
+    @Test
+    public void testFailedCallQueuedAndReplayedOnUnlock() throws Exception {
+        File queueFile = File.createTempFile("call_log_queue", null);
+        queueFile.delete();
+        try {
+            CallLogManager callLogManager = new CallLogManager(mContext,
+                    mMockPhoneAccountRegistrar, mMissedCallNotifier, queueFile);
+            ArgumentCaptor<BroadcastReceiver> receiverCaptor =
+                    ArgumentCaptor.forClass(BroadcastReceiver.class);
+            verify(mContext, atLeastOnce()).registerReceiverAsUser(receiverCaptor.capture(),
+                    eq(UserHandle.ALL), any(IntentFilter.class), isNull(), isNull());
+            when(mMockPhoneAccountRegistrar.getPhoneAccountUnchecked(
+                    any(PhoneAccountHandle.class)))
+                    .thenReturn(makeFakePhoneAccount(mDefaultAccountHandle, CURRENT_USER_ID));
+            doThrow(new IllegalStateException("Provider unavailable"))
+                    .when(mContentProvider).insert(any(Uri.class), any(ContentValues.class));
+
+            Call fakeCall = makeFakeCall(
+                    DisconnectCause.OTHER, // disconnectCauseCode
+                    false, // isConference
+                    false, // isIncoming
+                    1L, // creationTimeMillis
+                    1000L, // ageMillis
+                    TEL_PHONEHANDLE, // callHandle
+                    mDefaultAccountHandle, // phoneAccountHandle
+                    NO_VIDEO_STATE, // callVideoState
+                    POST_DIAL_STRING, // postDialDigits
+                    VIA_NUMBER_STRING, // viaNumber
+                    UserHandle.of(CURRENT_USER_ID)
+            );
+            callLogManager.onCallStateChanged(fakeCall, CallState.ACTIVE,
+                    CallState.DISCONNECTED);
+            SystemClock.sleep(TEST_TIMEOUT_MILLIS);
+            assertTrue(queueFile.exists());
+
+            doAnswer(invocation -> invocation.getArgument(0))
+                    .when(mContentProvider).insert(any(Uri.class), any(ContentValues.class));
+            receiverCaptor.getValue().onReceive(mContext, new Intent(Intent.ACTION_USER_UNLOCKED));
+
+            Uri uri = ContentProvider.maybeAddUserId(CallLog.Calls.CONTENT_URI, CURRENT_USER_ID);
+            ArgumentCaptor<ContentValues> captor = ArgumentCaptor.forClass(ContentValues.class);
+            verify(mContentProvider, timeout(TEST_TIMEOUT_MILLIS).atLeast(2)).insert(
+                    eq(uri), captor.capture());
+            assertEquals(TEL_PHONEHANDLE.getSchemeSpecificPart(),
+                    captor.getValue().getAsString(CallLog.Calls.NUMBER));
+            SystemClock.sleep(TEST_TIMEOUT_MILLIS);
+            assertFalse(queueFile.exists());
+        } finally {
+            queueFile.delete();
+        }
+    }
+
+    @MediumTest
+    @Test
+    public void testReplaySkipsCallWrittenBeforeFailure() throws Exception {
+        File queueFile = File.createTempFile("call_log_queue", null);
+        queueFile.delete();
+        try {
+            CallLogManager callLogManager = new CallLogManager(mContext,
+                    mMockPhoneAccountRegistrar, mMissedCallNotifier, queueFile);
+            ArgumentCaptor<BroadcastReceiver> receiverCaptor =
+                    ArgumentCaptor.forClass(BroadcastReceiver.class);
+            verify(mContext, atLeastOnce()).registerReceiverAsUser(receiverCaptor.capture(),
+                    eq(UserHandle.ALL), any(IntentFilter.class), isNull(), isNull());
+            when(mMockPhoneAccountRegistrar.getPhoneAccountUnchecked(
+                    any(PhoneAccountHandle.class)))
+                    .thenReturn(makeFakePhoneAccount(mDefaultAccountHandle, CURRENT_USER_ID));
+            // The row is inserted, but the write still fails.
+            doThrow(new IllegalStateException("Provider failed after insert"))
+                    .when(mContentProvider).insert(any(Uri.class), any(ContentValues.class));
+
+            Call fakeCall = makeFakeCall(
+                    DisconnectCause.OTHER, // disconnectCauseCode
+                    false, // isConference
+                    false, // isIncoming
+                    1L, // creationTimeMillis
+                    1000L, // ageMillis
+                    TEL_PHONEHANDLE, // callHandle
+                    mDefaultAccountHandle, // phoneAccountHandle
+                    NO_VIDEO_STATE, // callVideoState
+                    POST_DIAL_STRING, // postDialDigits
+                    VIA_NUMBER_STRING, // viaNumber
+                    UserHandle.of(CURRENT_USER_ID)
+            );
+            callLogManager.onCallStateChanged(fakeCall, CallState.ACTIVE,
+                    CallState.DISCONNECTED);
+            SystemClock.sleep(TEST_TIMEOUT_MILLIS);
+            assertTrue(queueFile.exists());
+
+            MatrixCursor cursor = new MatrixCursor(new String[] {CallLog.Calls._ID});
+            cursor.addRow(new Object[] {1L});
+            doReturn(cursor).when(mContentProvider).query(any(Uri.class),
+                    nullable(String[].class), nullable(Bundle.class),
+                    nullable(CancellationSignal.class));
+            receiverCaptor.getValue().onReceive(mContext, new Intent(Intent.ACTION_USER_UNLOCKED));
+            SystemClock.sleep(TEST_TIMEOUT_MILLIS);
+
+            verify(mContentProvider, times(1)).insert(any(Uri.class), any(ContentValues.class));
+            assertFalse(queueFile.exists());
+        } finally {
+            queueFile.delete();
+        }
+    }
+
     @MediumTest
     @Test
     public void testLogCallDirectionIncoming() {
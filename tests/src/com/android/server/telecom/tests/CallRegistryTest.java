@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.os.UserHandle;
+import android.telecom.PhoneAccountHandle;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.Call;
+import com.android.server.telecom.CallRegistry;
+import com.android.server.telecom.CallState;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CallRegistryTest extends TelecomTestCase {
+    private static final PhoneAccountHandle SIM_HANDLE = new PhoneAccountHandle(
+            new ComponentName("com.foo", "sim"), "1", UserHandle.of(0));
+    private static final PhoneAccountHandle VOIP_HANDLE = new PhoneAccountHandle(
+            new ComponentName("com.bar", "voip"), "1", UserHandle.of(0));
+
+    private CallRegistry mCallRegistry;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        mCallRegistry = new CallRegistry();
+        mCallRegistry.setConsistencyCheckEnabled(true);
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @SmallTest
+    @Test
+    public void testCountsByStateAndFilter() {
+        Call managed = createCall(SIM_HANDLE, CallState.ACTIVE, false);
+        Call selfManaged = createCall(VOIP_HANDLE, CallState.ACTIVE, true);
+        Call held = createCall(SIM_HANDLE, CallState.ON_HOLD, false);
+        mCallRegistry.addCall(managed);
+        mCallRegistry.addCall(selfManaged);
+        mCallRegistry.addCall(held);
+
+        assertEquals(2, mCallRegistry.getNumCallsWithState(CallRegistry.CALL_FILTER_ALL, null,
+                null, CallState.ACTIVE));
+        assertEquals(1, mCallRegistry.getNumCallsWithState(CallRegistry.CALL_FILTER_MANAGED, null,
+                null, CallState.ACTIVE));
+        assertEquals(1, mCallRegistry.getNumCallsWithState(
+                CallRegistry.CALL_FILTER_SELF_MANAGED, null, null, CallState.ACTIVE));
+        assertEquals(2, mCallRegistry.getNumCallsWithState(CallRegistry.CALL_FILTER_MANAGED, null,
+                SIM_HANDLE, CallState.ACTIVE, CallState.ON_HOLD));
+        assertEquals(0, mCallRegistry.getNumCallsWithState(CallRegistry.CALL_FILTER_MANAGED, null,
+                VOIP_HANDLE, CallState.ACTIVE, CallState.ON_HOLD));
+    }
+
+    @SmallTest
+    @Test
+    public void testExcludeCall() {
+        Call active = createCall(SIM_HANDLE, CallState.ACTIVE, false);
+        Call ringing = createCall(SIM_HANDLE, CallState.RINGING, false);
+        mCallRegistry.addCall(active);
+        mCallRegistry.addCall(ringing);
+
+        assertEquals(1, mCallRegistry.getNumCallsWithState(CallRegistry.CALL_FILTER_ALL, active,
+                null, CallState.ACTIVE, CallState.RINGING));
+        // Excluding a call which doesn't match the criteria does not change the count.
+        assertEquals(1, mCallRegistry.getNumCallsWithState(CallRegistry.CALL_FILTER_ALL, ringing,
+                null, CallState.ACTIVE));
+    }
+
+    @SmallTest
+    @Test
+    public void testDuplicateStatesCountedOnce() {
+        mCallRegistry.addCall(createCall(SIM_HANDLE, CallState.ACTIVE, false));
+
+        assertEquals(1, mCallRegistry.getNumCallsWithState(CallRegistry.CALL_FILTER_ALL, null,
+                null, CallState.ACTIVE, CallState.ACTIVE));
+    }
+
+    @SmallTest
+    @Test
+    public void testUpdateAndRemove() {
+        Call call = createCall(SIM_HANDLE, CallState.DIALING, false);
+        mCallRegistry.addCall(call);
+
+        when(call.getState()).thenReturn(CallState.ACTIVE);
+        when(call.getTargetPhoneAccount()).thenReturn(VOIP_HANDLE);
+        mCallRegistry.updateCall(call);
+        assertEquals(0, mCallRegistry.getNumCallsWithState(CallRegistry.CALL_FILTER_ALL, null,
+                null, CallState.DIALING));
+        assertEquals(1, mCallRegistry.getNumCallsWithState(CallRegistry.CALL_FILTER_ALL, null,
+                VOIP_HANDLE, CallState.ACTIVE));
+        assertEquals(0, mCallRegistry.getNumCallsWithState(CallRegistry.CALL_FILTER_ALL, null,
+                SIM_HANDLE, CallState.ACTIVE));
+
+        mCallRegistry.removeCall(call);
+        assertEquals(0, mCallRegistry.size());
+        assertEquals(0, mCallRegistry.getNumCallsWithState(CallRegistry.CALL_FILTER_ALL, null,
+                null, CallState.ACTIVE));
+    }
+
+    @SmallTest
+    @Test
+    public void testChildAndExternalCallsNotCounted() {
+        Call parent = createCall(SIM_HANDLE, CallState.ACTIVE, false);
+        Call child = createCall(SIM_HANDLE, CallState.ACTIVE, false);
+        Call external = createCall(SIM_HANDLE, CallState.ACTIVE, false);
+        when(child.getParentCall()).thenReturn(parent);
+        when(external.isExternalCall()).thenReturn(true);
+        mCallRegistry.addCall(parent);
+        mCallRegistry.addCall(child);
+        mCallRegistry.addCall(external);
+
+        assertEquals(1, mCallRegistry.getNumCallsWithState(CallRegistry.CALL_FILTER_ALL, null,
+                null, CallState.ACTIVE));
+
+        // Once the call is split from the conference it counts again.
+        when(child.getParentCall()).thenReturn(null);
+        mCallRegistry.updateCall(child);
+        assertEquals(2, mCallRegistry.getNumCallsWithState(CallRegistry.CALL_FILTER_ALL, null,
+                null, CallState.ACTIVE));
+    }
+
+    @SmallTest
+    @Test
+    public void testConsistencyCheckDetectsStaleEntry() {
+        Call call = createCall(SIM_HANDLE, CallState.RINGING, false);
+        mCallRegistry.addCall(call);
+
+        when(call.getState()).thenReturn(CallState.ACTIVE);
+        try {
+            mCallRegistry.getNumCallsWithState(CallRegistry.CALL_FILTER_ALL, null, null,
+                    CallState.ACTIVE);
+            fail("Expected the consistency check to detect the missed update");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            mCallRegistry.verifyConsistency();
+            fail("Expected the consistency check to detect the missed update");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private Call createCall(PhoneAccountHandle handle, int state, boolean isSelfManaged) {
+        Call call = mock(Call.class);
+        when(call.getId()).thenReturn("TC@" + System.identityHashCode(call));
+        when(call.getTargetPhoneAccount()).thenReturn(handle);
+        when(call.getState()).thenReturn(state);
+        when(call.isSelfManaged()).thenReturn(isSelfManaged);
+        return call;
+    }
+}
@@ -17,13 +17,16 @@
 package com.android.server.telecom.tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -36,7 +39,9 @@ import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.pm.ServiceInfo;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.UserHandle;
 import android.provider.CallLog;
 import android.telecom.CallScreeningService;
@@ -51,8 +56,10 @@ import com.android.server.telecom.Call;
 import com.android.server.telecom.CallsManager;
 import com.android.server.telecom.ParcelableCallUtils;
 import com.android.server.telecom.PhoneAccountRegistrar;
+import com.android.server.telecom.Timeouts;
 import com.android.server.telecom.callfiltering.CallFilteringResult;
 import com.android.server.telecom.callfiltering.CallScreeningServiceFilter;
+import com.android.server.telecom.callfiltering.CallScreeningServicePool;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -78,6 +85,7 @@ public class CallScreeningServiceFilterTest extends TelecomTestCase {
     @Mock PhoneAccountRegistrar mPhoneAccountRegistrar;
     @Mock ICallScreeningService mCallScreeningService;
     @Mock IBinder mBinder;
+    @Mock Timeouts.Adapter mTimeoutsAdapter;
 
     private static final String CALL_ID = "u89prgt9ps78y5";
     private static final String PKG_NAME = "com.android.services.telecom.tests";
@@ -389,6 +397,69 @@ public class CallScreeningServiceFilterTest extends TelecomTestCase {
         serviceConnection.onServiceDisconnected(COMPONENT_NAME);
     }
 
+    @SmallTest
+    @Test
+    public void testPooledServiceStaysBound() throws Exception {
+        when(mTimeoutsAdapter.getCallScreeningServicePoolIdleTimeoutMillis()).thenReturn(60000L);
+        CallScreeningServicePool pool = new CallScreeningServicePool(mContext, mTimeoutsAdapter,
+                new Handler(Looper.getMainLooper()));
+        CallScreeningServiceFilter filter = new CallScreeningServiceFilter(mCall, PKG_NAME,
+                CallScreeningServiceFilter.PACKAGE_TYPE_CARRIER, mContext, mCallsManager,
+                mAppLabelProxy, mParcelableCallUtilsConverter, pool);
+        CompletionStage<CallFilteringResult> resultFuture = filter.startFilterLookup(inputResult);
+
+        ServiceConnection serviceConnection = verifyBindingIntent();
+
+        serviceConnection.onServiceConnected(COMPONENT_NAME, mBinder);
+        ICallScreeningAdapter csAdapter = getCallScreeningAdapter();
+        CallScreeningService.CallResponse allowCallResponse =
+                new CallScreeningService.CallResponse.Builder()
+                        .setDisallowCall(false)
+                        .setRejectCall(false)
+                        .setSilenceCall(false)
+                        .build();
+        csAdapter.onScreeningResponse(CALL_ID, COMPONENT_NAME, allowCallResponse.toParcelable());
+        assertEquals(PASS_RESULT_WITH_NAME,
+                resultFuture.toCompletableFuture().get(
+                        CallScreeningServiceFilter.CALL_SCREENING_FILTER_TIMEOUT,
+                        TimeUnit.MILLISECONDS));
+        verify(mContext, never()).unbindService(any(ServiceConnection.class));
+        assertEquals(1, pool.getPooledServiceCount());
+
+        // A filter which times out takes its service out of the pool.
+        filter = new CallScreeningServiceFilter(mCall, PKG_NAME,
+                CallScreeningServiceFilter.PACKAGE_TYPE_CARRIER, mContext, mCallsManager,
+                mAppLabelProxy, mParcelableCallUtilsConverter, pool);
+        filter.startFilterLookup(inputResult);
+        filter.unbindCallScreeningService();
+        verify(mContext).unbindService(serviceConnection);
+        assertEquals(0, pool.getPooledServiceCount());
+    }
+
+    @SmallTest
+    @Test
+    public void testPooledServiceBoundAfterTimeoutDoesNotScreen() throws Exception {
+        when(mTimeoutsAdapter.getCallScreeningServicePoolIdleTimeoutMillis()).thenReturn(60000L);
+        CallScreeningServicePool pool = new CallScreeningServicePool(mContext, mTimeoutsAdapter,
+                new Handler(Looper.getMainLooper()));
+        CallScreeningServiceFilter filter = new CallScreeningServiceFilter(mCall, PKG_NAME,
+                CallScreeningServiceFilter.PACKAGE_TYPE_CARRIER, mContext, mCallsManager,
+                mAppLabelProxy, mParcelableCallUtilsConverter, pool);
+        CompletionStage<CallFilteringResult> resultFuture = filter.startFilterLookup(inputResult);
+        ServiceConnection serviceConnection = verifyBindingIntent();
+
+        // The filter times out before the pool has bound the service.
+        filter.unbindCallScreeningService();
+        // The graph moves on by itself; completing the lookup would report a second result.
+        assertFalse(resultFuture.toCompletableFuture().isDone());
+        serviceConnection.onServiceConnected(COMPONENT_NAME, mBinder);
+
+        verify(mCallScreeningService, never()).screenCall(any(ICallScreeningAdapter.class),
+                nullable(ParcelableCall.class));
+        verify(mContext, never()).unbindService(any(ServiceConnection.class));
+        assertEquals(1, pool.getPooledServiceCount());
+    }
+
     private ServiceConnection verifyBindingIntent() {
         ArgumentCaptor<Intent> intentCaptor = ArgumentCaptor.forClass(Intent.class);
         ArgumentCaptor<ServiceConnection> serviceCaptor = ArgumentCaptor
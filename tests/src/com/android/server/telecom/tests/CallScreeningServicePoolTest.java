@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.Manifest;
+import android.content.ComponentCallbacks2;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.pm.ServiceInfo;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.LatencyHistogram;
+import com.android.server.telecom.Timeouts;
+import com.android.server.telecom.callfiltering.CallScreeningServicePool;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+@RunWith(JUnit4.class)
+public class CallScreeningServicePoolTest extends TelecomTestCase {
+    private static final String PKG_NAME = "com.android.services.telecom.tests";
+    private static final String CLS_NAME = "CallScreeningService";
+    private static final ComponentName COMPONENT_NAME = new ComponentName(PKG_NAME, CLS_NAME);
+    private static final long IDLE_TIMEOUT = 60000;
+    private static final long TEST_TIMEOUT = 5000;
+
+    @Mock Context mContext;
+    @Mock PackageManager mPackageManager;
+    @Mock Timeouts.Adapter mTimeoutsAdapter;
+    @Mock IBinder mBinder;
+
+    private CallScreeningServicePool mPool;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        ResolveInfo resolveInfo = new ResolveInfo();
+        resolveInfo.serviceInfo = new ServiceInfo();
+        resolveInfo.serviceInfo.packageName = PKG_NAME;
+        resolveInfo.serviceInfo.name = CLS_NAME;
+        resolveInfo.serviceInfo.permission = Manifest.permission.BIND_SCREENING_SERVICE;
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
+        when(mPackageManager.queryIntentServicesAsUser(nullable(Intent.class), anyInt(), anyInt()))
+                .thenReturn(Collections.singletonList(resolveInfo));
+        when(mContext.bindServiceAsUser(nullable(Intent.class), nullable(ServiceConnection.class),
+                anyInt(), eq(UserHandle.CURRENT))).thenReturn(true);
+        when(mTimeoutsAdapter.getCallScreeningServicePoolIdleTimeoutMillis())
+                .thenReturn(IDLE_TIMEOUT);
+        mPool = new CallScreeningServicePool(mContext, mTimeoutsAdapter,
+                new Handler(Looper.getMainLooper()));
+    }
+
+    @SmallTest
+    @Test
+    public void testDisabled() {
+        when(mTimeoutsAdapter.getCallScreeningServicePoolIdleTimeoutMillis()).thenReturn(0L);
+
+        CompletableFuture<CallScreeningServicePool.Lease> request =
+                mPool.acquire(PKG_NAME, UserHandle.CURRENT);
+        assertTrue(request.isDone());
+        assertNull(request.getNow(null));
+        verify(mContext, never()).bindServiceAsUser(any(Intent.class),
+                any(ServiceConnection.class), anyInt(), any(UserHandle.class));
+    }
+
+    @SmallTest
+    @Test
+    public void testServiceReused() throws Exception {
+        mPool.warmUp(PKG_NAME, UserHandle.CURRENT);
+        CompletableFuture<CallScreeningServicePool.Lease> pending =
+                mPool.acquire(PKG_NAME, UserHandle.CURRENT);
+        assertFalse(pending.isDone());
+
+        ServiceConnection connection = verifyBound();
+        connection.onServiceConnected(COMPONENT_NAME, mBinder);
+        assertEquals(mBinder, pending.getNow(null).getService());
+        pending.getNow(null).release();
+
+        // The next call gets the bound service straight away, without binding again.
+        assertEquals(mBinder,
+                mPool.acquire(PKG_NAME, UserHandle.CURRENT).getNow(null).getService());
+        verify(mContext, times(1)).bindServiceAsUser(any(Intent.class),
+                any(ServiceConnection.class), anyInt(), any(UserHandle.class));
+        verify(mContext, never()).unbindService(any(ServiceConnection.class));
+    }
+
+    @SmallTest
+    @Test
+    public void testUnresponsiveServiceUnboundOnceUnused() {
+        mPool.warmUp(PKG_NAME, UserHandle.CURRENT);
+        ServiceConnection connection = verifyBound();
+        connection.onServiceConnected(COMPONENT_NAME, mBinder);
+        CallScreeningServicePool.Lease first =
+                mPool.acquire(PKG_NAME, UserHandle.CURRENT).getNow(null);
+        CallScreeningServicePool.Lease second =
+                mPool.acquire(PKG_NAME, UserHandle.CURRENT).getNow(null);
+
+        // The service is taken out of the pool, but the other call is still using it.
+        second.releaseUnresponsive();
+        assertEquals(0, mPool.getPooledServiceCount());
+        verify(mContext, never()).unbindService(any(ServiceConnection.class));
+
+        first.release();
+        verify(mContext).unbindService(connection);
+    }
+
+    @SmallTest
+    @Test
+    public void testDisconnectCompletesPendingRequests() {
+        CompletableFuture<CallScreeningServicePool.Lease> pending =
+                mPool.acquire(PKG_NAME, UserHandle.CURRENT);
+        ServiceConnection connection = verifyBound();
+
+        connection.onBindingDied(COMPONENT_NAME);
+
+        assertTrue(pending.isDone());
+        assertNull(pending.getNow(null));
+        assertEquals(0, mPool.getPooledServiceCount());
+    }
+
+    @SmallTest
+    @Test
+    public void testMemoryPressureEvicts() {
+        mPool.warmUp(PKG_NAME, UserHandle.CURRENT);
+        ServiceConnection connection = verifyBound();
+        connection.onServiceConnected(COMPONENT_NAME, mBinder);
+
+        mPool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(1, mPool.getPooledServiceCount());
+
+        mPool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(0, mPool.getPooledServiceCount());
+        verify(mContext).unbindService(connection);
+    }
+
+    @SmallTest
+    @Test
+    public void testIdleTimeoutEvicts() {
+        when(mTimeoutsAdapter.getCallScreeningServicePoolIdleTimeoutMillis()).thenReturn(100L);
+        mPool.warmUp(PKG_NAME, UserHandle.CURRENT);
+        ServiceConnection connection = verifyBound();
+        connection.onServiceConnected(COMPONENT_NAME, mBinder);
+
+        verify(mContext, timeout(TEST_TIMEOUT)).unbindService(connection);
+        assertEquals(0, mPool.getPooledServiceCount());
+    }
+
+    @SmallTest
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(50);
+        histogram.record(5000);
+
+        assertEquals(3, histogram.getCount());
+        assertEquals("<50ms=1, <100ms=1, <250ms=0, <500ms=0, <1000ms=0, <2000ms=0, >=2000ms=1",
+                histogram.toString());
+    }
+
+    private ServiceConnection verifyBound() {
+        ArgumentCaptor<ServiceConnection> captor =
+                ArgumentCaptor.forClass(ServiceConnection.class);
+        verify(mContext).bindServiceAsUser(any(Intent.class), captor.capture(), anyInt(),
+                eq(UserHandle.CURRENT));
+        return captor.getValue();
+    }
+}
@@ -17,12 +17,14 @@
 package com.android.server.telecom.tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -70,6 +72,7 @@ public class CallerInfoLookupHelperTest extends TelecomTestCase {
     CallerInfoLookupHelper mCallerInfoLookupHelper;
     static final Uri URI1 = Uri.parse("tel:555-555-7010");
     static final Uri URI2 = Uri.parse("tel:555-555-7016");
+    static final String NAME1 = "Jane Doe";
 
     static final Uri CONTACTS_PHOTO_URI = Uri.parse(
             "android.resource://com.android.server.telecom.tests/"
@@ -81,6 +84,9 @@ public class CallerInfoLookupHelperTest extends TelecomTestCase {
     @Before
     public void setUp() throws Exception {
         super.setUp();
+        when(mContext.getContentResolver()).thenReturn(
+                mComponentContextFixture.getTestDouble().getApplicationContext()
+                        .getContentResolver());
         mCallerInfoLookupHelper = new CallerInfoLookupHelper(mContext,
                 mFactory, mContactsAsyncHelper, new TelecomSystem.SyncRoot() { });
         when(mFactory.startQuery(anyInt(), eq(mContext), anyString(),
@@ -239,6 +245,137 @@ public class CallerInfoLookupHelperTest extends TelecomTestCase {
         verifyProperCleanup();
     }
 
+    @SmallTest
+    @Test
+    public void testRepeatLookupCached() {
+        mCallerInfo1.setName(NAME1);
+        completeLookupWithoutPhoto(URI1, mCallerInfo1, 1);
+
+        CallerInfoLookupHelper.OnQueryCompleteListener listener = mock(
+                CallerInfoLookupHelper.OnQueryCompleteListener.class);
+        mCallerInfoLookupHelper.startLookup(URI1, listener);
+        waitForActionCompletion();
+
+        // Each lookup gets a copy of its own.
+        ArgumentCaptor<CallerInfo> callerInfoCaptor = ArgumentCaptor.forClass(CallerInfo.class);
+        verify(listener).onCallerInfoQueryComplete(eq(URI1), callerInfoCaptor.capture());
+        assertNotSame(mCallerInfo1, callerInfoCaptor.getValue());
+        assertEquals(NAME1, callerInfoCaptor.getValue().getName());
+        verify(listener, never()).onContactPhotoQueryComplete(any(Uri.class),
+                any(CallerInfo.class));
+        verify(mFactory, times(1)).startQuery(anyInt(), eq(mContext),
+                eq(URI1.getSchemeSpecificPart()),
+                any(CallerInfoAsyncQuery.OnQueryCompleteListener.class), any());
+        verifyProperCleanup();
+    }
+
+    @SmallTest
+    @Test
+    public void testCachedLookupGetsPhotoFromPhotoCache() {
+        mCallerInfo1.SetContactDisplayPhotoUri(CONTACTS_PHOTO_URI);
+        CallerInfoLookupHelper.OnQueryCompleteListener listener = mock(
+                CallerInfoLookupHelper.OnQueryCompleteListener.class);
+        mCallerInfoLookupHelper.startLookup(URI1, listener);
+        waitForActionCompletion();
+        ArgumentCaptor<CallerInfoAsyncQuery.OnQueryCompleteListener> queryListenerCaptor =
+                ArgumentCaptor.forClass(CallerInfoAsyncQuery.OnQueryCompleteListener.class);
+        ArgumentCaptor<Session> logSessionCaptor = ArgumentCaptor.forClass(Session.class);
+        verify(mFactory).startQuery(anyInt(), eq(mContext), eq(URI1.getSchemeSpecificPart()),
+                queryListenerCaptor.capture(), logSessionCaptor.capture());
+        queryListenerCaptor.getValue().onQueryComplete(
+                0, logSessionCaptor.getValue(), mCallerInfo1);
+        waitForActionCompletion();
+        ArgumentCaptor<ContactsAsyncHelper.OnImageLoadCompleteListener> imageListenerCaptor =
+                ArgumentCaptor.forClass(ContactsAsyncHelper.OnImageLoadCompleteListener.class);
+        verify(mContactsAsyncHelper).startObtainPhotoAsync(anyInt(), eq(mContext),
+                eq(CONTACTS_PHOTO_URI), imageListenerCaptor.capture(), logSessionCaptor.capture());
+        imageListenerCaptor.getValue().onImageLoadComplete(0, mDrawable1, mBitmap,
+                logSessionCaptor.getValue());
+
+        listener = mock(CallerInfoLookupHelper.OnQueryCompleteListener.class);
+        mCallerInfoLookupHelper.startLookup(URI1, listener);
+        waitForActionCompletion();
+
+        // The cached copy holds no photo; it is fetched again, e.g. from the photo cache.
+        verify(mContactsAsyncHelper, times(2)).startObtainPhotoAsync(anyInt(), eq(mContext),
+                eq(CONTACTS_PHOTO_URI), imageListenerCaptor.capture(), logSessionCaptor.capture());
+        imageListenerCaptor.getValue().onImageLoadComplete(0, mDrawable2, mBitmap,
+                logSessionCaptor.getValue());
+        ArgumentCaptor<CallerInfo> callerInfoCaptor = ArgumentCaptor.forClass(CallerInfo.class);
+        verify(listener).onContactPhotoQueryComplete(eq(URI1), callerInfoCaptor.capture());
+        assertNotSame(mCallerInfo1, callerInfoCaptor.getValue());
+        assertEquals(mDrawable2, callerInfoCaptor.getValue().cachedPhoto);
+        assertEquals(mDrawable1, mCallerInfo1.cachedPhoto);
+        verify(mFactory, times(1)).startQuery(anyInt(), eq(mContext),
+                eq(URI1.getSchemeSpecificPart()),
+                any(CallerInfoAsyncQuery.OnQueryCompleteListener.class), any());
+        verifyProperCleanup();
+    }
+
+    @SmallTest
+    @Test
+    public void testCacheInvalidatedOnUserSwitch() {
+        completeLookupWithoutPhoto(URI1, mCallerInfo1, 1);
+
+        mCallerInfoLookupHelper.onUserSwitched();
+
+        completeLookupWithoutPhoto(URI1, mCallerInfo2, 2);
+    }
+
+    @SmallTest
+    @Test
+    public void testCacheInvalidatedOnContactsChange() {
+        completeLookupWithoutPhoto(URI1, mCallerInfo1, 1);
+
+        mCallerInfoLookupHelper.getContactsObserver().onChange(false);
+
+        completeLookupWithoutPhoto(URI1, mCallerInfo2, 2);
+    }
+
+    @SmallTest
+    @Test
+    public void testCacheEntryExpires() {
+        mCallerInfoLookupHelper.setCacheTtlMillis(0);
+        completeLookupWithoutPhoto(URI1, mCallerInfo1, 1);
+
+        completeLookupWithoutPhoto(URI1, mCallerInfo2, 2);
+    }
+
+    @SmallTest
+    @Test
+    public void testCacheBounded() {
+        completeLookupWithoutPhoto(URI1, mCallerInfo1, 1);
+        for (int i = 0; i < CallerInfoLookupHelper.CACHE_MAX_ENTRIES; i++) {
+            completeLookupWithoutPhoto(Uri.parse("tel:555-555-" + (1000 + i)), new CallerInfo(),
+                    1);
+        }
+
+        // The least recently used entry was evicted.
+        completeLookupWithoutPhoto(URI1, mCallerInfo2, 2);
+    }
+
+    /**
+     * Looks up a handle which is expected to need a query, and completes the query.
+     * @param queryCount The number of queries expected for the handle so far, including this one.
+     */
+    private void completeLookupWithoutPhoto(Uri handle, CallerInfo callerInfo, int queryCount) {
+        CallerInfoLookupHelper.OnQueryCompleteListener listener = mock(
+                CallerInfoLookupHelper.OnQueryCompleteListener.class);
+        mCallerInfoLookupHelper.startLookup(handle, listener);
+        waitForActionCompletion();
+
+        ArgumentCaptor<CallerInfoAsyncQuery.OnQueryCompleteListener> queryListenerCaptor =
+                ArgumentCaptor.forClass(CallerInfoAsyncQuery.OnQueryCompleteListener.class);
+        ArgumentCaptor<Session> logSessionCaptor = ArgumentCaptor.forClass(Session.class);
+        verify(mFactory, times(queryCount)).startQuery(anyInt(), eq(mContext),
+                eq(handle.getSchemeSpecificPart()), queryListenerCaptor.capture(),
+                logSessionCaptor.capture());
+        queryListenerCaptor.getValue().onQueryComplete(
+                0, logSessionCaptor.getValue(), callerInfo);
+        verify(listener).onCallerInfoQueryComplete(handle, callerInfo);
+        verifyProperCleanup();
+    }
+
     private void verifyProperCleanup() {
         assertEquals(0, mCallerInfoLookupHelper.getCallerInfoEntries().size());
     }
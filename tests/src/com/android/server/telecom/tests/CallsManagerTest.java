@@ -75,6 +75,7 @@ import com.android.server.telecom.CallAudioModeStateMachine;
 import com.android.server.telecom.CallAudioRouteStateMachine;
 import com.android.server.telecom.CallDiagnosticServiceController;
 import com.android.server.telecom.CallState;
+import com.android.server.telecom.CallStateSnapshot;
 import com.android.server.telecom.CallerInfoLookupHelper;
 import com.android.server.telecom.CallsManager;
 import com.android.server.telecom.CallsManagerListenerBase;
@@ -103,7 +104,9 @@ import com.android.server.telecom.Timeouts;
 import com.android.server.telecom.WiredHeadsetManager;
 import com.android.server.telecom.bluetooth.BluetoothRouteManager;
 import com.android.server.telecom.bluetooth.BluetoothStateReceiver;
+import com.android.server.telecom.callfiltering.CallFilteringExecutor;
 import com.android.server.telecom.callfiltering.CallFilteringResult;
+import com.android.server.telecom.callfiltering.CallScreeningServicePool;
 import com.android.server.telecom.ui.AudioProcessingNotification;
 import com.android.server.telecom.ui.DisconnectedCallNotifier;
 import com.android.server.telecom.ui.ToastFactory;
@@ -266,7 +269,10 @@ public class CallsManagerTest extends TelecomTestCase {
                 mInCallControllerFactory,
                 mCallDiagnosticServiceController,
                 mRoleManagerAdapter,
-                mToastFactory);
+                mToastFactory,
+                new CallFilteringExecutor(),
+                new CallScreeningServicePool(mContext, mTimeoutsAdapter));
+        mCallsManager.getCallRegistry().setConsistencyCheckEnabled(true);
 
         when(mPhoneAccountRegistrar.getPhoneAccount(
                 eq(SELF_MANAGED_HANDLE), any())).thenReturn(SELF_MANAGED_ACCOUNT);
@@ -650,6 +656,7 @@ public class CallsManagerTest extends TelecomTestCase {
         Call incomingCall = addSpyCall(CallState.RINGING);
         doAnswer(invocation -> {
             doReturn(CallState.ANSWERED).when(incomingCall).getState();
+            mCallsManager.getCallRegistry().updateCall(incomingCall);
             return null;
         }).when(incomingCall).answer(anyInt());
         mCallsManager.answerCall(incomingCall, VideoProfile.STATE_AUDIO_ONLY);
@@ -753,14 +760,17 @@ public class CallsManagerTest extends TelecomTestCase {
         doReturn(false).when(ongoingCall).can(Connection.CAPABILITY_HOLD);
         doReturn(true).when(ongoingCall).can(Connection.CAPABILITY_SUPPORT_HOLD);
         doReturn(CallState.ACTIVE).when(ongoingCall).getState();
+        mCallsManager.getCallRegistry().updateCall(ongoingCall);
         when(mConnectionSvrFocusMgr.getCurrentFocusCall()).thenReturn(ongoingCall);
 
         Call heldCall = addSpyCall(SIM_1_HANDLE, CallState.ON_HOLD);
         doReturn(CallState.ON_HOLD).when(heldCall).getState();
+        mCallsManager.getCallRegistry().updateCall(heldCall);
 
         // and other held call has difference ConnectionService
         Call heldCall2 = addSpyCall(VOIP_1_HANDLE, CallState.ON_HOLD);
         doReturn(CallState.ON_HOLD).when(heldCall2).getState();
+        mCallsManager.getCallRegistry().updateCall(heldCall2);
 
         // WHEN answer an incoming call which ConnectionService is connSvr1
         Call incomingCall = addSpyCall(SIM_1_HANDLE, CallState.RINGING);
@@ -830,6 +840,7 @@ public class CallsManagerTest extends TelecomTestCase {
         // and a new self-managed call which has different ConnectionService
         Call newCall = addSpyCall(VOIP_1_HANDLE, CallState.ACTIVE);
         doReturn(true).when(newCall).isSelfManaged();
+        mCallsManager.getCallRegistry().updateCall(newCall);
 
         // WHEN active the new call
         mCallsManager.markCallAsActive(newCall);
@@ -854,6 +865,7 @@ public class CallsManagerTest extends TelecomTestCase {
         // and a new self-managed call which has the same ConnectionService
         Call newCall = addSpyCall(SIM_1_HANDLE, CallState.ACTIVE);
         doReturn(true).when(newCall).isSelfManaged();
+        mCallsManager.getCallRegistry().updateCall(newCall);
 
         // WHEN active the new call
         mCallsManager.markCallAsActive(newCall);
@@ -878,6 +890,7 @@ public class CallsManagerTest extends TelecomTestCase {
         // and a new self-managed call
         Call newCall = addSpyCall();
         doReturn(true).when(newCall).isSelfManaged();
+        mCallsManager.getCallRegistry().updateCall(newCall);
 
         // WHEN active the new call
         mCallsManager.markCallAsActive(newCall);
@@ -899,6 +912,7 @@ public class CallsManagerTest extends TelecomTestCase {
         doReturn(true).when(ongoingCall).can(Connection.CAPABILITY_HOLD);
         doReturn(true).when(ongoingCall).can(Connection.CAPABILITY_SUPPORT_HOLD);
         doReturn(true).when(ongoingCall).isSelfManaged();
+        mCallsManager.getCallRegistry().updateCall(ongoingCall);
         doReturn(ongoingCall).when(mConnectionSvrFocusMgr).getCurrentFocusCall();
 
         // and a new incoming managed call
@@ -931,6 +945,7 @@ public class CallsManagerTest extends TelecomTestCase {
         doReturn(false).when(incomingCall).can(Connection.CAPABILITY_HOLD);
         doReturn(false).when(incomingCall).can(Connection.CAPABILITY_SUPPORT_HOLD);
         doReturn(true).when(incomingCall).isSelfManaged();
+        mCallsManager.getCallRegistry().updateCall(incomingCall);
         doReturn(true).when(incomingCall).setState(anyInt(), any());
 
         // WHEN the incoming call is successfully added.
@@ -946,6 +961,7 @@ public class CallsManagerTest extends TelecomTestCase {
         // GIVEN an incoming call
         Call incomingCall = addSpyCall();
         doReturn(CallState.RINGING).when(incomingCall).getState();
+        mCallsManager.getCallRegistry().updateCall(incomingCall);
 
         // WHEN media button short press
         mCallsManager.onMediaButton(HeadsetMediaButton.SHORT_PRESS);
@@ -964,6 +980,7 @@ public class CallsManagerTest extends TelecomTestCase {
         // GIVEN an incoming call
         Call incomingCall = addSpyCall();
         doReturn(CallState.RINGING).when(incomingCall).getState();
+        mCallsManager.getCallRegistry().updateCall(incomingCall);
 
         // WHEN media button long press
         mCallsManager.onMediaButton(HeadsetMediaButton.LONG_PRESS);
@@ -978,6 +995,7 @@ public class CallsManagerTest extends TelecomTestCase {
         // GIVEN an ongoing call
         Call ongoingCall = addSpyCall();
         doReturn(CallState.ACTIVE).when(ongoingCall).getState();
+        mCallsManager.getCallRegistry().updateCall(ongoingCall);
 
         // WHEN media button short press
         mCallsManager.onMediaButton(HeadsetMediaButton.SHORT_PRESS);
@@ -992,6 +1010,7 @@ public class CallsManagerTest extends TelecomTestCase {
         // GIVEN an ongoing call
         Call ongoingCall = addSpyCall();
         doReturn(CallState.ACTIVE).when(ongoingCall).getState();
+        mCallsManager.getCallRegistry().updateCall(ongoingCall);
 
         // WHEN media button long press
         mCallsManager.onMediaButton(HeadsetMediaButton.LONG_PRESS);
@@ -1007,6 +1026,7 @@ public class CallsManagerTest extends TelecomTestCase {
         // GIVEN an ongoing call, and this call can be held
         Call ongoingCall = addSpyCall();
         doReturn(CallState.ACTIVE).when(ongoingCall).getState();
+        mCallsManager.getCallRegistry().updateCall(ongoingCall);
         doReturn(true).when(ongoingCall).can(Connection.CAPABILITY_HOLD);
         doReturn(true).when(ongoingCall).can(Connection.CAPABILITY_SUPPORT_HOLD);
         when(mConnectionSvrFocusMgr.getCurrentFocusCall()).thenReturn(ongoingCall);
@@ -1014,6 +1034,7 @@ public class CallsManagerTest extends TelecomTestCase {
         // and a held call
         Call heldCall = addSpyCall();
         doReturn(CallState.ON_HOLD).when(heldCall).getState();
+        mCallsManager.getCallRegistry().updateCall(heldCall);
 
         // WHEN media button short press
         mCallsManager.onMediaButton(HeadsetMediaButton.SHORT_PRESS);
@@ -1032,10 +1053,12 @@ public class CallsManagerTest extends TelecomTestCase {
         // GIVEN an ongoing call
         Call ongoingCall = addSpyCall();
         doReturn(CallState.ACTIVE).when(ongoingCall).getState();
+        mCallsManager.getCallRegistry().updateCall(ongoingCall);
 
         // and a held call
         Call heldCall = addSpyCall();
         doReturn(CallState.ON_HOLD).when(heldCall).getState();
+        mCallsManager.getCallRegistry().updateCall(heldCall);
 
         // WHEN media button long press
         mCallsManager.onMediaButton(HeadsetMediaButton.LONG_PRESS);
@@ -1062,6 +1085,7 @@ public class CallsManagerTest extends TelecomTestCase {
         doReturn(false).when(incomingCall).can(Connection.CAPABILITY_HOLD);
         doReturn(false).when(incomingCall).can(Connection.CAPABILITY_SUPPORT_HOLD);
         doReturn(false).when(incomingCall).isSelfManaged();
+        mCallsManager.getCallRegistry().updateCall(incomingCall);
         doReturn(true).when(incomingCall).setState(anyInt(), any());
 
         // WHEN the incoming call is successfully added.
@@ -1625,6 +1649,30 @@ public class CallsManagerTest extends TelecomTestCase {
         verify(callSpy, never()).setDisconnectCause(any(DisconnectCause.class));
     }
 
+    /**
+     * Verifies that the call state snapshot used by the lock-free TelecomServiceImpl queries
+     * tracks calls as they are added, change state and are removed.
+     */
+    @SmallTest
+    @Test
+    public void testCallStateSnapshotPublished() {
+        CallStateSnapshot initial = mCallsManager.getCallStateSnapshot();
+        assertFalse(initial.hasOngoingCalls());
+
+        Call callSpy = addSpyCall(CallState.RINGING);
+        CallStateSnapshot ringing = mCallsManager.getCallStateSnapshot();
+        assertTrue(ringing.hasOngoingCalls());
+        assertTrue(ringing.hasOngoingManagedCalls());
+        assertTrue(ringing.hasRingingOrSimulatedRingingCall());
+        assertTrue(ringing.getVersion() > initial.getVersion());
+
+        callSpy.setState(CallState.ACTIVE, "test");
+        assertFalse(mCallsManager.getCallStateSnapshot().hasRingingOrSimulatedRingingCall());
+
+        mCallsManager.removeCall(callSpy);
+        assertFalse(mCallsManager.getCallStateSnapshot().hasOngoingCalls());
+    }
+
     private Call addSpyCall() {
         return addSpyCall(SIM_2_HANDLE, CallState.ACTIVE);
     }
@@ -16,6 +16,7 @@
 
 package com.android.server.telecom.tests;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
@@ -27,6 +28,7 @@ import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
@@ -50,6 +52,7 @@ import org.mockito.ArgumentCaptor;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RunWith(JUnit4.class)
 public class ContactsAsyncHelperTest extends TelecomTestCase {
@@ -84,6 +87,17 @@ public class ContactsAsyncHelperTest extends TelecomTestCase {
                 }
             };
 
+    private final AtomicInteger mOpenCount = new AtomicInteger(0);
+    private ContactsAsyncHelper.ContentResolverAdapter mCountingContentResolverAdapter =
+            new ContactsAsyncHelper.ContentResolverAdapter() {
+                @Override
+                public InputStream openInputStream(Context context, Uri uri)
+                        throws FileNotFoundException {
+                    mOpenCount.incrementAndGet();
+                    return context.getContentResolver().openInputStream(uri);
+                }
+            };
+
     private ContactsAsyncHelper.ContentResolverAdapter mNullContentResolverAdapter =
             new ContactsAsyncHelper.ContentResolverAdapter() {
                 @Override
@@ -145,10 +159,13 @@ public class ContactsAsyncHelperTest extends TelecomTestCase {
         verify(mListener, timeout(TEST_TIMEOUT)).onImageLoadComplete(eq(TOKEN),
                 photoCaptor.capture(), iconCaptor.capture(), eq(COOKIE));
 
+        // The photo is downsampled while decoding, but never below the icon size.
         Bitmap capturedPhoto = ((BitmapDrawable) photoCaptor.getValue()).getBitmap();
-        assertTrue(getExpectedPhoto(SAMPLE_CONTACT_PHOTO_URI).sameAs(capturedPhoto));
+        Bitmap expectedPhoto = getExpectedPhoto(SAMPLE_CONTACT_PHOTO_URI);
         int iconSize = mContext.getResources()
                 .getDimensionPixelSize(R.dimen.notification_icon_size);
+        assertTrue(expectedPhoto.getWidth() >= capturedPhoto.getWidth());
+        assertTrue(Math.min(iconSize, expectedPhoto.getWidth()) <= capturedPhoto.getWidth());
         assertTrue(iconSize >= iconCaptor.getValue().getHeight());
         assertTrue(iconSize >= iconCaptor.getValue().getWidth());
     }
@@ -172,6 +189,44 @@ public class ContactsAsyncHelperTest extends TelecomTestCase {
         assertTrue(capturedPhoto.sameAs(iconCaptor.getValue()));
     }
 
+    @SmallTest
+    @Test
+    public void testPhotoCached() {
+        ContactsAsyncHelper cah = new ContactsAsyncHelper(mCountingContentResolverAdapter,
+                Looper.getMainLooper());
+        cah.startObtainPhotoAsync(TOKEN, mContext, SAMPLE_CONTACT_PHOTO_URI, mListener, COOKIE);
+        verify(mListener, timeout(TEST_TIMEOUT)).onImageLoadComplete(eq(TOKEN),
+                any(Drawable.class), any(Bitmap.class), eq(COOKIE));
+        int openCount = mOpenCount.get();
+
+        cah.startObtainPhotoAsync(TOKEN, mContext, SAMPLE_CONTACT_PHOTO_URI, mListener, COOKIE);
+
+        ArgumentCaptor<Drawable> photoCaptor = ArgumentCaptor.forClass(Drawable.class);
+        verify(mListener, timeout(TEST_TIMEOUT).times(2)).onImageLoadComplete(eq(TOKEN),
+                photoCaptor.capture(), any(Bitmap.class), eq(COOKIE));
+        assertEquals(openCount, mOpenCount.get());
+        assertTrue(photoCaptor.getAllValues().get(0) != photoCaptor.getAllValues().get(1));
+        assertTrue(((BitmapDrawable) photoCaptor.getAllValues().get(0)).getBitmap().sameAs(
+                ((BitmapDrawable) photoCaptor.getAllValues().get(1)).getBitmap()));
+    }
+
+    @SmallTest
+    @Test
+    public void testPhotoCacheTrimmedOnMemoryPressure() {
+        ContactsAsyncHelper cah = new ContactsAsyncHelper(mCountingContentResolverAdapter,
+                Looper.getMainLooper());
+        cah.startObtainPhotoAsync(TOKEN, mContext, SAMPLE_CONTACT_PHOTO_URI, mListener, COOKIE);
+        verify(mListener, timeout(TEST_TIMEOUT)).onImageLoadComplete(eq(TOKEN),
+                any(Drawable.class), any(Bitmap.class), eq(COOKIE));
+        assertTrue(cah.getPhotoCacheSize() > 0);
+
+        cah.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertTrue(cah.getPhotoCacheSize() > 0);
+
+        cah.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(0, cah.getPhotoCacheSize());
+    }
+
     private Bitmap getExpectedPhoto(Uri uri) {
         InputStream is;
         try {
@@ -28,6 +28,7 @@ import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.ArgumentMatchers.matches;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Matchers.any;
@@ -36,6 +37,7 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -52,10 +54,12 @@ import android.app.NotificationManager;
 import android.app.UiModeManager;
 import android.content.AttributionSource;
 import android.content.AttributionSourceState;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.PermissionChecker;
 import android.content.ServiceConnection;
 import android.content.pm.ApplicationInfo;
@@ -77,6 +81,7 @@ import android.telecom.InCallService;
 import android.telecom.ParcelableCall;
 import android.telecom.PhoneAccountHandle;
 import android.telecom.TelecomManager;
+import android.telecom.VideoProfile;
 import android.test.mock.MockContext;
 import android.test.suitebuilder.annotation.MediumTest;
 import android.test.suitebuilder.annotation.SmallTest;
@@ -108,6 +113,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.MockitoSession;
@@ -1026,6 +1032,107 @@ public class InCallControllerTests extends TelecomTestCase {
         assertTrue(TextUtils.isEmpty(parcelableCallCaptor.getValue().getContactDisplayName()));
     }
 
+    @SmallTest
+    @Test
+    public void testCallUpdatesCoalesced() throws Exception {
+        setupMocks(false /* isExternalCall */);
+        setupMockPackageManager(true /* default */, true /* system */, true /* external calls */);
+        when(mTimeoutsAdapter.isInCallUpdateCoalescingEnabled()).thenReturn(true);
+
+        mInCallController.bindToServices(mMockCall);
+
+        ArgumentCaptor<ServiceConnection> serviceConnectionCaptor =
+                ArgumentCaptor.forClass(ServiceConnection.class);
+        verify(mMockContext, times(1)).bindServiceAsUser(any(Intent.class),
+                serviceConnectionCaptor.capture(), anyInt(), eq(UserHandle.CURRENT));
+        IInCallService.Stub mockInCallServiceStub = mock(IInCallService.Stub.class);
+        IInCallService mockInCallService = mock(IInCallService.class);
+        when(mockInCallServiceStub.queryLocalInterface(anyString())).thenReturn(mockInCallService);
+        serviceConnectionCaptor.getValue().onServiceConnected(new ComponentName(DEF_PKG, DEF_CLASS),
+                mockInCallServiceStub);
+        mInCallController.onCallAdded(mMockCall);
+
+        // A burst of changes to the call is sent as a single update.
+        mInCallController.onIsConferencedChanged(mMockCall);
+        mInCallController.onConnectionTimeChanged(mMockCall);
+        mInCallController.onCdmaConferenceSwap(mMockCall);
+        verify(mockInCallService, never()).updateCall(any(ParcelableCall.class));
+
+        waitForHandlerAction(mInCallController.getHandler(), TEST_TIMEOUT);
+        verify(mockInCallService, times(1)).updateCall(any(ParcelableCall.class));
+
+        // Anything else about the call is sent after the changes made before it.
+        when(mMockCall.getVideoState()).thenReturn(VideoProfile.STATE_BIDIRECTIONAL);
+        mInCallController.onIsConferencedChanged(mMockCall);
+        mInCallController.onPostDialWait(mMockCall, "1234");
+        InOrder inOrder = inOrder(mockInCallService);
+        inOrder.verify(mockInCallService).updateCall(any(ParcelableCall.class));
+        inOrder.verify(mockInCallService).setPostDialWait(nullable(String.class), eq("1234"));
+    }
+
+    @SmallTest
+    @Test
+    public void testUnchangedCallUpdateSkipped() throws Exception {
+        setupMocks(false /* isExternalCall */);
+        setupMockPackageManager(true /* default */, true /* system */, true /* external calls */);
+
+        mInCallController.bindToServices(mMockCall);
+
+        ArgumentCaptor<ServiceConnection> serviceConnectionCaptor =
+                ArgumentCaptor.forClass(ServiceConnection.class);
+        verify(mMockContext, times(1)).bindServiceAsUser(any(Intent.class),
+                serviceConnectionCaptor.capture(), anyInt(), eq(UserHandle.CURRENT));
+        IInCallService.Stub mockInCallServiceStub = mock(IInCallService.Stub.class);
+        IInCallService mockInCallService = mock(IInCallService.class);
+        when(mockInCallServiceStub.queryLocalInterface(anyString())).thenReturn(mockInCallService);
+        serviceConnectionCaptor.getValue().onServiceConnected(new ComponentName(DEF_PKG, DEF_CLASS),
+                mockInCallServiceStub);
+        mInCallController.onCallAdded(mMockCall);
+
+        mInCallController.onIsConferencedChanged(mMockCall);
+        verify(mockInCallService, times(1)).updateCall(any(ParcelableCall.class));
+
+        // Nothing the service can see has changed, so it is not sent the same update again.
+        mInCallController.onIsConferencedChanged(mMockCall);
+        verify(mockInCallService, times(1)).updateCall(any(ParcelableCall.class));
+
+        when(mMockCall.getVideoState()).thenReturn(VideoProfile.STATE_BIDIRECTIONAL);
+        mInCallController.onIsConferencedChanged(mMockCall);
+        verify(mockInCallService, times(2)).updateCall(any(ParcelableCall.class));
+    }
+
+    @SmallTest
+    @Test
+    public void testInCallServiceInfoCached() throws Exception {
+        when(mTimeoutsAdapter.isInCallServiceInfoCacheEnabled()).thenReturn(true);
+        setupMocks(false /* isExternalCall */);
+        setupMockPackageManager(true /* default */, true /* system */, false /* external calls */);
+
+        mInCallController.bindToServices(mMockCall);
+        verify(mMockPackageManager, times(4)).queryIntentServicesAsUser(any(Intent.class),
+                anyInt(), eq(CURRENT_USER_ID));
+
+        // Binding again for the next call finds the services without asking the package manager.
+        mInCallController.unbindFromServices();
+        mInCallController.bindToServices(mMockCall);
+        verify(mMockPackageManager, times(4)).queryIntentServicesAsUser(any(Intent.class),
+                anyInt(), eq(CURRENT_USER_ID));
+        verify(mMockContext, times(2)).bindServiceAsUser(any(Intent.class),
+                any(ServiceConnection.class), anyInt(), eq(UserHandle.CURRENT));
+
+        // Once a package changes, the services are looked up again.
+        ArgumentCaptor<BroadcastReceiver> receiverCaptor =
+                ArgumentCaptor.forClass(BroadcastReceiver.class);
+        verify(mMockContext).registerReceiverAsUser(receiverCaptor.capture(),
+                eq(UserHandle.ALL), any(IntentFilter.class), isNull(), isNull());
+        receiverCaptor.getValue().onReceive(mMockContext,
+                new Intent(Intent.ACTION_PACKAGE_CHANGED));
+        mInCallController.unbindFromServices();
+        mInCallController.bindToServices(mMockCall);
+        verify(mMockPackageManager, times(8)).queryIntentServicesAsUser(any(Intent.class),
+                anyInt(), eq(CURRENT_USER_ID));
+    }
+
     /**
      * Ensures that the {@link InCallController} will bind to a higher priority car mode service
      * when one becomes available.
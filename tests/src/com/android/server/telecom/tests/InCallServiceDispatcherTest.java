@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import android.content.ComponentName;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telecom.IInCallService;
+import com.android.server.telecom.InCallServiceDispatcher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class InCallServiceDispatcherTest extends TelecomTestCase {
+    private static final ComponentName COMPONENT_NAME =
+            new ComponentName("com.android.server.telecom.tests", "InCallService");
+    private static final long TEST_TIMEOUT = 5000;
+
+    @Mock IInCallService mInCallService;
+    @Mock InCallServiceDispatcher.Listener mListener;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @SmallTest
+    @Test
+    public void testNoQueue() throws Exception {
+        InCallServiceDispatcher dispatcher =
+                new InCallServiceDispatcher(mInCallService, COMPONENT_NAME, 0 /* maxDepth */,
+                        mListener);
+
+        dispatcher.dispatch("silenceRinger", (service) -> service.silenceRinger());
+
+        // The call is made straight away on the caller's thread.
+        verify(mInCallService).silenceRinger();
+    }
+
+    @SmallTest
+    @Test
+    public void testQueuedInOrderAndMerged() throws Exception {
+        CountDownLatch blockLatch = blockFirstCall();
+        InCallServiceDispatcher dispatcher =
+                new InCallServiceDispatcher(mInCallService, COMPONENT_NAME, 10 /* maxDepth */,
+                        mListener);
+
+        dispatcher.dispatch("silenceRinger", (service) -> service.silenceRinger());
+        verify(mInCallService, timeout(TEST_TIMEOUT)).silenceRinger();
+        dispatcher.dispatch("onCanAddCallChanged", "canAddCall",
+                (service) -> service.onCanAddCallChanged(false));
+        dispatcher.dispatch("onCanAddCallChanged", "canAddCall",
+                (service) -> service.onCanAddCallChanged(true));
+        dispatcher.dispatch("bringToForeground", (service) -> service.bringToForeground(false));
+        assertEquals(2, dispatcher.getQueuedCount());
+        blockLatch.countDown();
+
+        InOrder inOrder = inOrder(mInCallService);
+        inOrder.verify(mInCallService, timeout(TEST_TIMEOUT)).onCanAddCallChanged(true);
+        inOrder.verify(mInCallService, timeout(TEST_TIMEOUT)).bringToForeground(false);
+        verify(mInCallService, never()).onCanAddCallChanged(false);
+        dispatcher.shutDown();
+    }
+
+    @SmallTest
+    @Test
+    public void testFullQueueDropsSupersededCallsFirst() throws Exception {
+        CountDownLatch blockLatch = blockFirstCall();
+        InCallServiceDispatcher dispatcher =
+                new InCallServiceDispatcher(mInCallService, COMPONENT_NAME, 3 /* maxDepth */,
+                        mListener);
+
+        dispatcher.dispatch("silenceRinger", (service) -> service.silenceRinger());
+        verify(mInCallService, timeout(TEST_TIMEOUT)).silenceRinger();
+        dispatcher.dispatch("onCanAddCallChanged", "canAddCall",
+                (service) -> service.onCanAddCallChanged(false));
+        dispatcher.dispatch("bringToForeground", (service) -> service.bringToForeground(false));
+        dispatcher.dispatch("onCanAddCallChanged", "canAddCall",
+                (service) -> service.onCanAddCallChanged(true));
+        // The queue is full; the first onCanAddCallChanged is superseded, so it goes.
+        dispatcher.dispatch("bringToForeground", (service) -> service.bringToForeground(true));
+        assertTrue(dispatcher.getQueuedCount() <= 3);
+        blockLatch.countDown();
+
+        InOrder inOrder = inOrder(mInCallService);
+        inOrder.verify(mInCallService, timeout(TEST_TIMEOUT)).bringToForeground(false);
+        inOrder.verify(mInCallService, timeout(TEST_TIMEOUT)).onCanAddCallChanged(true);
+        inOrder.verify(mInCallService, timeout(TEST_TIMEOUT)).bringToForeground(true);
+        verify(mInCallService, never()).onCanAddCallChanged(false);
+        verify(mListener, never()).onUnresponsive(any(InCallServiceDispatcher.class));
+        dispatcher.shutDown();
+    }
+
+    @SmallTest
+    @Test
+    public void testOverflowReportsServiceUnresponsive() throws Exception {
+        CountDownLatch blockLatch = blockFirstCall();
+        InCallServiceDispatcher dispatcher =
+                new InCallServiceDispatcher(mInCallService, COMPONENT_NAME, 2 /* maxDepth */,
+                        mListener);
+
+        dispatcher.dispatch("silenceRinger", (service) -> service.silenceRinger());
+        verify(mInCallService, timeout(TEST_TIMEOUT)).silenceRinger();
+        dispatcher.dispatch("bringToForeground", (service) -> service.bringToForeground(false));
+        dispatcher.dispatch("bringToForeground", (service) -> service.bringToForeground(true));
+        // Nothing in the queue has been superseded, so the service is reported instead.
+        dispatcher.dispatch("onCanAddCallChanged", "canAddCall",
+                (service) -> service.onCanAddCallChanged(true));
+        verify(mListener).onUnresponsive(dispatcher);
+        assertEquals(0, dispatcher.getQueuedCount());
+
+        // The dispatcher takes no more calls, and reports the service only once.
+        dispatcher.dispatch("onCanAddCallChanged", "canAddCall",
+                (service) -> service.onCanAddCallChanged(false));
+        assertEquals(0, dispatcher.getQueuedCount());
+        verify(mListener).onUnresponsive(dispatcher);
+        blockLatch.countDown();
+        verify(mInCallService, never()).bringToForeground(anyBoolean());
+    }
+
+    @SmallTest
+    @Test
+    public void testFailedCallDoesNotStopQueue() throws Exception {
+        doThrow(new IllegalStateException()).when(mInCallService).silenceRinger();
+        InCallServiceDispatcher dispatcher =
+                new InCallServiceDispatcher(mInCallService, COMPONENT_NAME, 10 /* maxDepth */,
+                        mListener);
+
+        dispatcher.dispatch("silenceRinger", (service) -> service.silenceRinger());
+        verify(mInCallService, timeout(TEST_TIMEOUT)).silenceRinger();
+        dispatcher.dispatch("bringToForeground", (service) -> service.bringToForeground(false));
+
+        verify(mInCallService, timeout(TEST_TIMEOUT)).bringToForeground(false);
+        dispatcher.shutDown();
+    }
+
+    /**
+     * Makes the service block in {@code silenceRinger} until the returned latch is counted down,
+     * so that the calls which follow stay queued.
+     */
+    private CountDownLatch blockFirstCall() throws Exception {
+        CountDownLatch blockLatch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            blockLatch.await(TEST_TIMEOUT, TimeUnit.MILLISECONDS);
+            return null;
+        }).when(mInCallService).silenceRinger();
+        return blockLatch;
+    }
+}
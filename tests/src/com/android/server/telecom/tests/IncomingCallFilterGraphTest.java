@@ -27,10 +27,13 @@ import com.android.server.telecom.TelecomSystem;
 import com.android.server.telecom.Timeouts;
 import com.android.server.telecom.callfiltering.CallFilter;
 import com.android.server.telecom.callfiltering.CallFilterResultCallback;
+import com.android.server.telecom.callfiltering.CallFilteringExecutor;
 import com.android.server.telecom.callfiltering.CallFilteringResult;
 import com.android.server.telecom.callfiltering.IncomingCallFilterGraph;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.when;
 
@@ -42,7 +45,9 @@ import org.junit.Test;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RunWith(JUnit4.class)
 public class IncomingCallFilterGraphTest extends TelecomTestCase {
@@ -50,6 +55,7 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
     @Mock private Context mContext;
     @Mock private Timeouts.Adapter mTimeoutsAdapter;
     private TelecomSystem.SyncRoot mLock = new TelecomSystem.SyncRoot() {};
+    private final CallFilteringExecutor mCallFilteringExecutor = new CallFilteringExecutor();
 
     private static final CallFilteringResult PASS_CALL_RESULT = new CallFilteringResult.Builder()
             .setShouldAllowCall(true)
@@ -64,6 +70,7 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
             .setShouldAddToCallLog(true)
             .setShouldShowNotification(true).build();
     private final long FILTER_TIMEOUT = 5000;
+    private final long FILTER_DEADLINE = 100;
     private final long TEST_TIMEOUT = 7000;
     private final long TIMEOUT_FILTER_SLEEP_TIME = 10000;
 
@@ -98,6 +105,26 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
         }
     }
 
+    private class NeverCompletingFilter extends CallFilter {
+        @Override
+        public CompletionStage<CallFilteringResult> startFilterLookup(
+                CallFilteringResult priorStageResult) {
+            return new CompletableFuture<>();
+        }
+    }
+
+    private class ControlledFilter extends CallFilter {
+        final CompletableFuture<CallFilteringResult> mResultFuture = new CompletableFuture<>();
+        volatile boolean mStarted;
+
+        @Override
+        public CompletionStage<CallFilteringResult> startFilterLookup(
+                CallFilteringResult priorStageResult) {
+            mStarted = true;
+            return mResultFuture;
+        }
+    }
+
     @Before
     @Override
     public void setUp() throws Exception {
@@ -115,7 +142,7 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
         CallFilterResultCallback listener = (call, result, timeout) -> testResult.complete(result);
 
         IncomingCallFilterGraph graph = new IncomingCallFilterGraph(mCall, listener, mContext,
-                mTimeoutsAdapter, mLock);
+                mTimeoutsAdapter, mLock, mCallFilteringExecutor);
         graph.performFiltering();
 
         assertEquals(PASS_CALL_RESULT, testResult.get(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
@@ -128,7 +155,7 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
         CallFilterResultCallback listener = (call, result, timeout) -> testResult.complete(result);
 
         IncomingCallFilterGraph graph = new IncomingCallFilterGraph(mCall, listener, mContext,
-                mTimeoutsAdapter, mLock);
+                mTimeoutsAdapter, mLock, mCallFilteringExecutor);
         AllowFilter allowFilter = new AllowFilter();
         DisallowFilter disallowFilter = new DisallowFilter();
         graph.addFilter(allowFilter);
@@ -146,7 +173,7 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
         CallFilterResultCallback listener = (call, result, timeout) -> testResult.complete(result);
 
         IncomingCallFilterGraph graph = new IncomingCallFilterGraph(mCall, listener, mContext,
-                mTimeoutsAdapter, mLock);
+                mTimeoutsAdapter, mLock, mCallFilteringExecutor);
         AllowFilter allowFilter1 = new AllowFilter();
         AllowFilter allowFilter2 = new AllowFilter();
         DisallowFilter disallowFilter = new DisallowFilter();
@@ -165,7 +192,7 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
         CallFilterResultCallback listener = (call, result, timeout) -> testResult.complete(result);
 
         IncomingCallFilterGraph graph = new IncomingCallFilterGraph(mCall, listener, mContext,
-                mTimeoutsAdapter, mLock);
+                mTimeoutsAdapter, mLock, mCallFilteringExecutor);
         DisallowFilter disallowFilter = new DisallowFilter();
         TimeoutFilter timeoutFilter = new TimeoutFilter();
         graph.addFilter(disallowFilter);
@@ -175,4 +202,60 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
 
         assertEquals(REJECT_CALL_RESULT, testResult.get(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
     }
+
+    @SmallTest
+    @Test
+    public void testFilterDeadline() throws Exception {
+        CompletableFuture<CallFilteringResult> testResult = new CompletableFuture<>();
+        CompletableFuture<Boolean> testTimedOut = new CompletableFuture<>();
+        CallFilterResultCallback listener = (call, result, timeout) -> {
+            testTimedOut.complete(timeout);
+            testResult.complete(result);
+        };
+
+        IncomingCallFilterGraph graph = new IncomingCallFilterGraph(mCall, listener, mContext,
+                mTimeoutsAdapter, mLock, mCallFilteringExecutor);
+        NeverCompletingFilter slowFilter = new NeverCompletingFilter();
+        DisallowFilter disallowFilter = new DisallowFilter();
+        graph.addFilter(slowFilter, FILTER_DEADLINE);
+        graph.addFilter(disallowFilter);
+        IncomingCallFilterGraph.addEdge(slowFilter, disallowFilter);
+        graph.performFiltering();
+
+        // The filter after the slow one still runs, well within the timeout of the graph.
+        assertEquals(REJECT_CALL_RESULT, testResult.get(FILTER_TIMEOUT / 2,
+                TimeUnit.MILLISECONDS));
+        assertFalse(testTimedOut.get());
+    }
+
+    @SmallTest
+    @Test
+    public void testFilterCompletingAfterTimeout() throws Exception {
+        when(mTimeoutsAdapter.getCallScreeningTimeoutMillis(nullable(ContentResolver.class)))
+                .thenReturn(FILTER_DEADLINE);
+        AtomicInteger completions = new AtomicInteger();
+        CountDownLatch completionLatch = new CountDownLatch(2);
+        CompletableFuture<Boolean> testTimedOut = new CompletableFuture<>();
+        CallFilterResultCallback listener = (call, result, timeout) -> {
+            completions.incrementAndGet();
+            testTimedOut.complete(timeout);
+            completionLatch.countDown();
+        };
+
+        IncomingCallFilterGraph graph = new IncomingCallFilterGraph(mCall, listener, mContext,
+                mTimeoutsAdapter, mLock, mCallFilteringExecutor);
+        ControlledFilter lateFilter = new ControlledFilter();
+        ControlledFilter nextFilter = new ControlledFilter();
+        graph.addFilter(lateFilter);
+        graph.addFilter(nextFilter);
+        IncomingCallFilterGraph.addEdge(lateFilter, nextFilter);
+        graph.performFiltering();
+        assertTrue(testTimedOut.get(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // Neither the late result nor the filter after it reach the listener a second time.
+        lateFilter.mResultFuture.complete(REJECT_CALL_RESULT);
+        assertFalse(completionLatch.await(FILTER_DEADLINE * 5, TimeUnit.MILLISECONDS));
+        assertEquals(1, completions.get());
+        assertFalse(nextFilter.mStarted);
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.LockContentionProfiler;
+import com.android.server.telecom.TelecomSystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LockContentionProfilerTest extends TelecomTestCase {
+    private static final String SESSION_NAME = "CSW.sA";
+    private final TelecomSystem.SyncRoot mLock = new TelecomSystem.SyncRoot() { };
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        LockContentionProfiler.reset();
+        LockContentionProfiler.setEnabled(true);
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        LockContentionProfiler.setEnabled(false);
+        LockContentionProfiler.reset();
+        super.tearDown();
+    }
+
+    @SmallTest
+    @Test
+    public void testDisabledRecordsNothing() {
+        LockContentionProfiler.setEnabled(false);
+        runInstrumented(SESSION_NAME);
+        assertNull(LockContentionProfiler.getStats(SESSION_NAME));
+    }
+
+    @SmallTest
+    @Test
+    public void testRecordsAcquisitionPerSession() {
+        runInstrumented(SESSION_NAME);
+        runInstrumented(SESSION_NAME);
+        runInstrumented("ICA.aC");
+
+        LockContentionProfiler.Stats stats = LockContentionProfiler.getStats(SESSION_NAME);
+        assertNotNull(stats);
+        assertEquals(2, stats.getAcquisitions());
+        assertEquals(1, LockContentionProfiler.getStats("ICA.aC").getAcquisitions());
+    }
+
+    @SmallTest
+    @Test
+    public void testNestedSectionsAttributedToOutermost() {
+        LockContentionProfiler.beforeAcquire(SESSION_NAME);
+        synchronized (mLock) {
+            LockContentionProfiler.onAcquired();
+            runInstrumented("ICA.aC");
+        }
+        LockContentionProfiler.onReleased();
+
+        assertEquals(1, LockContentionProfiler.getStats(SESSION_NAME).getAcquisitions());
+        assertNull(LockContentionProfiler.getStats("ICA.aC"));
+    }
+
+    @SmallTest
+    @Test
+    public void testHistogramBuckets() {
+        LockContentionProfiler.record(SESSION_NAME, 0, 1);
+        LockContentionProfiler.record(SESSION_NAME, 1000, Long.MAX_VALUE);
+
+        LockContentionProfiler.Stats stats = LockContentionProfiler.getStats(SESSION_NAME);
+        long[] wait = stats.getWaitHistogram();
+        long[] hold = stats.getHoldHistogram();
+        assertEquals(1, wait[0]);
+        assertEquals(1, wait[LockContentionProfiler.getBucket(1000)]);
+        assertEquals(1, hold[1]);
+        assertEquals(1, hold[LockContentionProfiler.NUM_BUCKETS - 1]);
+        assertEquals(1000, stats.getMaxWaitMicros());
+        assertEquals(500, stats.getTotalWaitMicros() / stats.getAcquisitions());
+    }
+
+    @SmallTest
+    @Test
+    public void testRunLockedRecordsWhenSectionThrows() {
+        try {
+            LockContentionProfiler.runLocked(mLock, SESSION_NAME, () -> {
+                throw new IllegalStateException();
+            });
+        } catch (IllegalStateException expected) {
+        }
+        runInstrumented(SESSION_NAME);
+
+        assertEquals(2, LockContentionProfiler.getStats(SESSION_NAME).getAcquisitions());
+    }
+
+    private void runInstrumented(String sessionName) {
+        LockContentionProfiler.runLocked(mLock, sessionName, () -> { });
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.Assert.fail;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.LockDomain;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LockDomainTest extends TelecomTestCase {
+    private final LockDomain mOuter = new LockDomain("Outer", LockDomain.RANK_PHONE_ACCOUNTS);
+    private final LockDomain mInner = new LockDomain("Inner", LockDomain.RANK_CALL_REGISTRY);
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        LockDomain.setOrderCheckEnabled(true);
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        LockDomain.setOrderCheckEnabled(false);
+        super.tearDown();
+    }
+
+    @SmallTest
+    @Test
+    public void testIncreasingRankAllowed() {
+        synchronized (mOuter.ordered()) {
+            synchronized (mInner.ordered()) {
+                // Re-entering a held lock is always allowed.
+                synchronized (mOuter.ordered()) {
+                }
+            }
+        }
+    }
+
+    @SmallTest
+    @Test
+    public void testDecreasingRankRejected() {
+        synchronized (mInner.ordered()) {
+            try {
+                synchronized (mOuter.ordered()) {
+                }
+                fail("Expected lock order violation");
+            } catch (IllegalStateException expected) {
+            }
+        }
+    }
+
+    @SmallTest
+    @Test
+    public void testCheckerDisabled() {
+        LockDomain.setOrderCheckEnabled(false);
+        synchronized (mInner.ordered()) {
+            synchronized (mOuter.ordered()) {
+            }
+        }
+    }
+}
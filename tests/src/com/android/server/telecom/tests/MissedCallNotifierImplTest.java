@@ -25,6 +25,7 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.ComponentName;
 import android.content.ContentProvider;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.IContentProvider;
 import android.content.Intent;
@@ -73,7 +74,9 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.anyInt;
@@ -98,11 +101,13 @@ public class MissedCallNotifierImplTest extends TelecomTestCase {
 
     private static class MockMissedCallCursorBuilder {
         private class CallLogRow {
+            long id;
             String number;
             int presentation;
             long date;
 
-            public CallLogRow(String number, int presentation, long date) {
+            public CallLogRow(long id, String number, int presentation, long date) {
+                this.id = id;
                 this.number = number;
                 this.presentation = presentation;
                 this.date = date;
@@ -117,16 +122,24 @@ public class MissedCallNotifierImplTest extends TelecomTestCase {
         }
 
         public MockMissedCallCursorBuilder addEntry(String number, int presentation, long date) {
-            mRows.add(new CallLogRow(number, presentation, date));
+            return addEntry(0, number, presentation, date);
+        }
+
+        public MockMissedCallCursorBuilder addEntry(long id, String number, int presentation,
+                long date) {
+            mRows.add(new CallLogRow(id, number, presentation, date));
             return this;
         }
 
         public Cursor build() {
             Cursor c = mock(Cursor.class);
+            when(c.getCount()).thenReturn(mRows.size() - 1);
             when(c.moveToNext()).thenAnswer(unused -> {
                 mRows.remove(0);
                 return mRows.size() > 0;
             });
+            when(c.getLong(MissedCallNotifierImpl.CALL_LOG_COLUMN_ID))
+                    .thenAnswer(unused -> mRows.get(0).id);
             when(c.getString(MissedCallNotifierImpl.CALL_LOG_COLUMN_NUMBER))
                     .thenAnswer(unused -> mRows.get(0).number);
             when(c.getInt(MissedCallNotifierImpl.CALL_LOG_COLUMN_NUMBER_PRESENTATION))
@@ -625,6 +638,175 @@ public class MissedCallNotifierImplTest extends TelecomTestCase {
                 nullable(Notification.class), eq(PRIMARY_USER));
     }
 
+    @SmallTest
+    @Test
+    public void testIncrementalReloadLooksUpEachNumberOnce() throws Exception {
+        TelecomSystem.setInstance(mTelecomSystem);
+        when(mTelecomSystem.isBootComplete()).thenReturn(true);
+        CallerInfoLookupHelper mockCallerInfoLookupHelper = mock(CallerInfoLookupHelper.class);
+        MissedCallNotifier.CallInfoFactory mockCallInfoFactory =
+                mock(MissedCallNotifier.CallInfoFactory.class);
+
+        // Two missed calls from the same number, then one more after the first reload.
+        Cursor firstCursor = new MockMissedCallCursorBuilder()
+                .addEntry(1, TEL_CALL_HANDLE.getSchemeSpecificPart(),
+                        CallLog.Calls.PRESENTATION_ALLOWED, CALL_TIMESTAMP)
+                .addEntry(2, TEL_CALL_HANDLE.getSchemeSpecificPart(),
+                        CallLog.Calls.PRESENTATION_ALLOWED, CALL_TIMESTAMP)
+                .build();
+        Cursor secondCursor = new MockMissedCallCursorBuilder()
+                .addEntry(3, TEL_CALL_HANDLE.getSchemeSpecificPart(),
+                        CallLog.Calls.PRESENTATION_ALLOWED, CALL_TIMESTAMP)
+                .build();
+        // The unread calls counted after the second reload.
+        Cursor countCursor = new MockMissedCallCursorBuilder()
+                .addEntry(1, TEL_CALL_HANDLE.getSchemeSpecificPart(),
+                        CallLog.Calls.PRESENTATION_ALLOWED, CALL_TIMESTAMP)
+                .addEntry(2, TEL_CALL_HANDLE.getSchemeSpecificPart(),
+                        CallLog.Calls.PRESENTATION_ALLOWED, CALL_TIMESTAMP)
+                .addEntry(3, TEL_CALL_HANDLE.getSchemeSpecificPart(),
+                        CallLog.Calls.PRESENTATION_ALLOWED, CALL_TIMESTAMP)
+                .build();
+        Cursor thirdCursor = new MockMissedCallCursorBuilder()
+                .addEntry(1, TEL_CALL_HANDLE.getSchemeSpecificPart(),
+                        CallLog.Calls.PRESENTATION_ALLOWED, CALL_TIMESTAMP)
+                .build();
+
+        Uri queryUri = ContentProvider.maybeAddUserId(CallLog.Calls.CONTENT_URI,
+                PRIMARY_USER.getIdentifier());
+        IContentProvider cp = getContentProviderForUser(PRIMARY_USER.getIdentifier());
+        when(cp.query(any(), eq(queryUri), nullable(String[].class),
+                nullable(Bundle.class), nullable(ICancellationSignal.class)))
+                .thenReturn(firstCursor, secondCursor, countCursor, thirdCursor);
+
+        PhoneAccount phoneAccount = makePhoneAccount(PRIMARY_USER, NO_CAPABILITY);
+        MissedCallNotifier.CallInfo fakeCallInfo = makeFakeCallInfo(TEL_CALL_HANDLE,
+                CALLER_NAME, CALL_TIMESTAMP, phoneAccount.getAccountHandle());
+        when(mockCallInfoFactory.makeCallInfo(nullable(CallerInfo.class),
+                nullable(PhoneAccountHandle.class), nullable(Uri.class), eq(CALL_TIMESTAMP)))
+                .thenReturn(fakeCallInfo);
+
+        Notification.Builder builder1 = makeNotificationBuilder("builder1");
+        MissedCallNotifierImpl.NotificationBuilderFactory fakeBuilderFactory =
+                makeNotificationBuilderFactory(builder1);
+
+        MissedCallNotifier missedCallNotifier = new MissedCallNotifierImpl(mContext,
+                mPhoneAccountRegistrar, mDefaultDialerCache, fakeBuilderFactory,
+                mDeviceIdleControllerAdapter);
+
+        Handler h = new Handler(Looper.getMainLooper());
+        h.post(() -> missedCallNotifier.reloadFromDatabase(
+                mockCallerInfoLookupHelper, mockCallInfoFactory, PRIMARY_USER));
+        waitForHandlerAction(h, TEST_TIMEOUT);
+
+        Uri escapedTelHandle = Uri.fromParts(PhoneAccount.SCHEME_TEL,
+                TEL_CALL_HANDLE.getSchemeSpecificPart(), null);
+        ArgumentCaptor<CallerInfoLookupHelper.OnQueryCompleteListener> listenerCaptor =
+                ArgumentCaptor.forClass(CallerInfoLookupHelper.OnQueryCompleteListener.class);
+        verify(mockCallerInfoLookupHelper, timeout(TEST_TIMEOUT)).startLookup(eq(escapedTelHandle),
+                listenerCaptor.capture());
+
+        // One lookup still shows a notification for each of the calls.
+        listenerCaptor.getValue().onCallerInfoQueryComplete(escapedTelHandle, new CallerInfo());
+        verify(mNotificationManager, times(2)).notifyAsUser(nullable(String.class), eq(1),
+                nullable(Notification.class), eq(PRIMARY_USER));
+
+        h.post(() -> missedCallNotifier.reloadFromDatabase(
+                mockCallerInfoLookupHelper, mockCallInfoFactory, PRIMARY_USER));
+        waitForHandlerAction(h, TEST_TIMEOUT);
+
+        // The second reload only asks for the calls logged since the first one.
+        ArgumentCaptor<Bundle> queryArgsCaptor = ArgumentCaptor.forClass(Bundle.class);
+        verify(cp, timeout(TEST_TIMEOUT).times(2)).query(any(), eq(queryUri),
+                nullable(String[].class), queryArgsCaptor.capture(),
+                nullable(ICancellationSignal.class));
+        Bundle queryArgs = queryArgsCaptor.getAllValues().get(1);
+        assertTrue(queryArgs.getString(ContentResolver.QUERY_ARG_SQL_SELECTION)
+                .endsWith(CallLog.Calls._ID + ">?"));
+        assertArrayEquals(new String[] {"2"},
+                queryArgs.getStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS));
+        verify(mockCallerInfoLookupHelper, timeout(TEST_TIMEOUT).times(2)).startLookup(
+                eq(escapedTelHandle), listenerCaptor.capture());
+
+        // Once the loaded calls are reset, e.g. as the user starts again, all are reloaded.
+        missedCallNotifier.resetLoadedCalls(PRIMARY_USER);
+        h.post(() -> missedCallNotifier.reloadFromDatabase(
+                mockCallerInfoLookupHelper, mockCallInfoFactory, PRIMARY_USER));
+        waitForHandlerAction(h, TEST_TIMEOUT);
+        verify(cp, timeout(TEST_TIMEOUT).times(4)).query(any(), eq(queryUri),
+                nullable(String[].class), queryArgsCaptor.capture(),
+                nullable(ICancellationSignal.class));
+        queryArgs = queryArgsCaptor.getAllValues().get(queryArgsCaptor.getAllValues().size() - 1);
+        assertFalse(queryArgs.getString(ContentResolver.QUERY_ARG_SQL_SELECTION)
+                .endsWith(CallLog.Calls._ID + ">?"));
+    }
+
+    @SmallTest
+    @Test
+    public void testIncrementalReloadDropsReadCalls() throws Exception {
+        TelecomSystem.setInstance(mTelecomSystem);
+        when(mTelecomSystem.isBootComplete()).thenReturn(true);
+        CallerInfoLookupHelper mockCallerInfoLookupHelper = mock(CallerInfoLookupHelper.class);
+        MissedCallNotifier.CallInfoFactory mockCallInfoFactory =
+                mock(MissedCallNotifier.CallInfoFactory.class);
+
+        Cursor firstCursor = new MockMissedCallCursorBuilder()
+                .addEntry(1, TEL_CALL_HANDLE.getSchemeSpecificPart(),
+                        CallLog.Calls.PRESENTATION_ALLOWED, CALL_TIMESTAMP)
+                .build();
+        // No calls have been logged since, and the loaded one has been read.
+        Cursor secondCursor = new MockMissedCallCursorBuilder().build();
+        Cursor countCursor = new MockMissedCallCursorBuilder().build();
+
+        Uri queryUri = ContentProvider.maybeAddUserId(CallLog.Calls.CONTENT_URI,
+                PRIMARY_USER.getIdentifier());
+        IContentProvider cp = getContentProviderForUser(PRIMARY_USER.getIdentifier());
+        when(cp.query(any(), eq(queryUri), nullable(String[].class),
+                nullable(Bundle.class), nullable(ICancellationSignal.class)))
+                .thenReturn(firstCursor, secondCursor, countCursor);
+
+        PhoneAccount phoneAccount = makePhoneAccount(PRIMARY_USER, NO_CAPABILITY);
+        MissedCallNotifier.CallInfo fakeCallInfo = makeFakeCallInfo(TEL_CALL_HANDLE,
+                CALLER_NAME, CALL_TIMESTAMP, phoneAccount.getAccountHandle());
+        when(mockCallInfoFactory.makeCallInfo(nullable(CallerInfo.class),
+                nullable(PhoneAccountHandle.class), nullable(Uri.class), eq(CALL_TIMESTAMP)))
+                .thenReturn(fakeCallInfo);
+
+        Notification.Builder builder1 = makeNotificationBuilder("builder1");
+        MissedCallNotifierImpl.NotificationBuilderFactory fakeBuilderFactory =
+                makeNotificationBuilderFactory(builder1);
+
+        MissedCallNotifier missedCallNotifier = new MissedCallNotifierImpl(mContext,
+                mPhoneAccountRegistrar, mDefaultDialerCache, fakeBuilderFactory,
+                mDeviceIdleControllerAdapter);
+
+        Handler h = new Handler(Looper.getMainLooper());
+        h.post(() -> missedCallNotifier.reloadFromDatabase(
+                mockCallerInfoLookupHelper, mockCallInfoFactory, PRIMARY_USER));
+        waitForHandlerAction(h, TEST_TIMEOUT);
+
+        Uri escapedTelHandle = Uri.fromParts(PhoneAccount.SCHEME_TEL,
+                TEL_CALL_HANDLE.getSchemeSpecificPart(), null);
+        ArgumentCaptor<CallerInfoLookupHelper.OnQueryCompleteListener> listenerCaptor =
+                ArgumentCaptor.forClass(CallerInfoLookupHelper.OnQueryCompleteListener.class);
+        verify(mockCallerInfoLookupHelper, timeout(TEST_TIMEOUT)).startLookup(eq(escapedTelHandle),
+                listenerCaptor.capture());
+        listenerCaptor.getValue().onCallerInfoQueryComplete(escapedTelHandle, new CallerInfo());
+        verify(mNotificationManager).notifyAsUser(nullable(String.class), eq(1),
+                nullable(Notification.class), eq(PRIMARY_USER));
+
+        h.post(() -> missedCallNotifier.reloadFromDatabase(
+                mockCallerInfoLookupHelper, mockCallInfoFactory, PRIMARY_USER));
+        waitForHandlerAction(h, TEST_TIMEOUT);
+
+        // The incremental reload recounts the unread calls and finds none left.
+        verify(cp, timeout(TEST_TIMEOUT).times(3)).query(any(), eq(queryUri),
+                nullable(String[].class), nullable(Bundle.class),
+                nullable(ICancellationSignal.class));
+        verify(mNotificationManager, timeout(TEST_TIMEOUT)).cancelAsUser(nullable(String.class),
+                eq(1), eq(PRIMARY_USER));
+    }
+
     @SmallTest
     @Test
     public void testDialerHandleMissedCall() {
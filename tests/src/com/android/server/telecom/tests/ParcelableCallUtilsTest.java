@@ -4,6 +4,8 @@ import static com.android.server.telecom.TelecomSystem.SyncRoot;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -190,6 +192,69 @@ public class ParcelableCallUtilsTest extends TelecomTestCase {
         assertEquals(connectionVerificationStatus, call.getCallerNumberVerificationStatus());
     }
 
+    @SmallTest
+    @Test
+    public void testSnapshotSharedBetweenServices() {
+        mCall.putExtras(Call.SOURCE_CONNECTION_SERVICE, getSomeExtras());
+        ParcelableCallUtils.Snapshot snapshot =
+                new ParcelableCallUtils.Snapshot(mCall, false /* includeVideoProvider */);
+
+        ParcelableCall forSystemDialer = snapshot.toParcelableCall(
+                false /* supportsExternalCalls */, false /* includeRttCall */,
+                true /* isForSystemDialer */);
+        ParcelableCall forOtherApp = snapshot.toParcelableCall(
+                false /* supportsExternalCalls */, false /* includeRttCall */,
+                false /* isForSystemDialer */);
+
+        // Each audience still gets its own extras, copied from the call's.
+        assertTrue(forSystemDialer.getExtras().containsKey("SomeExtra"));
+        assertNotSame(mCall.getExtras(), forSystemDialer.getExtras());
+        assertFalse(forOtherApp.getExtras().containsKey("SomeExtra"));
+        assertEquals(mCall.getId(), forOtherApp.getId());
+        // Services which need the call parcelled the same way share it.
+        assertSame(forOtherApp, snapshot.toParcelableCall(false /* supportsExternalCalls */,
+                false /* includeRttCall */, false /* isForSystemDialer */));
+    }
+
+    /**
+     * Counts the snapshots taken and the calls parcelled for an update sent to 1, 4 and 8
+     * services, parcelling the call separately for each service and from a shared snapshot.
+     */
+    @SmallTest
+    @Test
+    public void testSnapshotAllocationsPerUpdate() {
+        mCall.putExtras(Call.SOURCE_CONNECTION_SERVICE, getSomeExtras());
+        for (int numServices : new int[] {1, 4, 8}) {
+            long snapshots = ParcelableCallUtils.getSnapshotCount();
+            long parcelableCalls = ParcelableCallUtils.getParcelableCallCount();
+            for (int i = 0; i < numServices; i++) {
+                ParcelableCallUtils.toParcelableCall(mCall,
+                        false /* includevideoProvider */,
+                        null /* phoneAccountRegistrar */,
+                        false /* supportsExternalCalls */,
+                        false /* includeRttCall */,
+                        i % 2 == 0 /* isForSystemDialer */);
+            }
+            // Each service takes its own snapshot and parcels the call on top of its base.
+            assertEquals(numServices, ParcelableCallUtils.getSnapshotCount() - snapshots);
+            assertEquals(2 * numServices,
+                    ParcelableCallUtils.getParcelableCallCount() - parcelableCalls);
+
+            snapshots = ParcelableCallUtils.getSnapshotCount();
+            parcelableCalls = ParcelableCallUtils.getParcelableCallCount();
+            ParcelableCallUtils.Snapshot snapshot =
+                    new ParcelableCallUtils.Snapshot(mCall, false /* includeVideoProvider */);
+            for (int i = 0; i < numServices; i++) {
+                snapshot.toParcelableCall(false /* supportsExternalCalls */,
+                        false /* includeRttCall */, i % 2 == 0 /* isForSystemDialer */);
+            }
+            // One snapshot, its base, and one call for each of the two audiences.
+            assertEquals(1, ParcelableCallUtils.getSnapshotCount() - snapshots);
+            assertEquals(1 + Math.min(numServices, 2),
+                    ParcelableCallUtils.getParcelableCallCount() - parcelableCalls);
+        }
+    }
+
     private Bundle getSomeExtras() {
         Bundle extras = new Bundle();
         extras.putString(Connection.EXTRA_SIP_INVITE, "scary data");
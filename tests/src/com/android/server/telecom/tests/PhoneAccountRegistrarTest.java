@@ -28,6 +28,7 @@ import static org.mockito.Mockito.when;
 
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.Intent;
 import android.graphics.BitmapFactory;
 import android.graphics.Rect;
 import android.graphics.drawable.Icon;
@@ -37,6 +38,7 @@ import android.os.Parcel;
 import android.os.Process;
 import android.os.UserHandle;
 import android.os.UserManager;
+import android.telecom.CallAudioState;
 import android.telecom.Log;
 import android.telecom.PhoneAccount;
 import android.telecom.PhoneAccountHandle;
@@ -50,6 +52,7 @@ import androidx.test.InstrumentationRegistry;
 import com.android.internal.telecom.IConnectionService;
 import com.android.internal.util.FastXmlSerializer;
 import com.android.server.telecom.AppLabelProxy;
+import com.android.server.telecom.ComponentResolutionCache;
 import com.android.server.telecom.DefaultDialerCache;
 import com.android.server.telecom.PhoneAccountRegistrar;
 import com.android.server.telecom.PhoneAccountRegistrar.DefaultPhoneAccountHandle;
@@ -69,7 +72,10 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -83,6 +89,7 @@ public class PhoneAccountRegistrarTest extends TelecomTestCase {
     private static final String FILE_NAME = "phone-account-registrar-test-1223.xml";
     private static final String TEST_LABEL = "right";
     private PhoneAccountRegistrar mRegistrar;
+    private final List<PhoneAccountRegistrar> mRegistrars = new ArrayList<>();
     @Mock private TelecomManager mTelecomManager;
     @Mock private DefaultDialerCache mDefaultDialerCache;
     @Mock private AppLabelProxy mAppLabelProxy;
@@ -97,23 +104,35 @@ public class PhoneAccountRegistrarTest extends TelecomTestCase {
                 mComponentContextFixture.getTestDouble().getApplicationContext().getFilesDir(),
                 FILE_NAME)
                 .delete();
+        new File(
+                mComponentContextFixture.getTestDouble().getApplicationContext().getFilesDir(),
+                PhoneAccountRegistrar.getBinaryFileName(FILE_NAME))
+                .delete();
         when(mDefaultDialerCache.getDefaultDialerApplication(anyInt()))
                 .thenReturn("com.android.dialer");
         when(mAppLabelProxy.getAppLabel(anyString()))
                 .thenReturn(TEST_LABEL);
-        mRegistrar = new PhoneAccountRegistrar(
-                mComponentContextFixture.getTestDouble().getApplicationContext(),
-                FILE_NAME, mDefaultDialerCache, mAppLabelProxy);
+        mRegistrar = createRegistrar();
     }
 
     @Override
     @After
     public void tearDown() throws Exception {
+        // Writes are posted to a thread shared by every registrar; make sure none lands in the
+        // next test's files.
+        for (PhoneAccountRegistrar registrar : mRegistrars) {
+            registrar.cancelPendingWrite();
+        }
+        mRegistrars.clear();
         mRegistrar = null;
         new File(
                 mComponentContextFixture.getTestDouble().getApplicationContext().getFilesDir(),
                 FILE_NAME)
                 .delete();
+        new File(
+                mComponentContextFixture.getTestDouble().getApplicationContext().getFilesDir(),
+                PhoneAccountRegistrar.getBinaryFileName(FILE_NAME))
+                .delete();
         super.tearDown();
     }
 
@@ -276,6 +295,191 @@ public class PhoneAccountRegistrarTest extends TelecomTestCase {
         assertStateEquals(input, result);
     }
 
+    @MediumTest
+    @Test
+    public void testPhoneAccountHandleBinary() throws Exception {
+        stubUserSerialNumber(Process.myUserHandle(), 0L);
+        PhoneAccountHandle input = makeQuickAccountHandle("id0");
+        PhoneAccountHandle result = roundTripBinary(input,
+                PhoneAccountRegistrar.sPhoneAccountHandleBinary);
+        assertPhoneAccountHandleEquals(input, result);
+        assertEquals(input.getUserHandle(), result.getUserHandle());
+
+        PhoneAccountHandle inputN = new PhoneAccountHandle(new ComponentName("pkg0", "cls0"), null);
+        PhoneAccountHandle resultN = roundTripBinary(inputN,
+                PhoneAccountRegistrar.sPhoneAccountHandleBinary);
+        assertPhoneAccountHandleEquals(inputN, resultN);
+        assertNull(resultN.getId());
+
+        assertNull(roundTripBinary(null, PhoneAccountRegistrar.sPhoneAccountHandleBinary));
+    }
+
+    @MediumTest
+    @Test
+    public void testPhoneAccountBinary() throws Exception {
+        Bundle testBundle = new Bundle();
+        testBundle.putInt("EXTRA_INT_1", 1);
+        testBundle.putInt("EXTRA_INT_100", 100);
+        testBundle.putBoolean("EXTRA_BOOL_TRUE", true);
+        testBundle.putBoolean("EXTRA_BOOL_FALSE", false);
+        testBundle.putString("EXTRA_STR1", "Hello");
+        testBundle.putString("EXTRA_STR2", "There");
+        // Unsupported types are not persisted.
+        testBundle.putParcelable("EXTRA_PARC", new Rect(1, 1, 1, 1));
+
+        PhoneAccount input = makeQuickAccountBuilder("id0", 0)
+                .setAddress(Uri.parse("tel:555-0000"))
+                .setCapabilities(PhoneAccount.CAPABILITY_CALL_PROVIDER
+                        | PhoneAccount.CAPABILITY_VIDEO_CALLING)
+                .setHighlightColor(0xff00ff00)
+                .setShortDescription("\u00e9t\u00e9")
+                .addSupportedUriScheme(PhoneAccount.SCHEME_TEL)
+                .addSupportedUriScheme(PhoneAccount.SCHEME_VOICEMAIL)
+                .setSupportedAudioRoutes(CallAudioState.ROUTE_EARPIECE)
+                .setIcon(Icon.createWithBitmap(BitmapFactory.decodeResource(
+                        InstrumentationRegistry.getContext().getResources(),
+                        R.drawable.stat_sys_phone_call)))
+                .setExtras(testBundle)
+                .setIsEnabled(true)
+                .build();
+        PhoneAccount result = roundTripBinary(input, PhoneAccountRegistrar.sPhoneAccountBinary);
+
+        assertPhoneAccountEquals(input, result);
+        assertEquals(input.getSupportedAudioRoutes(), result.getSupportedAudioRoutes());
+        assertFalse(result.getExtras().keySet().contains("EXTRA_PARC"));
+
+        // An account with only the required fields set.
+        PhoneAccount inputN = makeQuickAccountBuilder("id1", 1).build();
+        assertPhoneAccountEquals(inputN,
+                roundTripBinary(inputN, PhoneAccountRegistrar.sPhoneAccountBinary));
+    }
+
+    @MediumTest
+    @Test
+    public void testDefaultPhoneAccountHandleBinary() throws Exception {
+        DefaultPhoneAccountHandle input = new DefaultPhoneAccountHandle(Process.myUserHandle(),
+                makeQuickAccountHandle("i1"), "testGroup");
+        stubUserSerialNumber(input.userHandle, 0L);
+        DefaultPhoneAccountHandle result = roundTripBinary(input,
+                PhoneAccountRegistrar.sDefaultPhoneAccountHandleBinary);
+
+        assertDefaultPhoneAccountHandleEquals(input, result);
+        assertEquals(input.groupId, result.groupId);
+    }
+
+    @MediumTest
+    @Test
+    public void testStateBinary() throws Exception {
+        PhoneAccountRegistrar.State input = makeQuickState();
+        PhoneAccountRegistrar.State result = roundTripBinary(input,
+                PhoneAccountRegistrar.sStateBinary);
+        assertEquals(PhoneAccountRegistrar.EXPECTED_STATE_VERSION, result.versionNumber);
+
+        // Icons are left encoded when a state is read.
+        assertEquals(input.accounts.size(), result.encodedIcons.size());
+        for (int i = 0; i < result.accounts.size(); i++) {
+            PhoneAccount account = result.accounts.get(i);
+            assertNull(account.getIcon());
+            byte[] encodedIcon = result.encodedIcons.get(account.getAccountHandle());
+            result.accounts.set(i, account.toBuilder()
+                    .setIcon(Icon.createFromStream(new ByteArrayInputStream(encodedIcon)))
+                    .build());
+        }
+        assertStateEquals(input, result);
+
+        // Encoded icons are written back unchanged.
+        PhoneAccountRegistrar.State rewritten = roundTripBinary(
+                roundTripBinary(input, PhoneAccountRegistrar.sStateBinary),
+                PhoneAccountRegistrar.sStateBinary);
+        for (PhoneAccount account : rewritten.accounts) {
+            assertNotNull(rewritten.encodedIcons.get(account.getAccountHandle()));
+        }
+    }
+
+    /**
+     * Verifies that the binary encoding of a state is smaller than its XML encoding.
+     */
+    @MediumTest
+    @Test
+    public void testStateBinarySmallerThanXml() throws Exception {
+        PhoneAccountRegistrar.State input = makeQuickState();
+        assertTrue(toBinary(input, PhoneAccountRegistrar.sStateBinary).length
+                < toXml(input, PhoneAccountRegistrar.sStateXml, mContext).length);
+    }
+
+    /**
+     * Verifies that the state in a legacy XML file is loaded, written out in the binary format and
+     * that the XML file is then deleted.
+     */
+    @MediumTest
+    @Test
+    public void testMigrationFromXml() throws Exception {
+        stubUserSerialNumber(Process.myUserHandle(), 0L);
+        Context context = mComponentContextFixture.getTestDouble().getApplicationContext();
+        File xmlFile = new File(context.getFilesDir(), FILE_NAME);
+        File binaryFile = new File(context.getFilesDir(),
+                PhoneAccountRegistrar.getBinaryFileName(FILE_NAME));
+        binaryFile.delete();
+
+        PhoneAccountRegistrar.State input = makeQuickState();
+        try (FileOutputStream os = new FileOutputStream(xmlFile)) {
+            os.write(toXml(input, PhoneAccountRegistrar.sStateXml, mContext));
+        }
+
+        PhoneAccountRegistrar migrated = createRegistrar();
+        assertEquals(input.accounts.size(),
+                migrated.getAllPhoneAccounts(Process.myUserHandle()).size());
+        migrated.flush();
+        assertTrue(binaryFile.exists());
+        assertFalse(xmlFile.exists());
+
+        PhoneAccountRegistrar reloaded = createRegistrar();
+        List<PhoneAccount> accounts = reloaded.getAllPhoneAccounts(Process.myUserHandle());
+        assertEquals(input.accounts.size(), accounts.size());
+        for (PhoneAccount account : input.accounts) {
+            assertPhoneAccountEquals(account,
+                    reloaded.getPhoneAccount(account.getAccountHandle(), Process.myUserHandle()));
+        }
+    }
+
+    /**
+     * Verifies that icons loaded from disk are only decoded when the account is handed out, and
+     * are persisted again whether or not they were decoded.
+     */
+    @MediumTest
+    @Test
+    public void testIconsDecodedOnFirstAccess() throws Exception {
+        stubUserSerialNumber(Process.myUserHandle(), 0L);
+        mComponentContextFixture.addConnectionService(makeQuickConnectionServiceComponentName(),
+                Mockito.mock(IConnectionService.class));
+        PhoneAccount account0 = makeQuickAccount("id0", 0);
+        PhoneAccount account1 = makeQuickAccount("id1", 1);
+        registerAndEnableAccount(account0);
+        registerAndEnableAccount(account1);
+        mRegistrar.flush();
+
+        PhoneAccountRegistrar reloaded = createRegistrar();
+        PhoneAccountHandle handle0 = account0.getAccountHandle();
+        PhoneAccountHandle handle1 = account1.getAccountHandle();
+        assertNull(reloaded.getPhoneAccountUnchecked(handle0).getIcon());
+        assertNull(reloaded.getPhoneAccountUnchecked(handle1).getIcon());
+
+        assertIconEquals(account0.getIcon(),
+                reloaded.getPhoneAccount(handle0, Process.myUserHandle()).getIcon());
+        assertIconEquals(account0.getIcon(), reloaded.getPhoneAccountUnchecked(handle0).getIcon());
+        assertNull(reloaded.getPhoneAccountUnchecked(handle1).getIcon());
+
+        // Persist with one icon decoded and the other still encoded.
+        reloaded.enablePhoneAccount(handle0, false);
+        reloaded.flush();
+        PhoneAccountRegistrar reloadedAgain = createRegistrar();
+        assertIconEquals(account1.getIcon(),
+                reloadedAgain.getPhoneAccount(handle1, Process.myUserHandle()).getIcon());
+        PhoneAccount disabled = reloadedAgain.getPhoneAccount(handle0, Process.myUserHandle());
+        assertIconEquals(account0.getIcon(), disabled.getIcon());
+        assertFalse(disabled.isEnabled());
+    }
+
     private void registerAndEnableAccount(PhoneAccount account) {
         mRegistrar.registerPhoneAccount(account);
         mRegistrar.enablePhoneAccount(account.getAccountHandle(), true);
@@ -312,6 +516,100 @@ public class PhoneAccountRegistrarTest extends TelecomTestCase {
                 PhoneAccount.SCHEME_TEL));
     }
 
+    /**
+     * Verifies that filtered lookups stay correct as accounts are registered, re-registered and
+     * unregistered.
+     */
+    @MediumTest
+    @Test
+    public void testFilteredLookupsTrackRegistrations() throws Exception {
+        mComponentContextFixture.addConnectionService(makeQuickConnectionServiceComponentName(),
+                Mockito.mock(IConnectionService.class));
+
+        PhoneAccountHandle telAccount = makeQuickAccountHandle("tel_acct");
+        PhoneAccountHandle sipAccount = makeQuickAccountHandle("sip_acct");
+        registerAndEnableAccount(new PhoneAccount.Builder(telAccount, "tel_acct")
+                .setCapabilities(PhoneAccount.CAPABILITY_CALL_PROVIDER)
+                .addSupportedUriScheme(PhoneAccount.SCHEME_TEL)
+                .build());
+        registerAndEnableAccount(new PhoneAccount.Builder(sipAccount, "sip_acct")
+                .setCapabilities(PhoneAccount.CAPABILITY_CALL_PROVIDER)
+                .addSupportedUriScheme(PhoneAccount.SCHEME_SIP)
+                .build());
+
+        assertEquals(Arrays.asList(telAccount),
+                mRegistrar.getCallCapablePhoneAccountsOfCurrentUser(PhoneAccount.SCHEME_TEL,
+                        false));
+        assertEquals(2, mRegistrar.getPhoneAccountsForPackage(
+                telAccount.getComponentName().getPackageName(), Process.myUserHandle()).size());
+
+        // Re-register the tel: account as a sip: account.
+        mRegistrar.registerPhoneAccount(new PhoneAccount.Builder(telAccount, "tel_acct")
+                .setCapabilities(PhoneAccount.CAPABILITY_CALL_PROVIDER)
+                .addSupportedUriScheme(PhoneAccount.SCHEME_SIP)
+                .build());
+        assertTrue(mRegistrar.getCallCapablePhoneAccountsOfCurrentUser(PhoneAccount.SCHEME_TEL,
+                false).isEmpty());
+        assertEquals(2, mRegistrar.getCallCapablePhoneAccountsOfCurrentUser(
+                PhoneAccount.SCHEME_SIP, false).size());
+
+        mRegistrar.unregisterPhoneAccount(sipAccount);
+        assertEquals(Arrays.asList(telAccount),
+                mRegistrar.getCallCapablePhoneAccountsOfCurrentUser(PhoneAccount.SCHEME_SIP,
+                        false));
+        assertNull(mRegistrar.getPhoneAccountUnchecked(sipAccount));
+    }
+
+    /**
+     * Verifies that component resolution results are cached and dropped when the owning package
+     * changes.
+     */
+    @MediumTest
+    @Test
+    public void testComponentResolutionCache() throws Exception {
+        mComponentContextFixture.addConnectionService(makeQuickConnectionServiceComponentName(),
+                Mockito.mock(IConnectionService.class));
+        ComponentResolutionCache cache = mRegistrar.getComponentResolutionCache();
+        PhoneAccountHandle handle = makeQuickAccountHandle("id0");
+        registerAndEnableAccount(new PhoneAccount.Builder(handle, "label0")
+                .setCapabilities(PhoneAccount.CAPABILITY_CALL_PROVIDER)
+                .build());
+
+        long misses = cache.getMissCount();
+        mRegistrar.getAllPhoneAccountsOfCurrentUser();
+        mRegistrar.getAllPhoneAccountsOfCurrentUser();
+        assertEquals(misses, cache.getMissCount());
+        assertTrue(cache.getHitCount() >= 2);
+
+        Intent intent = new Intent(Intent.ACTION_PACKAGE_CHANGED, Uri.fromParts("package",
+                handle.getComponentName().getPackageName(), null));
+        cache.getPackageReceiver().onReceive(mContext, intent);
+        mRegistrar.getAllPhoneAccountsOfCurrentUser();
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    /**
+     * Verifies that a burst of changes is coalesced into fewer writes and that a forced flush
+     * persists the state.
+     */
+    @MediumTest
+    @Test
+    public void testWritesCoalesced() throws Exception {
+        stubUserSerialNumber(Process.myUserHandle(), 0L);
+        mComponentContextFixture.addConnectionService(makeQuickConnectionServiceComponentName(),
+                Mockito.mock(IConnectionService.class));
+        for (int i = 0; i < 5; i++) {
+            registerAndEnableAccount(makeQuickAccountBuilder("id" + i, i)
+                    .setCapabilities(PhoneAccount.CAPABILITY_CALL_PROVIDER)
+                    .build());
+        }
+        mRegistrar.flush();
+
+        assertTrue(mRegistrar.getWriteCount() < mRegistrar.getWriteRequestCount());
+        PhoneAccountRegistrar reloaded = createRegistrar();
+        assertEquals(5, reloaded.getAllPhoneAccounts(Process.myUserHandle()).size());
+    }
+
     @MediumTest
     @Test
     public void testSimCallManager() throws Exception {
@@ -1061,6 +1359,14 @@ public class PhoneAccountRegistrarTest extends TelecomTestCase {
         assertPhoneAccountEquals(original, copy);
     }
 
+    private PhoneAccountRegistrar createRegistrar() {
+        PhoneAccountRegistrar registrar = new PhoneAccountRegistrar(
+                mComponentContextFixture.getTestDouble().getApplicationContext(),
+                FILE_NAME, mDefaultDialerCache, mAppLabelProxy);
+        mRegistrars.add(registrar);
+        return registrar;
+    }
+
     private static <T> T roundTripXml(
             Object self,
             T input,
@@ -1094,6 +1400,40 @@ public class PhoneAccountRegistrarTest extends TelecomTestCase {
         return result;
     }
 
+    private <T> T roundTripBinary(T input, PhoneAccountRegistrar.BinarySerialization<T> binary)
+            throws Exception {
+        Log.d(this, "Input = %s", input);
+        byte[] data = toBinary(input, binary);
+        T result = binary.readFromBinary(new DataInputStream(new ByteArrayInputStream(data)),
+                MAX_VERSION, mContext);
+        Log.i(this, "result = " + result);
+        return result;
+    }
+
+    private <T> byte[] toBinary(T input, PhoneAccountRegistrar.BinarySerialization<T> binary)
+            throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        binary.writeToBinary(input, new DataOutputStream(baos), mContext);
+        return baos.toByteArray();
+    }
+
+    private static <T> byte[] toXml(T input, PhoneAccountRegistrar.XmlSerialization<T> xml,
+            Context context) throws Exception {
+        XmlSerializer serializer = new FastXmlSerializer();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        serializer.setOutput(new BufferedOutputStream(baos), "utf-8");
+        xml.writeToXml(input, serializer, context);
+        serializer.flush();
+        return baos.toByteArray();
+    }
+
+    private void stubUserSerialNumber(UserHandle userHandle, long serialNumber) {
+        when(UserManager.get(mContext).getSerialNumberForUser(userHandle))
+                .thenReturn(serialNumber);
+        when(UserManager.get(mContext).getUserForSerialNumber(serialNumber))
+                .thenReturn(userHandle);
+    }
+
     private static void assertPhoneAccountHandleEquals(PhoneAccountHandle a, PhoneAccountHandle b) {
         if (a != b) {
             assertEquals(
@@ -49,6 +49,7 @@ import com.android.internal.telecom.ITelecomService;
 import com.android.server.telecom.Call;
 import com.android.server.telecom.CallIntentProcessor;
 import com.android.server.telecom.CallState;
+import com.android.server.telecom.CallStateSnapshot;
 import com.android.server.telecom.CallsManager;
 import com.android.server.telecom.DefaultDialerCache;
 import com.android.server.telecom.PhoneAccountRegistrar;
@@ -1159,14 +1160,14 @@ public class TelecomServiceImplTest extends TelecomTestCase {
     @SmallTest
     @Test
     public void testIsInCall() throws Exception {
-        when(mFakeCallsManager.hasOngoingCalls()).thenReturn(true);
+        setCallStateSnapshot(true /* hasOngoingCalls */, false /* hasOngoingManagedCalls */);
         assertTrue(mTSIBinder.isInCall(DEFAULT_DIALER_PACKAGE, null));
     }
 
     @SmallTest
     @Test
     public void testNotIsInCall() throws Exception {
-        when(mFakeCallsManager.hasOngoingCalls()).thenReturn(false);
+        setCallStateSnapshot(false /* hasOngoingCalls */, false /* hasOngoingManagedCalls */);
         assertFalse(mTSIBinder.isInCall(DEFAULT_DIALER_PACKAGE, null));
     }
 
@@ -1181,20 +1182,20 @@ public class TelecomServiceImplTest extends TelecomTestCase {
         } catch (SecurityException e) {
             // desired result
         }
-        verify(mFakeCallsManager, never()).hasOngoingCalls();
+        verify(mFakeCallsManager, never()).getCallStateSnapshot();
     }
 
     @SmallTest
     @Test
     public void testIsInManagedCall() throws Exception {
-        when(mFakeCallsManager.hasOngoingManagedCalls()).thenReturn(true);
+        setCallStateSnapshot(true /* hasOngoingCalls */, true /* hasOngoingManagedCalls */);
         assertTrue(mTSIBinder.isInManagedCall(DEFAULT_DIALER_PACKAGE, null));
     }
 
     @SmallTest
     @Test
     public void testNotIsInManagedCall() throws Exception {
-        when(mFakeCallsManager.hasOngoingManagedCalls()).thenReturn(false);
+        setCallStateSnapshot(true /* hasOngoingCalls */, false /* hasOngoingManagedCalls */);
         assertFalse(mTSIBinder.isInManagedCall(DEFAULT_DIALER_PACKAGE, null));
     }
 
@@ -1209,7 +1210,13 @@ public class TelecomServiceImplTest extends TelecomTestCase {
         } catch (SecurityException e) {
             // desired result
         }
-        verify(mFakeCallsManager, never()).hasOngoingCalls();
+        verify(mFakeCallsManager, never()).getCallStateSnapshot();
+    }
+
+    private void setCallStateSnapshot(boolean hasOngoingCalls, boolean hasOngoingManagedCalls) {
+        when(mFakeCallsManager.getCallStateSnapshot()).thenReturn(new CallStateSnapshot(
+                1 /* version */, hasOngoingCalls, hasOngoingManagedCalls,
+                false /* hasRingingCall */, TelephonyManager.CALL_STATE_IDLE));
     }
 
     /**
@@ -108,7 +108,6 @@ import org.mockito.stubbing.Answer;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -175,6 +174,9 @@ public class TelecomSystemTest extends TelecomTestCase {
         public void reloadFromDatabase(CallerInfoLookupHelper callerInfoLookupHelper,
                 CallInfoFactory callInfoFactory, UserHandle userHandle) { }
 
+        @Override
+        public void resetLoadedCalls(UserHandle userHandle) { }
+
         @Override
         public void setCurrentUserHandle(UserHandle userHandle) {
 
@@ -378,12 +380,6 @@ public class TelecomSystemTest extends TelecomTestCase {
     @Override
     public void tearDown() throws Exception {
         mTelecomSystem.getCallsManager().waitOnHandlers();
-        LinkedList<HandlerThread> handlerThreads = mTelecomSystem.getCallsManager()
-                .getGraphHandlerThreads();
-        for (HandlerThread handlerThread : handlerThreads) {
-            handlerThread.quitSafely();
-        }
-        handlerThreads.clear();
         waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
         waitForHandlerAction(mHandlerThread.getThreadHandler(), TEST_TIMEOUT);
         // Bring down the threads that are active.
@@ -437,13 +433,15 @@ public class TelecomSystemTest extends TelecomTestCase {
     }
 
     private void setupTelecomSystem() throws Exception {
-        // Remove any cached PhoneAccount xml
-        File phoneAccountFile =
-                new File(mComponentContextFixture.getTestDouble()
-                        .getApplicationContext().getFilesDir(),
-                        PhoneAccountRegistrar.FILE_NAME);
-        if (phoneAccountFile.exists()) {
-            phoneAccountFile.delete();
+        // Remove any cached PhoneAccount state
+        for (String fileName : new String[] {PhoneAccountRegistrar.FILE_NAME,
+                PhoneAccountRegistrar.getBinaryFileName(PhoneAccountRegistrar.FILE_NAME)}) {
+            File phoneAccountFile =
+                    new File(mComponentContextFixture.getTestDouble()
+                            .getApplicationContext().getFilesDir(), fileName);
+            if (phoneAccountFile.exists()) {
+                phoneAccountFile.delete();
+            }
         }
 
         // Use actual implementations instead of mocking the interface out.